@@ -0,0 +1,82 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.data;
+
+import etomica.data.types.DataDouble;
+import etomica.data.types.DataDoubleArray;
+import etomica.units.dimensions.Null;
+import etomica.util.random.RandomMersenneTwister;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of pushing data into the averaging accumulators.
+ * AccumulatorAverageCollapsing only handles single values and so is measured
+ * separately.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(time = 1, iterations = 5)
+@Measurement(time = 1, iterations = 5)
+public class BenchAccumulatorAddData {
+
+    @Param({"1", "100"})
+    private int dataLength;
+
+    @Param({"fixed", "blockless", "covariance"})
+    private String accumulatorType;
+
+    private DataAccumulator accumulator;
+    private DataDoubleArray data;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        switch (accumulatorType) {
+            case "fixed":
+                accumulator = new AccumulatorAverageFixed(100);
+                break;
+            case "blockless":
+                accumulator = new AccumulatorAverageBlockless();
+                break;
+            default:
+                accumulator = new AccumulatorAverageCovariance(100);
+        }
+        data = new DataDoubleArray(dataLength);
+        RandomMersenneTwister random = new RandomMersenneTwister(1);
+        for (int i = 0; i < dataLength; i++) {
+            data.getData()[i] = random.nextGaussian();
+        }
+        accumulator.putDataInfo(new DataDoubleArray.DataInfoDoubleArray("data", Null.DIMENSION, new int[]{dataLength}));
+    }
+
+    @Benchmark
+    public DataAccumulator putData() {
+        accumulator.putData(data);
+        return accumulator;
+    }
+
+    @Benchmark
+    public DataAccumulator putDataCollapsing(CollapsingState state) {
+        state.accumulator.putData(state.data);
+        return state.accumulator;
+    }
+
+    @State(Scope.Benchmark)
+    public static class CollapsingState {
+        private AccumulatorAverageCollapsing accumulator;
+        private DataDouble data;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            accumulator = new AccumulatorAverageCollapsing();
+            data = new DataDouble();
+            data.x = 1.5;
+            accumulator.putDataInfo(new DataDouble.DataInfoDouble("data", Null.DIMENSION));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.data.meter;
+
+import etomica.box.Box;
+import etomica.config.ConfigurationLattice;
+import etomica.lattice.LatticeCubicFcc;
+import etomica.simulation.Simulation;
+import etomica.space.Space;
+import etomica.space.Vector;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of MeterRDF taking the RDF of a single configuration.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(time = 1, iterations = 5)
+@Measurement(time = 2, iterations = 5)
+public class BenchMeterRDF {
+
+    @Param({"500", "4000"})
+    private int numAtoms;
+
+    private MeterRDF meter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        SpeciesSpheresMono species = new SpeciesSpheresMono(sim, space);
+        sim.addSpecies(species);
+        Box box = new Box(space);
+        sim.addBox(box);
+        box.setNMolecules(species, numAtoms);
+        Vector size = space.makeVector();
+        size.E(Math.cbrt(numAtoms / 0.8));
+        box.getBoundary().setBoxSize(size);
+        new ConfigurationLattice(new LatticeCubicFcc(space), space).initializeCoordinates(box);
+        meter = new MeterRDF(space);
+        meter.setBox(box);
+        meter.getXDataSource().setXMax(4.0);
+        meter.getXDataSource().setNValues(500);
+    }
+
+    @Benchmark
+    public MeterRDF actionPerformed() {
+        meter.actionPerformed();
+        return meter;
+    }
+}
@@ -0,0 +1,50 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.integrator;
+
+import etomica.simulation.prototypes.HSMD3D;
+import etomica.util.HeapList;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of an IntegratorHard step (collision processing and
+ * event bookkeeping) for hard spheres, with collision events kept in a
+ * TreeList or a HeapList.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(time = 1, iterations = 5)
+@Measurement(time = 3, iterations = 5)
+public class BenchIntegratorHard {
+
+    @Param({"500", "4000", "32000"})
+    private int numAtoms;
+
+    @Param({"tree", "heap"})
+    private String eventList;
+
+    private HSMD3D sim;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        HSMD3D.HSMD3DParam params = new HSMD3D.HSMD3DParam();
+        params.nAtoms = numAtoms;
+        sim = new HSMD3D(params);
+        if (eventList.equals("heap")) {
+            sim.integrator.setEventList(new HeapList());
+        }
+        sim.integrator.reset();
+    }
+
+    @Benchmark
+    public long integratorStep() {
+        sim.integrator.doStep();
+        return sim.integrator.getCollisionCount();
+    }
+}
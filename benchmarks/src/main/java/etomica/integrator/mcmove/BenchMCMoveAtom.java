@@ -0,0 +1,48 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.integrator.mcmove;
+
+import etomica.config.ConfigurationLattice;
+import etomica.lattice.LatticeCubicFcc;
+import etomica.nbr.cell.PotentialMasterCell;
+import etomica.space3d.Space3D;
+import etomica.tests.TestLJMC3D;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of a single MCMoveAtom trial (including the energy
+ * calculations and cell update) for LJ atoms with PotentialMasterCell.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(time = 1, iterations = 5)
+@Measurement(time = 2, iterations = 5)
+public class BenchMCMoveAtom {
+
+    @Param({"500", "4000", "32000"})
+    private int numAtoms;
+
+    @Param({"false", "true"})
+    private boolean incrementalCells;
+
+    private TestLJMC3D sim;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sim = new TestLJMC3D(numAtoms, 1, new ConfigurationLattice(new LatticeCubicFcc(Space3D.getInstance()), Space3D.getInstance()));
+        ((PotentialMasterCell) sim.integrator.getPotentialMaster()).getNbrCellManager(sim.box).setIncrementalAssignment(incrementalCells);
+        sim.integrator.reset();
+    }
+
+    @Benchmark
+    public long trial() {
+        sim.integrator.doStep();
+        return sim.integrator.getStepCount();
+    }
+}
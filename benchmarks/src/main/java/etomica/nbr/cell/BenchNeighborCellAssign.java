@@ -0,0 +1,93 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.nbr.cell;
+
+import etomica.atom.AtomType;
+import etomica.atom.IAtom;
+import etomica.atom.IAtomList;
+import etomica.box.Box;
+import etomica.config.ConfigurationLattice;
+import etomica.lattice.LatticeCubicFcc;
+import etomica.potential.P2LennardJones;
+import etomica.potential.P2SoftSphericalTruncated;
+import etomica.simulation.Simulation;
+import etomica.space.Boundary;
+import etomica.space.Space;
+import etomica.space.Vector;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import etomica.util.random.RandomMersenneTwister;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of assigning all atoms to cells and of updating the
+ * cell of a single atom after a small displacement (as done after an MC
+ * move), with and without incremental cell assignment.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(time = 1, iterations = 5)
+@Measurement(time = 2, iterations = 5)
+public class BenchNeighborCellAssign {
+
+    @Param({"500", "4000", "32000"})
+    private int numAtoms;
+
+    @Param({"false", "true"})
+    private boolean incremental;
+
+    private NeighborCellManager cellManager;
+    private IAtomList leafList;
+    private Boundary boundary;
+    private RandomMersenneTwister random;
+    private Vector dr;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        PotentialMasterCell potentialMaster = new PotentialMasterCell(sim, 2.5, space);
+        potentialMaster.setCellRange(2);
+        SpeciesSpheresMono species = new SpeciesSpheresMono(sim, space);
+        sim.addSpecies(species);
+        P2SoftSphericalTruncated p2 = new P2SoftSphericalTruncated(space, new P2LennardJones(space), 2.5);
+        potentialMaster.addPotential(p2, new AtomType[]{species.getLeafType(), species.getLeafType()});
+        Box box = new Box(space);
+        sim.addBox(box);
+        box.setNMolecules(species, numAtoms);
+        Vector size = space.makeVector();
+        size.E(Math.cbrt(numAtoms / 0.8));
+        box.getBoundary().setBoxSize(size);
+        new ConfigurationLattice(new LatticeCubicFcc(space), space).initializeCoordinates(box);
+        cellManager = potentialMaster.getNbrCellManager(box);
+        cellManager.setIncrementalAssignment(incremental);
+        cellManager.assignCellAll();
+        leafList = box.getLeafList();
+        boundary = box.getBoundary();
+        random = new RandomMersenneTwister(1);
+        dr = space.makeVector();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void assignCellAll() {
+        cellManager.assignCellAll();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Object updateCell() {
+        IAtom atom = leafList.getAtom(random.nextInt(numAtoms));
+        dr.setRandomCube(random);
+        dr.TE(0.2);
+        atom.getPosition().PE(dr);
+        atom.getPosition().PE(boundary.centralImage(atom.getPosition()));
+        cellManager.updateCell(atom);
+        return cellManager.getCell(atom);
+    }
+}
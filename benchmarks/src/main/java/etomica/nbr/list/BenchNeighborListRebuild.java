@@ -0,0 +1,69 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.nbr.list;
+
+import etomica.atom.AtomType;
+import etomica.box.Box;
+import etomica.config.ConfigurationLattice;
+import etomica.lattice.LatticeCubicFcc;
+import etomica.potential.P2LennardJones;
+import etomica.potential.P2SoftSphericalTruncated;
+import etomica.simulation.Simulation;
+import etomica.space.Space;
+import etomica.space.Vector;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of constructing the neighbor lists for a box of LJ atoms
+ * (cell assignment followed by neighbor list construction), with the lists
+ * stored as objects or in compact arrays.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(time = 1, iterations = 5)
+@Measurement(time = 2, iterations = 5)
+public class BenchNeighborListRebuild {
+
+    @Param({"500", "4000", "32000"})
+    private int numAtoms;
+
+    @Param({"false", "true"})
+    private boolean compact;
+
+    private NeighborListManager neighborManager;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        PotentialMasterList potentialMaster = new PotentialMasterList(sim, 3.0, space);
+        SpeciesSpheresMono species = new SpeciesSpheresMono(sim, space);
+        sim.addSpecies(species);
+        P2SoftSphericalTruncated p2 = new P2SoftSphericalTruncated(space, new P2LennardJones(space), 2.5);
+        potentialMaster.addPotential(p2, new AtomType[]{species.getLeafType(), species.getLeafType()});
+        Box box = new Box(space);
+        sim.addBox(box);
+        box.setNMolecules(species, numAtoms);
+        Vector size = space.makeVector();
+        size.E(Math.cbrt(numAtoms / 0.8));
+        box.getBoundary().setBoxSize(size);
+        new ConfigurationLattice(new LatticeCubicFcc(space), space).initializeCoordinates(box);
+        neighborManager = potentialMaster.getNeighborManager(box);
+        neighborManager.setCompactStorage(compact);
+        neighborManager.reset();
+    }
+
+    @Benchmark
+    public int neighborSetup() {
+        neighborManager.reset();
+        return neighborManager.getNumUpdates();
+    }
+}
@@ -0,0 +1,88 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.potential;
+
+import etomica.atom.AtomLeafAgentManager;
+import etomica.atom.IAtomList;
+import etomica.box.Box;
+import etomica.config.ConfigurationLattice;
+import etomica.lattice.LatticeCubicSimple;
+import etomica.models.water.P2WaterSPCE;
+import etomica.models.water.SpeciesWater3P;
+import etomica.simulation.Simulation;
+import etomica.space.Space;
+import etomica.space.Vector;
+import etomica.space3d.Space3D;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of the Ewald sum energy and gradient for SPC/E water,
+ * using the parameters of the NIST SPC/E reference calculations (10A real
+ * space cutoff, at the density of the NIST 750-molecule configuration), with
+ * EwaldSummation and with EwaldSummationPME (mesh spacing of about 1A).
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(time = 1, iterations = 5)
+@Measurement(time = 3, iterations = 5)
+public class BenchEwaldSummation {
+
+    @Param({"750", "2000"})
+    private int numMolecules;
+
+    private EwaldSummation ewald;
+    private EwaldSummationPME pme;
+    private IAtomList leafList;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        SpeciesWater3P species = new SpeciesWater3P(space, false);
+        sim.addSpecies(species);
+        Box box = new Box(space);
+        sim.addBox(box);
+        box.setNMolecules(species, numMolecules);
+        double boxLength = 30 * Math.cbrt(numMolecules / 750.0);
+        Vector size = space.makeVector();
+        size.E(boxLength);
+        box.getBoundary().setBoxSize(size);
+        new ConfigurationLattice(new LatticeCubicSimple(space), space).initializeCoordinates(box);
+        EwaldSummation.MyCharge chargeH = new EwaldSummation.MyCharge(P2WaterSPCE.QH);
+        EwaldSummation.MyCharge chargeO = new EwaldSummation.MyCharge(P2WaterSPCE.QO);
+        AtomLeafAgentManager<EwaldSummation.MyCharge> chargeManager = new AtomLeafAgentManager<>(
+                a -> a.getType() == species.getHydrogenType() ? chargeH : chargeO, box);
+        double kCut = Math.sqrt(26.999) * 2 * Math.PI / boxLength;
+        ewald = new EwaldSummation(box, chargeManager, space, kCut, 10);
+        ewald.setAlpha(5.6 / boxLength);
+        int K = Integer.highestOneBit((int) Math.ceil(boxLength) - 1) << 1;
+        pme = new EwaldSummationPME(box, chargeManager, space, 5.6 / boxLength, 10, new int[]{K, K, K}, 6);
+        leafList = box.getLeafList();
+    }
+
+    @Benchmark
+    public double energy() {
+        return ewald.energy(leafList);
+    }
+
+    @Benchmark
+    public Vector[] gradient() {
+        return ewald.gradient(leafList);
+    }
+
+    @Benchmark
+    public double energyPME() {
+        return pme.energy(leafList);
+    }
+
+    @Benchmark
+    public Vector[] gradientPME() {
+        return pme.gradient(leafList);
+    }
+}
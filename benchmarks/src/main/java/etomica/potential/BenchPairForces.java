@@ -0,0 +1,91 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.potential;
+
+import etomica.atom.AtomLeafAgentManager;
+import etomica.atom.AtomType;
+import etomica.box.Box;
+import etomica.config.ConfigurationLattice;
+import etomica.lattice.LatticeCubicFcc;
+import etomica.nbr.cell.PotentialMasterCell;
+import etomica.nbr.list.PotentialMasterList;
+import etomica.simulation.Simulation;
+import etomica.space.Space;
+import etomica.space.Vector;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of computing the forces on all atoms in a box of LJ
+ * atoms with each type of PotentialMaster.  The "listCompact" master uses
+ * compact neighbor list storage (and so the fused radial pair kernel).
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(time = 1, iterations = 5)
+@Measurement(time = 2, iterations = 5)
+public class BenchPairForces {
+
+    @Param({"500", "4000", "32000"})
+    private int numAtoms;
+
+    @Param({"monatomic", "cell", "list", "listCompact"})
+    private String potentialMasterType;
+
+    private PotentialMaster potentialMaster;
+    private Box box;
+    private IteratorDirective id;
+    private PotentialCalculationForceSum forceSum;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        switch (potentialMasterType) {
+            case "monatomic":
+                potentialMaster = new PotentialMasterMonatomic(sim);
+                break;
+            case "cell":
+                potentialMaster = new PotentialMasterCell(sim, 2.5, space);
+                ((PotentialMasterCell) potentialMaster).setCellRange(2);
+                break;
+            default:
+                potentialMaster = new PotentialMasterList(sim, 3.0, space);
+        }
+        SpeciesSpheresMono species = new SpeciesSpheresMono(sim, space);
+        sim.addSpecies(species);
+        P2SoftSphericalTruncated p2 = new P2SoftSphericalTruncated(space, new P2LennardJones(space), 2.5);
+        potentialMaster.addPotential(p2, new AtomType[]{species.getLeafType(), species.getLeafType()});
+        box = new Box(space);
+        sim.addBox(box);
+        box.setNMolecules(species, numAtoms);
+        Vector size = space.makeVector();
+        size.E(Math.cbrt(numAtoms / 0.8));
+        box.getBoundary().setBoxSize(size);
+        new ConfigurationLattice(new LatticeCubicFcc(space), space).initializeCoordinates(box);
+        if (potentialMaster instanceof PotentialMasterCell) {
+            ((PotentialMasterCell) potentialMaster).getNbrCellManager(box).assignCellAll();
+        }
+        else if (potentialMaster instanceof PotentialMasterList) {
+            ((PotentialMasterList) potentialMaster).getNeighborManager(box).setCompactStorage(potentialMasterType.equals("listCompact"));
+            ((PotentialMasterList) potentialMaster).getNeighborManager(box).reset();
+        }
+        id = new IteratorDirective();
+        forceSum = new PotentialCalculationForceSum();
+        forceSum.setAgentManager(new AtomLeafAgentManager<>(a -> space.makeVector(), box));
+    }
+
+    @Benchmark
+    public PotentialCalculationForceSum forces() {
+        forceSum.reset();
+        potentialMaster.calculate(box, id, forceSum);
+        return forceSum;
+    }
+}
@@ -0,0 +1,249 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.virial;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Binary file holding the bin data from the MeterVirial*BinMultiThreaded
+ * meters.  The file has a fixed-size header (total step count, the length of
+ * the bin keys and the number of values per bin) followed by fixed-width
+ * records, each holding the bin key, the unscreened and sample counts and the
+ * values (sums) for the bin.  The file is read and written through
+ * memory-mapped buffers, so no text needs to be formatted or parsed and the
+ * data does not need to be held on the heap while reading or writing.
+ * <p>
+ * The Writer writes to a temporary file which is renamed when it is closed,
+ * so an existing file is never left partially written (which makes this
+ * suitable for checkpointing during a run).
+ */
+public class BinDataFile {
+
+    protected static final int MAGIC = 0x45564244;
+    protected static final int VERSION = 1;
+    // magic, version, key length, number of values, total count, number of records
+    protected static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8 + 8;
+    // largest region of the file that is mapped at once
+    protected static final long MAX_MAP_SIZE = 1L << 30;
+
+    protected static int recordSize(int keyLength, int numValues) {
+        return 4 * keyLength + 8 + 8 + 8 * numValues;
+    }
+
+    /**
+     * Stores x as the sum of n doubles (each holding the remainder left by
+     * the previous ones), which keeps about 16n significant digits.
+     */
+    public static void putBigDecimal(BigDecimal x, double[] values, int offset, int n) {
+        for (int i = 0; i < n; i++) {
+            double d = x.doubleValue();
+            values[offset + i] = d;
+            x = x.subtract(new BigDecimal(d));
+        }
+    }
+
+    /**
+     * Returns the BigDecimal stored by putBigDecimal.
+     */
+    public static BigDecimal getBigDecimal(double[] values, int offset, int n, MathContext mc) {
+        BigDecimal x = BigDecimal.ZERO;
+        for (int i = 0; i < n; i++) {
+            x = x.add(new BigDecimal(values[offset + i]));
+        }
+        return x.round(mc);
+    }
+
+    /**
+     * Writes a bin data file.  The number of records must be known when the
+     * writer is created, and exactly that many records must be written before
+     * it is closed.
+     */
+    public static class Writer implements Closeable {
+        protected final File file, tmpFile;
+        protected final RandomAccessFile raFile;
+        protected final FileChannel channel;
+        protected final int keyLength, numValues, recordSize;
+        protected final long numRecords, recordsPerMap;
+        protected long numWritten;
+        protected MappedByteBuffer buffer;
+
+        public Writer(String filename, long totalCount, int keyLength, int numValues, long numRecords) throws IOException {
+            this.keyLength = keyLength;
+            this.numValues = numValues;
+            this.numRecords = numRecords;
+            recordSize = recordSize(keyLength, numValues);
+            recordsPerMap = Math.max(1, MAX_MAP_SIZE / recordSize);
+            file = new File(filename);
+            tmpFile = new File(filename + ".tmp");
+            raFile = new RandomAccessFile(tmpFile, "rw");
+            raFile.setLength(HEADER_SIZE + numRecords * recordSize);
+            channel = raFile.getChannel();
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(keyLength);
+            header.putInt(numValues);
+            header.putLong(totalCount);
+            header.putLong(numRecords);
+            header.force();
+        }
+
+        public void write(int[] key, long unscreenedCount, long sampleCount, double[] values) throws IOException {
+            if (key.length != keyLength) {
+                throw new IllegalArgumentException("key length must be " + keyLength);
+            }
+            if (numWritten == numRecords) {
+                throw new IllegalStateException("all " + numRecords + " records have already been written");
+            }
+            if (buffer == null || !buffer.hasRemaining()) {
+                if (buffer != null) buffer.force();
+                long n = Math.min(recordsPerMap, numRecords - numWritten);
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + numWritten * recordSize, n * recordSize);
+            }
+            for (int i = 0; i < keyLength; i++) {
+                buffer.putInt(key[i]);
+            }
+            buffer.putLong(unscreenedCount);
+            buffer.putLong(sampleCount);
+            for (int i = 0; i < numValues; i++) {
+                buffer.putDouble(values[i]);
+            }
+            numWritten++;
+        }
+
+        /**
+         * Finishes the file and moves it into place, replacing any existing
+         * file.
+         */
+        public void close() throws IOException {
+            if (buffer != null) buffer.force();
+            buffer = null;
+            channel.close();
+            raFile.close();
+            if (numWritten != numRecords) {
+                tmpFile.delete();
+                throw new IllegalStateException("only " + numWritten + " of " + numRecords + " records were written");
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Reads a bin data file one record at a time.  Call next() to advance to
+     * each record (including the first) and then retrieve its contents.
+     */
+    public static class Reader implements Closeable {
+        protected final RandomAccessFile raFile;
+        protected final FileChannel channel;
+        protected final int keyLength, numValues, recordSize;
+        protected final long totalCount, numRecords, recordsPerMap;
+        protected long numRead;
+        protected MappedByteBuffer buffer;
+        protected final int[] key;
+        protected long unscreenedCount, sampleCount;
+        protected final double[] values;
+
+        public Reader(String filename) throws IOException {
+            raFile = new RandomAccessFile(filename, "r");
+            channel = raFile.getChannel();
+            if (channel.size() < HEADER_SIZE) {
+                close();
+                throw new IOException(filename + " is not a bin data file");
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                close();
+                throw new IOException(filename + " is not a bin data file");
+            }
+            keyLength = header.getInt();
+            numValues = header.getInt();
+            totalCount = header.getLong();
+            numRecords = header.getLong();
+            recordSize = recordSize(keyLength, numValues);
+            if (channel.size() != HEADER_SIZE + numRecords * recordSize) {
+                close();
+                throw new IOException(filename + " has the wrong size for " + numRecords + " records");
+            }
+            recordsPerMap = Math.max(1, MAX_MAP_SIZE / recordSize);
+            key = new int[keyLength];
+            values = new double[numValues];
+        }
+
+        public long getTotalCount() {
+            return totalCount;
+        }
+
+        public int getKeyLength() {
+            return keyLength;
+        }
+
+        public int getNumValues() {
+            return numValues;
+        }
+
+        public long getNumRecords() {
+            return numRecords;
+        }
+
+        /**
+         * Reads the next record, returning false if there are no more.
+         */
+        public boolean next() throws IOException {
+            if (numRead == numRecords) return false;
+            if (buffer == null || !buffer.hasRemaining()) {
+                long n = Math.min(recordsPerMap, numRecords - numRead);
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + numRead * recordSize, n * recordSize);
+            }
+            for (int i = 0; i < keyLength; i++) {
+                key[i] = buffer.getInt();
+            }
+            unscreenedCount = buffer.getLong();
+            sampleCount = buffer.getLong();
+            for (int i = 0; i < numValues; i++) {
+                values[i] = buffer.getDouble();
+            }
+            numRead++;
+            return true;
+        }
+
+        /**
+         * Returns a new IntSet holding the key of the current record.
+         */
+        public IntSet getKey() {
+            return new IntSet(key.clone());
+        }
+
+        public long getUnscreenedCount() {
+            return unscreenedCount;
+        }
+
+        public long getSampleCount() {
+            return sampleCount;
+        }
+
+        /**
+         * Returns the values of the current record.  The array is reused for
+         * the next record.
+         */
+        public double[] getValues() {
+            return values;
+        }
+
+        public void close() throws IOException {
+            buffer = null;
+            channel.close();
+            raFile.close();
+        }
+    }
+}
@@ -4,11 +4,16 @@
 
 package etomica.virial;
 
+import etomica.atom.IAtom;
 import etomica.atom.IAtomList;
+import etomica.atom.IAtomOriented;
 import etomica.box.Box;
 import etomica.molecule.IMoleculeList;
 import etomica.space.BoundaryRectangularNonperiodic;
+import etomica.space.IOrientation;
 import etomica.space.Space;
+import etomica.space.Vector;
+import etomica.space3d.IOrientationFull3D;
 
 /**
  * @author kofke
@@ -49,6 +54,24 @@ public class BoxCluster extends Box {
         return sampleCluster;
     }
 
+    /**
+     * Returns an array that indicates (for each molecule) whether the
+     * molecule differs between the configuration with the given ID and the
+     * current configuration, or null if that is not known.  This is known
+     * only when the two configurations are those before and after the most
+     * recent trial (whether the trial is still in progress, was accepted or
+     * was rejected).  Clusters can use this to recompute only the Mayer
+     * functions for pairs involving molecules that moved.
+     */
+    public boolean[] getMovedMolecules(long fromCPairID) {
+        if (movedFromID < 0) return null;
+        long thisID = getCPairSet().getID();
+        if ((fromCPairID == movedFromID && thisID == movedToID) || (fromCPairID == movedToID && thisID == movedFromID)) {
+            return moved;
+        }
+        return null;
+    }
+
     /**
      * Inform the box that a trial move has been made so it can update
      * the coordinate pairs.  If molecule is not null, only coordinate pairs 
@@ -76,6 +99,78 @@ public class BoxCluster extends Box {
 
         cPairID++;
         cPairTrialSet.reset(cPairID);
+        findMoved();
+    }
+
+    /**
+     * Determines which molecules moved, by comparing the coordinates (and
+     * orientations) of their atoms with those of the accepted configuration.
+     */
+    protected void findMoved() {
+        IMoleculeList molecules = getMoleculeList();
+        int nValues = 0;
+        for (int i=0; i<molecules.getMoleculeCount(); i++) {
+            IAtomList atoms = molecules.getMolecule(i).getChildList();
+            for (int j=0; j<atoms.getAtomCount(); j++) {
+                nValues += coordinateCount(atoms.getAtom(j));
+            }
+        }
+        if (trialCoordinates == null || trialCoordinates.length != nValues) {
+            trialCoordinates = new double[nValues];
+            acceptedCoordinates = null;
+        }
+        if (moved == null || moved.length != molecules.getMoleculeCount()) {
+            moved = new boolean[molecules.getMoleculeCount()];
+        }
+        int k = 0;
+        for (int i=0; i<molecules.getMoleculeCount(); i++) {
+            IAtomList atoms = molecules.getMolecule(i).getChildList();
+            moved[i] = false;
+            for (int j=0; j<atoms.getAtomCount(); j++) {
+                int k0 = k;
+                k = copyCoordinates(atoms.getAtom(j), trialCoordinates, k);
+                if (acceptedCoordinates == null) continue;
+                for (int l=k0; l<k; l++) {
+                    if (trialCoordinates[l] != acceptedCoordinates[l]) {
+                        moved[i] = true;
+                        break;
+                    }
+                }
+            }
+        }
+        if (acceptedCoordinates == null) {
+            movedFromID = -1;
+        }
+        else {
+            movedFromID = cPairSet.getID();
+            movedToID = cPairID;
+        }
+    }
+
+    protected int coordinateCount(IAtom atom) {
+        int D = space.D();
+        if (!(atom instanceof IAtomOriented)) return D;
+        IOrientation orientation = ((IAtomOriented)atom).getOrientation();
+        return orientation instanceof IOrientationFull3D ? 3*D : 2*D;
+    }
+
+    protected int copyCoordinates(IAtom atom, double[] coordinates, int k) {
+        k = copyVector(atom.getPosition(), coordinates, k);
+        if (atom instanceof IAtomOriented) {
+            IOrientation orientation = ((IAtomOriented)atom).getOrientation();
+            k = copyVector(orientation.getDirection(), coordinates, k);
+            if (orientation instanceof IOrientationFull3D) {
+                k = copyVector(((IOrientationFull3D)orientation).getSecondaryDirection(), coordinates, k);
+            }
+        }
+        return k;
+    }
+
+    protected int copyVector(Vector v, double[] coordinates, int k) {
+        for (int d=0; d<v.getD(); d++) {
+            coordinates[k++] = v.getX(d);
+        }
+        return k;
     }
 
     /**
@@ -92,6 +187,9 @@ public class BoxCluster extends Box {
 		cPairSetTmp = cPairSet;
 		cPairSet = cPairTrialSet;
 		cPairTrialSet = cPairSetTmp;
+		double[] tmp = acceptedCoordinates;
+		acceptedCoordinates = trialCoordinates;
+		trialCoordinates = tmp == null ? new double[acceptedCoordinates.length] : tmp;
 	}
 
     /**
@@ -110,6 +208,10 @@ public class BoxCluster extends Box {
 	protected CoordinatePairSet cPairSet, cPairTrialSet, cPairSetTmp;
     protected AtomPairSet aPairSet;
     protected long cPairID;
+    // coordinates of the accepted and trial configurations, and the molecules that differ between them
+    protected double[] acceptedCoordinates, trialCoordinates;
+    protected boolean[] moved;
+    protected long movedFromID = -1, movedToID = -1;
 	protected final ClusterWeight sampleCluster;
 	protected final Space space;
 }
@@ -92,6 +92,23 @@ public class ClusterSum implements ClusterAbstract, java.io.Serializable {
         this.doCaching = doCaching;
     }
 
+    /**
+     * Sets whether Mayer functions are recomputed only for pairs involving
+     * molecules that moved since the configuration for which they were last
+     * computed (as reported by BoxCluster.getMovedMolecules).  This requires
+     * that each Mayer function depend only on the configuration of the two
+     * molecules in the pair.  When a trial is rejected, the previous values
+     * are restored rather than recomputed.  The default is false.
+     */
+    public void setIncrementalUpdate(boolean doIncremental) {
+        this.doIncremental = doIncremental;
+        fValuesID = -1;
+    }
+
+    public boolean getIncrementalUpdate() {
+        return doIncremental;
+    }
+
     // equal point count enforced in constructor 
     public int pointCount() {
         return clusters[0].pointCount();
@@ -101,6 +118,7 @@ public class ClusterSum implements ClusterAbstract, java.io.Serializable {
         ClusterSum copy = new ClusterSum(clusters,clusterWeights,f);
         copy.setTemperature(1/beta);
         copy.setCaching(doCaching);
+        copy.setIncrementalUpdate(doIncremental);
         return copy;
     }
 
@@ -118,6 +136,7 @@ public class ClusterSum implements ClusterAbstract, java.io.Serializable {
                 // cluster was a trial that was rejected.  so drop the most recent value/ID
                 cPairID = lastCPairID;
                 value = lastValue;
+                if (doIncremental) restoreF(cPairID);
 //                System.out.println("clusterSum "+cPairID+" returning previous recent "+lastValue);
                 return value;
             }
@@ -165,9 +184,38 @@ public class ClusterSum implements ClusterAbstract, java.io.Serializable {
         for (int k=0; k<f.length; k++) {
             f[k].setBox(box);
         }
-        // recalculate all f values for all pairs
+        long thisCPairID = cPairs.getID();
+        boolean[] moved = null;
+        if (doIncremental) {
+            moved = box.getMovedMolecules(fValuesID);
+            if (moved == null) {
+                // we might have values for a rejected trial; go back to
+                // the previous configuration and update from there
+                restoreF(oldFromID);
+                moved = box.getMovedMolecules(fValuesID);
+            }
+        }
+        if (moved != null) {
+            if (fValuesOld == null) {
+                fValuesOld = new double[nPoints][nPoints][];
+                for (int i=0; i<nPoints-1; i++) {
+                    for (int j=i+1; j<nPoints; j++) {
+                        fValuesOld[i][j] = new double[fValues[i][j].length];
+                    }
+                }
+                movedOld = new boolean[nPoints];
+            }
+            System.arraycopy(moved, 0, movedOld, 0, nPoints);
+            oldFromID = fValuesID;
+            oldToID = thisCPairID;
+        }
+        // recalculate f values for all pairs (or just those that moved)
         for(int i=0; i<nPoints-1; i++) {
             for(int j=i+1; j<nPoints; j++) {
+                if (moved != null) {
+                    if (!moved[i] && !moved[j]) continue;
+                    System.arraycopy(fValues[i][j], 0, fValuesOld[i][j], 0, fValues[i][j].length);
+                }
                 // only update the mayer functions that we'll need for this pair
                 int[] fij = fullBondIndexArray[i][j];
                 for(int k=0; k<fij.length; k++) {
@@ -188,6 +236,30 @@ public class ClusterSum implements ClusterAbstract, java.io.Serializable {
                 }
             }
         }
+        fValuesID = thisCPairID;
+    }
+
+    /**
+     * Restores the Mayer function values for the configuration with the
+     * given ID (that preceded the current one), if the values changed by the
+     * most recent incremental update are available.
+     */
+    protected void restoreF(long toCPairID) {
+        if (fValuesID == toCPairID || fValuesID != oldToID || toCPairID != oldFromID) return;
+        int nPoints = pointCount();
+        for(int i=0; i<nPoints-1; i++) {
+            for(int j=i+1; j<nPoints; j++) {
+                if (!movedOld[i] && !movedOld[j]) continue;
+                int[] fij = fullBondIndexArray[i][j];
+                for(int k=0; k<fij.length; k++) {
+                    int fk = fij[k];
+                    fValues[i][j][fk] = fValuesOld[i][j][fk];
+                    fValues[j][i][fk] = fValuesOld[i][j][fk];
+                }
+            }
+        }
+        fValuesID = toCPairID;
+        oldToID = -1;
     }
     
     public ClusterBonds[] getClusters() {return clusters;}
@@ -203,6 +275,7 @@ public class ClusterSum implements ClusterAbstract, java.io.Serializable {
      */
     public void setTemperature(double temperature) {
         beta = 1/temperature;
+        fValuesID = -1;
     }
 
     public double[][][] getFValues() {
@@ -220,4 +293,10 @@ public class ClusterSum implements ClusterAbstract, java.io.Serializable {
     protected double value, lastValue;
     protected double beta;
     protected boolean doCaching = true;
+    protected boolean doIncremental = false;
+    // configuration for which fValues were computed, and the values (for
+    // moved pairs) before the last incremental update
+    protected long fValuesID = -1, oldFromID = -1, oldToID = -1;
+    protected double[][][] fValuesOld;
+    protected boolean[] movedOld;
 }
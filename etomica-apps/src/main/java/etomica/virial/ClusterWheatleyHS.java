@@ -35,6 +35,7 @@ public class ClusterWheatleyHS implements ClusterWheatley {
     protected int cliqueCount, eCliqueCount;
     protected boolean precalcQ = true;
     protected final int[] cliqueList, eCliqueList;
+    protected WheatleyRecursionParallel parallelRecursion;
 
     public ClusterWheatleyHS(int nPoints, MayerFunction f) {
         this.n = nPoints;
@@ -57,9 +58,35 @@ public class ClusterWheatleyHS implements ClusterWheatley {
     public ClusterAbstract makeCopy() {
         ClusterWheatleyHS c = new ClusterWheatleyHS(n, f);
         c.setTemperature(1/beta);
+        c.setNumThreads(getNumThreads());
         return c;
     }
 
+    /**
+     * Sets the number of threads used to evaluate the recursion for each
+     * configuration.  The default is 1.  Additional threads only help for
+     * larger clusters; see WheatleyRecursionParallel.
+     */
+    public void setNumThreads(int newNumThreads) {
+        if (newNumThreads < 1) {
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+        }
+        if (newNumThreads == getNumThreads()) {
+            return;
+        }
+        if (parallelRecursion != null) {
+            parallelRecursion.shutdown();
+            parallelRecursion = null;
+        }
+        if (newNumThreads > 1) {
+            parallelRecursion = new WheatleyRecursionParallel(n, newNumThreads);
+        }
+    }
+
+    public int getNumThreads() {
+        return parallelRecursion == null ? 1 : parallelRecursion.getNumThreads();
+    }
+
     public int pointCount() {
         return n;
     }
@@ -257,6 +284,66 @@ public class ClusterWheatleyHS implements ClusterWheatley {
             calcFullFQ(box);
         }
 
+        int nf = 1<<n;
+        if (parallelRecursion != null) {
+            parallelRecursion.calc(fQ, fC, fA, fB);
+        }
+        else {
+            calcRecursion();
+        }
+
+        value = (1-n)*fB[nf-1]/SpecialFunctions.factorial(n);
+        if (value != 0) {
+            notzero++;
+            // disable check above and then enable this to see if non-zero
+            // configurations would be screened
+            if (false && !checkConfig(box)) {
+                Graph g = new GraphImpl((byte)n);
+                for (int i=0; i<n-1; i++) {
+                    for (int j=i+1; j<n; j++) {
+                        if ((fullBondMask[i] & (1<<j)) != 0) {
+                            g.putEdge((byte)i, (byte)j);
+                        }
+                    }
+                }
+//                MaxIsomorph maxIso = new MaxIsomorph();
+//                MaxIsomorphParameters mip = new MaxIsomorphParameters(new GraphOpNull(), MaxIsomorph.PROPERTY_ALL);
+//                g = maxIso.apply(g, mip);
+                String s = g.getStore().toNumberString();
+                System.out.println("**** oops thought this was zero: "+s);
+                checkConfig(box);
+            }
+        }
+        else if (false) {
+            // enable this to see what zero-value configurations are not being
+            // screened
+            Graph g = new GraphImpl((byte)n);
+            for (int i=0; i<n-1; i++) {
+                for (int j=i+1; j<n; j++) {
+                    if ((fullBondMask[i] & (1<<j)) != 0) {
+                        g.putEdge((byte)i, (byte)j);
+                    }
+                }
+            }
+            MaxIsomorph maxIso = new MaxIsomorph();
+            MaxIsomorphParameters mip = new MaxIsomorphParameters(new GraphOpNull(), MaxIsomorph.PROPERTY_ALL);
+            g = maxIso.apply(g, mip);
+            String s = g.getStore().toNumberString();
+            if (!zeroMaps.contains(s)) {
+                System.out.println(s+" is zero");
+                zeroMaps.add(s);
+                for (String ss : zeroMaps) {
+                    System.out.print(ss+",");
+                }
+                System.out.println();
+            }
+        }
+    }
+    
+    /**
+     * Computes fC, fA and fB from fQ on the calling thread.
+     */
+    protected void calcRecursion() {
         int nf = 1<<n;
         //Compute the fC's
         for(int i=1; i<nf; i++) {
@@ -378,55 +465,8 @@ public class ClusterWheatleyHS implements ClusterWheatley {
                 fB[i] -= fA[i];//remove from B graphs that contain articulation point at v
             }
         }
-
-        value = (1-n)*fB[nf-1]/SpecialFunctions.factorial(n);
-        if (value != 0) {
-            notzero++;
-            // disable check above and then enable this to see if non-zero
-            // configurations would be screened
-            if (false && !checkConfig(box)) {
-                Graph g = new GraphImpl((byte)n);
-                for (int i=0; i<n-1; i++) {
-                    for (int j=i+1; j<n; j++) {
-                        if ((fullBondMask[i] & (1<<j)) != 0) {
-                            g.putEdge((byte)i, (byte)j);
-                        }
-                    }
-                }
-//                MaxIsomorph maxIso = new MaxIsomorph();
-//                MaxIsomorphParameters mip = new MaxIsomorphParameters(new GraphOpNull(), MaxIsomorph.PROPERTY_ALL);
-//                g = maxIso.apply(g, mip);
-                String s = g.getStore().toNumberString();
-                System.out.println("**** oops thought this was zero: "+s);
-                checkConfig(box);
-            }
-        }
-        else if (false) {
-            // enable this to see what zero-value configurations are not being
-            // screened
-            Graph g = new GraphImpl((byte)n);
-            for (int i=0; i<n-1; i++) {
-                for (int j=i+1; j<n; j++) {
-                    if ((fullBondMask[i] & (1<<j)) != 0) {
-                        g.putEdge((byte)i, (byte)j);
-                    }
-                }
-            }
-            MaxIsomorph maxIso = new MaxIsomorph();
-            MaxIsomorphParameters mip = new MaxIsomorphParameters(new GraphOpNull(), MaxIsomorph.PROPERTY_ALL);
-            g = maxIso.apply(g, mip);
-            String s = g.getStore().toNumberString();
-            if (!zeroMaps.contains(s)) {
-                System.out.println(s+" is zero");
-                zeroMaps.add(s);
-                for (String ss : zeroMaps) {
-                    System.out.print(ss+",");
-                }
-                System.out.println();
-            }
-        }
     }
-    
+
     /**
      * Returns edgeCount (number of overlaps) of configuration passed to
      * checkConfig
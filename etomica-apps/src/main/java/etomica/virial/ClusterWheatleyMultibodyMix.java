@@ -82,6 +82,7 @@ public class ClusterWheatleyMultibodyMix extends ClusterWheatleySoftMix {
     public ClusterAbstract makeCopy() {
         ClusterWheatleyMultibodyMix c = new ClusterWheatleyMultibodyMix(n, nTypes, mixF, mixFMulti3, tol, nonAdditiveOnly);
         c.setTemperature(1/beta);
+        c.setNumThreads(getNumThreads());
         return c;
     }
 
@@ -28,6 +28,13 @@ public class ClusterWheatleySoft implements ClusterAbstract {
     protected ClusterWheatleySoftBD clusterBD;
     protected boolean debug = false;
     protected boolean doCaching = true;
+    protected WheatleyRecursionParallel parallelRecursion;
+    protected boolean doIncremental = false;
+    // configuration for which the pair fQ values were computed, and the
+    // values (for moved pairs) before the last incremental update
+    protected long fQID = -1, oldFromID = -1, oldToID = -1;
+    protected double[] fQOld;
+    protected boolean[] movedOld;
 
     public ClusterWheatleySoft(int nPoints, MayerFunction f, double tol) {
         this.n = nPoints;
@@ -51,10 +58,51 @@ public class ClusterWheatleySoft implements ClusterAbstract {
         }
     }
 
+    /**
+     * Sets the number of threads used to evaluate the recursion for each
+     * configuration.  The default is 1.  Additional threads only help for
+     * larger clusters; see WheatleyRecursionParallel.
+     */
+    public void setNumThreads(int newNumThreads) {
+        if (newNumThreads < 1) {
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+        }
+        if (newNumThreads == getNumThreads()) {
+            return;
+        }
+        if (parallelRecursion != null) {
+            parallelRecursion.shutdown();
+            parallelRecursion = null;
+        }
+        if (newNumThreads > 1) {
+            parallelRecursion = new WheatleyRecursionParallel(n, newNumThreads);
+        }
+    }
+
+    /**
+     * Sets whether Mayer functions are recomputed only for pairs involving
+     * molecules that moved (see ClusterSum.setIncrementalUpdate).  The
+     * default is false.
+     */
+    public void setIncrementalUpdate(boolean doIncremental) {
+        this.doIncremental = doIncremental;
+        fQID = -1;
+    }
+
+    public boolean getIncrementalUpdate() {
+        return doIncremental;
+    }
+
+    public int getNumThreads() {
+        return parallelRecursion == null ? 1 : parallelRecursion.getNumThreads();
+    }
+
     public ClusterAbstract makeCopy() {
         ClusterWheatleySoft c = new ClusterWheatleySoft(n, f, tol);
         c.setTemperature(1/beta);
         c.setDoCaching(doCaching);
+        c.setNumThreads(getNumThreads());
+        c.setIncrementalUpdate(doIncremental);
         return c;
     }
 
@@ -74,6 +122,7 @@ public class ClusterWheatleySoft implements ClusterAbstract {
                 // cluster was a trial that was rejected.  so drop the most recent value/ID
                 cPairID = lastCPairID;
                 value = lastValue;
+                if (doIncremental) restoreF(cPairID);
                 return value;
             }
     
@@ -145,6 +194,33 @@ public class ClusterWheatleySoft implements ClusterAbstract {
         }
         calcFullFQ(box);
 
+        int nf = 1<<n;
+        if (parallelRecursion != null) {
+            parallelRecursion.calc(fQ, fC, fA, fB);
+        }
+        else {
+            calcRecursion();
+        }
+
+        if (Math.abs(fB[nf-1]) < tol) {
+            if (clusterBD != null) {
+                value = clusterBD.value(box);
+            }
+            else {
+                value = 0;
+            }
+            return;
+        }
+        value = (1-n)*fB[nf-1]/SpecialFunctions.factorial(n);
+        if (pushme && maxR2 > 2*2) {
+//            value *= Math.pow(maxR2/4, 6);
+        }
+    }
+
+    /**
+     * Computes fC, fA and fB from fQ on the calling thread.
+     */
+    protected void calcRecursion() {
         int nf = 1<<n;
         //Compute the fC's
         for(int i=1; i<nf; i++) {
@@ -266,19 +342,6 @@ public class ClusterWheatleySoft implements ClusterAbstract {
                 fB[i] -= fA[i];//remove from B graphs that contain articulation point at v
             }
         }
-        if (Math.abs(fB[nf-1]) < tol) {
-            if (clusterBD != null) {
-                value = clusterBD.value(box);
-            }
-            else {
-                value = 0;
-            }
-            return;
-        }
-        value = (1-n)*fB[nf-1]/SpecialFunctions.factorial(n);
-        if (pushme && maxR2 > 2*2) {
-//            value *= Math.pow(maxR2/4, 6);
-        }
     }
 
     protected void updateF(BoxCluster box) {
@@ -286,9 +349,33 @@ public class ClusterWheatleySoft implements ClusterAbstract {
         AtomPairSet aPairs = box.getAPairSet();
 
         f.setBox(box);
-        // recalculate all f values for all pairs
+        long thisCPairID = cPairs.getID();
+        boolean[] moved = null;
+        if (doIncremental) {
+            moved = box.getMovedMolecules(fQID);
+            if (moved == null) {
+                // we might have values for a rejected trial; go back to
+                // the previous configuration and update from there
+                restoreF(oldFromID);
+                moved = box.getMovedMolecules(fQID);
+            }
+        }
+        if (moved != null) {
+            if (fQOld == null) {
+                fQOld = new double[fQ.length];
+                movedOld = new boolean[n];
+            }
+            System.arraycopy(moved, 0, movedOld, 0, n);
+            oldFromID = fQID;
+            oldToID = thisCPairID;
+        }
+        // recalculate f values for all pairs (or just those that moved)
         for(int i=0; i<n-1; i++) {
             for(int j=i+1; j<n; j++) {
+                if (moved != null) {
+                    if (!moved[i] && !moved[j]) continue;
+                    fQOld[(1<<i)|(1<<j)] = fQ[(1<<i)|(1<<j)];
+                }
                 double ff = f.f(aPairs.getAPair(i,j),cPairs.getr2(i,j), beta);
                 if (false && Double.isNaN(ff)) {
                     f.f(aPairs.getAPair(i,j),cPairs.getr2(i,j), beta);
@@ -298,10 +385,29 @@ public class ClusterWheatleySoft implements ClusterAbstract {
                 fQ[(1<<i)|(1<<j)] = ff+1;
             }
         }
+        fQID = thisCPairID;
+    }
+
+    /**
+     * Restores the pair fQ values for the configuration with the given ID
+     * (that preceded the current one), if the values changed by the most
+     * recent incremental update are available.
+     */
+    protected void restoreF(long toCPairID) {
+        if (fQID == toCPairID || fQID != oldToID || toCPairID != oldFromID) return;
+        for(int i=0; i<n-1; i++) {
+            for(int j=i+1; j<n; j++) {
+                if (!movedOld[i] && !movedOld[j]) continue;
+                fQ[(1<<i)|(1<<j)] = fQOld[(1<<i)|(1<<j)];
+            }
+        }
+        fQID = toCPairID;
+        oldToID = -1;
     }
 
     public void setTemperature(double temperature) {
         beta = 1/temperature;
+        fQID = -1;
         if (clusterBD != null) {
             clusterBD.setTemperature(temperature);
         }
@@ -44,6 +44,7 @@ public class ClusterWheatleySoftMix extends ClusterWheatleySoft {
         ClusterWheatleySoftMix c = new ClusterWheatleySoftMix(n, nTypes, mixF, tol);
         c.setTemperature(1/beta);
         c.setDoCaching(doCaching);
+        c.setNumThreads(getNumThreads());
         return c;
     }
 
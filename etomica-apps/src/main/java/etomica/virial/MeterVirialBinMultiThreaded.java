@@ -33,6 +33,12 @@ import etomica.virial.IntSet.PropertyBin;
  * that the various instances of the meter do not concurrently use the Map in
  * a way that causes problems.  Many of the operations need only be approximate
  * and the class avoids forcing synchronization for such operations.
+ * <p>
+ * When the Map is shared, each meter collects the data for its own thread in
+ * a separate Map and adds it to the shared Map every flushInterval steps, so
+ * that the threads rarely need to lock the shared Map or its MyData while
+ * sampling.  flushLocalData must be called when each thread's simulation is
+ * finished, before the shared data is written or analyzed.
  */
 public class MeterVirialBinMultiThreaded implements IAction {
 
@@ -50,6 +56,13 @@ public class MeterVirialBinMultiThreaded implements IAction {
 //    protected long lastCPairID, lastLastCPairID;
     protected boolean excludeBogusConfigs = false;
     protected static boolean quiet = false;
+    // data collected by this thread since the last flush (only when allMyData is shared)
+    protected final Map<IntSet,LocalData> localData;
+    protected long flushInterval = 10000, flushCountdown = 10000;
+    // steps taken by this thread since the last flush
+    protected long unflushedCount;
+    protected String checkpointFilename;
+    protected long checkpointInterval, nextCheckpointStep = Long.MAX_VALUE;
 
     /**
      * Constructor for MeterVirial.
@@ -63,6 +76,7 @@ public class MeterVirialBinMultiThreaded implements IAction {
         this.targetCluster = targetCluster;
         this.random = random;
         this.allMyData = allMyData == null ? new HashMap<IntSet,MyData>() : allMyData;
+        localData = allMyData == null ? null : new HashMap<IntSet,LocalData>();
         property = prop;
         this.totalCount = totalCount;
         this.iThread = iThread;
@@ -106,16 +120,30 @@ public class MeterVirialBinMultiThreaded implements IAction {
             }
             if (tc >= nextReweightStep) {
                 // this thread will be recomputing weights for all threads
+                flushLocalData();
                 synchronized (allMyData) {
                     recomputeWeights();
                 }
                 nextReweightStep = tc*2;
             }
+            if (tc >= nextCheckpointStep) {
+                writeBinaryData(checkpointFilename);
+                nextCheckpointStep = tc + checkpointInterval;
+            }
         }
         // this can have thread trouble, but it only matter if we're going to
         // reweight, and (even then) only slightly effects the outcome of
         // reweighting
-        totalCount[iThread]++;
+        if (localData == null) {
+            totalCount[iThread]++;
+        }
+        else {
+            if (--flushCountdown == 0) {
+                flushLocalData();
+            }
+            // this step is counted when its data is flushed
+            unflushedCount++;
+        }
 
         boolean hasNonZeroValue = targetCluster.checkConfig(box);
         if (!hasNonZeroValue) {
@@ -125,24 +153,39 @@ public class MeterVirialBinMultiThreaded implements IAction {
         }
         IntSet propValue = property.value();
         MyData amd;
-        synchronized (allMyData) {
-            // this needs to be synchronized to trying retrieving a value here
-            // and while adding that same key/value below.
-            amd = allMyData.get(propValue);
-            if (amd == null) {
-                IntSet pvCopy = propValue.copy();
-                amd = new MyData();
-                amd.weight = nominalWeight;
-                allMyData.put(pvCopy, amd);
+        double myWeight;
+        if (localData != null) {
+            // the shared Map is only needed the first time this bin is
+            // visited since the last flush
+            LocalData ld = localData.get(propValue);
+            if (ld == null) {
+                ld = new LocalData(getSharedData(propValue), new MyData());
+                localData.put(propValue.copy(), ld);
+            }
+            amd = ld.data;
+            amd.unscreenedCount++;
+            myWeight = ld.shared.weight;
+        }
+        else {
+            synchronized (allMyData) {
+                // this needs to be synchronized to trying retrieving a value here
+                // and while adding that same key/value below.
+                amd = allMyData.get(propValue);
+                if (amd == null) {
+                    IntSet pvCopy = propValue.copy();
+                    amd = new MyData();
+                    amd.weight = nominalWeight;
+                    allMyData.put(pvCopy, amd);
 //                int foo = allMyData.size();
 //                if (foo == 1<<(int)(Math.log(foo)/Math.log(2))) {
 //                    System.out.println(foo+" sets, "+totalCount/foo+" steps/set");
 //                }
-            }
+                }
 
-            amd.unscreenedCount++;
+                amd.unscreenedCount++;
+            }
+            myWeight = amd.weight;
         }
-        double myWeight = amd.weight;
         if (myWeight < 1 && myWeight < random.nextDouble()) {
 //            lastLastCPairID = lastCPairID;
 //            lastCPairID = box.getCPairSet().getID();
@@ -157,15 +200,81 @@ public class MeterVirialBinMultiThreaded implements IAction {
             x = v/pi;
         }
 
-        synchronized (amd) {
-            // synchronize to prevent recomputeWeights from reading data now
+        if (localData != null) {
+            // only this thread uses amd
             amd.addData(x);
         }
+        else {
+            synchronized (amd) {
+                // synchronize to prevent recomputeWeights from reading data now
+                amd.addData(x);
+            }
+        }
 //        lastLastCPairID = lastCPairID;
 //        lastCPairID = box.getCPairSet().getID();
     }
     
+    /**
+     * Returns the shared data for the given bin, creating it if needed.
+     */
+    protected MyData getSharedData(IntSet propValue) {
+        synchronized (allMyData) {
+            MyData amd = allMyData.get(propValue);
+            if (amd == null) {
+                amd = new MyData();
+                amd.weight = nominalWeight;
+                allMyData.put(propValue.copy(), amd);
+            }
+            return amd;
+        }
+    }
+
+    /**
+     * Sets the number of steps between additions of this thread's data to
+     * the shared Map.  Default is 10000.
+     */
+    public void setFlushInterval(long newFlushInterval) {
+        if (newFlushInterval < 1) {
+            throw new IllegalArgumentException("flush interval must be positive");
+        }
+        flushInterval = newFlushInterval;
+        flushCountdown = newFlushInterval;
+    }
+
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * Adds the data collected by this thread since the last flush to the
+     * shared Map.  This happens periodically during the simulation, and
+     * should also be called (by this thread, or after it has finished) when
+     * the simulation is done.
+     */
+    public void flushLocalData() {
+        if (localData == null) return;
+        synchronized (allMyData) {
+            for (LocalData ld : localData.values()) {
+                MyData shared = ld.shared;
+                MyData data = ld.data;
+                synchronized (shared) {
+                    shared.unscreenedCount += data.unscreenedCount;
+                    shared.sampleCount += data.sampleCount;
+                    shared.sum += data.sum;
+                    shared.sum2 += data.sum2;
+                }
+            }
+            // the steps are included in the total count along with their data
+            totalCount[iThread] += unflushedCount;
+            unflushedCount = 0;
+        }
+        // start over so that memory use is limited by the flush interval
+        localData.clear();
+        flushCountdown = flushInterval;
+    }
+
     public void writeData(String filename) {
+        flushLocalData();
         long tc = 0;
         for (int i=0; i<totalCount.length; i++) {
             tc += totalCount[i];
@@ -191,6 +300,64 @@ public class MeterVirialBinMultiThreaded implements IAction {
         }
     }
 
+    /**
+     * Directs thread 0 to write all data to the given binary file (see
+     * writeBinaryData) every interval steps (counting all threads).  Data
+     * other threads have not yet flushed to the shared Map is not included,
+     * and neither are the steps in which it was collected.
+     */
+    public void setCheckpoint(String filename, long interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("checkpoint interval must be positive");
+        }
+        checkpointFilename = filename;
+        checkpointInterval = interval;
+        nextCheckpointStep = getTotalCount() + interval;
+    }
+
+    /**
+     * Writes all data to the given file in binary form (see BinDataFile).
+     * This can be called while the simulation is running.
+     */
+    public void writeBinaryData(String filename) {
+        flushLocalData();
+        synchronized (allMyData) {
+            writeBinaryData(filename, allMyData, getTotalCount());
+        }
+    }
+
+    /**
+     * Writes allMyData to the given file in binary form (see BinDataFile).
+     * The values for each bin are sum and sum2.
+     */
+    public static void writeBinaryData(String filename, Map<IntSet,MyData> allMyData, long totalCount) {
+        try {
+            synchronized (allMyData) {
+                List<IntSet> pvs = new ArrayList<IntSet>();
+                pvs.addAll(allMyData.keySet());
+                Collections.sort(pvs);
+                int keyLength = pvs.size() > 0 ? pvs.get(0).v.length : 0;
+                try (BinDataFile.Writer writer = new BinDataFile.Writer(filename, totalCount, keyLength, 2, pvs.size())) {
+                    double[] values = new double[2];
+                    for (IntSet pv : pvs) {
+                        MyData amd = allMyData.get(pv);
+                        long usc, sampleCount;
+                        synchronized (amd) {
+                            usc = amd.unscreenedCount;
+                            sampleCount = amd.sampleCount;
+                            values[0] = amd.sum;
+                            values[1] = amd.sum2;
+                        }
+                        writer.write(pv.v, usc, sampleCount, values);
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public void writeWeights(String filename) {
         writeWeights(filename, allMyData);
     }
@@ -285,6 +452,42 @@ public class MeterVirialBinMultiThreaded implements IAction {
         }
     }
 
+    /**
+     * Reads data written by writeBinaryData from each of the given files
+     * (those that exist) and adds it to the data here.
+     */
+    public void readBinaryData(String[] filenames) {
+        try {
+            for (String filename : filenames) {
+                File f = new File(filename);
+                if (!f.exists()) continue;
+                try (BinDataFile.Reader reader = new BinDataFile.Reader(filename)) {
+                    if (reader.getNumValues() != 2) {
+                        throw new RuntimeException(filename+" has "+reader.getNumValues()+" values per bin, but I expect 2");
+                    }
+                    totalCount[iThread] += reader.getTotalCount();
+                    while (reader.next()) {
+                        IntSet pv = reader.getKey();
+                        MyData amd = allMyData.get(pv);
+                        if (amd == null) {
+                            amd = new MyData();
+                            amd.weight = nominalWeight;
+                            allMyData.put(pv, amd);
+                        }
+                        double[] values = reader.getValues();
+                        amd.unscreenedCount += reader.getUnscreenedCount();
+                        amd.sampleCount += reader.getSampleCount();
+                        amd.sum += values[0];
+                        amd.sum2 += values[1];
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public void readWeights(String filename) {
         File f = new File(filename);
         if (!f.exists()) return;
@@ -468,6 +671,19 @@ public class MeterVirialBinMultiThreaded implements IAction {
         return tc;
     }
 
+    /**
+     * Data collected by one thread for a bin, along with the shared data for
+     * that bin.
+     */
+    protected static class LocalData {
+        public final MyData shared, data;
+
+        public LocalData(MyData shared, MyData data) {
+            this.shared = shared;
+            this.data = data;
+        }
+    }
+
     public static class MyData {
         public long unscreenedCount, sampleCount;
         public double weight;
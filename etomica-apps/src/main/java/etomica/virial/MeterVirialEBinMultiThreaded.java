@@ -25,6 +25,12 @@ import java.util.*;
  * that the various instances of the meter do not concurrently use the Map in
  * a way that causes problems.  Many of the operations need only be approximate
  * and the class avoids forcing synchronization for such operations.
+ * <p>
+ * When the Map is shared, each meter collects the data for its own thread in
+ * a separate Map and adds it to the shared Map every flushInterval steps, so
+ * that the threads rarely need to lock the shared Map or its MyData while
+ * sampling.  flushLocalData must be called when each thread's simulation is
+ * finished, before the shared data is written or analyzed.
  */
 public class MeterVirialEBinMultiThreaded implements IAction {
 
@@ -41,6 +47,13 @@ public class MeterVirialEBinMultiThreaded implements IAction {
     protected double nominalWeight = 1;
     protected int iThread;
     protected static boolean quiet = false;
+    // data collected by this thread since the last flush (only when allMyData is shared)
+    protected final Map<IntSet,LocalData> localData;
+    protected long flushInterval = 10000, flushCountdown = 10000;
+    // steps taken by this thread since the last flush
+    protected long unflushedCount;
+    protected String checkpointFilename;
+    protected long checkpointInterval, nextCheckpointStep = Long.MAX_VALUE;
     protected boolean doCov = false;
 
     /**
@@ -55,6 +68,7 @@ public class MeterVirialEBinMultiThreaded implements IAction {
         this.targetCluster = targetCluster;
         this.random = random;
         this.allMyData = allMyData == null ? new HashMap<IntSet,MyData>() : allMyData;
+        localData = allMyData == null ? null : new HashMap<IntSet,LocalData>();
         property = prop;
         this.totalCount = totalCount;
         this.iThread = iThread;
@@ -91,16 +105,30 @@ public class MeterVirialEBinMultiThreaded implements IAction {
             }
             if (tc >= nextReweightStep) {
                 // this thread will be recomputing weights for all threads
+                flushLocalData();
                 synchronized (allMyData) {
                     recomputeWeights();
                 }
                 nextReweightStep = tc*2;
             }
+            if (tc >= nextCheckpointStep) {
+                writeBinaryData(checkpointFilename);
+                nextCheckpointStep = tc + checkpointInterval;
+            }
         }
         // this can have thread trouble, but it only matter if we're going to
         // reweight, and (even then) only slightly effects the outcome of
         // reweighting
-        totalCount[iThread]++;
+        if (localData == null) {
+            totalCount[iThread]++;
+        }
+        else {
+            if (--flushCountdown == 0) {
+                flushLocalData();
+            }
+            // this step is counted when its data is flushed
+            unflushedCount++;
+        }
 
         boolean hasNonZeroValue = targetCluster.checkConfig(box);
         if (!hasNonZeroValue) {
@@ -110,20 +138,35 @@ public class MeterVirialEBinMultiThreaded implements IAction {
         }
         IntSet propValue = property.value();
         MyData amd;
-        synchronized (allMyData) {
-            // this needs to be synchronized to trying retrieving a value here
-            // and while adding that same key/value below.
-            amd = allMyData.get(propValue);
-            if (amd == null) {
-                IntSet pvCopy = propValue.copy();
-                amd = makeData(1+n*(n-1)/2);
-                amd.weight = nominalWeight;
-                allMyData.put(pvCopy, amd);
+        double myWeight;
+        if (localData != null) {
+            // the shared Map is only needed the first time this bin is
+            // visited since the last flush
+            LocalData ld = localData.get(propValue);
+            if (ld == null) {
+                ld = new LocalData(getSharedData(propValue), makeData(1+n*(n-1)/2));
+                localData.put(propValue.copy(), ld);
             }
-
+            amd = ld.data;
             amd.unscreenedCount++;
+            myWeight = ld.shared.weight;
+        }
+        else {
+            synchronized (allMyData) {
+                // this needs to be synchronized to trying retrieving a value here
+                // and while adding that same key/value below.
+                amd = allMyData.get(propValue);
+                if (amd == null) {
+                    IntSet pvCopy = propValue.copy();
+                    amd = makeData(1+n*(n-1)/2);
+                    amd.weight = nominalWeight;
+                    allMyData.put(pvCopy, amd);
+                }
+
+                amd.unscreenedCount++;
+            }
+            myWeight = amd.weight;
         }
-        double myWeight = amd.weight;
         if (myWeight < 1 && myWeight < random.nextDouble()) {
             return;
         }
@@ -139,13 +182,99 @@ public class MeterVirialEBinMultiThreaded implements IAction {
         }
 
 //        System.out.println(propValue+" "+Arrays.toString(v));
-        synchronized (amd) {
-            // synchronize to prevent recomputeWeights from reading data now
+        if (localData != null) {
+            // only this thread uses amd
             amd.addData(v);
         }
+        else {
+            synchronized (amd) {
+                // synchronize to prevent recomputeWeights from reading data now
+                amd.addData(v);
+            }
+        }
     }
     
+    /**
+     * Returns the shared data for the given bin, creating it if needed.
+     */
+    protected MyData getSharedData(IntSet propValue) {
+        synchronized (allMyData) {
+            MyData amd = allMyData.get(propValue);
+            if (amd == null) {
+                amd = makeData(1+n*(n-1)/2);
+                amd.weight = nominalWeight;
+                allMyData.put(propValue.copy(), amd);
+            }
+            return amd;
+        }
+    }
+
+    /**
+     * Sets the number of steps between additions of this thread's data to
+     * the shared Map.  Default is 10000.
+     */
+    public void setFlushInterval(long newFlushInterval) {
+        if (newFlushInterval < 1) {
+            throw new IllegalArgumentException("flush interval must be positive");
+        }
+        flushInterval = newFlushInterval;
+        flushCountdown = newFlushInterval;
+    }
+
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * Adds the data collected by this thread since the last flush to the
+     * shared Map.  This happens periodically during the simulation, and
+     * should also be called (by this thread, or after it has finished) when
+     * the simulation is done.
+     */
+    public void flushLocalData() {
+        if (localData == null) return;
+        synchronized (allMyData) {
+            for (LocalData ld : localData.values()) {
+                MyData shared = ld.shared;
+                MyData data = ld.data;
+                synchronized (shared) {
+                    shared.unscreenedCount += data.unscreenedCount;
+                    if (data.sampleCount > 0) {
+                        if (shared.sampleCount == 0) {
+                            shared.sum = data.sum;
+                            shared.sum2 = data.sum2;
+                            if (shared instanceof MyDataCov) {
+                                ((MyDataCov)shared).pairSum = ((MyDataCov)data).pairSum;
+                            }
+                        }
+                        else {
+                            for (int i=0; i<data.sum.length; i++) {
+                                shared.sum[i] += data.sum[i];
+                                shared.sum2[i] += data.sum2[i];
+                            }
+                            if (shared instanceof MyDataCov) {
+                                double[] pairSum = ((MyDataCov)shared).pairSum;
+                                double[] pairSumMore = ((MyDataCov)data).pairSum;
+                                for (int i=0; i<pairSum.length; i++) {
+                                    pairSum[i] += pairSumMore[i];
+                                }
+                            }
+                        }
+                        shared.sampleCount += data.sampleCount;
+                    }
+                }
+            }
+            // the steps are included in the total count along with their data
+            totalCount[iThread] += unflushedCount;
+            unflushedCount = 0;
+        }
+        // start over so that memory use is limited by the flush interval
+        localData.clear();
+        flushCountdown = flushInterval;
+    }
+
     public void writeData(String filename) {
+        flushLocalData();
         long tc = 0;
         for (int i=0; i<totalCount.length; i++) {
             tc += totalCount[i];
@@ -188,6 +317,82 @@ public class MeterVirialEBinMultiThreaded implements IAction {
         }
     }
 
+    /**
+     * Directs thread 0 to write all data to the given binary file (see
+     * writeBinaryData) every interval steps (counting all threads).  Data
+     * other threads have not yet flushed to the shared Map is not included,
+     * and neither are the steps in which it was collected.
+     */
+    public void setCheckpoint(String filename, long interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("checkpoint interval must be positive");
+        }
+        checkpointFilename = filename;
+        checkpointInterval = interval;
+        nextCheckpointStep = getTotalCount() + interval;
+    }
+
+    /**
+     * Writes all data to the given file in binary form (see BinDataFile).
+     * This can be called while the simulation is running.
+     */
+    public void writeBinaryData(String filename) {
+        flushLocalData();
+        synchronized (allMyData) {
+            writeBinaryData(filename, allMyData, getTotalCount(), n);
+        }
+    }
+
+    /**
+     * Writes allMyData to the given file in binary form (see BinDataFile).
+     * The values for each bin are the sum and sum2 for each coefficient (in
+     * the same order as writeData), followed by the pair sums if the data
+     * includes covariance.  Bins that were never visited are skipped.
+     */
+    public static void writeBinaryData(String filename, Map<IntSet,MyData> allMyData, long totalCount, int n) {
+        try {
+            synchronized (allMyData) {
+                List<IntSet> pvs = new ArrayList<IntSet>();
+                boolean cov = false;
+                for (IntSet pv : allMyData.keySet()) {
+                    MyData amd = allMyData.get(pv);
+                    if (amd.unscreenedCount == 0) continue;
+                    pvs.add(pv);
+                    cov = amd instanceof MyDataCov;
+                }
+                Collections.sort(pvs);
+                int nn = 1+n*(n-1)/2;
+                int nnn = nn*(nn-1)/2;
+                int keyLength = pvs.size() > 0 ? pvs.get(0).v.length : 0;
+                double[] values = new double[2*nn + (cov ? nnn : 0)];
+                try (BinDataFile.Writer writer = new BinDataFile.Writer(filename, totalCount, keyLength, values.length, pvs.size())) {
+                    for (IntSet pv : pvs) {
+                        MyData amd = allMyData.get(pv);
+                        long usc, sampleCount;
+                        synchronized (amd) {
+                            usc = amd.unscreenedCount;
+                            sampleCount = amd.sampleCount;
+                            for (int i=0; i<nn; i++) {
+                                values[2*i] = amd.sum != null ? amd.sum[i] : 0;
+                                values[2*i+1] = amd.sum2 != null ? amd.sum2[i] : 0;
+                            }
+                            if (cov) {
+                                double[] pairSum = ((MyDataCov)amd).pairSum;
+                                for (int i=0; i<nnn; i++) {
+                                    values[2*nn+i] = pairSum != null ? pairSum[i] : 0;
+                                }
+                            }
+                        }
+                        writer.write(pv.v, usc, sampleCount, values);
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public void writeWeights(String filename) {
         writeWeights(filename, allMyData);
     }
@@ -727,6 +932,68 @@ public class MeterVirialEBinMultiThreaded implements IAction {
         }
     }
 
+    /**
+     * Reads data written by writeBinaryData from each of the given files
+     * (those that exist) and adds it to the data here.  Covariance data is
+     * kept if the first file has it (and dropped otherwise).
+     */
+    public void readBinaryData(String[] filenames, int n) {
+        int nn = 1+n*(n-1)/2;
+        int nnn = nn*(nn-1)/2;
+        boolean first = true;
+        try {
+            for (String filename : filenames) {
+                File f = new File(filename);
+                if (!f.exists()) continue;
+                try (BinDataFile.Reader reader = new BinDataFile.Reader(filename)) {
+                    int numValues = reader.getNumValues();
+                    if (numValues != 2*nn && numValues != 2*nn+nnn) {
+                        throw new RuntimeException("I expect to see "+(2*nn)+" values for !doCov and "+(2*nn+nnn)+" values for doCov, but I actually found "+numValues+" values");
+                    }
+                    if (first) {
+                        doCov = numValues == 2*nn+nnn;
+                        first = false;
+                    }
+                    totalCount[iThread] += reader.getTotalCount();
+                    while (reader.next()) {
+                        IntSet pv = reader.getKey();
+                        MyData amd = allMyData.get(pv);
+                        if (amd == null) {
+                            amd = makeData(nn);
+                            amd.weight = nominalWeight;
+                            allMyData.put(pv, amd);
+                        }
+                        amd.unscreenedCount += reader.getUnscreenedCount();
+                        long sampleCount = reader.getSampleCount();
+                        if (sampleCount == 0) continue;
+                        if (amd.sum == null) {
+                            amd.sum = new double[nn];
+                            amd.sum2 = new double[nn];
+                        }
+                        double[] values = reader.getValues();
+                        amd.sampleCount += sampleCount;
+                        for (int i=0; i<nn; i++) {
+                            amd.sum[i] += values[2*i];
+                            amd.sum2[i] += values[2*i+1];
+                        }
+                        if (amd instanceof MyDataCov && numValues > 2*nn) {
+                            MyDataCov amdCov = (MyDataCov)amd;
+                            if (amdCov.pairSum == null) {
+                                amdCov.pairSum = new double[nnn];
+                            }
+                            for (int i=0; i<nnn; i++) {
+                                amdCov.pairSum[i] += values[2*nn+i];
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public void readWeights(String filename, int n) {
         File f = new File(filename);
         if (!f.exists()) return;
@@ -938,6 +1205,19 @@ public class MeterVirialEBinMultiThreaded implements IAction {
         return doCov ? new MyDataCov(n) : new MyData(n);
     }
 
+    /**
+     * Data collected by one thread for a bin, along with the shared data for
+     * that bin.
+     */
+    protected static class LocalData {
+        public final MyData shared, data;
+
+        public LocalData(MyData shared, MyData data) {
+            this.shared = shared;
+            this.data = data;
+        }
+    }
+
     public static class MyData {
         public long unscreenedCount, sampleCount;
         public double weight;
@@ -0,0 +1,263 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.virial;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Evaluates the fC, fA and fB recursions of Wheatley's method (given fQ for
+ * all subsets of points) using several threads.  Each value depends only on
+ * values for proper subsets, so all subsets with the same number of points
+ * are computed concurrently, one level (number of points) at a time.  The
+ * result is identical to the serial recursion in ClusterWheatleySoft and
+ * ClusterWheatleyHS.
+ * <p>
+ * Levels with little work (fewer than MIN_PARALLEL_WORK subset-partition
+ * pairs, C(n,l) 2^l for l points) are computed on the calling thread.  The
+ * largest levels are computed by the thread pool for n >= 8 (1792 pairs for
+ * the largest level with n=8, 5376 for n=9 and 15360 for n=10); smaller
+ * clusters are computed serially.
+ */
+public class WheatleyRecursionParallel {
+
+    protected static final int PHASE_C = 0, PHASE_A = 1;
+    // minimum number of (subset, partition) pairs in a level to use the thread pool
+    protected static final int MIN_PARALLEL_WORK = 1 << 10;
+
+    protected final int n;
+    protected final int numThreads;
+    protected final ForkJoinPool threadPool;
+    // subsets of the points with each number of points, in increasing order
+    protected final int[][] levels;
+    protected final List<Chunk> chunks;
+    protected double[] fQ, fC, fA, fB;
+
+    public WheatleyRecursionParallel(int nPoints, int numThreads) {
+        if (numThreads < 2) {
+            throw new IllegalArgumentException("Number of threads must be at least 2");
+        }
+        n = nPoints;
+        this.numThreads = numThreads;
+        threadPool = new ForkJoinPool(numThreads);
+        int nf = 1 << n;
+        levels = new int[n + 1][];
+        int[] count = new int[n + 1];
+        for (int i = 1; i < nf; i++) {
+            count[Integer.bitCount(i)]++;
+        }
+        for (int l = 0; l <= n; l++) {
+            levels[l] = new int[count[l]];
+            count[l] = 0;
+        }
+        for (int i = 1; i < nf; i++) {
+            int l = Integer.bitCount(i);
+            levels[l][count[l]++] = i;
+        }
+        chunks = new ArrayList<>(numThreads);
+        for (int t = 0; t < numThreads; t++) {
+            chunks.add(new Chunk());
+        }
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Stops the threads used by this object.
+     */
+    public void shutdown() {
+        threadPool.shutdown();
+    }
+
+    /**
+     * Computes fC, fA and fB from fQ.  fA and fB for the full set are left
+     * as after the last articulation-point pass, as in the serial recursion.
+     */
+    public void calc(double[] fQ, double[] fC, double[] fA, double[] fB) {
+        this.fQ = fQ;
+        this.fC = fC;
+        this.fA = fA;
+        this.fB = fB;
+        for (int l = 1; l <= n; l++) {
+            runLevel(PHASE_C, 0, l);
+        }
+        for (int v = 0; v < n; v++) {
+            for (int l = 1; l <= n; l++) {
+                runLevel(PHASE_A, v, l);
+            }
+        }
+        this.fQ = this.fC = this.fA = this.fB = null;
+    }
+
+    protected void runLevel(int phase, int v, int l) {
+        int[] level = levels[l];
+        if ((long) level.length << l < MIN_PARALLEL_WORK) {
+            compute(phase, v, level, 0, level.length);
+            return;
+        }
+        int chunkSize = (level.length + numThreads - 1) / numThreads;
+        for (int t = 0; t < numThreads; t++) {
+            Chunk chunk = chunks.get(t);
+            chunk.phase = phase;
+            chunk.v = v;
+            chunk.level = level;
+            chunk.from = Math.min(t * chunkSize, level.length);
+            chunk.to = Math.min(chunk.from + chunkSize, level.length);
+        }
+        List<Future<Object>> futures = threadPool.invokeAll(chunks);
+        try {
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    protected void compute(int phase, int v, int[] level, int from, int to) {
+        if (phase == PHASE_C) {
+            for (int k = from; k < to; k++) {
+                calcC(level[k]);
+            }
+        }
+        else if (v == 0) {
+            for (int k = from; k < to; k++) {
+                calcA0(level[k]);
+            }
+        }
+        else {
+            for (int k = from; k < to; k++) {
+                calcA(v, level[k]);
+            }
+        }
+    }
+
+    protected void calcC(int i) {
+        double c = fQ[i];
+        int iLowBit = i & -i;
+        int inc = iLowBit << 1;
+        for (int j = iLowBit; j < i; j += inc) {
+            int jComp = i & ~j;
+            while ((j | jComp) != i && j < i) {
+                int jHighBits = j ^ iLowBit;
+                int jlow = jHighBits & -jHighBits;
+                j += jlow;
+                jComp = (i & ~j);
+            }
+            if (j == i) break;
+            c -= fC[j] * fQ[jComp];
+        }
+        fC[i] = c;
+    }
+
+    /**
+     * Finds fA and fB for articulation points at 0.
+     */
+    protected void calcA0(int i) {
+        if ((i & 1) == 0) {
+            fB[i] = fC[i];
+            return;
+        }
+        fA[i] = 0;
+        fB[i] = fC[i];
+        if (i == 1) return;
+        int ii = i - 1;
+        int iLow2Bit = (ii & -ii);
+        int jBits = 1 | iLow2Bit;
+        if (jBits == i) return;
+        int iii = ii ^ iLow2Bit;
+        int jInc = (iii & -iii);
+        double a = 0;
+        for (int j = jBits; j < i; j += jInc) {
+            int jComp = (i & ~j);
+            while ((j | jComp) != i && j < i) {
+                int jHighBits = j ^ jBits;
+                int jlow = jHighBits & -jHighBits;
+                j += jlow;
+                jComp = (i & ~j);
+            }
+            if (j == i) break;
+            a += fB[j] * fC[jComp | 1];
+        }
+        fA[i] = a;
+        fB[i] -= a;
+    }
+
+    /**
+     * Finds fA (diagrams with an articulation point at v but not below) and
+     * removes them from fB.
+     */
+    protected void calcA(int v, int i) {
+        int vs1 = 1 << v;
+        if (i <= vs1) return;
+        fA[i] = 0;
+        if ((i & vs1) == 0) return;
+        int iLowBit = (i & -i);
+        if (iLowBit == i) return;
+        int ii = i ^ iLowBit;
+        int iLow2Bit = (ii & -ii);
+        double a = 0;
+        if (iLowBit != vs1 && iLow2Bit != vs1) {
+            int jBits = iLowBit | vs1;
+            int jInc = iLow2Bit;
+            for (int j = jBits; j < i; j += jInc) {
+                if ((j & jBits) != jBits) {
+                    j |= vs1;
+                    if (j == i) break;
+                }
+                int jComp = i & ~j;
+                while ((j | jComp) != i && j < i) {
+                    int jHighBits = j ^ jBits;
+                    int jlow = jHighBits & -jHighBits;
+                    j += jlow;
+                    j |= vs1;
+                    jComp = (i & ~j);
+                }
+                if (j == i) break;
+                a += fB[j] * (fB[jComp | vs1] + fA[jComp | vs1]);
+            }
+        }
+        else {
+            int jBits = iLowBit | iLow2Bit;
+            if (jBits == i) return;
+            int iii = ii ^ iLow2Bit;
+            int jInc = (iii & -iii);
+            for (int j = jBits; j < i; j += jInc) {
+                int jComp = i & ~j;
+                while ((j | jComp) != i && j < i) {
+                    int jHighBits = j ^ jBits;
+                    int jlow = jHighBits & -jHighBits;
+                    j += jlow;
+                    jComp = (i & ~j);
+                }
+                if (j == i) break;
+                a += fB[j] * (fB[jComp | vs1] + fA[jComp | vs1]);
+            }
+        }
+        fA[i] = a;
+        fB[i] -= a;
+    }
+
+    protected class Chunk implements Callable<Object> {
+        int phase, v, from, to;
+        int[] level;
+
+        public Object call() {
+            compute(phase, v, level, from, to);
+            return null;
+        }
+    }
+}
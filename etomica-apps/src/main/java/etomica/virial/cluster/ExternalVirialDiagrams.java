@@ -48,7 +48,11 @@ public class ExternalVirialDiagrams extends VirialDiagrams{
 		super(n, false, false, interactive);
 		this.doSurfacetension = doSurfacetension;
 		this.doExpDensityprofile = doExpDensityprofile;
-		
+
+	}
+	@Override
+	protected String cacheKey() {
+		return super.cacheKey()+" surfaceTension="+doSurfacetension+" expDensityProfile="+doExpDensityprofile;
 	}
 	 public ClusterSum makeRhoCluster(MayerFunction f, boolean useExternalField) {
 	       if (rho == null) {
@@ -115,6 +115,7 @@ public class VirialDiagrams {
     protected final char nodeColor = Metadata.COLOR_CODE_0;
     protected char[] flexColors;
     protected boolean allPermutations = false;
+    protected VirialDiagramsCache cache;
     public char fBond, bBond, eBond, excBond, mBond, mmBond, fmBond, efbcBond, ffBond, mxcBond, MxcBond;
 
     protected static int[][][] groupStart = new int[0][0][0];
@@ -291,6 +292,31 @@ public class VirialDiagrams {
         allPermutations = newAllPermutations;
     }
 
+    /**
+     * Sets a cache to read the diagrams (and the bonds for clusters made by
+     * makeVirialCluster) from if they were stored by a previous run with the
+     * same options, or to store them in otherwise.  The cache is not used in
+     * interactive mode.
+     */
+    public void setCache(VirialDiagramsCache newCache) {
+        cache = newCache;
+    }
+
+    /**
+     * Returns a string describing all of the options that affect the
+     * diagrams, used as the key for the diagram cache.  Subclasses with
+     * additional options should append them.
+     */
+    protected String cacheKey() {
+        return getClass().getName()+" n="+n+" multibody="+multibody+" flex="+flex+" reeHoover="+doReeHoover
+                +" shortcut="+doShortcut+" minimalMulti="+doMinimalMulti+" multiFromPair="+doMultiFromPair
+                +" minimalBC="+doMinimalBC+" keepEBonds="+doKeepEBonds+" exchange="+doExchange
+                +" exchangeF="+doExchangeF+" exchangeCondensing="+doExchangeCondensing
+                +" disconnectedMatching="+doDisconnectedMatching+" negativeExchange="+doNegativeExchange
+                +" HB="+doHB+" allPermutations="+allPermutations+" nodeColor="+nodeColor
+                +" bonds="+fBond+bBond+eBond+excBond+mBond+mmBond+fmBond+efbcBond+ffBond+mxcBond+MxcBond;
+    }
+
     public Set<Graph> getVirialGraphs() {
         if (p == null) {
             makeVirialDiagrams();
@@ -405,6 +431,17 @@ public class VirialDiagrams {
     public ClusterSum makeVirialCluster(Set<Graph> graphs, MayerFunction f, MayerFunctionNonAdditive fMulti) {
         
         boolean doMulti = fMulti != null;
+        String bondsKey = null;
+        if (cache != null && !isInteractive) {
+            bondsKey = cacheKey()+" clusterMulti="+doMulti+" graphs="+VirialDiagramsCache.graphsKey(graphs);
+            VirialDiagramsCache.Bonds cached = cache.readBonds(bondsKey);
+            if (cached != null) {
+                if (!doMulti) {
+                    return new ClusterSum(cached.bonds, cached.weights, new MayerFunction[]{f});
+                }
+                return new ClusterSumMultibody(cached.bonds, cached.weights, new MayerFunction[]{f}, new MayerFunctionNonAdditive[]{fMulti});
+            }
+        }
         ArrayList<ClusterBonds> allBonds = new ArrayList<ClusterBonds>();
         ArrayList<Double> weights = new ArrayList<Double>();
         for (Graph g : graphs) {
@@ -419,6 +456,9 @@ public class VirialDiagrams {
         for (int i=0; i<w.length; i++) {
             w[i] = weights.get(i);
         }
+        if (cache != null && !isInteractive) {
+            cache.writeBonds(bondsKey, new VirialDiagramsCache.Bonds(allBonds.toArray(new ClusterBonds[0]), w));
+        }
         if (!doMulti) {
             return new ClusterSum(allBonds.toArray(new ClusterBonds[0]), w, new MayerFunction[]{f});
         }
@@ -1010,6 +1050,25 @@ public class VirialDiagrams {
         return colorOrderMap;
     }
     
+    /**
+     * Sets the colors (and dashes) used to draw our bonds.
+     */
+    protected void initBondColors() {
+        Metadata.COLOR_MAP.put(eBond, "red");
+        Metadata.COLOR_MAP.put(fBond, "green");
+        Metadata.COLOR_MAP.put(mBond, "blue");
+        Metadata.COLOR_MAP.put(mmBond, "orange");
+        Metadata.COLOR_MAP.put(fmBond, "black");
+        Metadata.COLOR_MAP.put(efbcBond, "fuchsia");
+        Metadata.COLOR_MAP.put(excBond, "red");
+        Metadata.COLOR_MAP.put(ffBond, "green");
+        Metadata.COLOR_MAP.put(mxcBond, "blue");
+        Metadata.DASH_MAP.put(excBond, 3);
+        Metadata.DASH_MAP.put(ffBond, 3);
+        Metadata.DASH_MAP.put(mxcBond, 3);
+        Metadata.DASH_MAP.put(MxcBond, 3);
+    }
+
     public void makeRhoDiagrams() {
         flexColors = new char[0];
         if (flex) {
@@ -1029,19 +1088,7 @@ public class VirialDiagrams {
         GraphList<Graph> topSet = makeGraphList();
 
         char oneBond = 'o';
-        Metadata.COLOR_MAP.put(eBond, "red");
-        Metadata.COLOR_MAP.put(fBond, "green");
-        Metadata.COLOR_MAP.put(mBond, "blue");
-        Metadata.COLOR_MAP.put(mmBond, "orange");
-        Metadata.COLOR_MAP.put(fmBond, "black");
-        Metadata.COLOR_MAP.put(efbcBond, "fuchsia");
-        Metadata.COLOR_MAP.put(excBond, "red");
-        Metadata.COLOR_MAP.put(ffBond, "green");
-        Metadata.COLOR_MAP.put(mxcBond, "blue");
-        Metadata.DASH_MAP.put(excBond, 3);
-        Metadata.DASH_MAP.put(ffBond, 3);
-        Metadata.DASH_MAP.put(mxcBond, 3);
-        Metadata.DASH_MAP.put(MxcBond, 3);
+        initBondColors();
         if (colorOrderMap != null) {
             colorOrderMap.put(oneBond, 0);
             colorOrderMap.put(mBond, 1);
@@ -1361,6 +1408,23 @@ public class VirialDiagrams {
         colorOrderMap.put(MxcBond, 8);
         colorOrderMap.put(excBond, 9);
 
+        if (cache != null && !isInteractive) {
+            VirialDiagramsCache.Diagrams cached = cache.readDiagrams(cacheKey());
+            if (cached != null) {
+                initBondColors();
+                p = makeGraphList();
+                p.addAll(cached.sets.get(0));
+                disconnectedP = makeGraphList();
+                disconnectedP.addAll(cached.sets.get(1));
+                if (cached.sets.get(2) != null) {
+                    minMultiP = makeGraphList();
+                    minMultiP.addAll(cached.sets.get(2));
+                }
+                cancelMap = cached.cancelMap;
+                return;
+            }
+        }
+
         Property happyArticulation = new ArticulatedAt0(doExchange, multibody ? mmBond : '0');
 
         if (doShortcut && !multibody && !flex) {
@@ -2306,6 +2370,13 @@ outer:                      for (int i=1; i<biComp.size(); i++) {
         disconnectedPFinal.addAll(disconnectedP);
         disconnectedP = disconnectedPFinal;
 
+        if (cache != null && !isInteractive) {
+            List<Set<Graph>> sets = new ArrayList<Set<Graph>>();
+            sets.add(p);
+            sets.add(disconnectedP);
+            sets.add(minMultiP);
+            cache.writeDiagrams(cacheKey(), new VirialDiagramsCache.Diagrams(sets, cancelMap));
+        }
     }
 
     public static final class ArticulatedAt0 implements Property {
@@ -0,0 +1,418 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.virial.cluster;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import etomica.graph.model.Graph;
+import etomica.graph.model.GraphFactory;
+import etomica.graph.model.GraphList;
+import etomica.graph.model.Node;
+import etomica.virial.ClusterBonds;
+import etomica.virial.ClusterBondsNonAdditive;
+
+/**
+ * Directory of binary files holding diagram sets generated by
+ * VirialDiagrams (or VirialDiagramsPT) and the flattened bond lists built
+ * from them, so that later runs with the same parameters can skip the
+ * diagram generation.  Each file is named from its key (a string describing
+ * all of the parameters that affect the result) and holds the key itself, so
+ * a file for different parameters (or from an older version of the file
+ * format) is simply ignored and regenerated.  Files are read through a
+ * memory-mapped buffer and are written to a temporary file that is renamed
+ * when complete, so several jobs can safely share a directory.
+ * <p>
+ * The key does not capture the diagram generation code itself; the cache
+ * directory should be cleared if that changes.
+ */
+public class VirialDiagramsCache {
+
+    protected static final int MAGIC = 0x45564443;
+    protected static final int VERSION = 1;
+    protected static final byte TYPE_DIAGRAMS = 1, TYPE_BONDS = 2;
+
+    protected final File dir;
+
+    public VirialDiagramsCache(String dirName) {
+        dir = new File(dirName);
+    }
+
+    /**
+     * Diagram sets (any of which may be null) and a map from diagrams to the
+     * diagrams that cancel them (which may also be null).  Graphs that appear
+     * in more than one place are the same object when read back, so the map
+     * can be used to look up graphs from the sets.
+     */
+    public static class Diagrams {
+        public final List<Set<Graph>> sets;
+        public final Map<Graph,Graph> cancelMap;
+
+        public Diagrams(List<Set<Graph>> sets, Map<Graph,Graph> cancelMap) {
+            this.sets = sets;
+            this.cancelMap = cancelMap;
+        }
+    }
+
+    /**
+     * Bonds and weights for constructing a ClusterSum.
+     */
+    public static class Bonds {
+        public final ClusterBonds[] bonds;
+        public final double[] weights;
+
+        public Bonds(ClusterBonds[] bonds, double[] weights) {
+            this.bonds = bonds;
+            this.weights = weights;
+        }
+    }
+
+    /**
+     * Returns a string identifying the given graphs (in iteration order),
+     * suitable for use within a key.
+     */
+    public static String graphsKey(Collection<Graph> graphs) {
+        StringBuilder sb = new StringBuilder();
+        for (Graph g : graphs) {
+            sb.append(g).append('\n');
+        }
+        return UUID.nameUUIDFromBytes(sb.toString().getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    protected File getFile(String key) {
+        return new File(dir, "diagrams-" + UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)) + ".bin");
+    }
+
+    /**
+     * Returns the diagrams stored for the given key, or null if they have not
+     * been stored (or cannot be read).  The sets preserve the stored order.
+     */
+    public Diagrams readDiagrams(String key) {
+        MappedByteBuffer buffer = map(key, TYPE_DIAGRAMS);
+        if (buffer == null) return null;
+        try {
+            Graph[] graphs = new Graph[buffer.getInt()];
+            for (int i = 0; i < graphs.length; i++) {
+                graphs[i] = readGraph(buffer);
+            }
+            int numSets = buffer.getInt();
+            List<Set<Graph>> sets = new ArrayList<Set<Graph>>(numSets);
+            for (int i = 0; i < numSets; i++) {
+                int size = buffer.getInt();
+                if (size < 0) {
+                    sets.add(null);
+                    continue;
+                }
+                Set<Graph> set = new GraphList<Graph>(null);
+                for (int j = 0; j < size; j++) {
+                    set.add(graphs[buffer.getInt()]);
+                }
+                sets.add(set);
+            }
+            Map<Graph,Graph> cancelMap = null;
+            int mapSize = buffer.getInt();
+            if (mapSize >= 0) {
+                cancelMap = new HashMap<Graph,Graph>();
+                for (int i = 0; i < mapSize; i++) {
+                    Graph g = graphs[buffer.getInt()];
+                    cancelMap.put(g, graphs[buffer.getInt()]);
+                }
+            }
+            return new Diagrams(sets, cancelMap);
+        }
+        catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            System.err.println("ignoring corrupt diagram cache file " + getFile(key));
+            return null;
+        }
+    }
+
+    /**
+     * Stores the given diagrams for the given key.  Failure to write the file
+     * is reported, but is otherwise harmless.  Nothing is stored if any
+     * diagram's coefficient has overflowed.
+     */
+    public void writeDiagrams(String key, Diagrams diagrams) {
+        // assign an index to each distinct graph
+        Map<Graph,Integer> index = new IdentityHashMap<Graph,Integer>();
+        List<Graph> graphs = new ArrayList<Graph>();
+        for (Set<Graph> set : diagrams.sets) {
+            if (set == null) continue;
+            for (Graph g : set) {
+                addGraph(g, index, graphs);
+            }
+        }
+        if (diagrams.cancelMap != null) {
+            for (Map.Entry<Graph,Graph> entry : diagrams.cancelMap.entrySet()) {
+                addGraph(entry.getKey(), index, graphs);
+                addGraph(entry.getValue(), index, graphs);
+            }
+        }
+        for (Graph g : graphs) {
+            if (g.coefficient().hasOverflow()) {
+                // the coefficient's value is only known as a double, which
+                // we cannot restore, so these diagrams are not stored
+                return;
+            }
+        }
+
+        DataOutputStream out = null;
+        File tmpFile = null;
+        try {
+            dir.mkdirs();
+            tmpFile = File.createTempFile("diagrams", ".tmp", dir);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            writeHeader(out, key, TYPE_DIAGRAMS);
+            out.writeInt(graphs.size());
+            for (Graph g : graphs) {
+                writeGraph(out, g);
+            }
+            out.writeInt(diagrams.sets.size());
+            for (Set<Graph> set : diagrams.sets) {
+                if (set == null) {
+                    out.writeInt(-1);
+                    continue;
+                }
+                out.writeInt(set.size());
+                for (Graph g : set) {
+                    out.writeInt(index.get(g));
+                }
+            }
+            if (diagrams.cancelMap == null) {
+                out.writeInt(-1);
+            }
+            else {
+                out.writeInt(diagrams.cancelMap.size());
+                for (Map.Entry<Graph,Graph> entry : diagrams.cancelMap.entrySet()) {
+                    out.writeInt(index.get(entry.getKey()));
+                    out.writeInt(index.get(entry.getValue()));
+                }
+            }
+            out.close();
+            out = null;
+            Files.move(tmpFile.toPath(), getFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            System.err.println("unable to write diagram cache file " + getFile(key) + ": " + e.getMessage());
+        }
+        finally {
+            close(out, tmpFile);
+        }
+    }
+
+    /**
+     * Returns the bonds stored for the given key, or null if they have not
+     * been stored (or cannot be read).
+     */
+    public Bonds readBonds(String key) {
+        MappedByteBuffer buffer = map(key, TYPE_BONDS);
+        if (buffer == null) return null;
+        try {
+            ClusterBonds[] bonds = new ClusterBonds[buffer.getInt()];
+            double[] weights = new double[bonds.length];
+            for (int i = 0; i < bonds.length; i++) {
+                weights[i] = buffer.getDouble();
+                int[][] bondIndexArray = readArray2(buffer);
+                int[][] multiBonds = readArray2(buffer);
+                bonds[i] = multiBonds == null ? new ClusterBonds(bondIndexArray, false) : new ClusterBondsNonAdditive(bondIndexArray, multiBonds);
+            }
+            return new Bonds(bonds, weights);
+        }
+        catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            System.err.println("ignoring corrupt diagram cache file " + getFile(key));
+            return null;
+        }
+    }
+
+    /**
+     * Stores the given bonds for the given key.  Failure to write the file
+     * is reported, but is otherwise harmless.
+     */
+    public void writeBonds(String key, Bonds bonds) {
+        DataOutputStream out = null;
+        File tmpFile = null;
+        try {
+            dir.mkdirs();
+            tmpFile = File.createTempFile("bonds", ".tmp", dir);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            writeHeader(out, key, TYPE_BONDS);
+            out.writeInt(bonds.bonds.length);
+            for (int i = 0; i < bonds.bonds.length; i++) {
+                out.writeDouble(bonds.weights[i]);
+                writeArray2(out, bonds.bonds[i].getBondIndexArray());
+                writeArray2(out, bonds.bonds[i] instanceof ClusterBondsNonAdditive ? ((ClusterBondsNonAdditive)bonds.bonds[i]).getMultiBonds() : null);
+            }
+            out.close();
+            out = null;
+            Files.move(tmpFile.toPath(), getFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            System.err.println("unable to write diagram cache file " + getFile(key) + ": " + e.getMessage());
+        }
+        finally {
+            close(out, tmpFile);
+        }
+    }
+
+    /**
+     * Maps the file for the given key and returns the buffer positioned after
+     * the header, or null if the file does not exist or does not hold data of
+     * the given type for the key.
+     */
+    protected MappedByteBuffer map(String key, byte type) {
+        File file = getFile(key);
+        if (!file.exists()) return null;
+        try (RandomAccessFile raFile = new RandomAccessFile(file, "r");
+             FileChannel channel = raFile.getChannel()) {
+            // the mapping remains valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 13 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.get() != type) {
+                return null;
+            }
+            int keyLength = buffer.getInt();
+            if (keyLength != key.length() || buffer.remaining() < 2 * keyLength) {
+                return null;
+            }
+            for (int i = 0; i < keyLength; i++) {
+                if (buffer.getChar() != key.charAt(i)) return null;
+            }
+            return buffer;
+        }
+        catch (IOException e) {
+            System.err.println("unable to read diagram cache file " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    protected static void writeHeader(DataOutputStream out, String key, byte type) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeByte(type);
+        out.writeInt(key.length());
+        out.writeChars(key);
+    }
+
+    protected static void addGraph(Graph g, Map<Graph,Integer> index, List<Graph> graphs) {
+        if (index.containsKey(g)) return;
+        index.put(g, graphs.size());
+        graphs.add(g);
+    }
+
+    protected static void writeGraph(DataOutputStream out, Graph g) throws IOException {
+        byte nodeCount = g.nodeCount();
+        out.writeByte(nodeCount);
+        for (Node node : g.nodes()) {
+            out.writeChar(node.getType());
+            out.writeChar(node.getColor());
+        }
+        out.writeShort(g.edgeCount());
+        for (byte i = 0; i < nodeCount; i++) {
+            for (byte j = (byte)(i + 1); j < nodeCount; j++) {
+                if (!g.hasEdge(i, j)) continue;
+                out.writeByte(i);
+                out.writeByte(j);
+                out.writeChar(g.getEdge(i, j).getColor());
+            }
+        }
+        out.writeInt(g.coefficient().getNumerator());
+        out.writeInt(g.coefficient().getDenominator());
+        int[] factors = g.factors();
+        out.writeInt(factors.length);
+        for (int f : factors) {
+            out.writeInt(f);
+        }
+    }
+
+    protected static Graph readGraph(MappedByteBuffer buffer) {
+        byte nodeCount = buffer.get();
+        Graph g = GraphFactory.createGraph(nodeCount);
+        for (byte i = 0; i < nodeCount; i++) {
+            Node node = g.getNode(i);
+            node.setType(buffer.getChar());
+            node.setColor(buffer.getChar());
+        }
+        int edgeCount = buffer.getShort();
+        for (int k = 0; k < edgeCount; k++) {
+            byte i = buffer.get();
+            byte j = buffer.get();
+            g.putEdge(i, j);
+            g.getEdge(i, j).setColor(buffer.getChar());
+        }
+        g.coefficient().setNumerator(buffer.getInt());
+        g.coefficient().setDenominator(buffer.getInt());
+        int numFactors = buffer.getInt();
+        if (numFactors > 0) {
+            int[] factors = new int[numFactors];
+            for (int i = 0; i < numFactors; i++) {
+                factors[i] = buffer.getInt();
+            }
+            g.setNumFactors(numFactors);
+            g.addFactors(factors);
+        }
+        return g;
+    }
+
+    protected static void writeArray2(DataOutputStream out, int[][] a) throws IOException {
+        if (a == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(a.length);
+        for (int[] row : a) {
+            out.writeInt(row.length);
+            for (int x : row) {
+                out.writeInt(x);
+            }
+        }
+    }
+
+    protected static int[][] readArray2(MappedByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) return null;
+        int[][] a = new int[length][];
+        for (int i = 0; i < length; i++) {
+            a[i] = new int[buffer.getInt()];
+            for (int j = 0; j < a[i].length; j++) {
+                a[i][j] = buffer.getInt();
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Cleans up after a failed write (the temporary file is gone if the write
+     * succeeded).
+     */
+    protected static void close(DataOutputStream out, File tmpFile) {
+        if (out != null) {
+            try {
+                out.close();
+            }
+            catch (IOException e) {
+                // we're already reporting a failure
+            }
+        }
+        if (tmpFile != null && tmpFile.exists()) {
+            tmpFile.delete();
+        }
+    }
+}
@@ -49,6 +49,8 @@ import etomica.graph.operations.MulFlexible;
 import etomica.graph.operations.MulFlexible.MulFlexibleParameters;
 import etomica.graph.operations.MulScalar;
 import etomica.graph.operations.MulScalarParameters;
+import etomica.graph.operations.ParallelBinary;
+import etomica.graph.operations.ParallelOp;
 import etomica.graph.operations.Split;
 import etomica.graph.operations.SplitParameters;
 import etomica.graph.property.HasSimpleArticulationPoint;
@@ -460,9 +462,11 @@ public class VirialDiagramsMix2 {
         HasSimpleArticulationPoint hap = new HasSimpleArticulationPoint();
         
         //----------------------- decorate lnfXi by using zA and zB  to get p -----------------------------//
-        p = decorate.apply(lnfXi, zA, new DecorateParameters(0, mfpn));
-        p = decorate.apply(p, zB, new DecorateParameters(1, mfpn));
-        p = maxIsomorph.apply(isoFree.apply(p, null), mip);
+        // decorate chunks of lnfXi in parallel; the result is already isomorph-free
+        ParallelBinary parallelDecorate = new ParallelBinary(decorate);
+        parallelDecorate.addStage(new ParallelOp.BinaryStage(decorate, zB), new DecorateParameters(1, mfpn));
+        p = parallelDecorate.apply(lnfXi, zA, new DecorateParameters(0, mfpn));
+        p = maxIsomorph.apply(p, mip);
 
    //     p = isoFree.apply(maxIsomorph.apply(p, mip), null);// based on maxisomorphCriteriaMixture
         if(isInteractive){
@@ -112,6 +112,7 @@ public class VirialDiagramsPT {
     public char[] aBonds;
     protected int orderBeta;
     protected boolean doExp;
+    protected VirialDiagramsCache cache;
 
     protected static int[][] tripletStart = new int[0][0];
     protected static int[][] quadStart = new int[0][0];
@@ -298,6 +299,31 @@ public class VirialDiagramsPT {
         allPermutations = newAllPermutations;
     }
 
+    /**
+     * Sets a cache to read the diagrams (and the bonds for clusters made by
+     * makeVirialCluster) from if they were stored by a previous run with the
+     * same options, or to store them in otherwise.  The cache is not used in
+     * interactive mode.
+     */
+    public void setCache(VirialDiagramsCache newCache) {
+        cache = newCache;
+    }
+
+    /**
+     * Returns a string describing all of the options that affect the
+     * diagrams, used as the key for the diagram cache.
+     */
+    protected String cacheKey() {
+        return getClass().getName()+" n="+n+" multibody="+multibody+" flex="+flex+" reeHoover="+doReeHoover
+                +" shortcut="+doShortcut+" minimalMulti="+doMinimalMulti+" multiFromPair="+doMultiFromPair
+                +" minimalBC="+doMinimalBC+" keepEBonds="+doKeepEBonds+" exchange="+doExchange
+                +" exchangeF="+doExchangeF+" exchangeCondensing="+doExchangeCondensing
+                +" disconnectedMatching="+doDisconnectedMatching+" negativeExchange="+doNegativeExchange
+                +" HB="+doHB+" allPermutations="+allPermutations+" nodeColor="+nodeColor
+                +" orderBeta="+orderBeta+" exp="+doExp
+                +" bonds="+fBond+bBond+eBond+excBond+mBond+mmBond+fmBond+efbcBond+ffBond+mxcBond+MxcBond;
+    }
+
     public Set<Graph> getVirialGraphs() {
         if (p == null) {
             makeVirialDiagrams();
@@ -371,6 +397,17 @@ public class VirialDiagramsPT {
     
     public ClusterSum makeVirialCluster(Set<Graph> graphs, MayerFunction r, MayerFunction[] a) {
         
+        MayerFunction[] allf = new MayerFunction[a.length+1];
+        allf[0] = r;
+        System.arraycopy(a, 0, allf, 1, a.length);
+        String bondsKey = null;
+        if (cache != null && !isInteractive) {
+            bondsKey = cacheKey()+" graphs="+VirialDiagramsCache.graphsKey(graphs);
+            VirialDiagramsCache.Bonds cached = cache.readBonds(bondsKey);
+            if (cached != null) {
+                return new ClusterSum(cached.bonds, cached.weights, allf);
+            }
+        }
         ArrayList<ClusterBonds> allBonds = new ArrayList<ClusterBonds>();
         ArrayList<Double> weights = new ArrayList<Double>();
         for (Graph g : graphs) {
@@ -385,9 +422,9 @@ public class VirialDiagramsPT {
         for (int i=0; i<w.length; i++) {
             w[i] = weights.get(i);
         }
-        MayerFunction[] allf = new MayerFunction[a.length+1];
-        allf[0] = r;
-        System.arraycopy(a, 0, allf, 1, a.length);
+        if (cache != null && !isInteractive) {
+            cache.writeBonds(bondsKey, new VirialDiagramsCache.Bonds(allBonds.toArray(new ClusterBonds[0]), w));
+        }
         return new ClusterSum(allBonds.toArray(new ClusterBonds[0]), w, allf);
     }
 
@@ -644,6 +681,37 @@ public class VirialDiagramsPT {
         return colorOrderMap;
     }
     
+    /**
+     * Sets the colors (and dashes) used to draw our bonds.
+     */
+    protected void initBondColors() {
+        Metadata.COLOR_MAP.put(eBond, "red");
+        Metadata.COLOR_MAP.put(fBond, "green");
+        Metadata.COLOR_MAP.put(mBond, "blue");
+        Metadata.COLOR_MAP.put(mmBond, "orange");
+        Metadata.COLOR_MAP.put(fmBond, "black");
+        Metadata.COLOR_MAP.put(efbcBond, "fuchsia");
+        Metadata.COLOR_MAP.put(excBond, "red");
+        Metadata.COLOR_MAP.put(ffBond, "green");
+        Metadata.COLOR_MAP.put(mxcBond, "blue");
+        Metadata.DASH_MAP.put(excBond, 3);
+        Metadata.DASH_MAP.put(ffBond, 3);
+        Metadata.DASH_MAP.put(mxcBond, 3);
+        Metadata.DASH_MAP.put(MxcBond, 3);
+    }
+
+    /**
+     * Sets the r-bond and the a-bonds (one for each order in beta) that
+     * result from splitting the f-bonds.
+     */
+    protected void initSplitBonds() {
+        rBond = 'r';
+        aBonds = new char[orderBeta];
+        for (int j=0; j<orderBeta; j++) {
+            aBonds[j] = (char)('a'+j);
+        }
+    }
+
     public void makeRhoDiagrams() {
         flexColors = new char[0];
         if (flex) {
@@ -663,19 +731,7 @@ public class VirialDiagramsPT {
         GraphList<Graph> topSet = makeGraphList();
 
         char oneBond = 'o';
-        Metadata.COLOR_MAP.put(eBond, "red");
-        Metadata.COLOR_MAP.put(fBond, "green");
-        Metadata.COLOR_MAP.put(mBond, "blue");
-        Metadata.COLOR_MAP.put(mmBond, "orange");
-        Metadata.COLOR_MAP.put(fmBond, "black");
-        Metadata.COLOR_MAP.put(efbcBond, "fuchsia");
-        Metadata.COLOR_MAP.put(excBond, "red");
-        Metadata.COLOR_MAP.put(ffBond, "green");
-        Metadata.COLOR_MAP.put(mxcBond, "blue");
-        Metadata.DASH_MAP.put(excBond, 3);
-        Metadata.DASH_MAP.put(ffBond, 3);
-        Metadata.DASH_MAP.put(mxcBond, 3);
-        Metadata.DASH_MAP.put(MxcBond, 3);
+        initBondColors();
         if (colorOrderMap != null) {
             colorOrderMap.put(oneBond, 0);
             colorOrderMap.put(mBond, 1);
@@ -995,6 +1051,24 @@ public class VirialDiagramsPT {
         colorOrderMap.put(MxcBond, 8);
         colorOrderMap.put(excBond, 9);
 
+        if (cache != null && !isInteractive) {
+            VirialDiagramsCache.Diagrams cached = cache.readDiagrams(cacheKey());
+            if (cached != null) {
+                initBondColors();
+                initSplitBonds();
+                p = makeGraphList();
+                p.addAll(cached.sets.get(0));
+                disconnectedP = makeGraphList();
+                disconnectedP.addAll(cached.sets.get(1));
+                if (cached.sets.get(2) != null) {
+                    minMultiP = makeGraphList();
+                    minMultiP.addAll(cached.sets.get(2));
+                }
+                cancelMap = cached.cancelMap;
+                return;
+            }
+        }
+
         Property happyArticulation = new ArticulatedAt0(doExchange, multibody ? mmBond : '0');
 
         if (doShortcut && !multibody && !flex) {
@@ -1552,8 +1626,7 @@ outer:                      for (int i=1; i<biComp.size(); i++) {
         
         //JRE
         Split splitter = new Split();
-        rBond = 'r';
-        aBonds = new char[orderBeta];
+        initSplitBonds();
         Set<Graph> newP = null;
         if (orderBeta == 0) {
             newP = new HashSet<Graph>();
@@ -1566,9 +1639,6 @@ outer:                      for (int i=1; i<biComp.size(); i++) {
             }
         }
         else {
-            for (int j=0; j<orderBeta; j++) {
-                aBonds[j] = (char)('a'+j);
-            }
             char Xbond = (aBonds.length==1 || doExp) ? 'a' : 'A';
             Property discardCriteria = new DiscardCriteria(Xbond, 1, rBond, orderBeta);
             SplitParameters splitParameters = new SplitParameters(fBond, rBond, Xbond, discardCriteria);
@@ -1995,6 +2065,13 @@ outer:                      for (int i=1; i<biComp.size(); i++) {
         disconnectedPFinal.addAll(disconnectedP);
         disconnectedP = disconnectedPFinal;
 
+        if (cache != null && !isInteractive) {
+            List<Set<Graph>> sets = new ArrayList<Set<Graph>>();
+            sets.add(p);
+            sets.add(disconnectedP);
+            sets.add(minMultiP);
+            cache.writeDiagrams(cacheKey(), new VirialDiagramsCache.Diagrams(sets, cancelMap));
+        }
     }
 
     public static class DiscardCriteria implements Property {
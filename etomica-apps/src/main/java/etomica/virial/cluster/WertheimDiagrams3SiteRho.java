@@ -37,6 +37,7 @@ import etomica.graph.model.impl.MetadataImpl;
 import etomica.graph.operations.CombineABSite.CombineABSiteParameters;
 import etomica.graph.operations.Decorate;
 import etomica.graph.operations.Decorate.DecorateParameters;
+import etomica.graph.operations.ParallelBinary;
 import etomica.graph.operations.DecorateWertheim3SiteRho;
 import etomica.graph.operations.DecorateWertheim3SiteRho.DecorateWertheimParameters3Site;
 import etomica.graph.operations.DeleteEdge;
@@ -1042,9 +1043,10 @@ public class WertheimDiagrams3SiteRho {
             DecorateParameters dp = new DecorateParameters(nodeColor, mfp);
             DecorateParameters dpnm1 = new DecorateParameters(0,mfpnm1zWertheim);//0th factor
 
-            p = decorate.apply(lnfXi, zWertheim, dp);
+            // decorate chunks of lnfXi in parallel; the result is already isomorph-free
+            ParallelBinary parallelDecorate = new ParallelBinary(decorate);
+            p = parallelDecorate.apply(lnfXi, zWertheim, dp);
             lnfXi.clear();
-            p = isoFree.apply(p, null);
             
            
             if (isInteractive) {
@@ -1091,13 +1093,13 @@ public class WertheimDiagrams3SiteRho {
                   g.setNumFactors(1);
                  }
                   
-              rhoA = isoFree.apply(decorate.apply(rhoA, zWertheim, dpnm1),null);
-              rhoB = isoFree.apply(decorate.apply(rhoB, zWertheim, dpnm1),null);
-              rhoC = isoFree.apply(decorate.apply(rhoC, zWertheim, dpnm1),null);
-              rhoAB = isoFree.apply(decorate.apply(rhoAB, zWertheim, dpnm1),null);
-              rhoAC = isoFree.apply(decorate.apply(rhoAC, zWertheim, dpnm1),null);
-              rhoBC = isoFree.apply(decorate.apply(rhoBC, zWertheim, dpnm1),null);
-              rhoABC = isoFree.apply(decorate.apply(rhoABC, zWertheim, dpnm1),null);
+              rhoA = parallelDecorate.apply(rhoA, zWertheim, dpnm1);
+              rhoB = parallelDecorate.apply(rhoB, zWertheim, dpnm1);
+              rhoC = parallelDecorate.apply(rhoC, zWertheim, dpnm1);
+              rhoAB = parallelDecorate.apply(rhoAB, zWertheim, dpnm1);
+              rhoAC = parallelDecorate.apply(rhoAC, zWertheim, dpnm1);
+              rhoBC = parallelDecorate.apply(rhoBC, zWertheim, dpnm1);
+              rhoABC = parallelDecorate.apply(rhoABC, zWertheim, dpnm1);
               zWertheim.clear();
 	          for(Graph g:rhoA){
 	              g.setNumFactors(2);
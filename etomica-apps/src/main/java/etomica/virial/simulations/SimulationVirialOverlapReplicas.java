@@ -0,0 +1,380 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.virial.simulations;
+
+import etomica.data.AccumulatorRatioAverageCovarianceFull;
+import etomica.data.IDataInfo;
+import etomica.virial.overlap.DataVirialOverlap;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs several independent replicas of an overlap-sampling simulation
+ * (SimulationVirialOverlap2), each on its own thread, and combines their
+ * statistics.  Each replica has its own boxes, clusters and random number
+ * generator; the replicas run for a fixed number of overlap-integrator steps
+ * between merges, and all merging happens on the calling thread while the
+ * replicas are idle, so the replicas never need to synchronize with each
+ * other.
+ * <p>
+ * The reference preference (Bennett parameter) is found from the combined
+ * data in initRefPref and equilibrate, and the same value is then used by
+ * every replica.  Step counts passed to this class are totals, which are
+ * divided evenly among the replicas.  Results are available from the
+ * combined accumulators via dvo, which works just like the dvo field in
+ * SimulationVirialOverlap2.
+ */
+public class SimulationVirialOverlapReplicas {
+
+    protected final SimulationVirialOverlap2[] replicas;
+    protected final ForkJoinPool threadPool;
+    protected final List<ReplicaTask> tasks;
+    public final AccumulatorRatioAverageCovarianceFull[] accumulators;
+    protected final IDataInfo[] accumulatorDataInfo;
+    public final DataVirialOverlap dvo;
+    protected long mergeInterval;
+    public double refPref;
+
+    /**
+     * @param replicaFactory makes the replicas
+     * @param numReplicas    the number of replicas (and threads) to use
+     */
+    public SimulationVirialOverlapReplicas(ReplicaFactory replicaFactory, int numReplicas) {
+        if (numReplicas < 1) {
+            throw new IllegalArgumentException("Number of replicas must be at least 1");
+        }
+        replicas = new SimulationVirialOverlap2[numReplicas];
+        tasks = new ArrayList<>(numReplicas);
+        for (int i = 0; i < numReplicas; i++) {
+            replicas[i] = replicaFactory.makeReplica(i);
+            tasks.add(new ReplicaTask(replicas[i]));
+        }
+        threadPool = numReplicas > 1 ? new ForkJoinPool(numReplicas) : null;
+        accumulators = new AccumulatorRatioAverageCovarianceFull[2];
+        accumulatorDataInfo = new IDataInfo[2];
+        for (int i = 0; i < 2; i++) {
+            accumulators[i] = new AccumulatorRatioAverageCovarianceFull(replicas[0].accumulators[i].getBlockSize());
+        }
+        dvo = new DataVirialOverlap(replicas[0].dpVirialOverlap[0], accumulators[0], accumulators[1]);
+        refPref = replicas[0].refPref;
+        mergeInterval = 100;
+    }
+
+    public SimulationVirialOverlap2[] getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * Returns the number of overlap-integrator steps each replica takes
+     * between merges of the replica data.
+     */
+    public long getMergeInterval() {
+        return mergeInterval;
+    }
+
+    /**
+     * Sets the number of overlap-integrator steps each replica takes between
+     * merges of the replica data.  Default is 100.
+     */
+    public void setMergeInterval(long newMergeInterval) {
+        if (newMergeInterval < 1) {
+            throw new IllegalArgumentException("Merge interval must be positive");
+        }
+        mergeInterval = newMergeInterval;
+    }
+
+    /**
+     * Stops the threads used by this object.
+     */
+    public void shutdown() {
+        if (threadPool != null) {
+            threadPool.shutdown();
+        }
+    }
+
+    /**
+     * Sets the reference preference and span for all replicas.
+     */
+    public void setRefPref(double refPrefCenter, double span) {
+        refPref = refPrefCenter;
+        for (SimulationVirialOverlap2 replica : replicas) {
+            replica.setRefPref(refPrefCenter, span);
+        }
+    }
+
+    /**
+     * Finds an initial reference preference from a short simulation of all
+     * replicas (initSteps total), or reads it from the given file if it
+     * exists.  This works like SimulationVirialOverlap2.initRefPref, except
+     * that the value is taken from the combined data of all replicas.
+     */
+    public void initRefPref(String fileName, long initSteps) {
+        double oldRefPref = refPref;
+        // refPref = -1 indicates we are searching for an appropriate value
+        refPref = -1.0;
+        if (fileName != null) {
+            try {
+                FileReader fileReader = new FileReader(fileName);
+                BufferedReader bufReader = new BufferedReader(fileReader);
+                String refPrefString = bufReader.readLine();
+                refPref = Double.parseDouble(refPrefString);
+                bufReader.close();
+                fileReader.close();
+                System.out.println("setting ref pref (from file) to "+refPref);
+                for (SimulationVirialOverlap2 replica : replicas) {
+                    replica.dpVirialOverlap[0].setNumAlpha(replica.getNumAlpha());
+                    replica.dpVirialOverlap[1].setNumAlpha(replica.getNumAlpha());
+                }
+                setRefPref(refPref, 1);
+            }
+            catch (IOException e) {
+                // file not there, which is ok.
+            }
+        }
+
+        if (refPref == -1) {
+            long replicaSteps = getReplicaSteps(initSteps);
+            long oldBlockSize = replicas[0].blockSize;
+            boolean adjustable = replicas[0].integratorOS.isAdjustStepFraction();
+            for (SimulationVirialOverlap2 replica : replicas) {
+                for (int i=0; i<2; i++) {
+                    replica.integrators[i].getMoveManager().setEquilibrating(true);
+                }
+                replica.setAccumulatorBlockSize(getInitBlockSize(replica, replicaSteps));
+                replica.dpVirialOverlap[0].setNumAlpha(21);
+                replica.dpVirialOverlap[1].setNumAlpha(21);
+                replica.setRefPref(oldRefPref, 30);
+                if (adjustable) {
+                    // run both systems equally, as SimulationVirialOverlap2 does
+                    replica.integratorOS.setRefStepFraction(0.5);
+                    replica.integratorOS.setAdjustStepFraction(false);
+                }
+            }
+            runReplicas(replicaSteps);
+
+            refPref = dvo.getOverlapAverage();
+            System.out.println("setting initial ref pref to "+refPref);
+            if (Double.isInfinite(refPref) || Double.isNaN(refPref)) {
+                throw new RuntimeException("Unable to find ref pref from combined replica data");
+            }
+            for (SimulationVirialOverlap2 replica : replicas) {
+                if (adjustable) {
+                    replica.integratorOS.setAdjustStepFraction(true);
+                }
+                replica.setAccumulatorBlockSize(oldBlockSize);
+                replica.dpVirialOverlap[0].setNumAlpha(15);
+                replica.dpVirialOverlap[1].setNumAlpha(15);
+                replica.setRefPref(refPref, 4);
+                for (int i=0; i<2; i++) {
+                    replica.integrators[i].reset();
+                }
+                replica.refPref = -1;
+            }
+            // set refPref back to -1 so that equilibrate knows we're still
+            // looking for the appropriate value
+            refPref = -1;
+        }
+    }
+
+    /**
+     * Runs all replicas (initSteps total) to find MC move step sizes and, if
+     * needed, narrow in on the reference preference using the combined data.
+     * This works like SimulationVirialOverlap2.equilibrate.
+     */
+    public void equilibrate(String fileName, long initSteps) {
+        long replicaSteps = getReplicaSteps(initSteps);
+        long oldBlockSize = replicas[0].blockSize;
+        boolean adjustable = replicas[0].integratorOS.isAdjustStepFraction();
+        for (SimulationVirialOverlap2 replica : replicas) {
+            replica.setAccumulatorBlockSize(getInitBlockSize(replica, replicaSteps));
+            for (int i=0; i<2; i++) {
+                replica.integrators[i].getMoveManager().setEquilibrating(true);
+            }
+            if (adjustable) {
+                replica.integratorOS.setRefStepFraction(0.5);
+                replica.integratorOS.setAdjustStepFraction(false);
+            }
+        }
+        runReplicas(replicaSteps);
+
+        if (refPref == -1) {
+            refPref = dvo.getOverlapAverage();
+            System.out.println("setting ref pref to "+refPref);
+            if (Double.isInfinite(refPref) || Double.isNaN(refPref)) {
+                throw new RuntimeException("Unable to find ref pref from combined replica data");
+            }
+            for (SimulationVirialOverlap2 replica : replicas) {
+                replica.dpVirialOverlap[0].setNumAlpha(replica.getNumAlpha());
+                replica.dpVirialOverlap[1].setNumAlpha(replica.getNumAlpha());
+            }
+            setRefPref(refPref, 1);
+            if (fileName != null) {
+                try {
+                    FileWriter fileWriter = new FileWriter(fileName);
+                    BufferedWriter bufWriter = new BufferedWriter(fileWriter);
+                    bufWriter.write(String.valueOf(refPref)+"\n");
+                    bufWriter.close();
+                    fileWriter.close();
+                }
+                catch (IOException e) {
+                    throw new RuntimeException("couldn't write to refpref file");
+                }
+            }
+        }
+        else {
+            for (SimulationVirialOverlap2 replica : replicas) {
+                replica.dvo.reset();
+            }
+        }
+        for (SimulationVirialOverlap2 replica : replicas) {
+            if (adjustable) {
+                replica.integratorOS.setAdjustStepFraction(true);
+            }
+            replica.setAccumulatorBlockSize(oldBlockSize);
+            for (int i=0; i<2; i++) {
+                replica.integrators[i].getMoveManager().setEquilibrating(false);
+            }
+        }
+        mergeData();
+    }
+
+    /**
+     * Runs all replicas for the given total number of overlap-integrator
+     * steps, merging their data every mergeInterval steps.
+     */
+    public void run(long steps) {
+        runReplicas(getReplicaSteps(steps));
+    }
+
+    /**
+     * Returns the total result and its uncertainty from the combined data.
+     */
+    public double[] getAverageAndError() {
+        return dvo.getAverageAndError();
+    }
+
+    public void printResults(double refIntegral) {
+        double[] ratioAndError = dvo.getAverageAndError();
+        double ratio = ratioAndError[0];
+        double error = ratioAndError[1];
+        System.out.println("replicas: "+replicas.length);
+        System.out.println("ratio average: "+ratio+" error: "+error);
+        System.out.println("abs average: "+ratio*refIntegral+" error: "+error*Math.abs(refIntegral));
+
+        double[] alphaData = dvo.getOverlapAverageAndErrorForAlpha(dvo.getAlphaSource().getAlpha(0));
+        System.out.println(String.format("overlap ratio: % 20.15e error: %10.5e", alphaData[0], alphaData[1]));
+    }
+
+    protected long getReplicaSteps(long totalSteps) {
+        return (totalSteps + replicas.length - 1) / replicas.length;
+    }
+
+    protected static long getInitBlockSize(SimulationVirialOverlap2 replica, long replicaSteps) {
+        // 1000 blocks, but at least 1000 and at most 1e6 steps per block
+        long newBlockSize = replicaSteps*replica.integratorOS.getNumSubSteps()/1000;
+        if (newBlockSize < 1000) {
+            newBlockSize = 1000;
+        }
+        if (newBlockSize > 1000000) {
+            newBlockSize = 1000000;
+        }
+        return newBlockSize;
+    }
+
+    /**
+     * Runs each replica for the given number of steps, merging data after
+     * every mergeInterval steps.
+     */
+    protected void runReplicas(long replicaSteps) {
+        for (SimulationVirialOverlap2 replica : replicas) {
+            // as ActivityIntegrate would do
+            replica.integratorOS.reset();
+            replica.integratorOS.resetStepCount();
+        }
+        for (long done = 0; done < replicaSteps; ) {
+            long n = Math.min(mergeInterval, replicaSteps - done);
+            for (ReplicaTask task : tasks) {
+                task.steps = n;
+            }
+            if (threadPool == null) {
+                tasks.get(0).call();
+            }
+            else {
+                List<Future<Object>> futures = threadPool.invokeAll(tasks);
+                try {
+                    for (Future<Object> future : futures) {
+                        future.get();
+                    }
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+                catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+            done += n;
+            mergeData();
+        }
+    }
+
+    /**
+     * Replaces the combined data with the sum of the data from all replicas.
+     * This must only be called while the replicas are idle.
+     */
+    public void mergeData() {
+        for (int i = 0; i < 2; i++) {
+            IDataInfo dataInfo = replicas[0].dpVirialOverlap[i].getDataInfo();
+            long blockSize = replicas[0].accumulators[i].getBlockSize();
+            if (accumulators[i].getBlockSize() != blockSize) {
+                accumulators[i].setBlockSize(blockSize);
+            }
+            if (dataInfo == null) {
+                continue;
+            }
+            if (dataInfo != accumulatorDataInfo[i]) {
+                // the number of alpha values changed
+                accumulators[i].putDataInfo(dataInfo);
+                accumulatorDataInfo[i] = dataInfo;
+            }
+            accumulators[i].reset();
+            for (SimulationVirialOverlap2 replica : replicas) {
+                accumulators[i].addDataFrom(replica.accumulators[i]);
+            }
+        }
+    }
+
+    /**
+     * Makes the replicas.  Each replica must be a separate, initialized
+     * simulation with its own clusters and its own random number generator
+     * (the default generator for each Simulation is seeded independently).
+     */
+    public interface ReplicaFactory {
+        SimulationVirialOverlap2 makeReplica(int iReplica);
+    }
+
+    protected static class ReplicaTask implements Callable<Object> {
+        protected final SimulationVirialOverlap2 replica;
+        protected long steps;
+
+        public ReplicaTask(SimulationVirialOverlap2 replica) {
+            this.replica = replica;
+        }
+
+        public Object call() {
+            for (long i = 0; i < steps; i++) {
+                replica.integratorOS.doStep();
+            }
+            return null;
+        }
+    }
+}
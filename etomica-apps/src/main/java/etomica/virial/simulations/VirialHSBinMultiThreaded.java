@@ -105,6 +105,7 @@ public class VirialHSBinMultiThreaded {
         };
 
         Map<IntSet,MeterVirialBDBinMultiThreaded.MyData> allMyData = new HashMap<IntSet,MeterVirialBDBinMultiThreaded.MyData>();
+        long[] totalCount = new long[nThreads];
         boolean doReweight = doWheatley;
         if (w < 0) {
             // meter0 exists only to allow us to read in the weights file (if it exists) and to populate allMyData
@@ -113,6 +114,10 @@ public class VirialHSBinMultiThreaded {
             meter0.readWeights(params.runName+nPoints+"_weights.dat");
             doReweight = allMyData.size() == 0;
         }
+        if (params.readFiles.length > 0 || params.checkpointInterval > 0) {
+            // data can only be read in or checkpointed if it is shared
+            params.shareData = true;
+        }
         if (!doReweight && !params.shareData) {
             // reweighting not needed, we don't want to share data
             allMyData = null;
@@ -121,6 +126,10 @@ public class VirialHSBinMultiThreaded {
             // reweighting is needed, we have to share data
             params.shareData = true;
         }
+        if (params.readFiles.length > 0) {
+            // data from previous runs (and its steps) is added to the data from this run
+            new MeterVirialBDBinMultiThreaded(null, null, null, totalCount, allMyData, 0, true).readBinaryData(params.readFiles);
+        }
         if (ref == VirialHSBinParam.TREE) {
             System.out.println("using a tree reference");
         }
@@ -193,14 +202,14 @@ public class VirialHSBinMultiThreaded {
 
 
         long t1 = System.currentTimeMillis();
+        String checkpointFile = params.runName+nPoints+"_checkpoint.bin";
         SimulationWorker[] sw = new SimulationWorker[nThreads];
-        long[] totalCount = new long[nThreads];
         for (int it=0; it<nThreads; it++) {
             int[] mySeeds = allRandomSeeds.length > 0 ? new int[allRandomSeeds.length/nThreads] : null;
             if (mySeeds != null) {
                 System.arraycopy(allRandomSeeds, allRandomSeeds.length/nThreads*it, mySeeds, 0, mySeeds.length);
             }
-            sw[it] = new SimulationWorker(it, nPtsTabulated, nPoints, fRef, fRefPos, ref, vhs, chainFrac, ringFrac, steps, space, params.runName, tRatio, allMyData, w, totalCount, doReweight, mySeeds, doWheatley);
+            sw[it] = new SimulationWorker(it, nPtsTabulated, nPoints, fRef, fRefPos, ref, vhs, chainFrac, ringFrac, steps, space, params.runName, tRatio, allMyData, w, totalCount, doReweight, mySeeds, doWheatley, checkpointFile, params.checkpointInterval);
         }
         for (int it=0; it<nThreads; it++) {
             sw[it].start();
@@ -215,7 +224,12 @@ public class VirialHSBinMultiThreaded {
         }
 
         long t2 = System.currentTimeMillis();
-        System.out.println("total steps: "+(nThreads*steps));
+        // includes any steps read in
+        long totalSteps = 0;
+        for (int it=0; it<nThreads; it++) {
+            totalSteps += totalCount[it];
+        }
+        System.out.println("total steps: "+totalSteps);
 
         File out = null;
         String filename = null;
@@ -238,13 +252,16 @@ public class VirialHSBinMultiThreaded {
             }
             allMyData = sw[0].meter.getAllMyData();
         }
-        MeterVirialBDBinMultiThreaded.writeData(filename, allMyData, nThreads*steps);
+        MeterVirialBDBinMultiThreaded.writeData(filename, allMyData, totalSteps);
+        if (params.writeBinary) {
+            MeterVirialBDBinMultiThreaded.writeBinaryData(filename.replace("_raw.dat", "_raw.bin"), allMyData, totalSteps);
+        }
         
         if (doReweight || !doWheatley) {
             if (!Double.isNaN(litHSB)) System.out.println("lit value "+litHSB);
             System.out.println();
             
-            MeterVirialBDBinMultiThreaded.recomputeWeights(allMyData, nThreads*steps);
+            MeterVirialBDBinMultiThreaded.recomputeWeights(allMyData, totalSteps);
 
             List<IntSet> pvs = new ArrayList<IntSet>();
             pvs.addAll(allMyData.keySet());
@@ -297,7 +314,7 @@ public class VirialHSBinMultiThreaded {
                 dsum += c*davg;
                 sumErrStdev += var/sc*c*c;
                 dsumErrStdev += dvar/sc*c*c;
-                sumErrNum += c*((double)(nThreads*steps - c))/(nThreads*steps)*avg*avg;
+                sumErrNum += c*((double)(totalSteps - c))/totalSteps*avg*avg;
             }
             /*try {
                 fw.close();
@@ -306,18 +323,18 @@ public class VirialHSBinMultiThreaded {
                 throw new RuntimeException(e);
             }*/
             System.out.println(nSets+" sets");
-            sum *= refIntegral/(nThreads*steps);
-            dsum *= refIntegral/(nThreads*steps);
-            double finalErr = Math.sqrt(sumErrStdev + sumErrNum)*Math.abs(refIntegral)/(nThreads*steps);
-            double dfinalErr = Math.sqrt(dsumErrStdev + sumErrNum)*Math.abs(refIntegral)/(nThreads*steps);
+            sum *= refIntegral/totalSteps;
+            dsum *= refIntegral/totalSteps;
+            double finalErr = Math.sqrt(sumErrStdev + sumErrNum)*Math.abs(refIntegral)/totalSteps;
+            double dfinalErr = Math.sqrt(dsumErrStdev + sumErrNum)*Math.abs(refIntegral)/totalSteps;
     
             System.out.println();
     
             System.out.println("abs average: "+sum+"  error: "+finalErr);
             System.out.println("dabs average: "+dsum+"  error: "+dfinalErr);
             if (sumErrNum > 0) System.out.println("number variance fraction: "+sumErrNum/(sumErrStdev + sumErrNum));
-            System.out.println("number time fraction: "+(nThreads*steps)/(nThreads*steps + totalSampleCount*tRatio));
-            System.out.println("fraction not screened: "+((double)totalNotScreenedCount)/(nThreads*steps));
+            System.out.println("number time fraction: "+totalSteps/(totalSteps + totalSampleCount*tRatio));
+            System.out.println("fraction not screened: "+((double)totalNotScreenedCount)/totalSteps);
             System.out.println("fraction measured: "+((double)totalSampleCount)/totalNotScreenedCount);
     
             System.out.println("Difficulty: "+(finalErr*Math.sqrt(t2-t1)));
@@ -345,6 +362,8 @@ public class VirialHSBinMultiThreaded {
         protected final long[] totalCount;
         protected final boolean doReweight;
         protected final int[] mySeeds;
+        protected final String checkpointFile;
+        protected final long checkpointInterval;
         public MeterVirialBDBinMultiThreaded meter;
         protected final boolean doWheatley;
         
@@ -352,7 +371,8 @@ public class VirialHSBinMultiThreaded {
                                 MayerFunction fRefPos, int ref, double vhs, double chainFrac, double ringFrac,
                                 long steps, Space space, String runName, double tRatio,
                                 Map<IntSet,MeterVirialBDBinMultiThreaded.MyData> allMyData, double w, long[] totalCount,
-                                boolean doReweight, int[] mySeeds, boolean doWheatley) {
+                                boolean doReweight, int[] mySeeds, boolean doWheatley,
+                                String checkpointFile, long checkpointInterval) {
             this.iThread = iThread;
             this.nPtsTabulated = nPtsTabulated;
             this.nPoints = nPoints;
@@ -372,6 +392,8 @@ public class VirialHSBinMultiThreaded {
             this.doReweight = doReweight;
             this.mySeeds = mySeeds;
             this.doWheatley = doWheatley;
+            this.checkpointFile = checkpointFile;
+            this.checkpointInterval = checkpointInterval;
         }
         
         public void run() {
@@ -510,6 +532,9 @@ public class VirialHSBinMultiThreaded {
             };
             meter = new MeterVirialBDBinMultiThreaded(targetCluster, sim.getRandom(), doWheatley ? (nPoints<6 ? pod : (nPoints<12 ? pefcliqueEF : pefclique2)) : pod0, totalCount, allMyData, iThread, doReweight);
             meter.setBox(sim.box);
+            if (iThread == 0 && checkpointInterval > 0) {
+                meter.setCheckpoint(checkpointFile, checkpointInterval);
+            }
             if (w>=0) {
                 meter.setWeight(w);
             }
@@ -552,6 +577,8 @@ public class VirialHSBinMultiThreaded {
 
             sim.ai.setMaxSteps(steps);
             sim.getController().actionPerformed();
+            // add any data not yet added to the shared data
+            meter.flushLocalData();
             long t2 = System.currentTimeMillis();
             System.out.println("thread "+iThread+" time: "+(t2-t1)*0.001);
         }
@@ -613,6 +640,12 @@ public class VirialHSBinMultiThreaded {
         public int[] randomSeeds = new int[0];
 //        public boolean oldTRatio = false;
         public boolean shareData = true;
+        // binary files (from previous runs or checkpoints) with data to include
+        public String[] readFiles = new String[0];
+        // steps (all threads) between writing all data to the checkpoint file; 0 for none
+        public long checkpointInterval = 0;
+        // also write the data to a binary file
+        public boolean writeBinary = false;
         public boolean doWheatley = true;
     }
     
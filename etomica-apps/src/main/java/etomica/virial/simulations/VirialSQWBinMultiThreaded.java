@@ -60,7 +60,7 @@ public class VirialSQWBinMultiThreaded {
         final double w = params.w;
         final int[] allRandomSeeds = params.randomSeeds;
         final boolean doCov = params.doCov;
-        boolean shareData = nThreads == 1 || params.shareData;
+        boolean shareData = nThreads == 1 || params.shareData || params.readFiles.length > 0 || params.checkpointInterval > 0;
 
         final double vhs = (4.0/3.0)*Math.PI*sigmaHS*sigmaHS*sigmaHS;
 
@@ -94,6 +94,7 @@ public class VirialSQWBinMultiThreaded {
         };
 
         Map<IntSet,MeterVirialEBinMultiThreaded.MyData> allMyData = new HashMap<IntSet,MeterVirialEBinMultiThreaded.MyData>();
+        long[] totalCount = new long[nThreads];
         boolean doReweight = true;
         if (w < 0) {
             // meter0 exists only to allow us to read in the weights file (if it exists) and to populate allMyData
@@ -117,6 +118,12 @@ public class VirialSQWBinMultiThreaded {
         if (!shareData) {
             System.out.println("Not sharing data between threads");
         }
+        if (params.readFiles.length > 0) {
+            // data from previous runs (and its steps) is added to the data from this run
+            MeterVirialEBinMultiThreaded meterRead = new MeterVirialEBinMultiThreaded(null, null, null, totalCount, allMyData, 0, true, nPoints);
+            meterRead.setDoCov(doCov);
+            meterRead.readBinaryData(params.readFiles, nPoints);
+        }
         System.out.println("using a ring/chain/tree reference");
         System.out.println("  rings: "+ringFrac);
         System.out.println("  chains: "+chainFrac);
@@ -139,14 +146,14 @@ public class VirialSQWBinMultiThreaded {
 
 
         long t1 = System.currentTimeMillis();
+        String checkpointFile = params.runName+nPoints+"_checkpoint.bin";
         SimulationWorker[] sw = new SimulationWorker[nThreads];
-        long[] totalCount = new long[nThreads];
         for (int it=0; it<nThreads; it++) {
             int[] mySeeds = allRandomSeeds.length > 0 ? new int[allRandomSeeds.length/nThreads] : null;
             if (mySeeds != null) {
                 System.arraycopy(allRandomSeeds, allRandomSeeds.length/nThreads*it, mySeeds, 0, mySeeds.length);
             }
-            sw[it] = new SimulationWorker(it, nPoints, fTargetf1, fTargete2, fRefPos, lambda, vhs, chainFrac, ringFrac, steps, space, params.runName, tRatio, allMyData, w, totalCount, doReweight, mySeeds, doCov, targetTemp);
+            sw[it] = new SimulationWorker(it, nPoints, fTargetf1, fTargete2, fRefPos, lambda, vhs, chainFrac, ringFrac, steps, space, params.runName, tRatio, allMyData, w, totalCount, doReweight, mySeeds, doCov, targetTemp, checkpointFile, params.checkpointInterval);
         }
         for (int it=0; it<nThreads; it++) {
             sw[it].start();
@@ -161,7 +168,12 @@ public class VirialSQWBinMultiThreaded {
         }
 
         long t2 = System.currentTimeMillis();
-        System.out.println("total steps: "+(nThreads*steps));
+        // includes any steps read in
+        long totalSteps = 0;
+        for (int it=0; it<nThreads; it++) {
+            totalSteps += totalCount[it];
+        }
+        System.out.println("total steps: "+totalSteps);
 
         File out = null;
         String filename = null;
@@ -185,13 +197,16 @@ public class VirialSQWBinMultiThreaded {
             allMyData = sw[0].meter.getAllMyData();
         }
         System.out.println(allMyData.size()+" sets");
-        MeterVirialEBinMultiThreaded.writeData(filename, allMyData, nThreads*steps, nPoints);
+        MeterVirialEBinMultiThreaded.writeData(filename, allMyData, totalSteps, nPoints);
+        if (params.writeBinary) {
+            MeterVirialEBinMultiThreaded.writeBinaryData(filename.replace("_raw.dat", "_raw.bin"), allMyData, totalSteps, nPoints);
+        }
         
         if (doReweight) {
             System.out.println();
             
             MeterVirialEBinMultiThreaded.setQuiet(!doReweight);
-            MeterVirialEBinMultiThreaded.recomputeWeights(allMyData, nThreads*steps, nPoints);
+            MeterVirialEBinMultiThreaded.recomputeWeights(allMyData, totalSteps, nPoints);
         }
 
         List<IntSet> pvs = new ArrayList<IntSet>();
@@ -234,12 +249,12 @@ public class VirialSQWBinMultiThreaded {
                     }
                 }
             }
-            sum /= nThreads*steps;
+            sum /= totalSteps;
             isum[i] = sum;
             
             if (doReweight) {
-	            double sumErrNum = E0a2 - sum*sum*nThreads*steps;
-	            double finalErr = Math.sqrt(sumErrStdev + sumErrNum)*Math.abs(refIntegral)/(nThreads*steps);
+	            double sumErrNum = E0a2 - sum*sum*totalSteps;
+	            double finalErr = Math.sqrt(sumErrStdev + sumErrNum)*Math.abs(refIntegral)/totalSteps;
                 sum *= refIntegral;
                 sum /= Math.pow(Y, i);
                 finalErr /= Math.pow(Y, i);
@@ -252,7 +267,7 @@ public class VirialSQWBinMultiThreaded {
             System.out.println("\nCorrelations:");
             for (int j=0; j<nn; j++) {
                 for (int k=0; k<nn; k++) {
-                    cov[j][k] -= isum[j]*isum[k]*(nThreads*steps);
+                    cov[j][k] -= isum[j]*isum[k]*totalSteps;
                 }
             }
             for (int j=0; j<nn; j++) {
@@ -273,8 +288,8 @@ public class VirialSQWBinMultiThreaded {
             System.out.println();
         }
 
-        System.out.println("number time fraction: "+(nThreads*steps)/(nThreads*steps + totalSampleCount*tRatio));
-        System.out.println("fraction not screened: "+((double)totalNotScreenedCount)/(nThreads*steps));
+        System.out.println("number time fraction: "+totalSteps/(totalSteps + totalSampleCount*tRatio));
+        System.out.println("fraction not screened: "+((double)totalNotScreenedCount)/totalSteps);
         System.out.println("fraction measured: "+((double)totalSampleCount)/totalNotScreenedCount);
         
         System.out.println(String.format("expected time: %d\n",(int)((steps*ts+totalSampleCount/nThreads*tc)/1e6)));
@@ -302,13 +317,16 @@ public class VirialSQWBinMultiThreaded {
         protected final int[] mySeeds;
         protected final boolean doCov;
         protected final double targetTemp;
+        protected final String checkpointFile;
+        protected final long checkpointInterval;
         public MeterVirialEBinMultiThreaded meter;
         
         public SimulationWorker(int iThread, int nPoints, MayerFunction fTargetf1, MayerFunction fTargete2,
                                 MayerFunction fRefPos, double lambda, double vhs, double chainFrac, double ringFrac,
                                 long steps, Space space, String runName, double tRatio,
                                 Map<IntSet,MeterVirialEBinMultiThreaded.MyData> allMyData, double w, long[] totalCount,
-                                boolean doReweight, int[] mySeeds, boolean doCov, double targetTemp) {
+                                boolean doReweight, int[] mySeeds, boolean doCov, double targetTemp,
+                                String checkpointFile, long checkpointInterval) {
             this.iThread = iThread;
             this.nPoints = nPoints;
             this.fTargetf1 = fTargetf1;
@@ -329,6 +347,8 @@ public class VirialSQWBinMultiThreaded {
             this.mySeeds = mySeeds;
             this.doCov = doCov;
             this.targetTemp = targetTemp;
+            this.checkpointFile = checkpointFile;
+            this.checkpointInterval = checkpointInterval;
         }
         
         public void run() {
@@ -523,6 +543,9 @@ public class VirialSQWBinMultiThreaded {
             meter = new MeterVirialEBinMultiThreaded(targetCluster, sim.getRandom(), myPODs[nPoints], totalCount, allMyData, iThread, doReweight, nPoints);
             meter.setDoCov(doCov);
             meter.setBox(sim.box);
+            if (iThread == 0 && checkpointInterval > 0) {
+                meter.setCheckpoint(checkpointFile, checkpointInterval);
+            }
             if (w>=0) {
                 meter.setWeight(w);
             }
@@ -553,6 +576,8 @@ public class VirialSQWBinMultiThreaded {
 
             sim.ai.setMaxSteps(steps);
             sim.getController().actionPerformed();
+            // add any data not yet added to the shared data
+            meter.flushLocalData();
             long t2 = System.currentTimeMillis();
             System.out.println("thread "+iThread+" time: "+(t2-t1)*0.001);
         }
@@ -572,6 +597,12 @@ public class VirialSQWBinMultiThreaded {
         public double w = -1;
         public int[] randomSeeds = new int[0];
         public boolean shareData = true;
+        // binary files (from previous runs or checkpoints) with data to include
+        public String[] readFiles = new String[0];
+        // steps (all threads) between writing all data to the checkpoint file; 0 for none
+        public long checkpointInterval = 0;
+        // also write the data to a binary file
+        public boolean writeBinary = false;
         public boolean doCov = false;
         public double targetTemp = 0;
     }
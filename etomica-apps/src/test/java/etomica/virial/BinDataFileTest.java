@@ -0,0 +1,159 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.virial;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class BinDataFileTest {
+
+    @Test
+    public void testBigDecimal() {
+        MathContext mc = new MathContext(40);
+        BigDecimal x = new BigDecimal("-1.234567890123456789012345678901234567891E-7");
+        double[] values = new double[3];
+        BinDataFile.putBigDecimal(x, values, 0, 3);
+        assertEquals(0, x.compareTo(BinDataFile.getBigDecimal(values, 0, 3, mc)));
+    }
+
+    @Test
+    public void testWriteRead() throws IOException {
+        Map<IntSet, MeterVirialBinMultiThreaded.MyData> allMyData = new HashMap<IntSet, MeterVirialBinMultiThreaded.MyData>();
+        for (int i = 0; i < 100; i++) {
+            MeterVirialBinMultiThreaded.MyData amd = new MeterVirialBinMultiThreaded.MyData();
+            amd.unscreenedCount = 3 * i + 1;
+            for (int j = 0; j < i; j++) {
+                amd.addData(0.1 * j - 1);
+            }
+            allMyData.put(new IntSet(new int[]{i, -i}), amd);
+        }
+        File f = File.createTempFile("bindata", ".bin");
+        try {
+            MeterVirialBinMultiThreaded.writeBinaryData(f.getPath(), allMyData, 12345);
+            assertFalse(new File(f.getPath() + ".tmp").exists());
+
+            // reading the same file twice should double everything
+            MeterVirialBinMultiThreaded meter = new MeterVirialBinMultiThreaded(null, null, null);
+            meter.readBinaryData(new String[]{f.getPath(), f.getPath()});
+            assertEquals(2 * 12345, meter.getTotalCount());
+            Map<IntSet, MeterVirialBinMultiThreaded.MyData> readData = meter.getAllMyData();
+            assertEquals(allMyData.size(), readData.size());
+            for (IntSet pv : allMyData.keySet()) {
+                MeterVirialBinMultiThreaded.MyData amd = allMyData.get(pv);
+                MeterVirialBinMultiThreaded.MyData amdRead = readData.get(pv);
+                assertEquals(2 * amd.unscreenedCount, amdRead.unscreenedCount);
+                assertEquals(2 * amd.sampleCount, amdRead.sampleCount);
+                assertEquals(2 * amd.sum, amdRead.sum, 0);
+                assertEquals(2 * amd.sum2, amdRead.sum2, 0);
+            }
+        }
+        finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void testWriteReadBD() throws IOException {
+        MathContext mc = new MathContext(40);
+        Map<IntSet, MeterVirialBDBinMultiThreaded.MyData> allMyData = new HashMap<IntSet, MeterVirialBDBinMultiThreaded.MyData>();
+        for (int i = 0; i < 100; i++) {
+            MeterVirialBDBinMultiThreaded.MyData amd = new MeterVirialBDBinMultiThreaded.MyData();
+            amd.unscreenedCount = 3 * i + 1;
+            for (int j = 0; j < i; j++) {
+                // the exact value of the double has more digits than mc keeps
+                amd.addData(new BigDecimal(Math.PI * j - 1).divide(new BigDecimal(7), mc), mc);
+            }
+            allMyData.put(new IntSet(new int[]{i, -i}), amd);
+        }
+        File f = File.createTempFile("bindata", ".bin");
+        try {
+            MeterVirialBDBinMultiThreaded.writeBinaryData(f.getPath(), allMyData, 12345);
+
+            // reading the same file twice should double everything
+            MeterVirialBDBinMultiThreaded meter = new MeterVirialBDBinMultiThreaded(null, null, null);
+            meter.readBinaryData(new String[]{f.getPath(), f.getPath()});
+            assertEquals(2 * 12345, meter.getTotalCount());
+            Map<IntSet, MeterVirialBDBinMultiThreaded.MyData> readData = meter.getAllMyData();
+            assertEquals(allMyData.size(), readData.size());
+            for (IntSet pv : allMyData.keySet()) {
+                MeterVirialBDBinMultiThreaded.MyData amd = allMyData.get(pv);
+                MeterVirialBDBinMultiThreaded.MyData amdRead = readData.get(pv);
+                assertEquals(2 * amd.unscreenedCount, amdRead.unscreenedCount);
+                assertEquals(2 * amd.sampleCount, amdRead.sampleCount);
+                assertEquals(0, amd.sum.add(amd.sum, mc).compareTo(amdRead.sum));
+                assertEquals(0, amd.sum2.add(amd.sum2, mc).compareTo(amdRead.sum2));
+                assertEquals(2 * amd.dsum, amdRead.dsum, 0);
+                assertEquals(2 * amd.dsum2, amdRead.dsum2, 0);
+            }
+        }
+        finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void testWriteReadE() throws IOException {
+        int n = 4;
+        int nn = 1 + n * (n - 1) / 2;
+        for (boolean doCov : new boolean[]{false, true}) {
+            Map<IntSet, MeterVirialEBinMultiThreaded.MyData> allMyData = new HashMap<IntSet, MeterVirialEBinMultiThreaded.MyData>();
+            for (int i = 0; i < 100; i++) {
+                MeterVirialEBinMultiThreaded.MyData amd = doCov ? new MeterVirialEBinMultiThreaded.MyDataCov(nn) : new MeterVirialEBinMultiThreaded.MyData(nn);
+                amd.unscreenedCount = 3 * i + 1;
+                double[] v = new double[nn];
+                for (int j = 0; j < i; j++) {
+                    for (int k = 0; k < nn; k++) {
+                        v[k] = 0.1 * j - k;
+                    }
+                    amd.addData(v);
+                }
+                allMyData.put(new IntSet(new int[]{i, -i}), amd);
+            }
+            File f = File.createTempFile("bindata", ".bin");
+            try {
+                MeterVirialEBinMultiThreaded.writeBinaryData(f.getPath(), allMyData, 12345, n);
+
+                // reading the same file twice should double everything
+                MeterVirialEBinMultiThreaded meter = new MeterVirialEBinMultiThreaded(null, null, null, n);
+                meter.readBinaryData(new String[]{f.getPath(), f.getPath()}, n);
+                assertEquals(doCov, meter.getDoCov());
+                assertEquals(2 * 12345, meter.getTotalCount());
+                Map<IntSet, MeterVirialEBinMultiThreaded.MyData> readData = meter.getAllMyData();
+                assertEquals(allMyData.size(), readData.size());
+                for (IntSet pv : allMyData.keySet()) {
+                    MeterVirialEBinMultiThreaded.MyData amd = allMyData.get(pv);
+                    MeterVirialEBinMultiThreaded.MyData amdRead = readData.get(pv);
+                    assertEquals(doCov, amdRead instanceof MeterVirialEBinMultiThreaded.MyDataCov);
+                    assertEquals(2 * amd.unscreenedCount, amdRead.unscreenedCount);
+                    assertEquals(2 * amd.sampleCount, amdRead.sampleCount);
+                    if (amd.sampleCount == 0) continue;
+                    for (int k = 0; k < nn; k++) {
+                        assertEquals(2 * amd.sum[k], amdRead.sum[k], 0);
+                        assertEquals(2 * amd.sum2[k], amdRead.sum2[k], 0);
+                    }
+                    if (doCov) {
+                        double[] pairSum = ((MeterVirialEBinMultiThreaded.MyDataCov) amd).pairSum;
+                        double[] pairSumRead = ((MeterVirialEBinMultiThreaded.MyDataCov) amdRead).pairSum;
+                        for (int k = 0; k < pairSum.length; k++) {
+                            assertEquals(2 * pairSum[k], pairSumRead[k], 0);
+                        }
+                    }
+                }
+            }
+            finally {
+                f.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.virial;
+
+import etomica.atom.IAtomList;
+import etomica.chem.elements.ElementSimple;
+import etomica.potential.P2LennardJones;
+import etomica.simulation.Simulation;
+import etomica.space.Space;
+import etomica.space.Vector;
+import etomica.species.Species;
+import etomica.species.SpeciesSpheresMono;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that clusters that recompute only the Mayer functions of molecules
+ * that moved give the same values as clusters that recompute everything,
+ * through a sequence of accepted and rejected single-molecule trials.
+ */
+public class ClusterIncrementalUpdateTest {
+
+    @Test
+    public void testIncremental() {
+        int nPoints = 5;
+        Space space = Space.getInstance(3);
+        Species species = new SpeciesSpheresMono(space, new ElementSimple(""));
+        MayerFunction f = new MayerGeneralSpherical(new P2LennardJones(space));
+        // ring diagram
+        int[][] ring = new int[nPoints][];
+        for (int i = 0; i < nPoints; i++) {
+            ring[i] = new int[]{i, (i + 1) % nPoints};
+        }
+        ClusterSum sum = new ClusterSum(new ClusterBonds[]{new ClusterBonds(nPoints, new int[][][]{ring})}, new double[]{1}, new MayerFunction[]{f});
+        ClusterSum sumIncremental = (ClusterSum) sum.makeCopy();
+        sumIncremental.setIncrementalUpdate(true);
+        ClusterWheatleySoft wheatley = new ClusterWheatleySoft(nPoints, f, 0);
+        ClusterWheatleySoft wheatleyIncremental = new ClusterWheatleySoft(nPoints, f, 0);
+        wheatleyIncremental.setIncrementalUpdate(true);
+        ClusterAbstract[] clusters = new ClusterAbstract[]{sum, sumIncremental, wheatley, wheatleyIncremental};
+        for (ClusterAbstract c : clusters) {
+            c.setTemperature(1.5);
+        }
+
+        Simulation sim = new Simulation(space);
+        BoxCluster box = new BoxCluster(new ClusterWeightAbs(sum), space);
+        sim.addSpecies(species);
+        sim.addBox(box);
+        box.setNMolecules(species, nPoints);
+        IAtomList atoms = box.getLeafList();
+        Random random = new Random(7);
+        for (int i = 0; i < nPoints; i++) {
+            atoms.getAtom(i).getPosition().setX(0, i);
+        }
+        box.trialNotify();
+        box.acceptNotify();
+
+        Vector old = space.makeVector();
+        for (int step = 0; step < 200; step++) {
+            Vector p = atoms.getAtom(random.nextInt(nPoints)).getPosition();
+            old.E(p);
+            for (int j = 0; j < 3; j++) {
+                p.setX(j, p.getX(j) + 0.5 * (random.nextDouble() - 0.5));
+            }
+            box.trialNotify();
+            checkValues(clusters, box);
+            if (random.nextBoolean()) {
+                box.acceptNotify();
+            }
+            else {
+                p.E(old);
+                box.rejectNotify();
+            }
+            // the accepted configuration is evaluated only some of the time
+            if (random.nextBoolean()) {
+                checkValues(clusters, box);
+            }
+        }
+    }
+
+    private void checkValues(ClusterAbstract[] clusters, BoxCluster box) {
+        double v = clusters[0].value(box);
+        assertEquals(v, clusters[1].value(box), 1e-14 * Math.abs(v));
+        v = clusters[2].value(box);
+        assertEquals(v, clusters[3].value(box), 1e-14 * Math.abs(v));
+    }
+}
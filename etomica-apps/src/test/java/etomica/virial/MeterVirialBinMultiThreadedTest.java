@@ -0,0 +1,420 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.virial;
+
+import etomica.action.IAction;
+import etomica.box.Box;
+import etomica.chem.elements.ElementSimple;
+import etomica.integrator.IntegratorListenerAction;
+import etomica.molecule.IMoleculeList;
+import etomica.potential.IPotential;
+import etomica.space.Space;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import etomica.util.random.IRandom;
+import etomica.util.random.RandomMersenneTwister;
+import etomica.virial.simulations.SimulationVirial;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a meter collecting data for a shared Map (which it adds to the
+ * Map periodically) ends up with the same data as a meter using its own Map,
+ * and that several meters sharing a Map from separate threads end up with
+ * the sum of the data they each collect on their own.
+ */
+public class MeterVirialBinMultiThreadedTest {
+
+    protected static final int N_THREADS = 3;
+    protected static final long STEPS = 20000;
+    protected static final int N_POINTS_E = 4;
+
+    @Test
+    public void testSharedData() {
+        Map<IntSet, MeterVirialBinMultiThreaded.MyData> ownData = runHS(null);
+        Map<IntSet, MeterVirialBinMultiThreaded.MyData> sharedData = runHS(new HashMap<IntSet, MeterVirialBinMultiThreaded.MyData>());
+        assertTrue(ownData.size() > 1);
+        assertEquals(ownData.size(), sharedData.size());
+        for (IntSet pv : ownData.keySet()) {
+            MeterVirialBinMultiThreaded.MyData amd = ownData.get(pv);
+            MeterVirialBinMultiThreaded.MyData amdShared = sharedData.get(pv);
+            assertNotNull(amdShared);
+            assertEquals(amd.unscreenedCount, amdShared.unscreenedCount);
+            assertEquals(amd.sampleCount, amdShared.sampleCount);
+            assertEquals(amd.sum, amdShared.sum, Math.abs(amd.sum) * 1e-12);
+            assertEquals(amd.sum2, amdShared.sum2, Math.abs(amd.sum2) * 1e-12);
+        }
+    }
+
+    @Test
+    public void testThreads() {
+        Map<IntSet, MeterVirialBinMultiThreaded.MyData> serialData = new HashMap<IntSet, MeterVirialBinMultiThreaded.MyData>();
+        for (int i = 0; i < N_THREADS; i++) {
+            MeterVirialBinMultiThreaded meter = makeHSMeter(i, new long[1], null, 0, false).run().meter;
+            for (Map.Entry<IntSet, MeterVirialBinMultiThreaded.MyData> e : meter.getAllMyData().entrySet()) {
+                MeterVirialBinMultiThreaded.MyData amd = serialData.get(e.getKey());
+                if (amd == null) {
+                    amd = new MeterVirialBinMultiThreaded.MyData();
+                    serialData.put(e.getKey(), amd);
+                }
+                amd.unscreenedCount += e.getValue().unscreenedCount;
+                amd.sampleCount += e.getValue().sampleCount;
+                amd.sum += e.getValue().sum;
+                amd.sum2 += e.getValue().sum2;
+            }
+        }
+
+        Map<IntSet, MeterVirialBinMultiThreaded.MyData> sharedData = new HashMap<IntSet, MeterVirialBinMultiThreaded.MyData>();
+        long[] totalCount = new long[N_THREADS];
+        MeterRun<MeterVirialBinMultiThreaded>[] runs = new MeterRun[N_THREADS];
+        for (int i = 0; i < N_THREADS; i++) {
+            runs[i] = makeHSMeter(i, totalCount, sharedData, i, false);
+        }
+        runThreads(runs);
+
+        assertEquals(N_THREADS * STEPS, runs[0].meter.getTotalCount());
+        assertTrue(serialData.size() > 1);
+        assertEquals(serialData.size(), sharedData.size());
+        for (IntSet pv : serialData.keySet()) {
+            MeterVirialBinMultiThreaded.MyData amd = serialData.get(pv);
+            MeterVirialBinMultiThreaded.MyData amdShared = sharedData.get(pv);
+            assertNotNull(amdShared);
+            assertEquals(amd.unscreenedCount, amdShared.unscreenedCount);
+            assertEquals(amd.sampleCount, amdShared.sampleCount);
+            assertEquals(amd.sum, amdShared.sum, Math.abs(amd.sum) * 1e-12);
+            assertEquals(amd.sum2, amdShared.sum2, Math.abs(amd.sum2) * 1e-12);
+        }
+    }
+
+    /**
+     * Thread 0 flushes its own data and reweights the shared data while the
+     * other threads are running.  The meters use their own random number
+     * generators, so the configurations (and so the unscreened counts) are
+     * unaffected by the weights.
+     */
+    @Test
+    public void testThreadsReweight() {
+        Map<IntSet, Long> serialCount = new HashMap<IntSet, Long>();
+        for (int i = 0; i < N_THREADS; i++) {
+            MeterVirialBinMultiThreaded meter = makeHSMeter(i, new long[1], null, 0, false).run().meter;
+            for (Map.Entry<IntSet, MeterVirialBinMultiThreaded.MyData> e : meter.getAllMyData().entrySet()) {
+                Long c = serialCount.get(e.getKey());
+                serialCount.put(e.getKey(), (c == null ? 0 : c) + e.getValue().unscreenedCount);
+            }
+        }
+
+        MeterVirialBinMultiThreaded.setTRatio(10);
+        Map<IntSet, MeterVirialBinMultiThreaded.MyData> sharedData = new HashMap<IntSet, MeterVirialBinMultiThreaded.MyData>();
+        long[] totalCount = new long[N_THREADS];
+        MeterRun<MeterVirialBinMultiThreaded>[] runs = new MeterRun[N_THREADS];
+        for (int i = 0; i < N_THREADS; i++) {
+            runs[i] = makeHSMeter(i, totalCount, sharedData, i, true);
+        }
+        runs[0].meter.nextReweightStep = STEPS / 10;
+        runThreads(runs);
+
+        assertTrue(runs[0].meter.nextReweightStep > STEPS / 10);
+        boolean reweighted = false;
+        for (MeterVirialBinMultiThreaded.MyData amd : sharedData.values()) {
+            reweighted = reweighted || amd.weight != 1;
+        }
+        assertTrue(reweighted);
+        assertEquals(N_THREADS * STEPS, runs[0].meter.getTotalCount());
+        assertEquals(serialCount.size(), sharedData.size());
+        for (IntSet pv : serialCount.keySet()) {
+            MeterVirialBinMultiThreaded.MyData amdShared = sharedData.get(pv);
+            assertNotNull(amdShared);
+            assertEquals(serialCount.get(pv).longValue(), amdShared.unscreenedCount);
+        }
+    }
+
+    @Test
+    public void testThreadsBD() {
+        Map<IntSet, MeterVirialBDBinMultiThreaded.MyData> serialData = new HashMap<IntSet, MeterVirialBDBinMultiThreaded.MyData>();
+        for (int i = 0; i < N_THREADS; i++) {
+            MeterVirialBDBinMultiThreaded meter = makeHSMeterBD(i, new long[1], null, 0).run().meter;
+            for (Map.Entry<IntSet, MeterVirialBDBinMultiThreaded.MyData> e : meter.getAllMyData().entrySet()) {
+                MeterVirialBDBinMultiThreaded.MyData amd = serialData.get(e.getKey());
+                if (amd == null) {
+                    amd = new MeterVirialBDBinMultiThreaded.MyData();
+                    serialData.put(e.getKey(), amd);
+                }
+                amd.unscreenedCount += e.getValue().unscreenedCount;
+                amd.sampleCount += e.getValue().sampleCount;
+                amd.sum = amd.sum.add(e.getValue().sum, meter.getMathContext());
+                amd.sum2 = amd.sum2.add(e.getValue().sum2, meter.getMathContext());
+                amd.dsum += e.getValue().dsum;
+                amd.dsum2 += e.getValue().dsum2;
+            }
+        }
+
+        Map<IntSet, MeterVirialBDBinMultiThreaded.MyData> sharedData = new HashMap<IntSet, MeterVirialBDBinMultiThreaded.MyData>();
+        long[] totalCount = new long[N_THREADS];
+        MeterRun<MeterVirialBDBinMultiThreaded>[] runs = new MeterRun[N_THREADS];
+        for (int i = 0; i < N_THREADS; i++) {
+            runs[i] = makeHSMeterBD(i, totalCount, sharedData, i);
+        }
+        runThreads(runs);
+
+        assertEquals(N_THREADS * STEPS, runs[0].meter.getTotalCount());
+        assertTrue(serialData.size() > 1);
+        assertEquals(serialData.size(), sharedData.size());
+        for (IntSet pv : serialData.keySet()) {
+            MeterVirialBDBinMultiThreaded.MyData amd = serialData.get(pv);
+            MeterVirialBDBinMultiThreaded.MyData amdShared = sharedData.get(pv);
+            assertNotNull(amdShared);
+            assertEquals(amd.unscreenedCount, amdShared.unscreenedCount);
+            assertEquals(amd.sampleCount, amdShared.sampleCount);
+            // the BigDecimal sums are rounded (only) beyond the 40th digit
+            assertTrue(amd.sum.subtract(amdShared.sum).abs().compareTo(amd.sum.abs().scaleByPowerOfTen(-35)) <= 0);
+            assertTrue(amd.sum2.subtract(amdShared.sum2).abs().compareTo(amd.sum2.abs().scaleByPowerOfTen(-35)) <= 0);
+            assertEquals(amd.dsum, amdShared.dsum, Math.abs(amd.dsum) * 1e-12);
+            assertEquals(amd.dsum2, amdShared.dsum2, Math.abs(amd.dsum2) * 1e-12);
+        }
+    }
+
+    @Test
+    public void testThreadsE() {
+        for (boolean doCov : new boolean[]{false, true}) {
+            int nn = 1 + N_POINTS_E * (N_POINTS_E - 1) / 2;
+            Map<IntSet, MeterVirialEBinMultiThreaded.MyData> serialData = new HashMap<IntSet, MeterVirialEBinMultiThreaded.MyData>();
+            for (int i = 0; i < N_THREADS; i++) {
+                MeterVirialEBinMultiThreaded meter = makeSQWMeter(i, new long[1], null, 0, doCov).run().meter;
+                for (Map.Entry<IntSet, MeterVirialEBinMultiThreaded.MyData> e : meter.getAllMyData().entrySet()) {
+                    MeterVirialEBinMultiThreaded.MyData data = e.getValue();
+                    MeterVirialEBinMultiThreaded.MyData amd = serialData.get(e.getKey());
+                    if (amd == null) {
+                        amd = doCov ? new MeterVirialEBinMultiThreaded.MyDataCov(nn) : new MeterVirialEBinMultiThreaded.MyData(nn);
+                        serialData.put(e.getKey(), amd);
+                    }
+                    amd.unscreenedCount += data.unscreenedCount;
+                    if (data.sampleCount == 0) continue;
+                    if (amd.sum == null) {
+                        amd.sum = new double[nn];
+                        amd.sum2 = new double[nn];
+                        if (doCov) {
+                            ((MeterVirialEBinMultiThreaded.MyDataCov) amd).pairSum = new double[nn * (nn - 1) / 2];
+                        }
+                    }
+                    amd.sampleCount += data.sampleCount;
+                    for (int j = 0; j < nn; j++) {
+                        amd.sum[j] += data.sum[j];
+                        amd.sum2[j] += data.sum2[j];
+                    }
+                    if (doCov) {
+                        double[] pairSum = ((MeterVirialEBinMultiThreaded.MyDataCov) amd).pairSum;
+                        double[] pairSumMore = ((MeterVirialEBinMultiThreaded.MyDataCov) data).pairSum;
+                        for (int j = 0; j < pairSum.length; j++) {
+                            pairSum[j] += pairSumMore[j];
+                        }
+                    }
+                }
+            }
+
+            Map<IntSet, MeterVirialEBinMultiThreaded.MyData> sharedData = new HashMap<IntSet, MeterVirialEBinMultiThreaded.MyData>();
+            long[] totalCount = new long[N_THREADS];
+            MeterRun<MeterVirialEBinMultiThreaded>[] runs = new MeterRun[N_THREADS];
+            for (int i = 0; i < N_THREADS; i++) {
+                runs[i] = makeSQWMeter(i, totalCount, sharedData, i, doCov);
+            }
+            runThreads(runs);
+
+            assertEquals(N_THREADS * STEPS, runs[0].meter.getTotalCount());
+            assertTrue(serialData.size() > 1);
+            assertEquals(serialData.size(), sharedData.size());
+            for (IntSet pv : serialData.keySet()) {
+                MeterVirialEBinMultiThreaded.MyData amd = serialData.get(pv);
+                MeterVirialEBinMultiThreaded.MyData amdShared = sharedData.get(pv);
+                assertNotNull(amdShared);
+                assertEquals(doCov, amdShared instanceof MeterVirialEBinMultiThreaded.MyDataCov);
+                assertEquals(amd.unscreenedCount, amdShared.unscreenedCount);
+                assertEquals(amd.sampleCount, amdShared.sampleCount);
+                if (amd.sampleCount == 0) continue;
+                for (int j = 0; j < nn; j++) {
+                    assertEquals(amd.sum[j], amdShared.sum[j], Math.abs(amd.sum[j]) * 1e-12);
+                    assertEquals(amd.sum2[j], amdShared.sum2[j], Math.abs(amd.sum2[j]) * 1e-12);
+                }
+                if (doCov) {
+                    double[] pairSum = ((MeterVirialEBinMultiThreaded.MyDataCov) amd).pairSum;
+                    double[] pairSumShared = ((MeterVirialEBinMultiThreaded.MyDataCov) amdShared).pairSum;
+                    for (int j = 0; j < pairSum.length; j++) {
+                        assertEquals(pairSum[j], pairSumShared[j], Math.abs(pairSum[j]) * 1e-12);
+                    }
+                }
+            }
+        }
+    }
+
+    protected Map<IntSet, MeterVirialBinMultiThreaded.MyData> runHS(Map<IntSet, MeterVirialBinMultiThreaded.MyData> allMyData) {
+        return makeHSMeter(0, new long[1], allMyData, 0, false).run().meter.getAllMyData();
+    }
+
+    protected MeterRun<MeterVirialBinMultiThreaded> makeHSMeter(int seed, long[] totalCount, Map<IntSet, MeterVirialBinMultiThreaded.MyData> allMyData, int iThread, boolean doReweight) {
+        ClusterWheatleyHS targetCluster = new ClusterWheatleyHS(5, new MayerHardSphere(1));
+        SimulationVirial sim = makeHSSim(targetCluster, seed);
+        MeterVirialBinMultiThreaded.setQuiet(true);
+        IRandom random = doReweight ? new RandomMersenneTwister(100 + seed) : sim.getRandom();
+        final MeterVirialBinMultiThreaded meter = new MeterVirialBinMultiThreaded(targetCluster, random, makeEdgeCountBin(targetCluster), totalCount, allMyData, iThread, doReweight);
+        meter.setBox(sim.box);
+        meter.setFlushInterval(7);
+        return new MeterRun<MeterVirialBinMultiThreaded>(sim, meter) {
+            protected void flush() {
+                meter.flushLocalData();
+            }
+        };
+    }
+
+    protected MeterRun<MeterVirialBDBinMultiThreaded> makeHSMeterBD(int seed, long[] totalCount, Map<IntSet, MeterVirialBDBinMultiThreaded.MyData> allMyData, int iThread) {
+        ClusterWheatleyHS targetCluster = new ClusterWheatleyHS(5, new MayerHardSphere(1));
+        SimulationVirial sim = makeHSSim(targetCluster, seed);
+        MeterVirialBDBinMultiThreaded.setQuiet(true);
+        final MeterVirialBDBinMultiThreaded meter = new MeterVirialBDBinMultiThreaded(targetCluster, sim.getRandom(), makeEdgeCountBin(targetCluster), totalCount, allMyData, iThread, false);
+        meter.setBox(sim.box);
+        meter.setFlushInterval(7);
+        return new MeterRun<MeterVirialBDBinMultiThreaded>(sim, meter) {
+            protected void flush() {
+                meter.flushLocalData();
+            }
+        };
+    }
+
+    protected MeterRun<MeterVirialEBinMultiThreaded> makeSQWMeter(int seed, long[] totalCount, Map<IntSet, MeterVirialEBinMultiThreaded.MyData> allMyData, int iThread, boolean doCov) {
+        final double lambda = 1.5;
+        final double y = Math.exp(1) - 1;
+        MayerFunction fTargetf1 = new MayerFunction() {
+            public void setBox(Box box) {}
+
+            public IPotential getPotential() {return null;}
+
+            public double f(IMoleculeList pair, double r2, double beta) {
+                if (r2 < 1 || r2 > lambda * lambda) return 0;
+                return y;
+            }
+        };
+        final ClusterWheatleyExtendSW targetCluster = new ClusterWheatleyExtendSW(N_POINTS_E, fTargetf1, new MayerEHardSphere(1));
+        targetCluster.setTemperature(1);
+        Space space = Space3D.getInstance();
+        ClusterAbstract refCluster = new ClusterSinglyConnected(N_POINTS_E, new MayerHardSphere(lambda));
+        refCluster.setTemperature(1);
+        SimulationVirial sim = new SimulationVirial(space, new SpeciesSpheresMono(space, new ElementSimple("A")), 1.0,
+                ClusterWeightAbs.makeWeightCluster(refCluster), refCluster, new ClusterAbstract[]{targetCluster}, false, new int[]{1 + seed, 2, 3, 4});
+        sim.setMeter(null);
+        sim.integrator.getMoveManager().removeMCMove(sim.mcMoveTranslate);
+        sim.integrator.getMoveManager().addMCMove(new MCMoveClusterAtomHSTree(sim.getRandom(), space, lambda));
+
+        IntSet.PropertyBin pod = new IntSet.PropertyBin() {
+            final IntSet pv = new IntSet(new int[2]);
+
+            public IntSet value() {
+                pv.v[0] = targetCluster.getCoreEdgeCount();
+                pv.v[1] = targetCluster.getWellEdgeCount();
+                return pv;
+            }
+        };
+        MeterVirialEBinMultiThreaded.setQuiet(true);
+        final MeterVirialEBinMultiThreaded meter = new MeterVirialEBinMultiThreaded(targetCluster, sim.getRandom(), pod, totalCount, allMyData, iThread, false, N_POINTS_E);
+        meter.setDoCov(doCov);
+        meter.setBox(sim.box);
+        meter.setFlushInterval(7);
+        return new MeterRun<MeterVirialEBinMultiThreaded>(sim, meter) {
+            protected void flush() {
+                meter.flushLocalData();
+            }
+        };
+    }
+
+    protected SimulationVirial makeHSSim(ClusterWheatleyHS targetCluster, int seed) {
+        int nPoints = targetCluster.pointCount();
+        Space space = Space3D.getInstance();
+        targetCluster.setTemperature(1);
+        ClusterAbstract refCluster = new ClusterSinglyConnected(nPoints, new MayerHardSphere(1));
+        refCluster.setTemperature(1);
+        SimulationVirial sim = new SimulationVirial(space, new SpeciesSpheresMono(space, new ElementSimple("A")), 1.0,
+                ClusterWeightAbs.makeWeightCluster(refCluster), refCluster, new ClusterAbstract[]{targetCluster}, false, new int[]{1 + seed, 2, 3, 4});
+        sim.setMeter(null);
+        sim.integrator.getMoveManager().removeMCMove(sim.mcMoveTranslate);
+        sim.integrator.getMoveManager().addMCMove(new MCMoveClusterAtomHSTree(sim.getRandom(), space, 1));
+        return sim;
+    }
+
+    protected IntSet.PropertyBin makeEdgeCountBin(final ClusterWheatleyHS targetCluster) {
+        return new IntSet.PropertyBin() {
+            final IntSet pv = new IntSet(new int[1]);
+
+            public IntSet value() {
+                pv.v[0] = targetCluster.getEdgeCount();
+                return pv;
+            }
+        };
+    }
+
+    /**
+     * Runs the simulations, each on its own thread, and then adds any data
+     * the meters have not yet added to the shared Map.
+     */
+    protected void runThreads(final MeterRun<?>[] runs) {
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[runs.length];
+        for (int i = 0; i < runs.length; i++) {
+            final MeterRun<?> run = runs[i];
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        run.run();
+                    }
+                    catch (Throwable t) {
+                        synchronized (failure) {
+                            failure[0] = t;
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            }
+            catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        if (failure[0] != null) {
+            throw new RuntimeException(failure[0]);
+        }
+    }
+
+    /**
+     * A simulation and the meter collecting its data.
+     */
+    protected static abstract class MeterRun<T extends IAction> {
+        public final SimulationVirial sim;
+        public final T meter;
+
+        public MeterRun(SimulationVirial sim, T meter) {
+            this.sim = sim;
+            this.meter = meter;
+            sim.integrator.getEventManager().addListener(new IntegratorListenerAction(meter));
+            sim.ai.setMaxSteps(STEPS);
+        }
+
+        /**
+         * Runs the simulation and adds the meter's remaining data to its Map.
+         */
+        public MeterRun<T> run() {
+            sim.getController().actionPerformed();
+            flush();
+            return this;
+        }
+
+        protected abstract void flush();
+    }
+}
@@ -0,0 +1,100 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.virial;
+
+import etomica.atom.IAtomList;
+import etomica.chem.elements.ElementSimple;
+import etomica.potential.P2LennardJones;
+import etomica.simulation.Simulation;
+import etomica.space.Space;
+import etomica.species.Species;
+import etomica.species.SpeciesSpheresMono;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WheatleyRecursionParallelTest {
+
+    // the smallest cluster for which some levels are computed by the thread pool
+    protected static final int N_POINTS = 8;
+
+    /**
+     * Makes a box for the cluster with the points placed randomly, with
+     * coordinates drawn from a Gaussian of the given width.
+     */
+    protected static BoxCluster makeBox(ClusterAbstract cluster, double width) {
+        Space space = Space.getInstance(3);
+        Species species = new SpeciesSpheresMono(space, new ElementSimple(""));
+        Simulation sim = new Simulation(space);
+        BoxCluster box = new BoxCluster(new ClusterWeightAbs(cluster), space);
+        sim.addSpecies(species);
+        sim.addBox(box);
+        box.setNMolecules(species, cluster.pointCount());
+        IAtomList atoms = box.getLeafList();
+        Random random = new Random(3);
+        for (int i = 0; i < cluster.pointCount(); i++) {
+            for (int j = 0; j < 3; j++) {
+                atoms.getAtom(i).getPosition().setX(j, width * random.nextGaussian());
+            }
+        }
+        box.trialNotify();
+        box.acceptNotify();
+        return box;
+    }
+
+    @Test
+    public void testSoft() {
+        Space space = Space.getInstance(3);
+        MayerFunction f = new MayerGeneralSpherical(new P2LennardJones(space));
+        ClusterWheatleySoft cluster = new ClusterWheatleySoft(N_POINTS, f, 0);
+        cluster.setTemperature(1.5);
+        cluster.setDoCaching(false);
+        BoxCluster box = makeBox(cluster, 1.2);
+
+        double serial = cluster.value(box);
+        assertTrue(serial != 0);
+        cluster.setNumThreads(3);
+        assertEquals(serial, cluster.value(box), 0);
+        assertTrue(cluster.parallelRecursion.threadPool.getPoolSize() > 0);
+        ClusterWheatleySoft copy = (ClusterWheatleySoft) cluster.makeCopy();
+        assertEquals(3, copy.getNumThreads());
+        assertEquals(serial, copy.value(box), 0);
+        cluster.setNumThreads(1);
+        copy.setNumThreads(1);
+    }
+
+    @Test
+    public void testHS() {
+        ClusterWheatleyHS cluster = new ClusterWheatleyHS(N_POINTS, new MayerHardSphere(1.0));
+        BoxCluster box = makeBox(cluster, 0.05);
+        // place the points on a ring so that only neighbors overlap, which
+        // is biconnected without a clique separator
+        IAtomList atoms = box.getLeafList();
+        for (int i = 0; i < N_POINTS; i++) {
+            double theta = 2 * Math.PI * i / N_POINTS;
+            atoms.getAtom(i).getPosition().setX(0, Math.cos(theta));
+            atoms.getAtom(i).getPosition().setX(1, Math.sin(theta));
+        }
+        box.trialNotify();
+        box.acceptNotify();
+
+        // checkConfig computes fQ, which calcValue uses
+        assertTrue(cluster.checkConfig(box));
+        double serial = cluster.calcValue(box);
+        assertTrue(serial != 0);
+        cluster.setNumThreads(3);
+        assertEquals(serial, cluster.calcValue(box), 0);
+        assertTrue(cluster.parallelRecursion.threadPool.getPoolSize() > 0);
+        ClusterWheatleyHS copy = (ClusterWheatleyHS) cluster.makeCopy();
+        assertEquals(3, copy.getNumThreads());
+        assertTrue(copy.checkConfig(box));
+        assertEquals(serial, copy.calcValue(box), 0);
+        cluster.setNumThreads(1);
+        copy.setNumThreads(1);
+    }
+}
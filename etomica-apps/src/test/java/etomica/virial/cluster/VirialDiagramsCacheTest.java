@@ -0,0 +1,138 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.virial.cluster;
+
+import etomica.graph.model.Coefficient;
+import etomica.graph.model.Graph;
+import etomica.graph.model.GraphFactory;
+import etomica.graph.model.GraphList;
+import etomica.virial.ClusterBonds;
+import etomica.virial.ClusterSum;
+import etomica.virial.MayerFunction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class VirialDiagramsCacheTest {
+
+    protected File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("diagrams").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testFlex() {
+        VirialDiagrams generated = new VirialDiagrams(4, false, true);
+        generated.setCache(new VirialDiagramsCache(dir.getPath()));
+        ClusterSum generatedCluster = generated.makeVirialCluster((MayerFunction)null);
+        // the diagrams and the bonds
+        assertEquals(2, dir.listFiles().length);
+
+        VirialDiagrams cached = new VirialDiagrams(4, false, true);
+        cached.setCache(new VirialDiagramsCache(dir.getPath()));
+        assertSameDiagrams(generated, cached);
+        assertSameDiagrams(generated.getMSMCGraphs(false, false), cached.getMSMCGraphs(false, false));
+        ClusterSum cachedCluster = cached.makeVirialCluster((MayerFunction)null);
+        assertArrayEquals(generatedCluster.getWeights(), cachedCluster.getWeights(), 0);
+        ClusterBonds[] generatedBonds = generatedCluster.getClusters();
+        ClusterBonds[] cachedBonds = cachedCluster.getClusters();
+        assertEquals(generatedBonds.length, cachedBonds.length);
+        for (int i = 0; i < generatedBonds.length; i++) {
+            assertArrayEquals(generatedBonds[i].getBondIndexArray(), cachedBonds[i].getBondIndexArray());
+        }
+
+        // different options need different diagrams
+        VirialDiagrams other = new VirialDiagrams(4, false, true);
+        other.setDoReeHoover(false);
+        other.setCache(new VirialDiagramsCache(dir.getPath()));
+        other.getVirialGraphs();
+        assertEquals(3, dir.listFiles().length);
+    }
+
+    @Test
+    public void testMultibody() {
+        VirialDiagrams generated = new VirialDiagrams(4, true, false);
+        generated.setDoReeHoover(false);
+        generated.setDoMinimalMulti(true);
+        generated.setCache(new VirialDiagramsCache(dir.getPath()));
+        generated.getVirialGraphs();
+
+        VirialDiagrams cached = new VirialDiagrams(4, true, false);
+        cached.setDoReeHoover(false);
+        cached.setDoMinimalMulti(true);
+        cached.setCache(new VirialDiagramsCache(dir.getPath()));
+        assertSameDiagrams(generated, cached);
+        assertSameDiagrams(generated.getMSMCGraphs(false, true), cached.getMSMCGraphs(false, true));
+        assertSameDiagrams(generated.minMultiP, cached.minMultiP);
+    }
+
+    @Test
+    public void testOverflow() {
+        Graph g = GraphFactory.createGraph((byte)3);
+        g.putEdge((byte)0, (byte)1);
+        g.coefficient().setNumerator(Integer.MAX_VALUE);
+        Coefficient c = GraphFactory.createCoefficient();
+        c.setNumerator(3);
+        g.coefficient().multiply(c);
+        assertTrue(g.coefficient().hasOverflow());
+        Set<Graph> set = new GraphList<Graph>(null);
+        set.add(g);
+        VirialDiagramsCache cache = new VirialDiagramsCache(dir.getPath());
+        cache.writeDiagrams("overflow", new VirialDiagramsCache.Diagrams(Collections.singletonList(set), null));
+        assertNull(cache.readDiagrams("overflow"));
+    }
+
+    protected void assertSameDiagrams(VirialDiagrams generated, VirialDiagrams cached) {
+        assertSameDiagrams(generated.getVirialGraphs(), cached.getVirialGraphs());
+        assertSameDiagrams(generated.disconnectedP, cached.disconnectedP);
+        Map<Graph,Graph> cancelMap = cached.getCancelMap();
+        assertEquals(generated.getCancelMap().size(), cancelMap.size());
+        Iterator<Graph> cachedIterator = cached.getVirialGraphs().iterator();
+        for (Graph g : generated.getVirialGraphs()) {
+            // the cancel map must work for the graphs we return
+            Graph c = cancelMap.get(cachedIterator.next());
+            if (generated.getCancelMap().get(g) == null) {
+                assertSame(null, c);
+            }
+            else {
+                assertNotNull(c);
+                assertEquals(generated.getCancelMap().get(g).toString(), c.toString());
+            }
+        }
+    }
+
+    protected void assertSameDiagrams(Set<Graph> generated, Set<Graph> cached) {
+        assertEquals(generated.size(), cached.size());
+        Iterator<Graph> cachedIterator = cached.iterator();
+        for (Graph g : generated) {
+            assertEquals(g.toString(), cachedIterator.next().toString());
+        }
+    }
+}
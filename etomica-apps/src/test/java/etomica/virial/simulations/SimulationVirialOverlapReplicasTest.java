@@ -0,0 +1,79 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.virial.simulations;
+
+import etomica.chem.elements.ElementSimple;
+import etomica.potential.P2LennardJones;
+import etomica.potential.Potential2Spherical;
+import etomica.space.Space;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import etomica.virial.*;
+import etomica.virial.cluster.Standard;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the LJ B3 calculation from VirialLJTest with several replicas and
+ * checks the combined results against the same limits.
+ */
+public class SimulationVirialOverlapReplicasTest {
+
+    @Test
+    public void testVirialLJReplicas() {
+        final int nPoints = 3;
+        final double temperature = 1;
+        long steps = 1000;
+        final double sigmaHSRef = 1.5;
+        final Space space = Space3D.getInstance();
+
+        SimulationVirialOverlapReplicas.ReplicaFactory factory = new SimulationVirialOverlapReplicas.ReplicaFactory() {
+            public SimulationVirialOverlap2 makeReplica(int iReplica) {
+                MayerHardSphere fRef = new MayerHardSphere(sigmaHSRef);
+                MayerEHardSphere eRef = new MayerEHardSphere(sigmaHSRef);
+                Potential2Spherical pTarget = new P2LennardJones(space, 1.0, 1.0);
+                MayerGeneralSpherical fTarget = new MayerGeneralSpherical(pTarget);
+                MayerESpherical eTarget = new MayerESpherical(pTarget);
+                ClusterAbstract targetCluster = Standard.virialCluster(nPoints, fTarget, nPoints > 3, eTarget, true);
+                targetCluster.setTemperature(temperature);
+                ClusterAbstract refCluster = Standard.virialCluster(nPoints, fRef, nPoints > 3, eRef, true);
+                refCluster.setTemperature(temperature);
+                SimulationVirialOverlap2 sim = new SimulationVirialOverlap2(space, new SpeciesSpheresMono(space, new ElementSimple("LJ")), temperature, refCluster, targetCluster);
+                sim.integratorOS.setNumSubSteps(1000);
+                return sim;
+            }
+        };
+        SimulationVirialOverlapReplicas replicas = new SimulationVirialOverlapReplicas(factory, 3);
+        replicas.setMergeInterval(50);
+        try {
+            replicas.initRefPref(null, steps / 100);
+            replicas.equilibrate(null, steps / 40);
+            assertTrue("Ref pref (alpha) within expected limits: " + replicas.refPref, Math.abs(replicas.refPref - 1.34) < 0.12);
+            for (SimulationVirialOverlap2 replica : replicas.getReplicas()) {
+                assertEquals(replicas.refPref, replica.refPref, 0);
+            }
+
+            replicas.run(steps);
+            long nSamples = 0;
+            for (SimulationVirialOverlap2 replica : replicas.getReplicas()) {
+                nSamples += replica.accumulators[0].getSampleCount() + replica.accumulators[1].getSampleCount();
+            }
+            assertEquals(nSamples, replicas.accumulators[0].getSampleCount() + replicas.accumulators[1].getSampleCount());
+
+            double[] ratioAndError = replicas.getAverageAndError();
+            double ratio = ratioAndError[0];
+            double error = ratioAndError[1];
+            System.out.println("ratio: " + ratio + " " + error);
+            // same expected value as VirialLJTest (0.0604 +/- 0.0036)
+            assertTrue("Final ratio within expected limits: " + ratio, Math.abs(ratio - 0.0604) < 0.011);
+            assertTrue("Ratio uncertainty within expected limits: " + error, Math.abs(error - 0.0034) < 0.0006);
+        }
+        finally {
+            replicas.shutdown();
+        }
+    }
+}
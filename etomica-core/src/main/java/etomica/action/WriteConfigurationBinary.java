@@ -19,6 +19,7 @@ import etomica.space.Space;
  * file as a 2D array of doubles.  The output file can be read by
  * ConfigurationFileBinary and has a "pos_new" extension by default, which
  * should be renamed to "pos" for use with ConfigurationFileBinary.
+ * WriteTrajectoryBinary should be used instead to write many configurations.
  */
 public class WriteConfigurationBinary implements IAction {
 
@@ -0,0 +1,323 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.action;
+
+import etomica.atom.IAtom;
+import etomica.atom.IAtomKinetic;
+import etomica.atom.IAtomList;
+import etomica.box.Box;
+import etomica.config.ConfigurationTrajectoryBinary;
+import etomica.space.Boundary;
+import etomica.space.Space;
+import etomica.space.Vector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends a box's configuration to a binary trajectory file each time the
+ * action is performed.  Each frame holds the leaf atom positions and,
+ * optionally, the velocities and box edge vectors, as doubles or (to halve
+ * the file size) floats.  Frames are written directly into a memory-mapped
+ * window of the file that holds many frames, without any per-frame
+ * allocation.  A new window is mapped only when the current one is full.
+ * The file can be read by ConfigurationTrajectoryBinary, which also describes
+ * the format.
+ *
+ * The file is opened when the first frame is written and remains open until
+ * close is called.  The number of frames in the header is updated after each
+ * frame, so the file can be read while it is still being written.  Mapping a
+ * window extends the file beyond the last frame; the file is truncated to
+ * the frames written when it is closed.
+ */
+public class WriteTrajectoryBinary implements IAction {
+
+    protected final Vector writePosition;
+    protected String fileName;
+    protected Box box;
+    protected boolean doApplyPBC, writeVelocities, writeEdgeVectors, singlePrecision, append;
+    protected RandomAccessFile file;
+    protected FileChannel channel;
+    protected MappedByteBuffer header, window;
+    protected int numAtoms, frameSize;
+    protected long numFrames;
+    protected int windowSize, windowFrames;
+    protected long windowStart;
+
+    public WriteTrajectoryBinary(Space space) {
+        writePosition = space.makeVector();
+        setDoApplyPBC(true);
+        setWindowSize(1 << 24);
+    }
+
+    /**
+     * Sets the name of the file written to.  Any file already open is
+     * closed.
+     */
+    public void setFileName(String newFileName) {
+        close();
+        fileName = newFileName;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Sets the box whose atom coordinates get written to the file.
+     */
+    public void setBox(Box newBox) {
+        box = newBox;
+    }
+
+    /**
+     * Returns the box whose atom coordinates get written to the file.
+     */
+    public Box getBox() {
+        return box;
+    }
+
+    /**
+     * Directs the writer to apply periodic boundary conditions or not (true
+     * by default).
+     */
+    public void setDoApplyPBC(boolean newDoApplyPBC) {
+        doApplyPBC = newDoApplyPBC;
+    }
+
+    /**
+     * Returns true if PBC are applied to coordinates written to the file.
+     */
+    public boolean getDoApplyPBC() {
+        return doApplyPBC;
+    }
+
+    /**
+     * Directs the writer to include velocities in each frame (false by
+     * default).  This must be set before the first frame is written.
+     */
+    public void setWriteVelocities(boolean newWriteVelocities) {
+        checkNotOpen();
+        writeVelocities = newWriteVelocities;
+    }
+
+    public boolean getWriteVelocities() {
+        return writeVelocities;
+    }
+
+    /**
+     * Directs the writer to include the box edge vectors in each frame
+     * (false by default).  This must be set before the first frame is
+     * written.
+     */
+    public void setWriteEdgeVectors(boolean newWriteEdgeVectors) {
+        checkNotOpen();
+        writeEdgeVectors = newWriteEdgeVectors;
+    }
+
+    public boolean getWriteEdgeVectors() {
+        return writeEdgeVectors;
+    }
+
+    /**
+     * Directs the writer to write values as floats rather than doubles
+     * (false by default).  This must be set before the first frame is
+     * written.
+     */
+    public void setSinglePrecision(boolean newSinglePrecision) {
+        checkNotOpen();
+        singlePrecision = newSinglePrecision;
+    }
+
+    public boolean getSinglePrecision() {
+        return singlePrecision;
+    }
+
+    /**
+     * Directs the writer to append frames to an existing file (false by
+     * default).  If false, any existing file is overwritten when the first
+     * frame is written.  When appending, the existing file must have been
+     * written with the same settings and number of atoms.
+     */
+    public void setAppend(boolean newAppend) {
+        checkNotOpen();
+        append = newAppend;
+    }
+
+    public boolean getAppend() {
+        return append;
+    }
+
+    /**
+     * Sets the size (in bytes) of the region of the file mapped at once for
+     * writing frames (16MB by default).  The window always holds at least
+     * one frame.
+     */
+    public void setWindowSize(int newWindowSize) {
+        if (newWindowSize < 1) {
+            throw new IllegalArgumentException("window size must be positive");
+        }
+        windowSize = newWindowSize;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Returns the number of frames in the file.
+     */
+    public long getNumFrames() {
+        return numFrames;
+    }
+
+    protected void checkNotOpen() {
+        if (channel != null) {
+            throw new IllegalStateException("The trajectory file is already open");
+        }
+    }
+
+    protected int getFlags() {
+        int flags = 0;
+        if (singlePrecision) flags |= ConfigurationTrajectoryBinary.FLAG_FLOAT;
+        if (writeVelocities) flags |= ConfigurationTrajectoryBinary.FLAG_VELOCITIES;
+        if (writeEdgeVectors) flags |= ConfigurationTrajectoryBinary.FLAG_EDGE_VECTORS;
+        return flags;
+    }
+
+    protected void open() throws IOException {
+        int D = writePosition.getD();
+        int flags = getFlags();
+        numAtoms = box.getLeafList().getAtomCount();
+        frameSize = ConfigurationTrajectoryBinary.frameSize(D, numAtoms, flags);
+        boolean appending = append && new File(fileName).length() > 0;
+        file = new RandomAccessFile(fileName, "rw");
+        channel = file.getChannel();
+        if (!appending) {
+            channel.truncate(0);
+        }
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, ConfigurationTrajectoryBinary.HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        if (appending) {
+            if (header.getInt(0) != ConfigurationTrajectoryBinary.MAGIC
+                    || header.getInt(4) != ConfigurationTrajectoryBinary.VERSION
+                    || header.getInt(8) != D || header.getInt(12) != numAtoms || header.getInt(16) != flags) {
+                close();
+                throw new RuntimeException("Cannot append to " + fileName + "; it was written with different settings");
+            }
+            numFrames = header.getLong(ConfigurationTrajectoryBinary.NUM_FRAMES_OFFSET);
+        }
+        else {
+            header.putInt(0, ConfigurationTrajectoryBinary.MAGIC);
+            header.putInt(4, ConfigurationTrajectoryBinary.VERSION);
+            header.putInt(8, D);
+            header.putInt(12, numAtoms);
+            header.putInt(16, flags);
+            header.putInt(20, 0);
+            numFrames = 0;
+            header.putLong(ConfigurationTrajectoryBinary.NUM_FRAMES_OFFSET, numFrames);
+        }
+    }
+
+    /**
+     * Appends the current configuration to the file.
+     */
+    public void actionPerformed() {
+        try {
+            if (channel == null) {
+                open();
+            }
+            IAtomList leafList = box.getLeafList();
+            int nLeaf = leafList.getAtomCount();
+            if (nLeaf != numAtoms) {
+                throw new RuntimeException("The number of atoms changed from " + numAtoms + " to " + nLeaf);
+            }
+            if (window == null || numFrames - windowStart == windowFrames) {
+                mapWindow();
+            }
+            MappedByteBuffer frame = window;
+            frame.position((int) (numFrames - windowStart) * frameSize);
+            if (writeEdgeVectors) {
+                Boundary boundary = box.getBoundary();
+                for (int i = 0; i < writePosition.getD(); i++) {
+                    put(frame, boundary.getEdgeVector(i));
+                }
+            }
+            for (int iLeaf = 0; iLeaf < nLeaf; iLeaf++) {
+                IAtom a = leafList.getAtom(iLeaf);
+                writePosition.E(a.getPosition());
+                if (doApplyPBC) {
+                    Vector shift = box.getBoundary().centralImage(writePosition);
+                    if (!shift.isZero()) {
+                        writePosition.PE(shift);
+                    }
+                }
+                put(frame, writePosition);
+            }
+            if (writeVelocities) {
+                for (int iLeaf = 0; iLeaf < nLeaf; iLeaf++) {
+                    put(frame, ((IAtomKinetic) leafList.getAtom(iLeaf)).getVelocity());
+                }
+            }
+            numFrames++;
+            header.putLong(ConfigurationTrajectoryBinary.NUM_FRAMES_OFFSET, numFrames);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Maps a window of the file that starts with the next frame.
+     */
+    protected void mapWindow() throws IOException {
+        windowStart = numFrames;
+        windowFrames = Math.max(1, windowSize / frameSize);
+        window = channel.map(FileChannel.MapMode.READ_WRITE,
+                ConfigurationTrajectoryBinary.HEADER_SIZE + windowStart * frameSize, (long) windowFrames * frameSize);
+        window.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    protected void put(MappedByteBuffer frame, Vector v) {
+        if (singlePrecision) {
+            for (int k = 0; k < v.getD(); k++) {
+                frame.putFloat((float) v.getX(k));
+            }
+        }
+        else {
+            for (int k = 0; k < v.getD(); k++) {
+                frame.putDouble(v.getX(k));
+            }
+        }
+    }
+
+    /**
+     * Closes the file.  Subsequent frames are appended to the file only if
+     * append is true; otherwise the file is overwritten.
+     */
+    public void close() {
+        if (channel == null) return;
+        FileChannel oldChannel = channel;
+        RandomAccessFile oldFile = file;
+        boolean truncate = window != null;
+        header = window = null;
+        channel = null;
+        file = null;
+        try {
+            if (truncate) {
+                // drop the unused part of the last window
+                oldChannel.truncate(ConfigurationTrajectoryBinary.HEADER_SIZE + numFrames * frameSize);
+            }
+            oldFile.close();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
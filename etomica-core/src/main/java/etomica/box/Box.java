@@ -65,6 +65,7 @@ public class Box {
     protected MoleculeArrayList[] moleculeLists;
     private Boundary boundary;
     private int index;
+    private BoxCoordinateArrays coordinateArrays;
 
     /**
      * Constructs box with default rectangular periodic boundary.
@@ -348,6 +349,18 @@ public class Box {
         return leafList;
     }
 
+    /**
+     * @return arrays that can hold copies of the positions, velocities and
+     * forces of the leaf atoms in this box.  The arrays are created the first
+     * time this method is called.
+     */
+    public BoxCoordinateArrays getCoordinateArrays() {
+        if (coordinateArrays == null) {
+            coordinateArrays = new BoxCoordinateArrays(this);
+        }
+        return coordinateArrays;
+    }
+
 
     protected void notifyNewMolecules(ISpecies species, int numNewMolecules, int moleculeLeafAtoms) {
         if (numNewMolecules < 1) return;
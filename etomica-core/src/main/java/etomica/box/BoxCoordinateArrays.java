@@ -0,0 +1,168 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.box;
+
+import etomica.atom.AtomLeafAgentManager;
+import etomica.atom.IAtomKinetic;
+import etomica.atom.IAtomList;
+import etomica.space.Vector;
+
+/**
+ * Holds the positions, velocities and forces of all leaf atoms in a box in
+ * contiguous arrays, with the D components of each atom stored together
+ * (x0, y0, z0, x1, y1, z1, ...) in leaf-index order.  This allows loops over
+ * all atoms (or over neighbor pairs given as leaf indices) to stream through
+ * memory linearly instead of visiting a separate Vector object for each atom.
+ *
+ * The atoms' own Vectors remain the authoritative coordinates; the arrays
+ * here are a working copy.  Positions and velocities are copied into the
+ * arrays with the gather methods and written back with the scatter methods.
+ * The arrays are resized (only when the number of atoms grows) during
+ * gather, so references to the arrays should be retrieved after gathering.
+ */
+public class BoxCoordinateArrays {
+
+    protected final Box box;
+    protected final int D;
+    protected int numAtoms;
+    protected double[] positions, velocities, forces;
+
+    public BoxCoordinateArrays(Box box) {
+        this.box = box;
+        D = box.getSpace().D();
+        positions = new double[0];
+        velocities = new double[0];
+        forces = new double[0];
+    }
+
+    public Box getBox() {
+        return box;
+    }
+
+    /**
+     * Returns the spatial dimension, which is the stride between atoms in
+     * each array.
+     */
+    public int getD() {
+        return D;
+    }
+
+    /**
+     * Returns the number of atoms copied into the arrays during the last
+     * gather.
+     */
+    public int getNumAtoms() {
+        return numAtoms;
+    }
+
+    /**
+     * Returns the array of positions.  The position of the atom with leaf
+     * index i is found in elements i*D through i*D+D-1.
+     */
+    public double[] getPositions() {
+        return positions;
+    }
+
+    /**
+     * Returns the array of velocities, with the same layout as the positions.
+     */
+    public double[] getVelocities() {
+        return velocities;
+    }
+
+    /**
+     * Returns the array of forces, with the same layout as the positions.
+     */
+    public double[] getForces() {
+        return forces;
+    }
+
+    protected void ensureCapacity() {
+        numAtoms = box.getLeafList().getAtomCount();
+        int n = numAtoms * D;
+        if (positions.length < n) {
+            positions = new double[n];
+            velocities = new double[n];
+            forces = new double[n];
+        }
+    }
+
+    /**
+     * Copies the positions of all leaf atoms into the position array.
+     */
+    public void gatherPositions() {
+        ensureCapacity();
+        IAtomList leafList = box.getLeafList();
+        for (int i = 0, k = 0; i < numAtoms; i++) {
+            Vector r = leafList.getAtom(i).getPosition();
+            for (int j = 0; j < D; j++, k++) {
+                positions[k] = r.getX(j);
+            }
+        }
+    }
+
+    /**
+     * Copies the position array back into the positions of the leaf atoms.
+     */
+    public void scatterPositions() {
+        IAtomList leafList = box.getLeafList();
+        for (int i = 0, k = 0; i < numAtoms; i++) {
+            Vector r = leafList.getAtom(i).getPosition();
+            for (int j = 0; j < D; j++, k++) {
+                r.setX(j, positions[k]);
+            }
+        }
+    }
+
+    /**
+     * Copies the velocities of all leaf atoms into the velocity array.  The
+     * atoms must be IAtomKinetic.
+     */
+    public void gatherVelocities() {
+        ensureCapacity();
+        IAtomList leafList = box.getLeafList();
+        for (int i = 0, k = 0; i < numAtoms; i++) {
+            Vector v = ((IAtomKinetic) leafList.getAtom(i)).getVelocity();
+            for (int j = 0; j < D; j++, k++) {
+                velocities[k] = v.getX(j);
+            }
+        }
+    }
+
+    /**
+     * Copies the velocity array back into the velocities of the leaf atoms.
+     */
+    public void scatterVelocities() {
+        IAtomList leafList = box.getLeafList();
+        for (int i = 0, k = 0; i < numAtoms; i++) {
+            Vector v = ((IAtomKinetic) leafList.getAtom(i)).getVelocity();
+            for (int j = 0; j < D; j++, k++) {
+                v.setX(j, velocities[k]);
+            }
+        }
+    }
+
+    /**
+     * Zeros the force array, sizing it for the current number of atoms.
+     */
+    public void zeroForces() {
+        ensureCapacity();
+        java.util.Arrays.fill(forces, 0, numAtoms * D, 0);
+    }
+
+    /**
+     * Adds the forces in the force array to the force agents held by the
+     * given agent manager.
+     */
+    public void addForcesTo(AtomLeafAgentManager<Vector> agentManager) {
+        IAtomList leafList = box.getLeafList();
+        for (int i = 0, k = 0; i < numAtoms; i++) {
+            Vector f = agentManager.getAgent(leafList.getAtom(i));
+            for (int j = 0; j < D; j++, k++) {
+                f.setX(j, f.getX(j) + forces[k]);
+            }
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.config;
+
+import etomica.atom.IAtomKinetic;
+import etomica.atom.IAtomList;
+import etomica.box.Box;
+import etomica.space.Vector;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads frames from a binary trajectory file written by WriteTrajectoryBinary
+ * and assigns them to the leaf atoms in a box.  Any frame can be read, in any
+ * order, so the class can be used to feed configurations from a trajectory to
+ * meters for analysis; the frame used by initializeCoordinates is selected
+ * via setFrame.
+ *
+ * The file holds a fixed-size header followed by fixed-size frames, with all
+ * values little-endian.  The header holds a magic number, the format
+ * version, the dimension, the number of atoms, flags and the number of
+ * frames.  Each frame holds the box edge vectors (if FLAG_EDGE_VECTORS is
+ * set), the positions and then the velocities (if FLAG_VELOCITIES is set),
+ * as floats (if FLAG_FLOAT is set) or as doubles.  Frames are read via
+ * memory-mapping a window of several frames at a time (see setWindowSize),
+ * so only the frames that are read are brought into memory.
+ */
+public class ConfigurationTrajectoryBinary implements Configuration {
+
+    public static final int MAGIC = 0x4A525445;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+    /**
+     * offset within the header of the number of frames (a long)
+     */
+    public static final int NUM_FRAMES_OFFSET = 24;
+    public static final int FLAG_FLOAT = 1, FLAG_VELOCITIES = 2, FLAG_EDGE_VECTORS = 4;
+
+    protected final String fileName;
+    protected final RandomAccessFile file;
+    protected final FileChannel channel;
+    protected final int D, numAtoms, flags, frameSize;
+    protected int frame, numFrames;
+    protected MappedByteBuffer window;
+    protected int windowSize, windowStart, windowFrames;
+    protected double[] x;
+
+    public ConfigurationTrajectoryBinary(String fileName) {
+        this.fileName = fileName;
+        try {
+            file = new RandomAccessFile(fileName, "r");
+            channel = file.getChannel();
+            ByteBuffer header = readHeader();
+            if (header.getInt(0) != MAGIC) {
+                throw new RuntimeException(fileName + " is not a trajectory file");
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new RuntimeException("Unknown trajectory format version " + header.getInt(4) + " in " + fileName);
+            }
+            D = header.getInt(8);
+            numAtoms = header.getInt(12);
+            flags = header.getInt(16);
+            numFrames = (int) header.getLong(NUM_FRAMES_OFFSET);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Cannot open " + fileName + ", caught IOException: " + e.getMessage());
+        }
+        frameSize = frameSize(D, numAtoms, flags);
+        setWindowSize(1 << 24);
+        x = new double[0];
+    }
+
+    /**
+     * Returns the size (in bytes) of each frame in a trajectory file with
+     * the given dimension, number of atoms and flags.
+     */
+    public static int frameSize(int D, int numAtoms, int flags) {
+        long n = (long) numAtoms * D;
+        if ((flags & FLAG_VELOCITIES) != 0) n *= 2;
+        if ((flags & FLAG_EDGE_VECTORS) != 0) n += D * D;
+        long size = n * ((flags & FLAG_FLOAT) != 0 ? 4 : 8);
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("frames larger than 2GB are not supported");
+        }
+        return (int) size;
+    }
+
+    protected ByteBuffer readHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new RuntimeException(fileName + " is not a trajectory file");
+            }
+        }
+        return header;
+    }
+
+    /**
+     * Returns the number of frames in the file when it was opened or last
+     * updated (see updateNumFrames).
+     */
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+     * Reads the number of frames from the file's header, so that frames
+     * appended since the file was opened can be read, and returns it.
+     */
+    public int updateNumFrames() {
+        try {
+            numFrames = (int) readHeader().getLong(NUM_FRAMES_OFFSET);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return numFrames;
+    }
+
+    public int getD() {
+        return D;
+    }
+
+    public int getNumAtoms() {
+        return numAtoms;
+    }
+
+    public boolean hasVelocities() {
+        return (flags & FLAG_VELOCITIES) != 0;
+    }
+
+    public boolean hasEdgeVectors() {
+        return (flags & FLAG_EDGE_VECTORS) != 0;
+    }
+
+    /**
+     * Sets the frame used by initializeCoordinates.
+     */
+    public void setFrame(int newFrame) {
+        frame = newFrame;
+    }
+
+    public int getFrame() {
+        return frame;
+    }
+
+    /**
+     * Sets the size (in bytes) of the region of the file mapped at once for
+     * reading frames (16MB by default).  The window always holds at least
+     * one frame.  The new size is used when the next window is mapped.
+     */
+    public void setWindowSize(int newWindowSize) {
+        if (newWindowSize < 1) {
+            throw new IllegalArgumentException("window size must be positive");
+        }
+        windowSize = newWindowSize;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Maps the window holding the given frame (if it is not already mapped)
+     * and returns the offset of the frame within the window.
+     */
+    protected int mapFrame(int iFrame) {
+        if (window != null && iFrame >= windowStart && iFrame < windowStart + windowFrames) {
+            return (iFrame - windowStart) * frameSize;
+        }
+        if (iFrame < 0 || (iFrame >= numFrames && iFrame >= updateNumFrames())) {
+            throw new IllegalArgumentException("frame " + iFrame + " is not in " + fileName);
+        }
+        // windows are aligned so that reading frames in either direction
+        // uses each window once.  a window can't extend past the end of the
+        // file (which we can't grow), so it holds only the frames written so far.
+        int maxFrames = Math.max(1, windowSize / frameSize);
+        windowStart = iFrame / maxFrames * maxFrames;
+        windowFrames = Math.min(maxFrames, numFrames - windowStart);
+        try {
+            window = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + (long) windowStart * frameSize, (long) windowFrames * frameSize);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        window.order(ByteOrder.LITTLE_ENDIAN);
+        return (iFrame - windowStart) * frameSize;
+    }
+
+    /**
+     * Reads n values, starting with value number start, from the given
+     * frame into values.
+     */
+    protected void read(int iFrame, int start, int n, double[] values) {
+        int offset = mapFrame(iFrame);
+        if ((flags & FLAG_FLOAT) != 0) {
+            for (int i = 0, j = offset + start * 4; i < n; i++, j += 4) {
+                values[i] = window.getFloat(j);
+            }
+        }
+        else {
+            for (int i = 0, j = offset + start * 8; i < n; i++, j += 8) {
+                values[i] = window.getDouble(j);
+            }
+        }
+    }
+
+    protected int positionStart() {
+        return hasEdgeVectors() ? D * D : 0;
+    }
+
+    /**
+     * Reads the positions from the given frame, as positions[i*D+k] for
+     * component k of atom i.
+     */
+    public void readPositions(int iFrame, double[] positions) {
+        read(iFrame, positionStart(), numAtoms * D, positions);
+    }
+
+    /**
+     * Reads the velocities from the given frame, as velocities[i*D+k] for
+     * component k of atom i.
+     */
+    public void readVelocities(int iFrame, double[] velocities) {
+        if (!hasVelocities()) {
+            throw new IllegalStateException("velocities are not in " + fileName);
+        }
+        read(iFrame, positionStart() + numAtoms * D, numAtoms * D, velocities);
+    }
+
+    /**
+     * Reads the box edge vectors from the given frame into edgeVectors.
+     */
+    public void readEdgeVectors(int iFrame, Vector[] edgeVectors) {
+        if (!hasEdgeVectors()) {
+            throw new IllegalStateException("edge vectors are not in " + fileName);
+        }
+        double[] e = new double[D * D];
+        read(iFrame, 0, D * D, e);
+        for (int i = 0; i < D; i++) {
+            for (int k = 0; k < D; k++) {
+                edgeVectors[i].setX(k, e[i * D + k]);
+            }
+        }
+    }
+
+    /**
+     * Assigns the positions (and velocities, if they are in the file and the
+     * atoms have velocities) from the current frame to the box's leaf atoms.
+     * The box's boundary is not changed.
+     */
+    public void initializeCoordinates(Box box) {
+        IAtomList leafList = box.getLeafList();
+        int nLeaf = leafList.getAtomCount();
+        if (nLeaf != numAtoms) {
+            throw new RuntimeException("Box has " + nLeaf + " atoms, but " + fileName + " has " + numAtoms);
+        }
+        if (x.length < numAtoms * D) {
+            x = new double[numAtoms * D];
+        }
+        readPositions(frame, x);
+        for (int iLeaf = 0; iLeaf < nLeaf; iLeaf++) {
+            Vector p = leafList.getAtom(iLeaf).getPosition();
+            for (int k = 0; k < D; k++) {
+                p.setX(k, x[iLeaf * D + k]);
+            }
+        }
+        if (!hasVelocities() || nLeaf == 0 || !(leafList.getAtom(0) instanceof IAtomKinetic)) {
+            return;
+        }
+        readVelocities(frame, x);
+        for (int iLeaf = 0; iLeaf < nLeaf; iLeaf++) {
+            Vector v = ((IAtomKinetic) leafList.getAtom(iLeaf)).getVelocity();
+            for (int k = 0; k < D; k++) {
+                v.setX(k, x[iLeaf * D + k]);
+            }
+        }
+    }
+
+    /**
+     * Closes the file.
+     */
+    public void close() {
+        window = null;
+        try {
+            file.close();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
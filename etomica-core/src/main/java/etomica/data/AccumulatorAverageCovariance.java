@@ -69,6 +69,26 @@ public class AccumulatorAverageCovariance extends AccumulatorAverageFixed {
         return true;
     }
     
+    /**
+     * Adds the data collected by the given accumulator, which must also be an
+     * AccumulatorAverageCovariance with the same block size, data length and
+     * fullCovariance setting.
+     *
+     * @see AccumulatorAverageFixed#addDataFrom(AccumulatorAverageFixed)
+     */
+    public void addDataFrom(AccumulatorAverageFixed other) {
+        if (!(other instanceof AccumulatorAverageCovariance) || ((AccumulatorAverageCovariance) other).fullCovariance != fullCovariance) {
+            throw new IllegalArgumentException("Can only add data from an AccumulatorAverageCovariance with the same fullCovariance setting");
+        }
+        super.addDataFrom(other);
+        AccumulatorAverageCovariance otherCovariance = (AccumulatorAverageCovariance) other;
+        if (otherCovariance.covSum == null) {
+            return;
+        }
+        covSum.PE(otherCovariance.covSum);
+        blockCovSum.PE(otherCovariance.blockCovSum);
+    }
+
     protected void doBlockSum() {
         // need to do this first since blockSum gets zero'd by super.doBlockSum()
         double[] x = blockCovSum.getData();
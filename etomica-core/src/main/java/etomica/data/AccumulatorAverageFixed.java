@@ -125,6 +125,52 @@ public class AccumulatorAverageFixed extends AccumulatorAverage {
         return true;
     }
     
+    /**
+     * Adds the data collected by the given accumulator (which must have the
+     * same block size and data length) to this accumulator, as if this
+     * accumulator had received that data after its own.  Complete blocks are
+     * added as blocks and the incomplete block of the other accumulator is
+     * added to the incomplete block here.  This is meant for combining
+     * statistics from independent simulations; if the combined incomplete
+     * block holds more than blockSize values, no further data should be
+     * added to this accumulator (other than via this method).
+     *
+     * @param other the accumulator whose data is added.  It is not modified.
+     */
+    public void addDataFrom(AccumulatorAverageFixed other) {
+        if (other.blockSize != blockSize) {
+            throw new IllegalArgumentException("Block sizes must match");
+        }
+        if (other.sum == null) {
+            // other has not received any data
+            return;
+        }
+        if (sum == null || sum.getLength() != other.sum.getLength()) {
+            throw new IllegalArgumentException("Data must have the same length");
+        }
+        if (other.count > 0) {
+            if (count > 0) {
+                // the first block of other follows the last block here
+                work.E(mostRecentBlock);
+                work.TE(other.firstBlock);
+                correlationSum.PE(work);
+            } else {
+                firstBlock.E(other.firstBlock);
+            }
+            correlationSum.PE(other.correlationSum);
+            mostRecentBlock.E(other.mostRecentBlock);
+        }
+        if (other.getSampleCount() > 0) {
+            mostRecent.E(other.mostRecent);
+        }
+        count += other.count;
+        sum.PE(other.sum);
+        sumBlockSquare.PE(other.sumBlockSquare);
+        sumSquare.PE(other.sumSquare);
+        currentBlockSum.PE(other.currentBlockSum);
+        blockCountDown -= other.blockSize - other.blockCountDown;
+    }
+
     public void putDataInfo(IDataInfo inputDataInfo) {
         super.putDataInfo(inputDataInfo);
         if (blockDataSink != null) {
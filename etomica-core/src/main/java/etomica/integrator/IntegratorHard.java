@@ -19,6 +19,7 @@ import etomica.simulation.Simulation;
 import etomica.space.Space;
 import etomica.space.Vector;
 import etomica.util.Debug;
+import etomica.util.ILinkerList;
 import etomica.util.TreeLinker;
 import etomica.util.TreeList;
 import etomica.util.random.IRandom;
@@ -41,7 +42,7 @@ public class IntegratorHard extends IntegratorMD implements INeighborListListene
     protected final IteratorDirective upList = new IteratorDirective(IteratorDirective.Direction.UP);
     protected final IteratorDirective downList = new IteratorDirective(IteratorDirective.Direction.DOWN);
     protected final AtomArrayList listToUpdate = new AtomArrayList();
-    protected final TreeList eventList = new TreeList();
+    protected ILinkerList eventList = new TreeList();
     protected final ReverseCollisionHandler reverseCollisionHandler;
     protected final CollisionHandlerUp collisionHandlerUp;
     protected final CollisionHandlerDown collisionHandlerDown;
@@ -115,6 +116,35 @@ public class IntegratorHard extends IntegratorMD implements INeighborListListene
         return colliderAgent;
     }
 
+    /**
+     * Returns the list used to order collision events.
+     */
+    public ILinkerList getEventList() {
+        return eventList;
+    }
+
+    /**
+     * Sets the list used to order collision events.  By default, a TreeList
+     * (an unbalanced binary tree) is used.  A HeapList keeps events in an
+     * indexed binary heap, which has better worst-case behavior and is
+     * generally faster for large systems.
+     */
+    public void setEventList(ILinkerList newEventList) {
+        eventList = newEventList;
+        collisionHandlerDown.eventList = newEventList;
+        colliderAgent = null;
+        if (box == null) return;
+        IAtomList leafList = box.getLeafList();
+        int nLeaf = leafList.getAtomCount();
+        for (int iLeaf=0; iLeaf<nLeaf; iLeaf++) {
+            Agent agent = agentManager.getAgent(leafList.getAtom(iLeaf));
+            double time = agent.eventLinker.sortKey;
+            agent.eventLinker = eventList.makeLinker(agent);
+            agent.eventLinker.sortKey = time;
+        }
+        resetCollisionTimes();
+    }
+
     /** 
      * Steps all atoms across time interval timeStep, handling all intervening collisions.
      */
@@ -619,10 +649,10 @@ public class IntegratorHard extends IntegratorMD implements INeighborListListene
 	//value and their value with given atom
 	private static final class CollisionHandlerDown implements PotentialCalculation, java.io.Serializable {
         private static final long serialVersionUID = 1L;
-        final TreeList eventList;
+        ILinkerList eventList;
         double collisionTimeStep;
         private AtomLeafAgentManager<Agent> integratorAgentManager;
-        CollisionHandlerDown(TreeList list) {
+        CollisionHandlerDown(ILinkerList list) {
             eventList = list;
         }
 
@@ -708,7 +738,7 @@ public class IntegratorHard extends IntegratorMD implements INeighborListListene
 
         public Agent(IAtom a, IntegratorHard integrator) {
             atom = a;
-            eventLinker = new TreeLinker(this);
+            eventLinker = integrator.eventList.makeLinker(this);
             eventLinker.sortKey = Double.POSITIVE_INFINITY;
             nullCollisionTime = Double.POSITIVE_INFINITY;
             this.integrator = integrator;
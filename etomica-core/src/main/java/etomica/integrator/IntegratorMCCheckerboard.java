@@ -0,0 +1,554 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.integrator;
+
+import etomica.atom.AtomArrayList;
+import etomica.atom.AtomType;
+import etomica.atom.IAtom;
+import etomica.atom.IAtomList;
+import etomica.box.Box;
+import etomica.lattice.CellLattice;
+import etomica.nbr.CriterionAdapter;
+import etomica.nbr.CriterionTypePair;
+import etomica.nbr.NeighborCriterion;
+import etomica.nbr.cell.Cell;
+import etomica.nbr.cell.NeighborCellManager;
+import etomica.nbr.cell.PotentialMasterCell;
+import etomica.potential.IPotential;
+import etomica.potential.Potential2SoftSpherical;
+import etomica.potential.PotentialArray;
+import etomica.potential.RadialPairKernel;
+import etomica.simulation.Simulation;
+import etomica.space.Boundary;
+import etomica.space.BoundaryRectangular;
+import etomica.space.Vector;
+import etomica.util.random.IRandom;
+import etomica.util.random.RandomMersenneTwister;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * MC integrator that performs single-atom displacement trials in many
+ * regions of the box concurrently.  The lattice of cells from the box's
+ * NeighborCellManager is divided along each dimension into an even number
+ * of domains, each at least as wide as the range of the potentials, and the
+ * domains are colored like a checkerboard.  Each step of the integrator
+ * picks a random offset for the domains and a random color, and then, in
+ * every domain of that color, performs as many trials as there are atoms in
+ * the domain, each on an atom chosen at random from the domain.  Atoms in
+ * domains of the same color cannot interact, and atoms in domains of other
+ * colors do not move during the step, so the domains are handled
+ * concurrently (see setNumThreads), each with its own random number
+ * generator.  Trials that would move an atom out of its domain are
+ * rejected, so each trial (and so each step) satisfies detailed balance.
+ * Because each domain has its own random number generator, the trajectory
+ * does not depend on the number of threads.
+ * <p>
+ * Energies are computed directly from the cells, for radial pair
+ * potentials (see RadialPairKernel.canHandle) with finite range that were
+ * added to the PotentialMasterCell for a pair of atom types.  Each molecule
+ * must have a single atom and the boundary must be rectangular and periodic
+ * in every direction.  The pair potentials' u methods are called from
+ * multiple threads, and so must not modify the potential.
+ * <p>
+ * Other moves (such as volume moves) can be added to the move manager.
+ * Each step performs one of those moves (in the usual way) instead of
+ * checkerboard trials with probability otherMoveProbability.  The cell
+ * manager must then be notified of those moves as usual (see
+ * NeighborCellManager.makeMCMoveListener).  Atoms moved by the checkerboard
+ * trials are reassigned to cells directly, and no MC move events are fired
+ * for those trials.
+ */
+public class IntegratorMCCheckerboard extends IntegratorMC {
+
+    protected final PotentialMasterCell cellPotentialMaster;
+    protected double stepSize;
+    protected double otherMoveProbability;
+    protected int numThreads = 1;
+    protected transient ForkJoinPool threadPool;
+    protected NeighborCellManager cellManager;
+    protected CellLattice lattice;
+    protected int D;
+    // pair potentials and their squared ranges, indexed by the atom types' indices
+    protected Potential2SoftSpherical[][][] pairPotentials;
+    protected double[][][] pairRange2;
+    protected double maxRange;
+    // things that describe the domains; these do not change during a step
+    protected double[] boxSize, boxSizeInv;
+    protected int[] numCells, jump, reach, numDomains, domainJump, offset, color;
+    protected int[][] cellDomain;
+    protected int[] cellCoords;
+    protected DomainTask[] domainTasks;
+    protected final List<DomainTask> activeTasks;
+    protected long numTrials, numAccepted;
+
+    public IntegratorMCCheckerboard(Simulation sim, PotentialMasterCell potentialMaster) {
+        this(potentialMaster, sim.getRandom(), 1.0);
+    }
+
+    /**
+     * @param potentialMaster PotentialMasterCell holding the pair potentials
+     * @param random          random number generator used to choose the domains,
+     *                        to seed each domain's random number generator and to
+     *                        select other moves
+     * @param temperature     temperature of the ensemble
+     */
+    public IntegratorMCCheckerboard(PotentialMasterCell potentialMaster, IRandom random, double temperature) {
+        super(potentialMaster, random, temperature);
+        cellPotentialMaster = potentialMaster;
+        activeTasks = new ArrayList<>();
+        stepSize = 0.5;
+    }
+
+    /**
+     * Returns the step size used for trial displacements.
+     */
+    public double getStepSize() {
+        return stepSize;
+    }
+
+    /**
+     * Sets the step size.  Each coordinate of an atom is displaced by a
+     * random amount between -stepSize/2 and +stepSize/2, as with MCMoveAtom.
+     */
+    public void setStepSize(double newStepSize) {
+        stepSize = newStepSize;
+    }
+
+    /**
+     * Returns the probability that a step performs a move from the move
+     * manager instead of checkerboard trials.
+     */
+    public double getOtherMoveProbability() {
+        return otherMoveProbability;
+    }
+
+    /**
+     * Sets the probability that a step performs a move from the move manager
+     * instead of checkerboard trials.  The default is 0.
+     */
+    public void setOtherMoveProbability(double newOtherMoveProbability) {
+        if (newOtherMoveProbability < 0 || newOtherMoveProbability > 1) {
+            throw new IllegalArgumentException("Probability must be between 0 and 1");
+        }
+        otherMoveProbability = newOtherMoveProbability;
+    }
+
+    /**
+     * Returns the number of threads used to perform trials in the domains.
+     */
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Sets the number of threads used to perform trials in the domains.  The
+     * default is 1.
+     */
+    public void setNumThreads(int newNumThreads) {
+        if (newNumThreads < 1) {
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+        }
+        if (newNumThreads == numThreads) {
+            return;
+        }
+        numThreads = newNumThreads;
+        if (threadPool != null) {
+            threadPool.shutdown();
+            threadPool = null;
+        }
+        if (numThreads > 1) {
+            threadPool = new ForkJoinPool(numThreads);
+        }
+    }
+
+    /**
+     * Returns the fraction of checkerboard trials accepted since the
+     * integrator was last reset, counting trials rejected for leaving their
+     * domain.
+     */
+    public double getAcceptanceRatio() {
+        return numTrials == 0 ? Double.NaN : ((double) numAccepted) / numTrials;
+    }
+
+    /**
+     * Returns the number of domains along each dimension in the most recent
+     * step.  Dimensions with only one domain are not divided.
+     */
+    public int[] getNumDomains() {
+        return numDomains;
+    }
+
+    public void reset() {
+        super.reset();
+        Boundary boundary = box.getBoundary();
+        if (!(boundary instanceof BoundaryRectangular)) {
+            throw new IllegalStateException("IntegratorMCCheckerboard requires a rectangular boundary");
+        }
+        if (boxSize == null || D != box.getSpace().D()) {
+            D = box.getSpace().D();
+            boxSize = new double[D];
+            boxSizeInv = new double[D];
+            numCells = new int[D];
+            jump = new int[D];
+            reach = new int[D];
+            numDomains = new int[D];
+            domainJump = new int[D];
+            offset = new int[D];
+            color = new int[D];
+            cellDomain = new int[D][0];
+            cellCoords = new int[0];
+            domainTasks = new DomainTask[0];
+        }
+        for (int k = 0; k < D; k++) {
+            if (!boundary.getPeriodicity(k)) {
+                throw new IllegalStateException("IntegratorMCCheckerboard requires a boundary periodic in every direction");
+            }
+        }
+        if (box.getMoleculeList().getMoleculeCount() != box.getLeafList().getAtomCount()) {
+            throw new IllegalStateException("IntegratorMCCheckerboard can only handle monatomic molecules");
+        }
+        cellManager = cellPotentialMaster.getNbrCellManager(box);
+        lattice = cellManager.getLattice();
+        cellManager.assignCellAll();
+        makePairPotentials();
+        numTrials = numAccepted = 0;
+    }
+
+    /**
+     * Collects the pair potentials for each pair of atom types in the box.
+     */
+    protected void makePairPotentials() {
+        IAtomList leafList = box.getLeafList();
+        int nTypes = 0;
+        for (int i = 0; i < leafList.getAtomCount(); i++) {
+            nTypes = Math.max(nTypes, leafList.getAtom(i).getType().getIndex() + 1);
+        }
+        pairPotentials = new Potential2SoftSpherical[nTypes][nTypes][];
+        pairRange2 = new double[nTypes][nTypes][];
+        maxRange = 0;
+        boolean[] typeDone = new boolean[nTypes];
+        for (int i = 0; i < leafList.getAtomCount(); i++) {
+            AtomType type = leafList.getAtom(i).getType();
+            if (typeDone[type.getIndex()]) continue;
+            typeDone[type.getIndex()] = true;
+            PotentialArray potentialArray = cellPotentialMaster.getRangedPotentials(type);
+            IPotential[] potentials = potentialArray.getPotentials();
+            NeighborCriterion[] criteria = potentialArray.getCriteria();
+            for (int j = 0; j < potentials.length; j++) {
+                if (potentials[j].nBody() != 2 || !RadialPairKernel.canHandle(potentials[j])) {
+                    throw new RuntimeException("IntegratorMCCheckerboard can only handle radial pair potentials");
+                }
+                NeighborCriterion criterion = criteria[j];
+                while (!(criterion instanceof CriterionTypePair) && criterion instanceof CriterionAdapter) {
+                    criterion = ((CriterionAdapter) criterion).getWrappedCriterion();
+                }
+                if (!(criterion instanceof CriterionTypePair)) {
+                    throw new RuntimeException("IntegratorMCCheckerboard can only handle potentials added for a pair of atom types");
+                }
+                AtomType[] pairTypes = ((CriterionTypePair) criterion).getTypes();
+                // each potential is in the array of both of its types; take it from the first
+                if (pairTypes[0] != type) continue;
+                double range = potentials[j].getRange();
+                if (range == Double.POSITIVE_INFINITY) {
+                    throw new RuntimeException("IntegratorMCCheckerboard can only handle potentials with finite range");
+                }
+                maxRange = Math.max(maxRange, range);
+                int t0 = pairTypes[0].getIndex(), t1 = pairTypes[1].getIndex();
+                if (t0 >= nTypes || t1 >= nTypes) continue;
+                addPairPotential(t0, t1, (Potential2SoftSpherical) potentials[j], range);
+                if (t1 != t0) {
+                    addPairPotential(t1, t0, (Potential2SoftSpherical) potentials[j], range);
+                }
+            }
+        }
+    }
+
+    protected void addPairPotential(int t0, int t1, Potential2SoftSpherical p2, double range) {
+        Potential2SoftSpherical[] p = pairPotentials[t0][t1];
+        int n = p == null ? 0 : p.length;
+        pairPotentials[t0][t1] = p == null ? new Potential2SoftSpherical[1] : Arrays.copyOf(p, n + 1);
+        pairPotentials[t0][t1][n] = p2;
+        pairRange2[t0][t1] = p == null ? new double[1] : Arrays.copyOf(pairRange2[t0][t1], n + 1);
+        pairRange2[t0][t1][n] = range * range;
+    }
+
+    protected void doStepInternal() {
+        if (otherMoveProbability > 0 && random.nextDouble() < otherMoveProbability) {
+            super.doStepInternal();
+            return;
+        }
+        if (pairPotentials == null) {
+            throw new IllegalStateException("The integrator must be reset before it is stepped");
+        }
+        setupDomains();
+        for (int k = 0; k < D; k++) {
+            offset[k] = numDomains[k] > 1 ? random.nextInt(numCells[k]) : 0;
+            color[k] = numDomains[k] > 1 ? random.nextInt(2) : 0;
+            int n = numCells[k], nd = numDomains[k];
+            for (int d = 0; d < nd; d++) {
+                for (int s = d * n / nd; s < (d + 1) * n / nd; s++) {
+                    cellDomain[k][(s + offset[k]) % n] = d;
+                }
+            }
+        }
+        // assign the cells to the domains of the chosen color
+        for (DomainTask task : domainTasks) {
+            task.numDomainCells = 0;
+        }
+        int nCells = lattice.sites().length;
+        for (int idx = 0; idx < nCells; idx++) {
+            int domain = 0;
+            boolean active = true;
+            for (int k = 0; k < D; k++) {
+                int d = cellDomain[k][cellCoords[idx * D + k]];
+                if (numDomains[k] > 1 && (d & 1) != color[k]) {
+                    active = false;
+                    break;
+                }
+                domain += d * domainJump[k];
+            }
+            if (active) {
+                domainTasks[domain].addCell(idx);
+            }
+        }
+        activeTasks.clear();
+        for (DomainTask task : domainTasks) {
+            if (task.numDomainCells > 0) {
+                activeTasks.add(task);
+            }
+        }
+        if (numThreads == 1) {
+            for (DomainTask task : activeTasks) {
+                task.call();
+            }
+        }
+        else {
+            List<Future<Object>> futures = threadPool.invokeAll(activeTasks);
+            try {
+                for (Future<Object> future : futures) {
+                    future.get();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        for (DomainTask task : activeTasks) {
+            currentPotentialEnergy += task.energyChange;
+            numTrials += task.numTrials;
+            numAccepted += task.numAccepted;
+        }
+    }
+
+    /**
+     * Determines the number of domains along each dimension from the current
+     * box size and cell lattice, and (if the lattice or domains changed)
+     * makes the tasks for the domains.
+     */
+    protected void setupDomains() {
+        Vector size = box.getBoundary().getBoxSize();
+        int[] latticeSize = lattice.getSize();
+        boolean latticeChanged = false, domainsChanged = false;
+        for (int k = 0; k < D; k++) {
+            boxSize[k] = size.getX(k);
+            boxSizeInv[k] = 1.0 / boxSize[k];
+            latticeChanged = latticeChanged || numCells[k] != latticeSize[k];
+            numCells[k] = latticeSize[k];
+            // number of cells (in each direction) within maxRange of a cell
+            reach[k] = Math.max(1, (int) Math.ceil(maxRange * numCells[k] * boxSizeInv[k]));
+            // domains must be at least reach cells wide, so that atoms in
+            // domains two apart cannot interact
+            int nd = 2 * (numCells[k] / (2 * reach[k]));
+            if (nd < 2) nd = 1;
+            domainsChanged = domainsChanged || nd != numDomains[k];
+            numDomains[k] = nd;
+        }
+        if (latticeChanged) {
+            int nCells = lattice.sites().length;
+            cellCoords = new int[nCells * D];
+            int[] coords = new int[D];
+            for (int idx = 0; idx < nCells; idx++) {
+                lattice.latticeIndex(idx, coords);
+                System.arraycopy(coords, 0, cellCoords, idx * D, D);
+            }
+            jump[D - 1] = 1;
+            for (int k = D - 1; k > 0; k--) {
+                jump[k - 1] = jump[k] * numCells[k];
+            }
+            for (int k = 0; k < D; k++) {
+                cellDomain[k] = new int[numCells[k]];
+            }
+        }
+        if (domainsChanged || domainTasks.length == 0) {
+            domainJump[D - 1] = 1;
+            for (int k = D - 1; k > 0; k--) {
+                domainJump[k - 1] = domainJump[k] * numDomains[k];
+            }
+            domainTasks = new DomainTask[domainJump[0] * numDomains[0]];
+            for (int i = 0; i < domainTasks.length; i++) {
+                domainTasks[i] = new DomainTask(i, new RandomMersenneTwister(random.nextInt(Integer.MAX_VALUE)));
+            }
+        }
+    }
+
+    /**
+     * Task that performs the trials for one domain.
+     */
+    protected class DomainTask implements Callable<Object> {
+        protected final IRandom domainRandom;
+        protected final int[] domainCoords;
+        protected final double[] xOld, xNew;
+        protected final int[] newCoords, nbrStart, nbrCount, nbrCounter;
+        protected final AtomArrayList atoms;
+        protected int[] domainCells;
+        protected int numDomainCells;
+        protected double energyChange;
+        protected long numTrials, numAccepted;
+
+        public DomainTask(int index, IRandom domainRandom) {
+            this.domainRandom = domainRandom;
+            domainCoords = new int[D];
+            for (int k = 0; k < D; k++) {
+                domainCoords[k] = index / domainJump[k];
+                index -= domainCoords[k] * domainJump[k];
+            }
+            xOld = new double[D];
+            xNew = new double[D];
+            newCoords = new int[D];
+            nbrStart = new int[D];
+            nbrCount = new int[D];
+            nbrCounter = new int[D];
+            atoms = new AtomArrayList();
+            domainCells = new int[8];
+        }
+
+        public void addCell(int idx) {
+            if (numDomainCells == domainCells.length) {
+                domainCells = Arrays.copyOf(domainCells, 2 * numDomainCells);
+            }
+            domainCells[numDomainCells++] = idx;
+        }
+
+        public Object call() {
+            energyChange = 0;
+            numTrials = numAccepted = 0;
+            Object[] cells = lattice.sites();
+            atoms.clear();
+            for (int i = 0; i < numDomainCells; i++) {
+                atoms.addAll(((Cell) cells[domainCells[i]]).occupants());
+            }
+            int n = atoms.getAtomCount();
+            double beta = 1.0 / temperature;
+            for (int i = 0; i < n; i++) {
+                IAtom atom = atoms.getAtom(domainRandom.nextInt(n));
+                numTrials++;
+                Vector position = atom.getPosition();
+                int newIdx = 0;
+                boolean inDomain = true;
+                for (int k = 0; k < D; k++) {
+                    xOld[k] = position.getX(k);
+                    double x = xOld[k] + stepSize * (domainRandom.nextFixedDouble() - 0.5);
+                    x -= boxSize[k] * Math.floor(x * boxSizeInv[k] + 0.5);
+                    xNew[k] = x;
+                    // same as CellLattice.siteIndex
+                    int j = (int) (numCells[k] * (x * boxSizeInv[k] + 0.5));
+                    if (j == -1) j = 0;
+                    else if (j == numCells[k]) j = numCells[k] - 1;
+                    if (cellDomain[k][j] != domainCoords[k]) {
+                        inDomain = false;
+                        break;
+                    }
+                    newCoords[k] = j;
+                    newIdx += j * jump[k];
+                }
+                if (!inDomain) continue;
+                int oldIdx = cellManager.getCell(atom).getLatticeArrayIndex();
+                double uOld = energy(atom, xOld, cellCoords, oldIdx * D);
+                double uNew = energy(atom, xNew, newCoords, 0);
+                if (uNew == Double.POSITIVE_INFINITY) continue;
+                double du = uNew - uOld;
+                if (du > 0 && domainRandom.nextDouble() > Math.exp(-beta * du)) continue;
+                for (int k = 0; k < D; k++) {
+                    position.setX(k, xNew[k]);
+                }
+                if (newIdx != oldIdx) {
+                    cellManager.moveToCell(atom, newIdx);
+                }
+                energyChange += du;
+                numAccepted++;
+            }
+            return null;
+        }
+
+        /**
+         * Returns the energy of the given atom if it were at x, in the cell
+         * whose coordinates are coords[start] through coords[start+D-1].
+         */
+        protected double energy(IAtom atom, double[] x, int[] coords, int start) {
+            int ti = atom.getType().getIndex();
+            Potential2SoftSpherical[][] iPotentials = pairPotentials[ti];
+            double[][] iRange2 = pairRange2[ti];
+            for (int k = 0; k < D; k++) {
+                int n = numCells[k];
+                if (2 * reach[k] + 1 >= n) {
+                    nbrStart[k] = 0;
+                    nbrCount[k] = n;
+                }
+                else {
+                    nbrStart[k] = coords[start + k] - reach[k] + n;
+                    nbrCount[k] = 2 * reach[k] + 1;
+                }
+                nbrCounter[k] = 0;
+            }
+            Object[] cells = lattice.sites();
+            double u = 0;
+            while (true) {
+                int idx = 0;
+                for (int k = 0; k < D; k++) {
+                    idx += ((nbrStart[k] + nbrCounter[k]) % numCells[k]) * jump[k];
+                }
+                AtomArrayList occupants = ((Cell) cells[idx]).occupants();
+                for (int j = 0, nj = occupants.getAtomCount(); j < nj; j++) {
+                    IAtom jAtom = occupants.getAtom(j);
+                    if (jAtom == atom) continue;
+                    int tj = jAtom.getType().getIndex();
+                    Potential2SoftSpherical[] p2 = iPotentials[tj];
+                    if (p2 == null) continue;
+                    Vector jPosition = jAtom.getPosition();
+                    double r2 = 0;
+                    for (int k = 0; k < D; k++) {
+                        double dx = jPosition.getX(k) - x[k];
+                        dx -= boxSize[k] * Math.floor(dx * boxSizeInv[k] + 0.5);
+                        r2 += dx * dx;
+                    }
+                    double[] range2 = iRange2[tj];
+                    for (int m = 0; m < p2.length; m++) {
+                        if (r2 < range2[m]) {
+                            u += p2[m].u(r2);
+                        }
+                    }
+                }
+                int k = D - 1;
+                while (k >= 0 && ++nbrCounter[k] == nbrCount[k]) {
+                    nbrCounter[k] = 0;
+                    k--;
+                }
+                if (k < 0) break;
+            }
+            return u;
+        }
+    }
+}
@@ -18,6 +18,13 @@ import etomica.util.IEvent;
 import etomica.util.IListener;
 import etomica.util.random.IRandom;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
 /**
  * Parallel-tempering integrator.  Oversees other integrators that are defined to perform
  * MC trials (or perhaps molecular dynamics) in different boxes.  These integrators
@@ -33,6 +40,9 @@ import etomica.util.random.IRandom;
  * Every time an integrator is added to this one, a MCMoveSwap class is made (by this
  * integrator using the factory) to manage swap trials between the new integrator's
  * box and that of the one most recently added.
+ * <p>
+ * The integrators can be stepped concurrently, on multiple threads; see
+ * setNumThreads.
  * 
  * @author David Kofke
  */
@@ -61,6 +71,7 @@ public class IntegratorPT extends IntegratorManagerMC {
 	public void addIntegrator(IntegratorBox integrator){
 	    super.addIntegrator(integrator);
 
+	    replicaTasks = null;
 	    int nIntegrators = integrators.size();
 		if (nIntegrators > 1) {
             MCMove newMCMove = mcMoveSwapFactory.makeMCMoveSwap((IntegratorBox) integrators.get(nIntegrators - 2),
@@ -69,8 +80,128 @@ public class IntegratorPT extends IntegratorManagerMC {
 		}
 	}
     
+    public boolean removeIntegrator(Integrator integrator) {
+        replicaTasks = null;
+        return super.removeIntegrator(integrator);
+    }
+
+    /**
+     * Returns the number of threads used to step the integrators.
+     */
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Sets the number of threads used to step the integrators.  With more
+     * than one thread, each step of this integrator runs every integrator
+     * concurrently for the number of steps that would have been taken before
+     * the next swap trial (drawn from the same distribution as with one
+     * thread, so on average globalMoveInterval-1 steps) and then, after all
+     * integrators have finished, performs a swap trial.  Integrator events
+     * are fired by this integrator only once for each such block of steps.
+     * <p>
+     * The integrators must not share any state that they modify while
+     * stepping.  In particular, each integrator must have its own random
+     * number generator and its own PotentialMaster (and potentials).  The
+     * default is 1.
+     */
+    public void setNumThreads(int newNumThreads) {
+        if (newNumThreads < 1) {
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+        }
+        if (newNumThreads == numThreads) {
+            return;
+        }
+        numThreads = newNumThreads;
+        if (threadPool != null) {
+            threadPool.shutdown();
+            threadPool = null;
+        }
+        if (numThreads > 1) {
+            threadPool = new ForkJoinPool(numThreads);
+        }
+    }
+
+    protected void doStepInternal() {
+        if (numThreads == 1) {
+            super.doStepInternal();
+            return;
+        }
+        // number of steps before the next swap trial, with the geometric
+        // distribution that results from attempting a swap trial with
+        // probability globalMoveProbability each step
+        long nSteps;
+        if (globalMoveProbability == 0) {
+            nSteps = 1;
+        }
+        else if (globalMoveProbability == 1) {
+            nSteps = 0;
+        }
+        else {
+            nSteps = (long) Math.floor(Math.log(1 - random.nextDouble()) / Math.log(1 - globalMoveProbability));
+        }
+        if (nSteps > 0) {
+            doReplicaSteps(nSteps);
+        }
+        if (globalMoveProbability > 0) {
+            doGlobalMoves();
+        }
+    }
+
+    /**
+     * Steps each integrator nSteps times, with the integrators run
+     * concurrently.  Returns after all integrators have finished.
+     */
+    protected void doReplicaSteps(long nSteps) {
+        if (replicaTasks == null) {
+            replicaTasks = new ArrayList<>();
+            for (Integrator integrator : integrators) {
+                replicaTasks.add(new ReplicaTask(integrator));
+            }
+        }
+        for (ReplicaTask task : replicaTasks) {
+            task.nSteps = nSteps;
+        }
+        List<Future<Object>> futures = threadPool.invokeAll(replicaTasks);
+        try {
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
     private static final long serialVersionUID = 1L;
 	private final MCMoveSwapFactory mcMoveSwapFactory;
+    protected int numThreads = 1;
+    protected transient ForkJoinPool threadPool;
+    protected transient List<ReplicaTask> replicaTasks;
+
+    /**
+     * Task that steps one integrator a given number of times.
+     */
+    protected static class ReplicaTask implements Callable<Object> {
+        protected final Integrator integrator;
+        protected long nSteps;
+
+        public ReplicaTask(Integrator integrator) {
+            this.integrator = integrator;
+        }
+
+        public Object call() {
+            for (long i = 0; i < nSteps; i++) {
+                integrator.doStep();
+            }
+            return null;
+        }
+    }
 
 	
 	/**
@@ -0,0 +1,434 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.integrator.mcmove;
+
+import etomica.atom.IAtom;
+import etomica.atom.IAtomList;
+import etomica.box.Box;
+import etomica.box.BoxAtomIndexEvent;
+import etomica.box.BoxEventListener;
+import etomica.box.BoxMoleculeEvent;
+import etomica.integrator.IntegratorEvent;
+import etomica.integrator.IntegratorListener;
+import etomica.integrator.IntegratorMC;
+import etomica.molecule.IMoleculeList;
+import etomica.potential.IPotentialAtomic;
+import etomica.potential.IPotentialMolecular;
+import etomica.potential.IteratorDirective;
+import etomica.potential.PotentialCalculationMolecular;
+import etomica.potential.PotentialMaster;
+import etomica.util.IListener;
+
+import java.util.Arrays;
+
+/**
+ * Caches the energy of each pair of interacting atoms in a box, so that
+ * single-atom MC moves can obtain the energy of an atom's interactions in
+ * its current position without computing it.  When such a move is
+ * accepted, the pair energies computed for the atom's new position replace
+ * those of its old position.
+ * <p>
+ * Pair energies are kept in arrays for each atom (indexed by leaf index),
+ * with each pair held by both atoms.  Each entry also records where the
+ * pair is held by the other atom, so that a pair can be removed from both
+ * atoms in constant time.  Energies from 1-body potentials are held
+ * separately for each atom.  Only 1-body and 2-body atomic potentials are
+ * supported.
+ * <p>
+ * The cache listens to the integrator's MC move events.  Any accepted move
+ * that did not update the cache (via acceptTrial), other than a plain
+ * MCMoveInsertDelete, or a reset of the integrator invalidates the whole
+ * cache, which is then rebuilt (with one pass over all pairs) the next time
+ * it is used.  The cache is therefore useful when most accepted moves are
+ * moves that update the cache, such as MCMoveAtom.
+ * <p>
+ * The cache also listens to the box, and is updated incrementally when
+ * molecules are added or removed.  The pairs of an added atom are computed
+ * the next time the cache is used (so that the atom can be positioned after
+ * it is added).  The pairs of a removed atom are removed from its partners,
+ * and the atom moved into its leaf index takes its row along with it.
+ */
+public class AtomEnergyCache implements IListener<MCMoveEvent>, IntegratorListener, BoxEventListener {
+
+    protected final PotentialMaster potentialMaster;
+    protected final Box box;
+    protected final IteratorDirective allAtoms, targetAtom;
+    protected final RebuildCalculation rebuildCalculation;
+    protected final TrialCalculation trialCalculation;
+    protected boolean valid, trialAccepted;
+    protected int[] numPairs;
+    protected int[][] pairPartner, pairSlot;
+    protected double[][] pairEnergy;
+    protected double[] selfEnergy;
+    protected IAtom trialAtom;
+    protected int trialNumPairs;
+    protected int[] trialPartner;
+    protected double[] trialEnergy;
+    protected double trialSelfEnergy;
+    protected int[] pendingAtoms;
+    protected int numPending;
+
+    /**
+     * Constructs a cache for the box of the given integrator and registers
+     * it with the integrator (and box) to receive the notifications it
+     * needs.  The integrator's box must already be set.
+     */
+    public AtomEnergyCache(IntegratorMC integrator) {
+        potentialMaster = integrator.getPotentialMaster();
+        box = integrator.getBox();
+        if (box == null) {
+            throw new IllegalStateException("The integrator's box must be set before the cache is constructed");
+        }
+        allAtoms = new IteratorDirective();
+        allAtoms.includeLrc = false;
+        targetAtom = new IteratorDirective(null);
+        targetAtom.includeLrc = false;
+        rebuildCalculation = new RebuildCalculation();
+        trialCalculation = new TrialCalculation();
+        numPairs = new int[0];
+        pairPartner = new int[0][];
+        pairSlot = new int[0][];
+        pairEnergy = new double[0][];
+        selfEnergy = new double[0];
+        pendingAtoms = new int[8];
+        trialPartner = new int[8];
+        trialEnergy = new double[8];
+        integrator.getMoveEventManager().addListener(this);
+        integrator.getEventManager().addListener(this);
+        box.getEventManager().addListener(this);
+    }
+
+    public Box getBox() {
+        return box;
+    }
+
+    /**
+     * Marks the cache as invalid.  The cache will be rebuilt the next time
+     * it is used.  This must be called if atoms are moved without the
+     * integrator's knowledge.
+     */
+    public void invalidate() {
+        valid = false;
+        trialAtom = null;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Returns the energy of all interactions involving the given atom, as
+     * would be computed by a MeterPotentialEnergy (without long-range
+     * correction) targeting the atom.
+     */
+    public double getEnergy(IAtom atom) {
+        update();
+        int i = atom.getLeafIndex();
+        double u = selfEnergy[i];
+        double[] iEnergy = pairEnergy[i];
+        for (int k = 0, n = numPairs[i]; k < n; k++) {
+            u += iEnergy[k];
+        }
+        return u;
+    }
+
+    /**
+     * Computes the energy of all interactions involving the given atom in
+     * its current (trial) position, and holds the pair energies so that they
+     * can be stored in the cache if the trial is accepted.
+     */
+    public double computeTrialEnergy(IAtom atom) {
+        update();
+        computeTrialPairs(atom);
+        double u = trialSelfEnergy;
+        for (int k = 0; k < trialNumPairs; k++) {
+            u += trialEnergy[k];
+        }
+        return u;
+    }
+
+    /**
+     * Replaces the pair energies of the atom last passed to
+     * computeTrialEnergy with those computed for its trial position.  This
+     * should be called by a move when its trial is accepted.  If no trial
+     * energy was computed, the cache will be invalidated when the move's
+     * acceptance is announced.
+     */
+    public void acceptTrial() {
+        if (trialAtom == null) return;
+        int i = trialAtom.getLeafIndex();
+        trialAtom = null;
+        trialAccepted = true;
+        if (!valid) return;
+        // remove the old pairs from the partners
+        int[] iPartner = pairPartner[i];
+        int[] iSlot = pairSlot[i];
+        for (int k = 0, n = numPairs[i]; k < n; k++) {
+            removeSlot(iPartner[k], iSlot[k]);
+        }
+        numPairs[i] = 0;
+        selfEnergy[i] = trialSelfEnergy;
+        for (int k = 0; k < trialNumPairs; k++) {
+            addPair(i, trialPartner[k], trialEnergy[k]);
+        }
+    }
+
+    /**
+     * Computes the pair energies of the given atom (in its current position)
+     * and holds them as the trial pairs.
+     */
+    protected void computeTrialPairs(IAtom atom) {
+        trialAtom = atom;
+        trialNumPairs = 0;
+        trialSelfEnergy = 0;
+        targetAtom.setTargetAtom(atom);
+        potentialMaster.calculate(box, targetAtom, trialCalculation);
+    }
+
+    /**
+     * Rebuilds the cache if it is invalid, or otherwise adds the pairs of
+     * any atoms that were added to the box.
+     */
+    protected void update() {
+        if (!valid) {
+            rebuild();
+        }
+        else if (numPending > 0) {
+            addPendingAtoms();
+        }
+    }
+
+    /**
+     * Recomputes the energies of all pairs.
+     */
+    protected void rebuild() {
+        int nLeaf = box.getLeafList().getAtomCount();
+        ensureCapacity(nLeaf);
+        Arrays.fill(numPairs, 0);
+        Arrays.fill(selfEnergy, 0);
+        numPending = 0;
+        // the cache must be valid while it is filled in
+        valid = true;
+        trialAtom = null;
+        potentialMaster.calculate(box, allAtoms, rebuildCalculation);
+    }
+
+    protected void ensureCapacity(int nLeaf) {
+        if (numPairs.length >= nLeaf) return;
+        int oldLength = numPairs.length;
+        int newLength = Math.max(nLeaf, oldLength + oldLength / 2);
+        numPairs = Arrays.copyOf(numPairs, newLength);
+        pairPartner = Arrays.copyOf(pairPartner, newLength);
+        pairSlot = Arrays.copyOf(pairSlot, newLength);
+        pairEnergy = Arrays.copyOf(pairEnergy, newLength);
+        selfEnergy = Arrays.copyOf(selfEnergy, newLength);
+        for (int i = oldLength; i < newLength; i++) {
+            pairPartner[i] = new int[8];
+            pairSlot[i] = new int[8];
+            pairEnergy[i] = new double[8];
+        }
+    }
+
+    /**
+     * Computes and stores the pairs of the atoms added to the box since the
+     * cache was last used.  Pairs between two added atoms are stored when
+     * the second of them is handled.
+     */
+    protected void addPendingAtoms() {
+        IAtomList leafList = box.getLeafList();
+        while (numPending > 0) {
+            int i = pendingAtoms[--numPending];
+            computeTrialPairs(leafList.getAtom(i));
+            selfEnergy[i] = trialSelfEnergy;
+            for (int k = 0; k < trialNumPairs; k++) {
+                if (pendingIndex(trialPartner[k]) > -1) continue;
+                addPair(i, trialPartner[k], trialEnergy[k]);
+            }
+        }
+        trialAtom = null;
+    }
+
+    /**
+     * Returns the position of the given leaf index in the list of atoms
+     * whose pairs have not been computed, or -1 if it is not there.
+     */
+    protected int pendingIndex(int i) {
+        for (int p = 0; p < numPending; p++) {
+            if (pendingAtoms[p] == i) return p;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a pair with energy u between atoms i and j (leaf indices).
+     */
+    protected void addPair(int i, int j, double u) {
+        int ki = addSlot(i, j, u);
+        int kj = addSlot(j, i, u);
+        pairSlot[i][ki] = kj;
+        pairSlot[j][kj] = ki;
+    }
+
+    protected int addSlot(int i, int j, double u) {
+        int k = numPairs[i];
+        if (k == pairPartner[i].length) {
+            pairPartner[i] = Arrays.copyOf(pairPartner[i], 2 * k);
+            pairSlot[i] = Arrays.copyOf(pairSlot[i], 2 * k);
+            pairEnergy[i] = Arrays.copyOf(pairEnergy[i], 2 * k);
+        }
+        pairPartner[i][k] = j;
+        pairEnergy[i][k] = u;
+        numPairs[i]++;
+        return k;
+    }
+
+    /**
+     * Removes entry k from atom i's pairs, by moving its last entry into
+     * slot k.
+     */
+    protected void removeSlot(int i, int k) {
+        int last = --numPairs[i];
+        if (k == last) return;
+        int j = pairPartner[i][last];
+        int kj = pairSlot[i][last];
+        pairPartner[i][k] = j;
+        pairSlot[i][k] = kj;
+        pairEnergy[i][k] = pairEnergy[i][last];
+        pairSlot[j][kj] = k;
+    }
+
+    public void actionPerformed(MCMoveEvent event) {
+        if (!(event instanceof MCMoveTrialCompletedEvent)) return;
+        // an insert/delete move changes the box only by adding or removing
+        // a molecule, which the cache has already handled
+        if (((MCMoveTrialCompletedEvent) event).isAccepted() && !trialAccepted
+                && event.getMCMove().getClass() != MCMoveInsertDelete.class) {
+            invalidate();
+        }
+        trialAccepted = false;
+    }
+
+    public void integratorInitialized(IntegratorEvent e) {
+        invalidate();
+    }
+
+    public void integratorStepStarted(IntegratorEvent e) {}
+
+    public void integratorStepFinished(IntegratorEvent e) {}
+
+    public void boxMoleculeAdded(BoxMoleculeEvent e) {
+        if (!valid) return;
+        IAtomList childList = e.getMolecule().getChildList();
+        ensureCapacity(box.getLeafList().getAtomCount());
+        for (int iChild = 0; iChild < childList.getAtomCount(); iChild++) {
+            int i = childList.getAtom(iChild).getLeafIndex();
+            numPairs[i] = 0;
+            selfEnergy[i] = 0;
+            if (numPending == pendingAtoms.length) {
+                pendingAtoms = Arrays.copyOf(pendingAtoms, 2 * numPending);
+            }
+            pendingAtoms[numPending++] = i;
+        }
+    }
+
+    public void boxMoleculeRemoved(BoxMoleculeEvent e) {
+        if (!valid) return;
+        trialAtom = null;
+        // the atoms still have their leaf indices
+        IAtomList childList = e.getMolecule().getChildList();
+        for (int iChild = 0; iChild < childList.getAtomCount(); iChild++) {
+            int i = childList.getAtom(iChild).getLeafIndex();
+            int[] iPartner = pairPartner[i];
+            int[] iSlot = pairSlot[i];
+            for (int k = 0, n = numPairs[i]; k < n; k++) {
+                removeSlot(iPartner[k], iSlot[k]);
+            }
+            numPairs[i] = 0;
+            selfEnergy[i] = 0;
+            int p = pendingIndex(i);
+            if (p > -1) {
+                pendingAtoms[p] = pendingAtoms[--numPending];
+            }
+        }
+    }
+
+    public void boxAtomLeafIndexChanged(BoxAtomIndexEvent e) {
+        if (!valid) return;
+        int oldIndex = e.getIndex();
+        int i = e.getAtom().getLeafIndex();
+        // swap the rows so that the old row's arrays can be reused
+        int[] iPartner = pairPartner[oldIndex];
+        int[] iSlot = pairSlot[oldIndex];
+        double[] iEnergy = pairEnergy[oldIndex];
+        pairPartner[oldIndex] = pairPartner[i];
+        pairSlot[oldIndex] = pairSlot[i];
+        pairEnergy[oldIndex] = pairEnergy[i];
+        pairPartner[i] = iPartner;
+        pairSlot[i] = iSlot;
+        pairEnergy[i] = iEnergy;
+        numPairs[i] = numPairs[oldIndex];
+        numPairs[oldIndex] = 0;
+        selfEnergy[i] = selfEnergy[oldIndex];
+        selfEnergy[oldIndex] = 0;
+        for (int k = 0, n = numPairs[i]; k < n; k++) {
+            pairPartner[iPartner[k]][iSlot[k]] = i;
+        }
+        int p = pendingIndex(oldIndex);
+        if (p > -1) {
+            pendingAtoms[p] = i;
+        }
+    }
+
+    /**
+     * Records each pair (and 1-body) energy in the cache.
+     */
+    protected class RebuildCalculation implements PotentialCalculationMolecular {
+        public void doCalculation(IAtomList atoms, IPotentialAtomic potential) {
+            double u = potential.energy(atoms);
+            if (atoms.getAtomCount() == 1) {
+                selfEnergy[atoms.getAtom(0).getLeafIndex()] += u;
+                return;
+            }
+            if (atoms.getAtomCount() > 2) {
+                throw new RuntimeException("AtomEnergyCache can only handle 1-body and 2-body potentials");
+            }
+            if (u == 0) return;
+            addPair(atoms.getAtom(0).getLeafIndex(), atoms.getAtom(1).getLeafIndex(), u);
+        }
+
+        public void doCalculation(IMoleculeList molecules, IPotentialMolecular potential) {
+            throw new RuntimeException("AtomEnergyCache can only handle atomic potentials");
+        }
+    }
+
+    /**
+     * Records the energies of the trial atom's pairs.
+     */
+    protected class TrialCalculation implements PotentialCalculationMolecular {
+        public void doCalculation(IAtomList atoms, IPotentialAtomic potential) {
+            double u = potential.energy(atoms);
+            if (atoms.getAtomCount() == 1) {
+                trialSelfEnergy += u;
+                return;
+            }
+            if (atoms.getAtomCount() > 2) {
+                throw new RuntimeException("AtomEnergyCache can only handle 1-body and 2-body potentials");
+            }
+            if (u == 0) return;
+            IAtom partner = atoms.getAtom(0) == trialAtom ? atoms.getAtom(1) : atoms.getAtom(0);
+            if (trialNumPairs == trialPartner.length) {
+                trialPartner = Arrays.copyOf(trialPartner, 2 * trialNumPairs);
+                trialEnergy = Arrays.copyOf(trialEnergy, 2 * trialNumPairs);
+            }
+            trialPartner[trialNumPairs] = partner.getLeafIndex();
+            trialEnergy[trialNumPairs] = u;
+            trialNumPairs++;
+        }
+
+        public void doCalculation(IMoleculeList molecules, IPotentialMolecular potential) {
+            throw new RuntimeException("AtomEnergyCache can only handle atomic potentials");
+        }
+    }
+}
@@ -35,6 +35,7 @@ public class MCMoveAtom extends MCMoveBoxStep {
     protected AtomSource atomSource;
     protected boolean fixOverlap;
     protected Space space;
+    protected AtomEnergyCache energyCache;
 
     /**
      * Constructs the move with default stepSize = 1.0, stepSizeMax = 15.0, fixOverlap = false
@@ -94,8 +95,13 @@ public class MCMoveAtom extends MCMoveBoxStep {
     public boolean doTrial() {
         atom = atomSource.getAtom();
         if (atom == null) return false;
-        energyMeter.setTarget(atom);
-        uOld = energyMeter.getDataAsScalar();
+        if (energyCache != null) {
+            uOld = energyCache.getEnergy(atom);
+        }
+        else {
+            energyMeter.setTarget(atom);
+            uOld = energyMeter.getDataAsScalar();
+        }
         if (uOld > 1e8 && !fixOverlap) {
             throw new RuntimeException("atom " + atom + " in box " + box + " has an overlap");
         }
@@ -106,7 +112,7 @@ public class MCMoveAtom extends MCMoveBoxStep {
     }//end of doTrial
 
     public double getChi(double temperature) {
-        uNew = energyMeter.getDataAsScalar();
+        uNew = energyCache != null ? energyCache.computeTrialEnergy(atom) : energyMeter.getDataAsScalar();
         return Math.exp(-(uNew - uOld) / temperature);
     }
 
@@ -114,7 +120,10 @@ public class MCMoveAtom extends MCMoveBoxStep {
         return uNew - uOld;
     }
 
-    public void acceptNotify() {  /* do nothing */
+    public void acceptNotify() {
+        if (energyCache != null) {
+            energyCache.acceptTrial();
+        }
     }
 
     public void rejectNotify() {
@@ -133,6 +142,20 @@ public class MCMoveAtom extends MCMoveBoxStep {
         atomSource.setBox(p);
     }
 
+    /**
+     * Sets a cache of atom energies used to obtain the energy of the atom
+     * before the trial, instead of computing it.  The cache is updated when
+     * trials are accepted.  If null (the default), energies before and after
+     * each trial are computed.
+     */
+    public void setEnergyCache(AtomEnergyCache newEnergyCache) {
+        energyCache = newEnergyCache;
+    }
+
+    public AtomEnergyCache getEnergyCache() {
+        return energyCache;
+    }
+
     /**
      * The AtomSource is used to select the atom at the beginning of the trial
      *
@@ -43,6 +43,15 @@ public class CellLattice extends RectangularLattice {
      * r.D() == this.D()) but this is not checked.
      */
     public Object site(Vector r) {
+        return sites[siteIndex(r)];
+    }
+
+    /**
+     * Returns the index (within the array returned by sites()) of the cell in
+     * which the given point lies.  The point must lie within the bounds of
+     * the lattice, as for site(Vector).
+     */
+    public int siteIndex(Vector r) {
         int idx1D = 0;
         for(int i=0; i<D; i++) {
             int j = ((int)(size[i]*(r.getX(i)/dimensions.getX(i)+0.5)));
@@ -50,7 +59,7 @@ public class CellLattice extends RectangularLattice {
             else if (j == size[i]) j = size[i]-1;
             idx1D += j * jumpCount[i];
         }
-        return sites[idx1D];
+        return idx1D;
     }
 
     /**
@@ -0,0 +1,132 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.math.numerical;
+
+/**
+ * Complex 3D discrete Fourier transform of data on a mesh whose dimensions
+ * are each a power of 2, using the radix-2 Fast Fourier Transform along each
+ * axis.  The data are held (in place) as separate real and imaginary arrays
+ * with element (i,j,k) at index (i*n1 + j)*n2 + k.
+ * <p>
+ * The transforms are not normalized: the forward transform computes
+ * sum_r f(r) exp(-2 pi i k.r/n) and the inverse computes
+ * sum_k F(k) exp(+2 pi i k.r/n), so that applying one and then the other
+ * multiplies the data by n0*n1*n2.  Twiddle factors and bit-reversal tables
+ * are computed once, when the transform is constructed.
+ */
+public class FastFourierTransform3D {
+
+    protected final int[] n;
+    protected final int[][] bitReverse;
+    protected final double[][] cosTable, sinTable;
+    protected final double[] lineRe, lineIm;
+
+    public FastFourierTransform3D(int n0, int n1, int n2) {
+        n = new int[]{n0, n1, n2};
+        bitReverse = new int[3][];
+        cosTable = new double[3][];
+        sinTable = new double[3][];
+        int maxN = 1;
+        for (int d = 0; d < 3; d++) {
+            int nd = n[d];
+            if (nd < 1 || (nd & (nd - 1)) != 0) {
+                throw new IllegalArgumentException("Mesh size " + nd + " is not a power of 2");
+            }
+            maxN = Math.max(maxN, nd);
+            int bits = Integer.numberOfTrailingZeros(nd);
+            bitReverse[d] = new int[nd];
+            for (int i = 0; i < nd; i++) {
+                bitReverse[d][i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+            }
+            cosTable[d] = new double[nd / 2];
+            sinTable[d] = new double[nd / 2];
+            for (int i = 0; i < nd / 2; i++) {
+                cosTable[d][i] = Math.cos(2 * Math.PI * i / nd);
+                sinTable[d][i] = Math.sin(2 * Math.PI * i / nd);
+            }
+        }
+        lineRe = new double[maxN];
+        lineIm = new double[maxN];
+    }
+
+    /**
+     * Returns the mesh size along each dimension.
+     */
+    public int[] getSize() {
+        return n;
+    }
+
+    /**
+     * Performs the forward transform of the given data, in place.
+     */
+    public void transform(double[] re, double[] im) {
+        transform(re, im, false);
+    }
+
+    /**
+     * Performs the inverse (unnormalized) transform of the given data, in
+     * place.
+     */
+    public void invert(double[] re, double[] im) {
+        transform(re, im, true);
+    }
+
+    protected void transform(double[] re, double[] im, boolean inverse) {
+        int n0 = n[0], n1 = n[1], n2 = n[2];
+        if (re.length < n0 * n1 * n2 || im.length < n0 * n1 * n2) {
+            throw new IllegalArgumentException("Data arrays are smaller than the mesh");
+        }
+        // along axis 2 (contiguous)
+        for (int i = 0; i < n0 * n1; i++) {
+            transformLine(re, im, i * n2, 1, 2, inverse);
+        }
+        // along axis 1
+        for (int i = 0; i < n0; i++) {
+            for (int k = 0; k < n2; k++) {
+                transformLine(re, im, i * n1 * n2 + k, n2, 1, inverse);
+            }
+        }
+        // along axis 0
+        for (int j = 0; j < n1 * n2; j++) {
+            transformLine(re, im, j, n1 * n2, 0, inverse);
+        }
+    }
+
+    /**
+     * Transforms the n[d] elements starting at start and separated by
+     * stride.
+     */
+    protected void transformLine(double[] re, double[] im, int start, int stride, int d, boolean inverse) {
+        int nd = n[d];
+        if (nd == 1) return;
+        int[] rev = bitReverse[d];
+        for (int i = 0, idx = start; i < nd; i++, idx += stride) {
+            lineRe[rev[i]] = re[idx];
+            lineIm[rev[i]] = im[idx];
+        }
+        double[] c = cosTable[d], s = sinTable[d];
+        double sign = inverse ? 1 : -1;
+        for (int size = 2; size <= nd; size <<= 1) {
+            int half = size >> 1;
+            int tableStep = nd / size;
+            for (int i = 0; i < nd; i += size) {
+                for (int j = 0, t = 0; j < half; j++, t += tableStep) {
+                    double wr = c[t], wi = sign * s[t];
+                    int a = i + j, b = a + half;
+                    double tr = wr * lineRe[b] - wi * lineIm[b];
+                    double ti = wr * lineIm[b] + wi * lineRe[b];
+                    lineRe[b] = lineRe[a] - tr;
+                    lineIm[b] = lineIm[a] - ti;
+                    lineRe[a] += tr;
+                    lineIm[a] += ti;
+                }
+            }
+        }
+        for (int i = 0, idx = start; i < nd; i++, idx += stride) {
+            re[idx] = lineRe[i];
+            im[idx] = lineIm[i];
+        }
+    }
+}
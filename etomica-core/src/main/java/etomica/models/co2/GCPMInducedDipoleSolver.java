@@ -0,0 +1,417 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.models.co2;
+
+import etomica.atom.IAtom;
+import etomica.atom.IAtomList;
+import etomica.models.co2.PNGCPM.GCPMAgent;
+import etomica.molecule.IMolecule;
+import etomica.molecule.IMoleculeList;
+import etomica.space.Space;
+import etomica.space.Vector;
+import org.apache.commons.math3.special.Erf;
+
+import java.util.Arrays;
+
+/**
+ * Solves for the induced dipoles of PNGCPM, caching everything that depends
+ * only on the configuration between calls.
+ * <p>
+ * The dipole field tensor between each pair of polarizable sites is stored
+ * (packed, one block per pair) along with the field at each site due to the
+ * charges of each molecule.  When the potential is called again for the same
+ * molecules, only the blocks involving molecules that moved are recomputed,
+ * so a single-molecule MC move costs O(N) erfc/exp evaluations instead of
+ * O(N^2) per iteration.  The previous converged dipoles are used as the
+ * initial guess.  If all polarizabilities are isotropic, the dipoles are
+ * found with a preconditioned conjugate-gradient solve; otherwise (the
+ * polarizability depends on the direction of the field, as for CO2) the
+ * same damped iteration as PNGCPM is used, but with the cached tensor.
+ */
+public class GCPMInducedDipoleSolver {
+
+    protected static final double SQRT_PI = Math.sqrt(Math.PI);
+    protected static final double TOLERANCE = 1e-20;
+    protected static final int MAX_ITER = 550;
+    protected static final double MIX_ITER = 0.9;
+
+    protected final PNGCPM potential;
+    protected IMolecule[] molecules;
+    protected int nMolecules, nSites;
+    // polarizable sites, and the molecule each belongs to
+    protected IAtom[] siteAtom;
+    protected GCPMAgent[] siteAgent;
+    protected int[] siteMolecule;
+    protected boolean isotropic;
+    // atom positions and box size used for the cached quantities
+    protected double[] lastPositions;
+    protected final Vector lastBoxSize;
+    // packed pair tensor (a, b, wx, wy, wz) for each pair of sites i<j; the
+    // field at i due to j is a mu_j + b (w.mu_j) w
+    protected double[] pairT;
+    // field at each site due to the charges of each molecule
+    protected double[] eqPart;
+    protected double[] eq, mu, field, r, z, p, q;
+    protected int nOverlap, numIterations;
+    protected boolean[] moved;
+    protected final Vector work, shift;
+
+    public GCPMInducedDipoleSolver(Space space, PNGCPM potential) {
+        this.potential = potential;
+        work = space.makeVector();
+        shift = space.makeVector();
+        lastBoxSize = space.makeVector();
+        molecules = new IMolecule[0];
+    }
+
+    /**
+     * Returns the polarization energy of the given molecules.  The result is
+     * NaN if the cores of any pair of polarizable sites overlap.
+     */
+    public double getPolarizationEnergy(IMoleculeList moleculeList) {
+        if (!update(moleculeList)) {
+            setup(moleculeList);
+        }
+        numIterations = 0;
+        if (nOverlap > 0) return Double.NaN;
+
+        boolean converged = isotropic && solveConjugateGradient();
+        if (!converged) {
+            solveIterative();
+        }
+        double u = 0;
+        for (int i = 0; i < 3 * nSites; i++) {
+            u += eq[i] * mu[i];
+        }
+        return -0.5 * u;
+    }
+
+    /**
+     * Returns the induced dipoles (x, y, z for each polarizable site, in the
+     * order the sites appear within the molecules) from the last call to
+     * getPolarizationEnergy.
+     */
+    public double[] getDipoles() {
+        return mu;
+    }
+
+    /**
+     * Returns the number of iterations taken to find the dipoles in the last
+     * call to getPolarizationEnergy.
+     */
+    public int getNumIterations() {
+        return numIterations;
+    }
+
+    /**
+     * Discards the cached configuration and dipoles.
+     */
+    public void reset() {
+        molecules = new IMolecule[0];
+        nMolecules = 0;
+    }
+
+    /**
+     * Updates the cached quantities for molecules that moved since the last
+     * call.  Returns false if the molecules are not the ones from the last
+     * call, in which case nothing is updated.
+     */
+    protected boolean update(IMoleculeList moleculeList) {
+        int n = moleculeList.getMoleculeCount();
+        if (n != nMolecules || n == 0) return false;
+        for (int i = 0; i < n; i++) {
+            if (moleculeList.getMolecule(i) != molecules[i]) return false;
+        }
+        boolean allMoved = !lastBoxSize.equals(potential.boundary.getBoxSize());
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            moved[i] = allMoved;
+            IAtomList atoms = molecules[i].getChildList();
+            for (int j = 0; j < atoms.getAtomCount(); j++) {
+                Vector pos = atoms.getAtom(j).getPosition();
+                for (int d = 0; d < 3; d++, k++) {
+                    if (lastPositions[k] != pos.getX(d)) {
+                        moved[i] = true;
+                        lastPositions[k] = pos.getX(d);
+                    }
+                }
+            }
+        }
+        lastBoxSize.E(potential.boundary.getBoxSize());
+        computeMoved();
+        return true;
+    }
+
+    /**
+     * Sets up the sites and cached quantities for a new list of molecules.
+     */
+    protected void setup(IMoleculeList moleculeList) {
+        nMolecules = moleculeList.getMoleculeCount();
+        molecules = new IMolecule[nMolecules];
+        int nAtoms = 0;
+        nSites = 0;
+        for (int i = 0; i < nMolecules; i++) {
+            molecules[i] = moleculeList.getMolecule(i);
+            IAtomList atoms = molecules[i].getChildList();
+            nAtoms += atoms.getAtomCount();
+            for (int j = 0; j < atoms.getAtomCount(); j++) {
+                GCPMAgent agent = potential.typeManager.get(atoms.getAtom(j).getType());
+                if (agent.alphaPerp != 0 || agent.alphaPar != 0) nSites++;
+            }
+        }
+        siteAtom = new IAtom[nSites];
+        siteAgent = new GCPMAgent[nSites];
+        siteMolecule = new int[nSites];
+        lastPositions = new double[3 * nAtoms];
+        isotropic = true;
+        int s = 0, k = 0;
+        for (int i = 0; i < nMolecules; i++) {
+            IAtomList atoms = molecules[i].getChildList();
+            for (int j = 0; j < atoms.getAtomCount(); j++) {
+                IAtom atom = atoms.getAtom(j);
+                for (int d = 0; d < 3; d++, k++) {
+                    lastPositions[k] = atom.getPosition().getX(d);
+                }
+                GCPMAgent agent = potential.typeManager.get(atom.getType());
+                if (agent.alphaPerp == 0 && agent.alphaPar == 0) continue;
+                siteAtom[s] = atom;
+                siteAgent[s] = agent;
+                siteMolecule[s] = i;
+                if (agent.alphaPerp != agent.alphaPar) isotropic = false;
+                s++;
+            }
+        }
+        lastBoxSize.E(potential.boundary.getBoxSize());
+        pairT = new double[5 * (nSites * (nSites - 1) / 2)];
+        eqPart = new double[3 * nSites * nMolecules];
+        eq = new double[3 * nSites];
+        mu = new double[3 * nSites];
+        field = new double[3 * nSites];
+        r = new double[3 * nSites];
+        z = new double[3 * nSites];
+        p = new double[3 * nSites];
+        q = new double[3 * nSites];
+        moved = new boolean[nMolecules];
+        Arrays.fill(moved, true);
+        nOverlap = 0;
+        computeMoved();
+    }
+
+    /**
+     * Index of the pair tensor for sites i<j.
+     */
+    protected int pairIndex(int i, int j) {
+        return 5 * (i * nSites - i * (i + 1) / 2 + (j - i - 1));
+    }
+
+    /**
+     * Recomputes the pair tensors and charge fields involving molecules that
+     * moved, and then the total charge field at each site.
+     */
+    protected void computeMoved() {
+        for (int i = 0; i < nSites; i++) {
+            int mi = siteMolecule[i];
+            Vector ri = siteAtom[i].getPosition();
+            for (int m = 0; m < nMolecules; m++) {
+                if (m == mi || !(moved[m] || moved[mi])) continue;
+                computeShift(ri, m);
+                computeChargeField(i, ri, m);
+            }
+            int shiftMolecule = -1;
+            for (int j = i + 1; j < nSites; j++) {
+                int mj = siteMolecule[j];
+                if (mj == mi || !(moved[mj] || moved[mi])) continue;
+                if (mj != shiftMolecule) {
+                    computeShift(ri, mj);
+                    shiftMolecule = mj;
+                }
+                computePair(i, ri, j);
+            }
+        }
+        for (int i = 0; i < nSites; i++) {
+            double ex = 0, ey = 0, ez = 0;
+            for (int m = 0, k = 3 * nMolecules * i; m < nMolecules; m++, k += 3) {
+                ex += eqPart[k];
+                ey += eqPart[k + 1];
+                ez += eqPart[k + 2];
+            }
+            eq[3 * i] = ex;
+            eq[3 * i + 1] = ey;
+            eq[3 * i + 2] = ez;
+        }
+    }
+
+    /**
+     * Computes the shift that takes atoms of molecule m to the image nearest
+     * to ri, using the first atom of the molecule (as PNGCPM does).
+     */
+    protected void computeShift(Vector ri, int m) {
+        work.Ev1Mv2(ri, molecules[m].getChildList().getAtom(0).getPosition());
+        shift.Ea1Tv1(-1, work);
+        potential.boundary.nearestImage(work);
+        shift.PE(work);
+    }
+
+    protected void computeChargeField(int i, Vector ri, int m) {
+        IAtomList atoms = molecules[m].getChildList();
+        double ex = 0, ey = 0, ez = 0;
+        for (int jj = 0; jj < atoms.getAtomCount(); jj++) {
+            IAtom atomj = atoms.getAtom(jj);
+            double qj = potential.typeManager.get(atomj.getType()).charge;
+            if (qj == 0) continue;
+            double tauij = potential.getPairAgent(siteAtom[i].getType(), atomj.getType()).tau;
+            work.Ev1Mv2(ri, atomj.getPosition());
+            work.PE(shift);
+            double r2 = work.squared();
+            double r1 = Math.sqrt(r2);
+            double fac = qj / (r1 * r2) * ((1 - Erf.erfc(r1 / (2 * tauij)))
+                    - r1 / (SQRT_PI * tauij) * Math.exp(-r2 / (4 * tauij * tauij)));
+            ex += fac * work.getX(0);
+            ey += fac * work.getX(1);
+            ez += fac * work.getX(2);
+        }
+        int k = 3 * (nMolecules * i + m);
+        eqPart[k] = ex;
+        eqPart[k + 1] = ey;
+        eqPart[k + 2] = ez;
+    }
+
+    protected void computePair(int i, Vector ri, int j) {
+        int k = pairIndex(i, j);
+        if (Double.isNaN(pairT[k])) nOverlap--;
+        GCPMAgent agentij = potential.getPairAgent(siteAtom[i].getType(), siteAtom[j].getType());
+        double tauij = agentij.tau;
+        work.Ev1Mv2(ri, siteAtom[j].getPosition());
+        work.PE(shift);
+        double r2 = work.squared();
+        if (r2 < potential.coreFac * agentij.sigma) {
+            pairT[k] = Double.NaN;
+            nOverlap++;
+            return;
+        }
+        double r1 = Math.sqrt(r2);
+        double erf = 1 - Erf.erfc(r1 / (2 * tauij));
+        double prefac = (r1 / (tauij * SQRT_PI)) * Math.exp(-r2 / (4 * tauij * tauij));
+        double fr = erf - prefac;
+        double fpr = fr - prefac * 0.666666666666666666666 * r2 / (4 * tauij * tauij);
+        pairT[k] = -fr / (r1 * r2);
+        pairT[k + 1] = 3 * fpr / (r2 * r2 * r1);
+        pairT[k + 2] = work.getX(0);
+        pairT[k + 3] = work.getX(1);
+        pairT[k + 4] = work.getX(2);
+    }
+
+    /**
+     * Computes the field due to the dipoles x (at each site), without the
+     * field due to charges.
+     */
+    protected void dipoleField(double[] x, double[] f) {
+        Arrays.fill(f, 0, 3 * nSites, 0);
+        for (int i = 0; i < nSites; i++) {
+            int i3 = 3 * i;
+            double xix = x[i3], xiy = x[i3 + 1], xiz = x[i3 + 2];
+            double fx = 0, fy = 0, fz = 0;
+            int mi = siteMolecule[i];
+            for (int j = i + 1, k = pairIndex(i, i + 1); j < nSites; j++, k += 5) {
+                if (siteMolecule[j] == mi) continue;
+                double a = pairT[k], b = pairT[k + 1];
+                double wx = pairT[k + 2], wy = pairT[k + 3], wz = pairT[k + 4];
+                int j3 = 3 * j;
+                double xjx = x[j3], xjy = x[j3 + 1], xjz = x[j3 + 2];
+                double bwj = b * (wx * xjx + wy * xjy + wz * xjz);
+                fx += a * xjx + bwj * wx;
+                fy += a * xjy + bwj * wy;
+                fz += a * xjz + bwj * wz;
+                double bwi = b * (wx * xix + wy * xiy + wz * xiz);
+                f[j3] += a * xix + bwi * wx;
+                f[j3 + 1] += a * xiy + bwi * wy;
+                f[j3 + 2] += a * xiz + bwi * wz;
+            }
+            f[i3] += fx;
+            f[i3 + 1] += fy;
+            f[i3 + 2] += fz;
+        }
+    }
+
+    /**
+     * Solves (1/alpha - T) mu = Eq by conjugate gradient, preconditioned with
+     * alpha, starting from the current dipoles.  Returns false if the
+     * iteration does not converge (as can happen if the matrix is not
+     * positive definite).
+     */
+    protected boolean solveConjugateGradient() {
+        int n3 = 3 * nSites;
+        dipoleField(mu, field);
+        double rz = 0, err = 0;
+        for (int i = 0; i < n3; i++) {
+            double alpha = siteAgent[i / 3].alphaPerp;
+            r[i] = eq[i] + field[i] - mu[i] / alpha;
+            z[i] = alpha * r[i];
+            p[i] = z[i];
+            rz += r[i] * z[i];
+            err += z[i] * z[i];
+        }
+        for (int iter = 0; iter < MAX_ITER; iter++) {
+            if (err < TOLERANCE) return true;
+            numIterations++;
+            dipoleField(p, field);
+            double pq = 0;
+            for (int i = 0; i < n3; i++) {
+                q[i] = p[i] / siteAgent[i / 3].alphaPerp - field[i];
+                pq += p[i] * q[i];
+            }
+            if (!(pq > 0)) return false;
+            double step = rz / pq;
+            double rzNew = 0;
+            err = 0;
+            for (int i = 0; i < n3; i++) {
+                mu[i] += step * p[i];
+                r[i] -= step * q[i];
+                z[i] = siteAgent[i / 3].alphaPerp * r[i];
+                rzNew += r[i] * z[i];
+                err += z[i] * z[i];
+            }
+            double beta = rzNew / rz;
+            rz = rzNew;
+            for (int i = 0; i < n3; i++) {
+                p[i] = z[i] + beta * p[i];
+            }
+        }
+        return err < TOLERANCE;
+    }
+
+    /**
+     * Solves for the dipoles using the damped iteration from PNGCPM, starting
+     * from the current dipoles.
+     */
+    protected void solveIterative() {
+        for (int iter = 0; iter < MAX_ITER; iter++) {
+            numIterations++;
+            dipoleField(mu, field);
+            double sumDeltaMu = 0;
+            for (int i = 0; i < nSites; i++) {
+                GCPMAgent agent = siteAgent[i];
+                int i3 = 3 * i;
+                double ex = eq[i3] + field[i3], ey = eq[i3 + 1] + field[i3 + 1], ez = eq[i3 + 2] + field[i3 + 2];
+                double alpha = agent.alphaPerp;
+                if (agent.alphaPerp != agent.alphaPar) {
+                    Vector parAxis = agent.getParallelAxis(molecules[siteMolecule[i]]);
+                    double cosTheta = Math.abs((parAxis.getX(0) * ex + parAxis.getX(1) * ey + parAxis.getX(2) * ez)
+                            / Math.sqrt(ex * ex + ey * ey + ez * ez));
+                    alpha = agent.alphaPerp + cosTheta * (agent.alphaPar - agent.alphaPerp);
+                }
+                double dx = MIX_ITER * (alpha * ex - mu[i3]);
+                double dy = MIX_ITER * (alpha * ey - mu[i3 + 1]);
+                double dz = MIX_ITER * (alpha * ez - mu[i3 + 2]);
+                mu[i3] += dx;
+                mu[i3 + 1] += dy;
+                mu[i3 + 2] += dz;
+                sumDeltaMu += dx * dx + dy * dy + dz * dz;
+            }
+            if (sumDeltaMu < TOLERANCE) return;
+        }
+        throw new RuntimeException("unable to converge induced dipoles");
+    }
+}
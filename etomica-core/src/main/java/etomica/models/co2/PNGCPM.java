@@ -60,6 +60,7 @@ public class PNGCPM extends PotentialMolecular implements PotentialPolarizable {
     protected Vector[][] Eq, Ep, mu;
     protected Vector oldMu;
     protected Component component;
+    protected GCPMInducedDipoleSolver dipoleSolver;
     private double UpolAtkins;
 
     public PNGCPM(Space space, Map<AtomType, GCPMAgent> typeManager, int nAtomTypes) {
@@ -280,6 +281,21 @@ public class PNGCPM extends PotentialMolecular implements PotentialPolarizable {
         component = comp;
     }
 
+    /**
+     * Sets whether the induced dipoles are found with GCPMInducedDipoleSolver,
+     * which caches the dipole field tensor and the converged dipoles between
+     * calls (and so is much faster for bulk simulations and single-molecule
+     * MC moves), instead of iterating to self-consistency from scratch on
+     * every call.
+     */
+    public void setUseCachedDipoleSolver(boolean useCachedSolver) {
+        dipoleSolver = useCachedSolver ? new GCPMInducedDipoleSolver(space, this) : null;
+    }
+
+    public boolean getUseCachedDipoleSolver() {
+        return dipoleSolver != null;
+    }
+
     public double energy(IMoleculeList molecules) {
         double sum = 0;
         if (component != Component.INDUCTION) {
@@ -438,6 +454,10 @@ public class PNGCPM extends PotentialMolecular implements PotentialPolarizable {
      * number of atoms.
      */
     public double getPolarizationEnergy(IMoleculeList molecules) {
+        if (dipoleSolver != null) {
+            UpolAtkins = dipoleSolver.getPolarizationEnergy(molecules);
+            return UpolAtkins;
+        }
 
         final int moleculeCount = molecules.getMoleculeCount();
         if (Eq.length < moleculeCount + 1) {
@@ -647,7 +667,12 @@ public class PNGCPM extends PotentialMolecular implements PotentialPolarizable {
     }
 
     public void setBox(Box box) {
+        // PotentialMaster calls this before every calculation, so only
+        // discard the cached dipoles if the box actually changed.  Changes to
+        // the box size are handled by the solver.
+        if (box.getBoundary() == boundary) return;
         boundary = box.getBoundary();
+        if (dipoleSolver != null) dipoleSolver.reset();
     }
 
     public P3GCPMAxilrodTeller makeAxilrodTeller() {
@@ -4,12 +4,15 @@
 
 package etomica.nbr.cell;
 
+import etomica.atom.AtomArrayList;
 import etomica.atom.AtomLeafAgentManager;
 import etomica.atom.AtomSetSinglet;
 import etomica.atom.IAtom;
 import etomica.atom.IAtomList;
 import etomica.atom.iterator.AtomIterator;
 import etomica.box.Box;
+import etomica.box.BoxAtomIndexEvent;
+import etomica.box.BoxEventListener;
 import etomica.box.BoxCellManager;
 import etomica.integrator.mcmove.MCMove;
 import etomica.integrator.mcmove.MCMoveEvent;
@@ -22,19 +25,27 @@ import etomica.space.*;
 import etomica.util.Debug;
 import etomica.util.IListener;
 
+import java.util.Arrays;
+
 /**
  * Class that defines and manages construction and use of lattice of cells 
  * for cell-based neighbor listing.
  *
  * Before starting the simulation, it is necessary call makeMCMoveListener and
  * register the result with the MCMoveEventManager of the Integrator.
+ *
+ * In incremental mode (see setIncrementalAssignment), the manager tracks the
+ * index of each atom's cell and the atom's position within the cell's list of
+ * occupants in arrays indexed by leaf index.  Atoms can then be removed from
+ * their cell without searching the cell's occupants, and atoms that are moved
+ * but remain within the same cell are not reassigned.
  */
 
 //TODO modify assignCellAll to loop through cells to get all atoms to be assigned
 //no need for index when assigning cell
 //different iterator needed
 
-public class NeighborCellManager implements BoxCellManager, BoundaryEventListener, AtomLeafAgentManager.AgentSource<Cell> {
+public class NeighborCellManager implements BoxCellManager, BoundaryEventListener, BoxEventListener, AtomLeafAgentManager.AgentSource<Cell> {
 
     protected final Simulation sim;
     protected final CellLattice lattice;
@@ -47,6 +58,10 @@ public class NeighborCellManager implements BoxCellManager, BoundaryEventListene
     protected final Vector v;
     protected final int[] numCells;
     protected boolean suppressBoxLengthWarning;
+    // things needed for incremental assignment
+    protected boolean incremental;
+    protected int[] cellIndex, cellSlot;
+    protected int[] cellCounts;
     
     /**
      * Constructs manager for neighbor cells in the given box.  The number of
@@ -75,6 +90,47 @@ public class NeighborCellManager implements BoxCellManager, BoundaryEventListene
         v = space.makeVector();
         agentManager = new AtomLeafAgentManager<Cell>(this,box);
         doApplyPBC = false;
+        cellIndex = new int[0];
+        cellSlot = new int[0];
+        cellCounts = new int[0];
+    }
+
+    /**
+     * Returns true if cells are maintained incrementally.
+     */
+    public boolean isIncrementalAssignment() {
+        return incremental;
+    }
+
+    /**
+     * Sets whether cells are maintained incrementally.  In incremental mode,
+     * the cell index of each atom and its position within its cell are
+     * tracked, allowing atoms to be removed from cells in constant time and
+     * skipping reassignment of atoms that remain in their cell.  Also, when
+     * all atoms are assigned, the occupants of each cell are listed in order
+     * of their leaf index.  While incremental, the manager listens to the box
+     * for changes to leaf indices.
+     */
+    public void setIncrementalAssignment(boolean newIncremental) {
+        if (newIncremental == incremental) return;
+        incremental = newIncremental;
+        if (!incremental) {
+            box.getEventManager().removeListener(this);
+            return;
+        }
+        box.getEventManager().addListener(this);
+        if (numCells[0] != 0) {
+            assignCellAll();
+        }
+    }
+
+    /**
+     * Removes this manager's listeners from the box and releases the cell
+     * assignments of all atoms.  The manager should not be used afterwards.
+     */
+    public void dispose() {
+        setIncrementalAssignment(false);
+        agentManager.dispose();
     }
 
     /**
@@ -206,6 +262,10 @@ public class NeighborCellManager implements BoxCellManager, BoundaryEventListene
         // dimension take effect.  checkDimensions can call us, but if that
         // happens, our call into checkDimensions should 
         checkDimensions();
+        if (incremental) {
+            assignCellAllSorted();
+            return;
+        }
 
         Object[] allCells = lattice.sites();
         for (int i=0; i<allCells.length; i++) {
@@ -220,6 +280,62 @@ public class NeighborCellManager implements BoxCellManager, BoundaryEventListene
         }
     }
     
+    /**
+     * Assigns cells to all atoms via a counting sort.  The number of atoms in
+     * each cell is counted first so that each cell's list of occupants can be
+     * sized once and then filled in order of leaf index.
+     */
+    protected void assignCellAllSorted() {
+        Object[] allCells = lattice.sites();
+        IAtomList leafList = box.getLeafList();
+        int count = leafList.getAtomCount();
+        ensureIndexCapacity(count);
+        if (cellCounts.length < allCells.length) {
+            cellCounts = new int[allCells.length];
+        }
+        else {
+            Arrays.fill(cellCounts, 0, allCells.length, 0);
+        }
+        for (int i=0; i<count; i++) {
+            int idx = cellIndex(leafList.getAtom(i));
+            cellIndex[i] = idx;
+            cellCounts[idx]++;
+        }
+        for (int i=0; i<allCells.length; i++) {
+            AtomArrayList occupants = ((Cell)allCells[i]).occupants();
+            occupants.clear();
+            occupants.ensureCapacity(cellCounts[i]);
+        }
+        for (int i=0; i<count; i++) {
+            IAtom atom = leafList.getAtom(i);
+            Cell atomCell = (Cell)allCells[cellIndex[i]];
+            cellSlot[i] = atomCell.occupants().getAtomCount();
+            atomCell.addAtom(atom);
+            agentManager.setAgent(atom, atomCell);
+        }
+    }
+
+    /**
+     * Returns the index of the cell that the given atom should be assigned
+     * to, applying PBC to the atom's position if doApplyPBC is true.
+     */
+    protected int cellIndex(IAtom atom) {
+        if (doApplyPBC) {
+            v.E(atom.getPosition());
+            v.PE(box.getBoundary().centralImage(v));
+            return lattice.siteIndex(v);
+        }
+        return lattice.siteIndex(atom.getPosition());
+    }
+
+    protected void ensureIndexCapacity(int n) {
+        if (cellIndex.length < n) {
+            n = Math.max(n, cellIndex.length * 3 / 2);
+            cellIndex = Arrays.copyOf(cellIndex, n);
+            cellSlot = Arrays.copyOf(cellSlot, n);
+        }
+    }
+
     public Cell getCell(IAtom atom) {
         return agentManager.getAgent(atom);
     }
@@ -230,6 +346,13 @@ public class NeighborCellManager implements BoxCellManager, BoundaryEventListene
      * agentManager.
      */
     public void assignCell(IAtom atom) {
+        if (incremental) {
+            int idx = cellIndex(atom);
+            Cell atomCell = (Cell)lattice.sites()[idx];
+            addToCell(atom, atomCell, idx);
+            agentManager.setAgent(atom, atomCell);
+            return;
+        }
         Cell atomCell;
         if (doApplyPBC) {
             v.E(atom.getPosition());
@@ -243,6 +366,80 @@ public class NeighborCellManager implements BoxCellManager, BoundaryEventListene
         agentManager.setAgent(atom, atomCell);
     }
 
+    /**
+     * Adds the atom to the given cell (which has the given index) and, in
+     * incremental mode, records the cell index and the atom's slot within the
+     * cell.
+     */
+    protected void addToCell(IAtom atom, Cell cell, int idx) {
+        if (incremental) {
+            int leafIndex = atom.getLeafIndex();
+            ensureIndexCapacity(leafIndex+1);
+            cellIndex[leafIndex] = idx;
+            cellSlot[leafIndex] = cell.occupants().getAtomCount();
+        }
+        cell.addAtom(atom);
+    }
+
+    /**
+     * Removes the atom from the given cell.  In incremental mode, the atom's
+     * slot in the cell is known, and so this takes constant time.
+     */
+    protected void removeFromCell(IAtom atom, Cell cell) {
+        if (!incremental) {
+            cell.removeAtom(atom);
+            return;
+        }
+        AtomArrayList occupants = cell.occupants();
+        int slot = cellSlot[atom.getLeafIndex()];
+        if (Debug.ON && occupants.getAtom(slot) != atom) {
+            throw new IllegalStateException(atom+" is not in slot "+slot+" of its cell");
+        }
+        occupants.removeAndReplace(slot);
+        if (slot < occupants.getAtomCount()) {
+            // the last atom in the cell was moved into the slot
+            cellSlot[occupants.getAtom(slot).getLeafIndex()] = slot;
+        }
+    }
+
+    /**
+     * Moves the given atom back into the box (if it was outside) and
+     * reassigns the atom to its cell.  In incremental mode, the atom is only
+     * reassigned if it has moved to a different cell.
+     */
+    public void updateCell(IAtom atom) {
+        Boundary boundary = box.getBoundary();
+        atom.getPosition().PE(boundary.centralImage(atom.getPosition()));
+        if (incremental) {
+            int idx = lattice.siteIndex(atom.getPosition());
+            if (idx == cellIndex[atom.getLeafIndex()]) return;
+            removeFromCell(atom, getCell(atom));
+            Cell newCell = (Cell)lattice.sites()[idx];
+            addToCell(atom, newCell, idx);
+            agentManager.setAgent(atom, newCell);
+            return;
+        }
+        getCell(atom).removeAtom(atom);
+        assignCell(atom);
+    }
+
+    /**
+     * Moves the given atom to the cell with the given (lattice array) index,
+     * which must be the cell that contains the atom's position.  Unlike
+     * updateCell, this modifies only the atom's old and new cells and the
+     * cell information of atoms within those cells, so different threads may
+     * move atoms concurrently so long as no cell is touched by more than one
+     * thread.
+     */
+    public void moveToCell(IAtom atom, int idx) {
+        Cell oldCell = getCell(atom);
+        Cell newCell = (Cell)lattice.sites()[idx];
+        if (newCell == oldCell) return;
+        removeFromCell(atom, oldCell);
+        addToCell(atom, newCell, idx);
+        agentManager.setAgent(atom, newCell);
+    }
+
     public IListener<MCMoveEvent> makeMCMoveListener() {
         return new MyMCMoveListener(box,this);
     }
@@ -257,8 +454,9 @@ public class NeighborCellManager implements BoxCellManager, BoundaryEventListene
         Vector position = atom.getPosition();
         v.E(position);
         v.PE(box.getBoundary().centralImage(position));
-        Cell atomCell = (Cell)lattice.site(v);
-        atomCell.addAtom(atom);
+        int idx = lattice.siteIndex(v);
+        Cell atomCell = (Cell)lattice.sites()[idx];
+        addToCell(atom, atomCell, idx);
         if (Debug.ON && Debug.DEBUG_NOW && Debug.anyAtom(new AtomSetSinglet(atom))) {
             System.out.println("assigning new "+atom+" at "+position+" to "+atomCell);
         }
@@ -269,7 +467,16 @@ public class NeighborCellManager implements BoxCellManager, BoundaryEventListene
      * Removes the given atom from the cell.
      */
     public void releaseAgent(Cell cell, IAtom atom, Box agentBox) {
-        cell.removeAtom(atom);
+        removeFromCell(atom, cell);
+    }
+
+    public void boxAtomLeafIndexChanged(BoxAtomIndexEvent e) {
+        if (!incremental) return;
+        int oldIndex = e.getIndex();
+        int newIndex = e.getAtom().getLeafIndex();
+        ensureIndexCapacity(newIndex+1);
+        cellIndex[newIndex] = cellIndex[oldIndex];
+        cellSlot[newIndex] = cellSlot[oldIndex];
     }
 
     private static class MyMCMoveListener implements IListener<MCMoveEvent>, java.io.Serializable {
@@ -290,17 +497,9 @@ public class NeighborCellManager implements BoxCellManager, BoundaryEventListene
             AtomIterator iterator = move.affectedAtoms(box);
             iterator.reset();
             for (IAtom atom = iterator.nextAtom(); atom != null; atom = iterator.nextAtom()) {
-                updateCell(atom);
+                neighborCellManager.updateCell(atom);
             }
         }
-
-        private void updateCell(IAtom atom) {
-            Boundary boundary = box.getBoundary();
-            Cell cell = neighborCellManager.getCell(atom);
-            cell.removeAtom(atom);
-            atom.getPosition().PE(boundary.centralImage(atom.getPosition()));
-            neighborCellManager.assignCell(atom);
-        }
         
         private static final long serialVersionUID = 1L;
         private final Box box;
@@ -17,8 +17,13 @@ import etomica.nbr.cell.NeighborCellManager;
 import etomica.potential.IPotential;
 import etomica.potential.PotentialArray;
 import etomica.space.Space;
+import etomica.space.Vector;
 import etomica.util.Debug;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
 /**
  * Initiates the process of updating the neighbor lists. Instance is constructed
  * by PotentialMasterNbr constructor. Acts as a listener of the integrator(s),
@@ -51,6 +56,14 @@ public class NeighborListManager implements IntegratorListener, AgentSource<Atom
     private boolean quiet;
     private NeighborListEventManager eventManager;
     private NeighborCriterion[] oldCriteria;
+    protected NeighborListsCompact compactLists;
+    protected boolean compactStale;
+    // things needed for rebuilding the lists in the background
+    protected NeighborListsBuilder backgroundBuilder;
+    protected ForkJoinPool backgroundPool;
+    protected Future<NeighborListsCompact> pendingLists;
+    protected NeighborListsCompact spareLists;
+    protected Vector[] prePbcPositions;
     
     /**
      * Configures instance for use by the given PotentialMaster.
@@ -83,6 +96,189 @@ public class NeighborListManager implements IntegratorListener, AgentSource<Atom
     public void setDoApplyPBC(boolean newDoApplyPBC) {
         doApplyPBC = newDoApplyPBC;
     }
+
+    /**
+     * Returns true if neighbors are stored in packed arrays of leaf indices
+     * (see {@link NeighborListsCompact}) rather than in per-atom lists.
+     */
+    public boolean isCompactStorage() {
+        return compactLists != null;
+    }
+
+    /**
+     * Sets whether neighbors should be stored in packed arrays of leaf
+     * indices (see {@link NeighborListsCompact}) rather than in per-atom
+     * lists.  Compact storage reduces memory traffic in the pair loop and
+     * avoids allocation when the lists are rebuilt, but adding or removing
+     * an atom requires a full rebuild of the lists, so it is best suited to
+     * simulations where the number of atoms is constant.
+     */
+    public void setCompactStorage(boolean newCompactStorage) {
+        if (newCompactStorage == isCompactStorage()) {
+            return;
+        }
+        if (!newCompactStorage) {
+            setBackgroundRebuild(false);
+        }
+        compactLists = newCompactStorage ? new NeighborListsCompact(box.getLeafList()) : null;
+        if (initialized) {
+            neighborSetup();
+        }
+    }
+
+    /**
+     * Returns the compact neighbor lists, rebuilding them first if atoms were
+     * added or removed since they were last constructed.  Returns null if
+     * compact storage is not in use.
+     */
+    public NeighborListsCompact getCompactLists() {
+        if (compactStale) {
+            updateNbrs();
+        }
+        return compactLists;
+    }
+
+    /**
+     * Returns true if neighbor lists are rebuilt on a background thread.
+     */
+    public boolean isBackgroundRebuild() {
+        return backgroundBuilder != null;
+    }
+
+    /**
+     * Sets whether the neighbor lists should be rebuilt on a background
+     * thread.  When an atom has moved far enough to need an update, a
+     * snapshot of the positions is taken and a second set of lists is built
+     * from the snapshot while the integrator continues with the current
+     * lists.  The new lists are swapped in at the first update check after
+     * they are complete, and the criteria then measure displacements from
+     * the snapshot.  The lists are only rebuilt synchronously if an atom
+     * moves beyond the safe limit before the new lists are ready (or if the
+     * box size changes), so the neighbor range (or the criteria's safety
+     * factor) should give enough margin for the build to finish; reducing
+     * the safety factor (so that updates are requested earlier) is usually
+     * sufficient.
+     *
+     * Background rebuilds require compact storage.  Lists are also rebuilt
+     * synchronously if the boundary is not rectangular or a criterion is not
+     * one that NeighborListsBuilder can copy.
+     */
+    public void setBackgroundRebuild(boolean newBackgroundRebuild) {
+        if (newBackgroundRebuild == isBackgroundRebuild()) {
+            return;
+        }
+        if (!newBackgroundRebuild) {
+            cancelBackgroundRebuild();
+            backgroundBuilder = null;
+            backgroundPool.shutdown();
+            backgroundPool = null;
+            spareLists = null;
+            return;
+        }
+        if (!isCompactStorage()) {
+            throw new IllegalStateException("background rebuild requires compact storage");
+        }
+        backgroundBuilder = new NeighborListsBuilder(potentialMaster, box, box.getSpace());
+        backgroundPool = new ForkJoinPool(1);
+        spareLists = new NeighborListsCompact(box.getLeafList());
+    }
+
+    /**
+     * Takes a snapshot of the atom positions and starts building new lists
+     * from it on the background thread.  Returns false if the snapshot could
+     * not be taken (the builder cannot handle the boundary or criteria), in
+     * which case the lists must be rebuilt on this thread.
+     */
+    protected boolean startBackgroundRebuild() {
+        if (!backgroundBuilder.snapshot(getRange())) {
+            return false;
+        }
+        NeighborListsCompact lists = spareLists;
+        spareLists = null;
+        pendingLists = backgroundPool.submit(() -> backgroundBuilder.build(lists));
+        return true;
+    }
+
+    /**
+     * Waits for the background rebuild (if any) to finish and discards the
+     * result.  This must be done before doing anything that would invoke the
+     * criteria.
+     */
+    protected void cancelBackgroundRebuild() {
+        if (pendingLists == null) {
+            return;
+        }
+        spareLists = waitForBackgroundRebuild();
+    }
+
+    protected NeighborListsCompact waitForBackgroundRebuild() {
+        try {
+            return pendingLists.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        finally {
+            pendingLists = null;
+        }
+    }
+
+    /**
+     * Swaps in the lists built in the background.  The criteria are reset
+     * using the snapshot positions, shifted by any displacement applied to
+     * the real atoms by the PBC enforcer.
+     */
+    protected void finishBackgroundRebuild() {
+        NeighborListsCompact newLists = waitForBackgroundRebuild();
+        if (compactStale || !backgroundBuilder.isBoxUnchanged()) {
+            // atoms were added or removed, or the box changed.  start over.
+            spareLists = newLists;
+            updateNbrs();
+            return;
+        }
+        spareLists = compactLists;
+        compactLists = newLists;
+
+        IAtomList leafList = box.getLeafList();
+        IAtomList snapshotAtoms = backgroundBuilder.getSnapshotAtoms();
+        int nLeaf = leafList.getAtomCount();
+        if (doApplyPBC) {
+            if (prePbcPositions == null || prePbcPositions.length < nLeaf) {
+                prePbcPositions = box.getSpace().makeVectorArray(nLeaf);
+            }
+            for (int j=0; j<nLeaf; j++) {
+                prePbcPositions[j].E(leafList.getAtom(j).getPosition());
+            }
+            pbcEnforcer.actionPerformed();
+            for (int j=0; j<nLeaf; j++) {
+                Vector r = snapshotAtoms.getAtom(j).getPosition();
+                r.PE(leafList.getAtom(j).getPosition());
+                r.ME(prePbcPositions[j]);
+            }
+        }
+        for (int j=0; j<nLeaf; j++) {
+            IAtom atom = leafList.getAtom(j);
+            PotentialArray potentialArray = potentialMaster.getRangedPotentials(atom.getType());
+            IPotential[] potentials = potentialArray.getPotentials();
+            NeighborCriterion[] criteria = potentialArray.getCriteria();
+            for (int i = 0; i < criteria.length; i++) {
+                criteria[i].reset(snapshotAtoms.getAtom(j));
+            }
+            for (int i = 0; i < potentials.length; i++) {
+                if (potentials[i].nBody() != 1) {
+                    continue;
+                }
+                atomSetSinglet.atom = atom;
+                agentManager1Body.getAgent(atom).setIsInteracting(criteria[i].accept(atomSetSinglet),i);
+            }
+        }
+        numUpdates++;
+        eventManager.neighborsUpdated();
+    }
     
     public void updateLists() {
         IAtomList leafList = box.getLeafList();
@@ -154,6 +350,9 @@ public class NeighborListManager implements IntegratorListener, AgentSource<Atom
         for (int j = 0; j < criteriaArray.length; j++) {
             criteriaArray[j].setBox(box);
         }
+        if (pendingLists != null && pendingLists.isDone()) {
+            finishBackgroundRebuild();
+        }
 
         boolean needUpdate = false;
         boolean unsafe = false;
@@ -165,7 +364,9 @@ public class NeighborListManager implements IntegratorListener, AgentSource<Atom
             for (int i = 0; i < criterion.length; i++) {
                 if (criterion[i].needUpdate(atom)) {
                     needUpdate = true;
-                    if (quiet && (!Debug.ON || !Debug.DEBUG_NOW)) {
+                    // when rebuilding in the background, we need to know if
+                    // the current lists are unsafe
+                    if (quiet && backgroundBuilder == null && (!Debug.ON || !Debug.DEBUG_NOW)) {
                         break;
                     }
                     if (criterion[i].unsafe()) {
@@ -180,6 +381,11 @@ public class NeighborListManager implements IntegratorListener, AgentSource<Atom
         }
 
         if (needUpdate) {
+            if (backgroundBuilder != null && !unsafe
+                    && (pendingLists != null || startBackgroundRebuild())) {
+                // keep going with the current lists while new ones are built
+                return;
+            }
             if (Debug.ON && Debug.DEBUG_NOW) {
                 System.out.println("Updating neighbors");
             }
@@ -193,13 +399,21 @@ public class NeighborListManager implements IntegratorListener, AgentSource<Atom
                     System.err.println();
                 }
             }
-            if (doApplyPBC) {
-                pbcEnforcer.actionPerformed();
-            }
-            neighborSetup();
-            numUpdates++;
-            eventManager.neighborsUpdated();
+            updateNbrs();
+        }
+    }
+
+    /**
+     * Applies PBC (if doApplyPBC is true), reconstructs the neighbor lists
+     * and notifies listeners that the lists were updated.
+     */
+    protected void updateNbrs() {
+        if (doApplyPBC) {
+            pbcEnforcer.actionPerformed();
         }
+        neighborSetup();
+        numUpdates++;
+        eventManager.neighborsUpdated();
     }
 
     /**
@@ -252,14 +466,18 @@ public class NeighborListManager implements IntegratorListener, AgentSource<Atom
      * Called by updateNbrsIfNeeded, and by reset.
      */
     protected void neighborSetup() {
+        cancelBackgroundRebuild();
 
         IAtomList leafList = box.getLeafList();
         int nLeaf = leafList.getAtomCount();
+        int maxPotentials = 0;
         // reset criteria
         for (int j=0; j<nLeaf; j++) {
             IAtom atom = leafList.getAtom(j);
             final NeighborCriterion[] criterion = getCriterion(atom.getType());
-            agentManager2Body.getAgent(atom).clearNbrs();
+            if (compactLists == null) {
+                agentManager2Body.getAgent(atom).clearNbrs();
+            }
             for (int i = 0; i < criterion.length; i++) {
                 criterion[i].reset(atom);
             }
@@ -267,6 +485,9 @@ public class NeighborListManager implements IntegratorListener, AgentSource<Atom
             PotentialArray potentialArray = potentialMaster.getRangedPotentials(atom.getType());
             IPotential[] potentials = potentialArray.getPotentials();
             NeighborCriterion[] criteria = potentialArray.getCriteria();
+            if (potentials.length > maxPotentials) {
+                maxPotentials = potentials.length;
+            }
 
             for (int i = 0; i < potentials.length; i++) {
                 if (potentials[i].nBody() != 1) {
@@ -281,6 +502,11 @@ public class NeighborListManager implements IntegratorListener, AgentSource<Atom
         cellManager.setDoApplyPBC(!doApplyPBC);
         cellManager.assignCellAll();
 
+        if (compactLists != null) {
+            neighborSetupCompact(nLeaf, maxPotentials);
+            return;
+        }
+
         cellNbrIterator.reset();
         //TODO change looping scheme so getPotentials isn't called for every pair
         //consider doing this by introducing ApiNested interface, with hasNextInner and hasNextOuter methods
@@ -305,10 +531,41 @@ public class NeighborListManager implements IntegratorListener, AgentSource<Atom
         initialized = true;
     }
 
+    /**
+     * Loops over all cell-list neighbor pairs and packs the pairs that are
+     * accepted by a criterion into the compact neighbor lists.  Cells must
+     * already have been assigned.
+     */
+    protected void neighborSetupCompact(int nLeaf, int maxPotentials) {
+        compactLists.reset(nLeaf, maxPotentials);
+        cellNbrIterator.reset();
+        for (IAtomList pair = cellNbrIterator.nextPair(); pair != null;
+             pair = cellNbrIterator.nextPair()) {
+            IAtom atom0 = pair.getAtom(0);
+            IAtom atom1 = pair.getAtom(1);
+            PotentialArray potentialArray = potentialMaster.getRangedPotentials(atom0.getType());
+            IPotential[] potentials = potentialArray.getPotentials();
+            NeighborCriterion[] criteria = potentialArray.getCriteria();
+            for (int i = 0; i < potentials.length; i++) {
+                if (potentials[i].nBody() < 2) {
+                    continue;
+                }
+                if (criteria[i].accept(pair)) {
+                    compactLists.addPair(atom0.getLeafIndex(), i, atom1.getLeafIndex(),
+                            potentialMaster.getRangedPotentials(atom1.getType()).getPotentialIndex(potentials[i]));
+                }
+            }
+        }
+        compactLists.finish();
+        compactStale = false;
+        initialized = true;
+    }
+
     /**
      * Constructs neighbor lists for the given atom
      */
     public void addAtomNotify(IAtom atom) {
+        cancelBackgroundRebuild();
         if (!initialized) {
             // the simulation hasn't started yet.  just wait for neighborSetup
             // to get called.  It can do everything at once and can be sure
@@ -331,6 +588,13 @@ public class NeighborListManager implements IntegratorListener, AgentSource<Atom
             agentManager1Body.getAgent(atom).setIsInteracting(criteria[i].accept(atomSetSinglet),i);
         }
 
+        if (compactLists != null) {
+            // leaf indices are packed into the lists, so rebuild everything
+            // the next time the lists are needed
+            compactStale = true;
+            return;
+        }
+
         if (agentManager2Body.getAgent(atom) == null) {
             // we're getting called before our own makeAgent (we have no
             // control over order here).  make the agent now and then use it
@@ -393,10 +657,16 @@ public class NeighborListManager implements IntegratorListener, AgentSource<Atom
     }
 
     public IAtomList[] getUpList(IAtom atom) {
+        if (compactLists != null) {
+            return getCompactLists().getUpList(atom.getLeafIndex());
+        }
         return agentManager2Body.getAgent(atom).getUpList();
     }
 
     public IAtomList[] getDownList(IAtom atom) {
+        if (compactLists != null) {
+            return getCompactLists().getDownList(atom.getLeafIndex());
+        }
         return agentManager2Body.getAgent(atom).getDownList();
     }
 
@@ -405,6 +675,9 @@ public class NeighborListManager implements IntegratorListener, AgentSource<Atom
     }
 
     public void dispose() {
+        if (isBackgroundRebuild()) {
+            setBackgroundRebuild(false);
+        }
         agentManager1Body.dispose();
         agentManager2Body.dispose();
     }
@@ -429,6 +702,13 @@ public class NeighborListManager implements IntegratorListener, AgentSource<Atom
     }
     
     public void releaseAgent(AtomNeighborLists agent, IAtom atom, Box agentBox) {
+        if (compactLists != null) {
+            cancelBackgroundRebuild();
+            // leaf indices of other atoms may change as well; rebuild
+            // everything the next time the lists are needed
+            compactStale = true;
+            return;
+        }
         // we need to remove this atom from the neighbor lists of its neighbors.
         AtomNeighborLists nbrLists = agent;
         IAtomList[] upDnLists = nbrLists.getUpList();
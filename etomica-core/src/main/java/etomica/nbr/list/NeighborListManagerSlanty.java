@@ -33,6 +33,15 @@ public class NeighborListManagerSlanty extends NeighborListManager {
         pair = new AtomPair();
     }
 
+    /**
+     * Compact storage is not supported for slanty boundaries.
+     */
+    public void setCompactStorage(boolean newCompactStorage) {
+        if (newCompactStorage) {
+            throw new UnsupportedOperationException("compact neighbor storage is not supported by "+getClass().getSimpleName());
+        }
+    }
+
     /**
      * Reassigns all interacting atoms to cells, then loops over all atom
      * pairs, determines for each pair whether a potential applies to it,
@@ -0,0 +1,387 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.nbr.list;
+
+import etomica.atom.Atom;
+import etomica.atom.AtomArrayList;
+import etomica.atom.AtomPair;
+import etomica.atom.IAtom;
+import etomica.atom.IAtomList;
+import etomica.atom.AtomType;
+import etomica.box.Box;
+import etomica.nbr.CriterionAdapter;
+import etomica.nbr.CriterionAll;
+import etomica.nbr.CriterionInterMolecular;
+import etomica.nbr.CriterionMolecular;
+import etomica.nbr.CriterionNone;
+import etomica.nbr.CriterionSimple;
+import etomica.nbr.CriterionType;
+import etomica.nbr.CriterionTypePair;
+import etomica.nbr.CriterionTypesMulti;
+import etomica.nbr.NeighborCriterion;
+import etomica.potential.IPotential;
+import etomica.potential.PotentialArray;
+import etomica.space.Boundary;
+import etomica.space.BoundaryRectangular;
+import etomica.space.Space;
+import etomica.space.Vector;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Builds compact neighbor lists from a snapshot of the atom positions, so
+ * that the lists can be constructed on another thread while the simulation
+ * continues to move the atoms.
+ *
+ * The snapshot is held by a set of stand-in atoms (one for each leaf atom,
+ * with the same type, index, parent and leaf index) so that the neighbor
+ * criteria can be applied to them as if they were the real atoms.  Candidate
+ * pairs are found with a simple cell binning of the snapshot; the cells are
+ * independent of the box's NeighborCellManager.
+ *
+ * The criteria are shared with other boxes (and their builders), and
+ * CriterionSimple keeps scratch state, so the builder applies its own copies
+ * of the criteria, with the distance test done using the box dimensions at
+ * the time of the snapshot.  Only the criteria known to be copyable
+ * (CriterionSimple, CriterionAll, CriterionNone and the standard adapters)
+ * are supported.
+ */
+public class NeighborListsBuilder {
+
+    protected final PotentialMasterList potentialMaster;
+    protected final Box box;
+    protected final Space space;
+    protected final AtomArrayList snapshotAtoms;
+    protected final AtomPair pair;
+    protected final Vector boxSize, dr;
+    protected final boolean[] periodic;
+    protected final int[] numCells, cellStride, atomCell;
+    protected final Map<PotentialArray, NeighborCriterion[]> snapshotCriteria;
+    protected final Map<NeighborCriterion, NeighborCriterion> criterionCopies;
+    protected double range;
+    protected int totalCells;
+    protected int[] cellOffsets, cellAtoms, cellOfAtom;
+
+    public NeighborListsBuilder(PotentialMasterList potentialMaster, Box box, Space space) {
+        this.potentialMaster = potentialMaster;
+        this.box = box;
+        this.space = space;
+        snapshotAtoms = new AtomArrayList();
+        pair = new AtomPair();
+        boxSize = space.makeVector();
+        dr = space.makeVector();
+        periodic = new boolean[space.D()];
+        snapshotCriteria = new IdentityHashMap<>();
+        criterionCopies = new IdentityHashMap<>();
+        numCells = new int[space.D()];
+        cellStride = new int[space.D()];
+        atomCell = new int[space.D()];
+        cellOffsets = new int[0];
+        cellAtoms = new int[0];
+        cellOfAtom = new int[0];
+    }
+
+    /**
+     * Copies the current positions of the box's leaf atoms and the neighbor
+     * criteria into the snapshot.  Neighbors will be sought within the given
+     * range.  Returns false (and the snapshot must not be used) if the box's
+     * boundary is not rectangular or a criterion cannot be copied.
+     */
+    public boolean snapshot(double neighborRange) {
+        range = neighborRange;
+        Boundary boundary = box.getBoundary();
+        if (!(boundary instanceof BoundaryRectangular)) {
+            return false;
+        }
+        boxSize.E(boundary.getBoxSize());
+        for (int k = 0; k < periodic.length; k++) {
+            periodic[k] = boundary.getPeriodicity(k);
+        }
+        snapshotCriteria.clear();
+        criterionCopies.clear();
+        IAtomList leafList = box.getLeafList();
+        int nLeaf = leafList.getAtomCount();
+        for (int i = 0; i < nLeaf; i++) {
+            IAtom atom = leafList.getAtom(i);
+            PotentialArray potentialArray = potentialMaster.getRangedPotentials(atom.getType());
+            if (!snapshotCriteria.containsKey(potentialArray)) {
+                NeighborCriterion[] criteria = potentialArray.getCriteria();
+                NeighborCriterion[] copies = new NeighborCriterion[criteria.length];
+                for (int p = 0; p < criteria.length; p++) {
+                    copies[p] = copyCriterion(criteria[p]);
+                    if (copies[p] == null) {
+                        return false;
+                    }
+                }
+                snapshotCriteria.put(potentialArray, copies);
+            }
+            Atom snapshotAtom = i < snapshotAtoms.getAtomCount() ? (Atom) snapshotAtoms.getAtom(i) : null;
+            if (snapshotAtom == null || snapshotAtom.getType() != atom.getType()
+                    || snapshotAtom.getParentGroup() != atom.getParentGroup()) {
+                snapshotAtom = new Atom(space, atom.getType());
+                snapshotAtom.setParent(atom.getParentGroup());
+                snapshotAtom.setLeafIndex(i);
+                if (i < snapshotAtoms.getAtomCount()) {
+                    snapshotAtoms.set(i, snapshotAtom);
+                }
+                else {
+                    snapshotAtoms.add(snapshotAtom);
+                }
+            }
+            snapshotAtom.setIndex(atom.getIndex());
+            snapshotAtom.getPosition().E(atom.getPosition());
+        }
+        while (snapshotAtoms.getAtomCount() > nLeaf) {
+            snapshotAtoms.remove(snapshotAtoms.getAtomCount() - 1);
+        }
+        return true;
+    }
+
+    /**
+     * Returns a copy of the given criterion that can be applied to the
+     * snapshot atoms without touching any state shared with the original, or
+     * null if the criterion is not one the builder knows how to copy.
+     */
+    protected NeighborCriterion copyCriterion(NeighborCriterion criterion) {
+        NeighborCriterion copy = criterionCopies.get(criterion);
+        if (copy != null) {
+            return copy;
+        }
+        Class<?> c = criterion.getClass();
+        if (c == CriterionAll.class || c == CriterionNone.class) {
+            // no state
+            copy = criterion;
+        }
+        else if (c == CriterionSimple.class) {
+            copy = new SnapshotDistance(((CriterionSimple) criterion).getNeighborRange());
+        }
+        else if (criterion instanceof CriterionAdapter) {
+            NeighborCriterion sub = copyCriterion(((CriterionAdapter) criterion).getWrappedCriterion());
+            if (sub == null) {
+                return null;
+            }
+            if (c == CriterionTypePair.class) {
+                AtomType[] types = ((CriterionTypePair) criterion).getTypes();
+                copy = new CriterionTypePair(sub, types[0], types[1]);
+            }
+            else if (c == CriterionType.class) {
+                copy = new CriterionType(sub, ((CriterionType) criterion).getType());
+            }
+            else if (c == CriterionTypesMulti.class) {
+                copy = new CriterionTypesMulti(sub, ((CriterionTypesMulti) criterion).getTypes());
+            }
+            else if (c == CriterionMolecular.class) {
+                CriterionMolecular criterionMolecular = new CriterionMolecular(sub);
+                criterionMolecular.setIntraMolecular(((CriterionMolecular) criterion).isIntraMolecular());
+                copy = criterionMolecular;
+            }
+            else if (c == CriterionInterMolecular.class) {
+                CriterionInterMolecular criterionInter = new CriterionInterMolecular(sub);
+                NeighborCriterion intra = ((CriterionInterMolecular) criterion).getIntraMolecularCriterion();
+                if (intra != null) {
+                    intra = copyCriterion(intra);
+                    if (intra == null) {
+                        return null;
+                    }
+                    criterionInter.setIntraMolecularCriterion(intra);
+                }
+                copy = criterionInter;
+            }
+        }
+        if (copy != null) {
+            criterionCopies.put(criterion, copy);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the atoms holding the snapshot, in leaf-index order.
+     */
+    public IAtomList getSnapshotAtoms() {
+        return snapshotAtoms;
+    }
+
+    /**
+     * Returns true if the box has the same dimensions it had when the
+     * snapshot was taken.
+     */
+    public boolean isBoxUnchanged() {
+        return boxSize.equals(box.getBoundary().getBoxSize());
+    }
+
+    /**
+     * Constructs neighbor lists for the snapshot in the given lists, which
+     * are then returned.  This method does not access the real atoms, and
+     * so may be called on a thread other than the one moving the atoms.
+     */
+    public NeighborListsCompact build(NeighborListsCompact lists) {
+        int nLeaf = snapshotAtoms.getAtomCount();
+        int maxPotentials = 0;
+        for (int i = 0; i < nLeaf; i++) {
+            int n = potentialMaster.getRangedPotentials(snapshotAtoms.getAtom(i).getType()).getPotentials().length;
+            if (n > maxPotentials) maxPotentials = n;
+        }
+        assignCells();
+        lists.reset(nLeaf, maxPotentials);
+        int D = numCells.length;
+        int[] cellIdx = new int[D];
+        int[] nbrIdx = new int[D];
+        int[] delta = new int[D];
+        for (int c = 0; c < totalCells; c++) {
+            for (int k = 0, rem = c; k < D; k++) {
+                cellIdx[k] = rem / cellStride[k];
+                rem -= cellIdx[k] * cellStride[k];
+            }
+            // loop over all neighboring cells (-1, 0, +1 in each direction,
+            // or just 0 if there is only one cell in that direction)
+            for (int k = 0; k < D; k++) {
+                delta[k] = numCells[k] == 1 ? 0 : -1;
+            }
+            while (true) {
+                int c2 = 0;
+                for (int k = 0; k < D; k++) {
+                    nbrIdx[k] = cellIdx[k] + delta[k];
+                    if (nbrIdx[k] < 0) nbrIdx[k] += numCells[k];
+                    else if (nbrIdx[k] >= numCells[k]) nbrIdx[k] -= numCells[k];
+                    c2 += nbrIdx[k] * cellStride[k];
+                }
+                addCellPairs(c, c2, lists);
+                int k = D - 1;
+                while (k >= 0 && (numCells[k] == 1 || delta[k] == 1)) {
+                    delta[k] = numCells[k] == 1 ? 0 : -1;
+                    k--;
+                }
+                if (k < 0) break;
+                delta[k]++;
+            }
+        }
+        lists.finish();
+        return lists;
+    }
+
+    /**
+     * Adds pairs formed by atoms in cell c and cell c2 (with the first atom
+     * having the lower leaf index) that are accepted by a criterion.
+     */
+    protected void addCellPairs(int c, int c2, NeighborListsCompact lists) {
+        int end = cellOffsets[c + 1];
+        int end2 = cellOffsets[c2 + 1];
+        for (int ii = cellOffsets[c]; ii < end; ii++) {
+            int i = cellAtoms[ii];
+            IAtom atom0 = snapshotAtoms.getAtom(i);
+            PotentialArray potentialArray = potentialMaster.getRangedPotentials(atom0.getType());
+            IPotential[] potentials = potentialArray.getPotentials();
+            NeighborCriterion[] criteria = snapshotCriteria.get(potentialArray);
+            pair.atom0 = atom0;
+            for (int jj = cellOffsets[c2]; jj < end2; jj++) {
+                int j = cellAtoms[jj];
+                if (j <= i) continue;
+                IAtom atom1 = snapshotAtoms.getAtom(j);
+                pair.atom1 = atom1;
+                for (int p = 0; p < potentials.length; p++) {
+                    if (potentials[p].nBody() < 2) {
+                        continue;
+                    }
+                    if (criteria[p].accept(pair)) {
+                        lists.addPair(i, p, j,
+                                potentialMaster.getRangedPotentials(atom1.getType()).getPotentialIndex(potentials[p]));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Bins the snapshot atoms into cells at least as large as the neighbor
+     * range, laying out the atoms in each cell contiguously (via a counting
+     * sort).  Fewer than 3 cells in any direction (or a direction that is not
+     * periodic) results in a single cell in that direction.
+     */
+    protected void assignCells() {
+        int D = numCells.length;
+        totalCells = 1;
+        for (int k = D - 1; k >= 0; k--) {
+            numCells[k] = periodic[k] ? (int) (boxSize.getX(k) / range) : 1;
+            if (numCells[k] < 3) numCells[k] = 1;
+            cellStride[k] = totalCells;
+            totalCells *= numCells[k];
+        }
+        int nLeaf = snapshotAtoms.getAtomCount();
+        if (cellOffsets.length < totalCells + 1) {
+            cellOffsets = new int[totalCells + 1];
+        }
+        if (cellAtoms.length < nLeaf) {
+            cellAtoms = new int[nLeaf];
+            cellOfAtom = new int[nLeaf];
+        }
+        Arrays.fill(cellOffsets, 0, totalCells + 1, 0);
+        for (int i = 0; i < nLeaf; i++) {
+            Vector r = snapshotAtoms.getAtom(i).getPosition();
+            int c = 0;
+            for (int k = 0; k < D; k++) {
+                if (numCells[k] == 1) continue;
+                double x = r.getX(k) / boxSize.getX(k) + 0.5;
+                x -= Math.floor(x);
+                atomCell[k] = (int) (x * numCells[k]);
+                if (atomCell[k] == numCells[k]) atomCell[k]--;
+                c += atomCell[k] * cellStride[k];
+            }
+            cellOfAtom[i] = c;
+            cellOffsets[c + 1]++;
+        }
+        for (int c = 0; c < totalCells; c++) {
+            cellOffsets[c + 1] += cellOffsets[c];
+        }
+        for (int i = 0; i < nLeaf; i++) {
+            cellAtoms[cellOffsets[cellOfAtom[i]]++] = i;
+        }
+        // shift the offsets back to the start of each cell
+        for (int c = totalCells; c > 0; c--) {
+            cellOffsets[c] = cellOffsets[c - 1];
+        }
+        cellOffsets[0] = 0;
+    }
+
+    /**
+     * Distance criterion standing in for a CriterionSimple.  The nearest
+     * image is taken using the box dimensions from the snapshot (as
+     * BoundaryRectangular does) so that the box's boundary is not touched.
+     * It is only used to build lists, so it never needs an update.
+     */
+    protected class SnapshotDistance implements NeighborCriterion {
+        protected final double neighborRadius2;
+
+        public SnapshotDistance(double neighborRange) {
+            neighborRadius2 = neighborRange * neighborRange;
+        }
+
+        public boolean accept(IAtomList pair) {
+            dr.Ev1Mv2(pair.getAtom(1).getPosition(), pair.getAtom(0).getPosition());
+            for (int k = 0; k < periodic.length; k++) {
+                if (!periodic[k]) continue;
+                double L = boxSize.getX(k);
+                double x = dr.getX(k) + 0.5 * L;
+                while (x > L) x -= L;
+                while (x < 0.0) x += L;
+                dr.setX(k, x - 0.5 * L);
+            }
+            return dr.squared() < neighborRadius2;
+        }
+
+        public boolean needUpdate(IAtom atom) {
+            return false;
+        }
+
+        public void setBox(Box box) {}
+
+        public boolean unsafe() {
+            return false;
+        }
+
+        public void reset(IAtom atom) {}
+    }
+}
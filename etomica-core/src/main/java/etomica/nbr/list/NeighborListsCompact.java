@@ -0,0 +1,236 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.nbr.list;
+
+import etomica.atom.IAtom;
+import etomica.atom.IAtomList;
+
+import java.util.Arrays;
+
+/**
+ * Neighbor list storage that packs the up and down neighbors of every atom in
+ * a box into compressed-sparse-row (CSR) arrays of leaf indices.  Each row
+ * corresponds to an (atom, potential) combination; row r is
+ * leafIndex*numPotentials + potentialIndex, and its neighbors are found in
+ * nbrs[offset[r]] through nbrs[offset[r+1]-1].
+ *
+ * Lists are constructed by calling reset, then addPair for each neighbor
+ * pair, and finally finish.  Arrays are reused (and only grown as needed)
+ * from one construction to the next, so that rebuilding the lists in a
+ * simulation with a constant number of atoms does not allocate.
+ *
+ * For consumers that want IAtomList access, getUpList and getDownList return
+ * views into the packed arrays.  The views are created once per atom and
+ * reused.
+ */
+public class NeighborListsCompact {
+
+    protected final IAtomList leafList;
+    protected int numAtoms, numPotentials;
+    protected int[] upOffsets, downOffsets;
+    protected int[] upNbrs, downNbrs;
+    // pairs collected during construction: atom0, potential index for atom0,
+    // atom1, potential index for atom1
+    protected int[] pairs;
+    protected int numPairs;
+    protected NeighborView[][] upViews, downViews;
+
+    /**
+     * @param leafList the leaf list of the box.  Neighbor indices refer to
+     *                 positions within this list.
+     */
+    public NeighborListsCompact(IAtomList leafList) {
+        this.leafList = leafList;
+        upOffsets = new int[1];
+        downOffsets = new int[1];
+        upNbrs = new int[0];
+        downNbrs = new int[0];
+        pairs = new int[0];
+        upViews = new NeighborView[0][];
+        downViews = new NeighborView[0][];
+    }
+
+    /**
+     * Prepares to construct the lists from scratch for the given number of
+     * atoms and the given (maximum) number of potentials for any atom.
+     */
+    public void reset(int newNumAtoms, int newNumPotentials) {
+        numAtoms = newNumAtoms;
+        numPotentials = newNumPotentials;
+        numPairs = 0;
+        int numRows = numAtoms * numPotentials;
+        if (upOffsets.length < numRows + 1) {
+            upOffsets = new int[numRows + 1];
+            downOffsets = new int[numRows + 1];
+        }
+        if (upViews.length < numAtoms || (numAtoms > 0 && upViews[0].length != numPotentials)) {
+            // the potential count changed or we have new atoms.  views for
+            // existing atoms are only replaced if the potential count changed.
+            boolean keep = upViews.length > 0 && upViews[0].length == numPotentials;
+            int oldLength = keep ? upViews.length : 0;
+            upViews = Arrays.copyOf(upViews, Math.max(numAtoms, oldLength));
+            downViews = Arrays.copyOf(downViews, upViews.length);
+            for (int i = oldLength; i < upViews.length; i++) {
+                upViews[i] = new NeighborView[numPotentials];
+                downViews[i] = new NeighborView[numPotentials];
+                for (int p = 0; p < numPotentials; p++) {
+                    upViews[i][p] = new NeighborView(this, i * numPotentials + p, true);
+                    downViews[i][p] = new NeighborView(this, i * numPotentials + p, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records atom1 as an up-neighbor of atom0 (for atom0's potential with
+     * index potentialIndex0) and atom0 as a down-neighbor of atom1 (for
+     * atom1's potential with index potentialIndex1).
+     */
+    public void addPair(int atom0, int potentialIndex0, int atom1, int potentialIndex1) {
+        int idx = numPairs * 4;
+        if (idx + 4 > pairs.length) {
+            pairs = Arrays.copyOf(pairs, Math.max(64, pairs.length * 2));
+        }
+        pairs[idx] = atom0;
+        pairs[idx + 1] = potentialIndex0;
+        pairs[idx + 2] = atom1;
+        pairs[idx + 3] = potentialIndex1;
+        numPairs++;
+    }
+
+    /**
+     * Packs the pairs collected since the last call to reset into the CSR
+     * arrays, using a counting sort so that neighbors within each row retain
+     * the order in which they were added.
+     */
+    public void finish() {
+        int numRows = numAtoms * numPotentials;
+        Arrays.fill(upOffsets, 0, numRows + 1, 0);
+        Arrays.fill(downOffsets, 0, numRows + 1, 0);
+        for (int k = 0; k < numPairs * 4; k += 4) {
+            upOffsets[pairs[k] * numPotentials + pairs[k + 1] + 1]++;
+            downOffsets[pairs[k + 2] * numPotentials + pairs[k + 3] + 1]++;
+        }
+        for (int r = 0; r < numRows; r++) {
+            upOffsets[r + 1] += upOffsets[r];
+            downOffsets[r + 1] += downOffsets[r];
+        }
+        if (upNbrs.length < numPairs) {
+            int newSize = Math.max(numPairs, upNbrs.length + upNbrs.length / 2);
+            upNbrs = new int[newSize];
+            downNbrs = new int[newSize];
+        }
+        // use the offsets as insertion cursors, then shift them back
+        for (int k = 0; k < numPairs * 4; k += 4) {
+            upNbrs[upOffsets[pairs[k] * numPotentials + pairs[k + 1]]++] = pairs[k + 2];
+            downNbrs[downOffsets[pairs[k + 2] * numPotentials + pairs[k + 3]]++] = pairs[k];
+        }
+        for (int r = numRows; r > 0; r--) {
+            upOffsets[r] = upOffsets[r - 1];
+            downOffsets[r] = downOffsets[r - 1];
+        }
+        upOffsets[0] = 0;
+        downOffsets[0] = 0;
+    }
+
+    /**
+     * Returns the number of rows per atom (the maximum number of potentials
+     * that apply to any atom).
+     */
+    public int getNumPotentials() {
+        return numPotentials;
+    }
+
+    /**
+     * Returns the number of atoms for which lists were constructed.
+     */
+    public int getNumAtoms() {
+        return numAtoms;
+    }
+
+    /**
+     * Returns the number of neighbor pairs in the lists.
+     */
+    public int getNumPairs() {
+        return numPairs;
+    }
+
+    /**
+     * Returns the up-list offsets.  The up neighbors of atom i for potential
+     * p are in getUpNbrs() from getUpOffsets()[i*numPotentials+p] up to (but
+     * not including) getUpOffsets()[i*numPotentials+p+1].  The returned array
+     * may be replaced when the lists are next constructed.
+     */
+    public int[] getUpOffsets() {
+        return upOffsets;
+    }
+
+    /**
+     * Returns the packed leaf indices of up-list neighbors.
+     */
+    public int[] getUpNbrs() {
+        return upNbrs;
+    }
+
+    /**
+     * Returns the down-list offsets, with the same layout as getUpOffsets.
+     */
+    public int[] getDownOffsets() {
+        return downOffsets;
+    }
+
+    /**
+     * Returns the packed leaf indices of down-list neighbors.
+     */
+    public int[] getDownNbrs() {
+        return downNbrs;
+    }
+
+    /**
+     * Returns views of the up-list neighbors of the atom with the given leaf
+     * index, one for each potential.
+     */
+    public IAtomList[] getUpList(int leafIndex) {
+        return upViews[leafIndex];
+    }
+
+    /**
+     * Returns views of the down-list neighbors of the atom with the given
+     * leaf index, one for each potential.
+     */
+    public IAtomList[] getDownList(int leafIndex) {
+        return downViews[leafIndex];
+    }
+
+    /**
+     * IAtomList that views one row of the packed up or down neighbor arrays.
+     */
+    protected static final class NeighborView implements IAtomList {
+        private final NeighborListsCompact lists;
+        private final int row;
+        private final boolean up;
+
+        NeighborView(NeighborListsCompact lists, int row, boolean up) {
+            this.lists = lists;
+            this.row = row;
+            this.up = up;
+        }
+
+        public IAtom getAtom(int i) {
+            int[] offsets = up ? lists.upOffsets : lists.downOffsets;
+            int[] nbrs = up ? lists.upNbrs : lists.downNbrs;
+            if (i < 0 || offsets[row] + i >= offsets[row + 1]) {
+                throw new IndexOutOfBoundsException("index: " + i + ", size: " + getAtomCount());
+            }
+            return lists.leafList.getAtom(nbrs[offsets[row] + i]);
+        }
+
+        public int getAtomCount() {
+            if (row >= lists.numAtoms * lists.numPotentials) return 0;
+            int[] offsets = up ? lists.upOffsets : lists.downOffsets;
+            return offsets[row + 1] - offsets[row];
+        }
+    }
+}
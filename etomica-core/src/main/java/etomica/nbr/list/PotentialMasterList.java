@@ -9,6 +9,7 @@ import etomica.atom.iterator.AtomIteratorSinglet;
 import etomica.box.Box;
 import etomica.box.BoxAgentManager;
 import etomica.box.BoxCellManager;
+import etomica.box.BoxCoordinateArrays;
 import etomica.molecule.IMolecule;
 import etomica.molecule.IMoleculeList;
 import etomica.molecule.IMoleculePositionDefinition;
@@ -22,6 +23,13 @@ import etomica.species.ISpecies;
 import etomica.util.Arrays;
 import etomica.util.Debug;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
 /**
  * PotentialMaster used to implement neighbor listing.  Instance of this
  * class is given as an argument to the Simulation constructor.
@@ -42,6 +50,14 @@ public class PotentialMasterList extends PotentialMasterNbr {
     private double safetyFactor = 0.4;
     // things needed for N-body potentials
     private AtomArrayList atomArrayList;
+    // things needed for parallel pair calculations
+    protected int numThreads = 1;
+    protected ForkJoinPool threadPool;
+    protected PotentialCalculationParallel parallelCalculation;
+    protected List<PairTask> pairTasks;
+    protected boolean skipPairs;
+    // kernel used for radial pair potentials
+    protected RadialPairKernel radialKernel;
 
     /**
      * Default constructor uses range of 1.0.
@@ -149,6 +165,41 @@ public class PotentialMasterList extends PotentialMasterNbr {
         }
     }
 
+    /**
+     * Returns the number of threads used for pair calculations.
+     */
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Sets the number of threads used for pair calculations.  When more than
+     * one thread is used, a calculation over all atoms with a
+     * PotentialCalculationParallel (such as the force sum used by
+     * IntegratorVelocityVerlet) will loop over pairs concurrently, with each
+     * thread handling a block of atoms and their up-list neighbors.  Other
+     * calculations, including those with a target atom or molecule, are
+     * performed on the calling thread.  The default is 1.
+     */
+    public void setNumThreads(int newNumThreads) {
+        if (newNumThreads < 1) {
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+        }
+        if (newNumThreads == numThreads) {
+            return;
+        }
+        numThreads = newNumThreads;
+        if (threadPool != null) {
+            threadPool.shutdown();
+            threadPool = null;
+        }
+        if (numThreads > 1) {
+            threadPool = new ForkJoinPool(numThreads);
+        }
+        parallelCalculation = null;
+        pairTasks = null;
+    }
+
     /**
      * Returns the maximum range of any potential held by this potential master
      */
@@ -420,6 +471,16 @@ public class PotentialMasterList extends PotentialMasterNbr {
                 }
             }
 
+            boolean doParallel = numThreads > 1 && pc instanceof PotentialCalculationParallel
+                    && preparePairTasks((PotentialCalculationParallel) pc);
+            // radial pair potentials can be handled by the kernel, using the compact lists
+            int radialFlags = 0;
+            if (pc instanceof PotentialCalculationRadial && neighborManager.getCompactLists() != null) {
+                radialFlags = ((PotentialCalculationRadial) pc).getRadialFlags();
+            }
+            // pairs are handled separately (and concurrently) if we're doing them in parallel
+            skipPairs = doParallel || radialFlags != 0;
+
             //no target atoms specified
             //call calculate with each SpeciesAgent
             IMoleculeList list = box.getMoleculeList();
@@ -427,6 +488,14 @@ public class PotentialMasterList extends PotentialMasterNbr {
             for (int i=0; i<size; i++) {
                 calculate(list.getMolecule(i), id.direction(), pc, neighborManager);//call calculate with the SpeciesAgent
             }
+            skipPairs = false;
+
+            if (doParallel) {
+                calculatePairsParallel(box, neighborManager, radialFlags);
+            }
+            else if (radialFlags != 0) {
+                calculatePairsRadial(box, neighborManager, (PotentialCalculationRadial) pc, radialFlags);
+            }
         }
         else {
             if (targetAtom != null) {
@@ -496,6 +565,12 @@ public class PotentialMasterList extends PotentialMasterNbr {
                 }
                 break;
             case 2:
+                if (skipPairs) break;
+                NeighborListsCompact compactLists = neighborManager.getCompactLists();
+                if (compactLists != null) {
+                    calculateCompact(atom, i, direction, pc, (IPotentialAtomic)potentials[i], compactLists);
+                    break;//switch
+                }
                 if (direction != IteratorDirective.Direction.DOWN) {
                     IAtomList list = neighborManager.getUpList(atom)[i];
                     int nNeighbors = list.getAtomCount();
@@ -542,6 +617,221 @@ public class PotentialMasterList extends PotentialMasterNbr {
         }//end of for
     }
 
+    /**
+     * Performs the given PotentialCalculation for the given atom and its
+     * neighbors with the potential at the given index, reading neighbors from
+     * packed neighbor lists.
+     */
+    protected void calculateCompact(IAtom atom, int potentialIndex, IteratorDirective.Direction direction,
+                                    PotentialCalculation pc, IPotentialAtomic potential, NeighborListsCompact compactLists) {
+        IAtomList leafList = compactLists.leafList;
+        int row = atom.getLeafIndex() * compactLists.getNumPotentials() + potentialIndex;
+        if (direction != IteratorDirective.Direction.DOWN) {
+            int[] offsets = compactLists.getUpOffsets();
+            int[] nbrs = compactLists.getUpNbrs();
+            int end = offsets[row + 1];
+            atomPair.atom0 = atom;
+            for (int j = offsets[row]; j < end; j++) {
+                atomPair.atom1 = leafList.getAtom(nbrs[j]);
+                pc.doCalculation(atomPair, potential);
+            }
+        }
+        if (direction != IteratorDirective.Direction.UP) {
+            int[] offsets = compactLists.getDownOffsets();
+            int[] nbrs = compactLists.getDownNbrs();
+            int end = offsets[row + 1];
+            atomPair.atom1 = atom;
+            for (int j = offsets[row]; j < end; j++) {
+                atomPair.atom0 = leafList.getAtom(nbrs[j]);
+                pc.doCalculation(atomPair, potential);
+            }
+        }
+    }
+
+    /**
+     * Computes all pair interactions in the box on a single thread, using a
+     * RadialPairKernel for radial potentials.
+     */
+    protected void calculatePairsRadial(Box box, NeighborListManager neighborManager,
+                                        PotentialCalculationRadial pc, int radialFlags) {
+        NeighborListsCompact compactLists = neighborManager.getCompactLists();
+        BoxCoordinateArrays coordinates = box.getCoordinateArrays();
+        coordinates.gatherPositions();
+        if (radialKernel == null || radialKernel.getCoordinates() != coordinates) {
+            radialKernel = new RadialPairKernel(coordinates);
+        }
+        radialKernel.setFlags(radialFlags);
+        radialKernel.reset();
+        calculatePairsRadial(compactLists, 0, box.getLeafList().getAtomCount(), radialKernel, pc, atomPair);
+        pc.addRadialSums(radialKernel);
+    }
+
+    /**
+     * Computes up-list pair interactions of atoms with leaf indices from
+     * start to end-1.  Radial potentials are handled by the kernel, while
+     * other pair potentials are passed to the PotentialCalculation.
+     */
+    protected void calculatePairsRadial(NeighborListsCompact compactLists, int start, int end,
+                                        RadialPairKernel kernel, PotentialCalculation pc, AtomPair pair) {
+        IAtomList leafList = compactLists.leafList;
+        int[] offsets = compactLists.getUpOffsets();
+        int[] nbrs = compactLists.getUpNbrs();
+        int numPotentials = compactLists.getNumPotentials();
+        for (int iAtom = start; iAtom < end; iAtom++) {
+            IAtom atom = leafList.getAtom(iAtom);
+            IPotential[] potentials = rangedAgentManager.getAgent(atom.getType()).getPotentials();
+            int row = iAtom * numPotentials;
+            for (int i = 0; i < potentials.length; i++) {
+                if (potentials[i].nBody() != 2) continue;
+                int jStart = offsets[row + i];
+                int jEnd = offsets[row + i + 1];
+                if (RadialPairKernel.canHandle(potentials[i])) {
+                    kernel.addPairs(iAtom, nbrs, jStart, jEnd, (Potential2SoftSpherical) potentials[i]);
+                    continue;
+                }
+                IPotentialAtomic potential = (IPotentialAtomic) potentials[i];
+                pair.atom0 = atom;
+                for (int j = jStart; j < jEnd; j++) {
+                    pair.atom1 = leafList.getAtom(nbrs[j]);
+                    pc.doCalculation(pair, potential);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes the workers and tasks needed to compute pair interactions in
+     * parallel with the given PotentialCalculation, if they do not already
+     * exist.  Returns false if the calculation cannot be split.
+     */
+    protected boolean preparePairTasks(PotentialCalculationParallel pc) {
+        if (pc == parallelCalculation) {
+            return true;
+        }
+        List<PairTask> tasks = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            PotentialCalculation worker = pc.makeWorker();
+            if (worker == null) {
+                return false;
+            }
+            tasks.add(new PairTask(worker, i));
+        }
+        parallelCalculation = pc;
+        pairTasks = tasks;
+        return true;
+    }
+
+    /**
+     * Computes all pair interactions in the box, with each thread handling
+     * a block of atoms with its own worker, and then reduces the results
+     * from the workers into the parallel calculation.
+     */
+    protected void calculatePairsParallel(Box box, NeighborListManager neighborManager, int radialFlags) {
+        // make sure the lists are up to date before any worker uses them
+        NeighborListsCompact compactLists = neighborManager.getCompactLists();
+        if (radialFlags != 0) {
+            box.getCoordinateArrays().gatherPositions();
+        }
+        for (PairTask task : pairTasks) {
+            task.setup(box, neighborManager, compactLists, radialFlags);
+        }
+        List<Future<Object>> futures = threadPool.invokeAll(pairTasks);
+        try {
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        for (PairTask task : pairTasks) {
+            parallelCalculation.reduce(task.worker);
+            if (radialFlags != 0) {
+                ((PotentialCalculationRadial) parallelCalculation).addRadialSums(task.kernel);
+            }
+        }
+    }
+
+    /**
+     * Task that performs a calculation for up-list pairs of a block of atoms
+     * using its own worker PotentialCalculation.
+     */
+    protected class PairTask implements Callable<Object> {
+        protected final PotentialCalculation worker;
+        protected final int threadIndex;
+        protected final AtomPair pair;
+        protected Box box;
+        protected NeighborListManager neighborManager;
+        protected NeighborListsCompact compactLists;
+        protected RadialPairKernel kernel;
+
+        public PairTask(PotentialCalculation worker, int threadIndex) {
+            this.worker = worker;
+            this.threadIndex = threadIndex;
+            pair = new AtomPair();
+        }
+
+        public void setup(Box box, NeighborListManager neighborManager, NeighborListsCompact compactLists,
+                          int radialFlags) {
+            this.box = box;
+            this.neighborManager = neighborManager;
+            this.compactLists = compactLists;
+            if (radialFlags == 0) {
+                kernel = null;
+                return;
+            }
+            BoxCoordinateArrays coordinates = box.getCoordinateArrays();
+            if (kernel == null || kernel.getCoordinates() != coordinates) {
+                kernel = new RadialPairKernel(coordinates);
+            }
+            kernel.setFlags(radialFlags);
+            kernel.reset();
+        }
+
+        public Object call() {
+            IAtomList leafList = box.getLeafList();
+            int nLeaf = leafList.getAtomCount();
+            int start = (int) ((long) nLeaf * threadIndex / numThreads);
+            int end = (int) ((long) nLeaf * (threadIndex + 1) / numThreads);
+            if (kernel != null) {
+                calculatePairsRadial(compactLists, start, end, kernel, worker, pair);
+                return null;
+            }
+            for (int iAtom = start; iAtom < end; iAtom++) {
+                IAtom atom = leafList.getAtom(iAtom);
+                IPotential[] potentials = rangedAgentManager.getAgent(atom.getType()).getPotentials();
+                pair.atom0 = atom;
+                for (int i = 0; i < potentials.length; i++) {
+                    if (potentials[i].nBody() != 2) continue;
+                    IPotentialAtomic potential = (IPotentialAtomic) potentials[i];
+                    if (compactLists != null) {
+                        int[] offsets = compactLists.getUpOffsets();
+                        int[] nbrs = compactLists.getUpNbrs();
+                        int row = iAtom * compactLists.getNumPotentials() + i;
+                        int jEnd = offsets[row + 1];
+                        for (int j = offsets[row]; j < jEnd; j++) {
+                            pair.atom1 = leafList.getAtom(nbrs[j]);
+                            worker.doCalculation(pair, potential);
+                        }
+                    }
+                    else {
+                        IAtomList list = neighborManager.getUpList(atom)[i];
+                        int nNeighbors = list.getAtomCount();
+                        for (int j = 0; j < nNeighbors; j++) {
+                            pair.atom1 = list.getAtom(j);
+                            worker.doCalculation(pair, potential);
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
     /**
      * Invokes the PotentialCalculation for the given Atom with its up and down
      * neighbors as a single AtomSet.
@@ -0,0 +1,683 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.potential;
+
+import etomica.atom.AtomLeafAgentManager;
+import etomica.atom.IAtom;
+import etomica.atom.IAtomList;
+import etomica.box.Box;
+import etomica.math.numerical.FastFourierTransform3D;
+import etomica.molecule.IMolecule;
+import etomica.molecule.IMoleculeList;
+import etomica.space.Space;
+import etomica.space.Tensor;
+import etomica.space.Vector;
+import org.apache.commons.math3.special.Erf;
+
+import java.util.Arrays;
+
+/**
+ * Smooth particle-mesh Ewald (SPME) summation of the electrostatic energy of
+ * the charges in a box (Essmann et al., J. Chem. Phys. 103, 8577 (1995)).
+ * The real-space, self and intramolecular correction terms are the same as
+ * for EwaldSummation, but the Fourier-space sum is computed by spreading the
+ * charges onto a mesh with cardinal B-splines and convolving the mesh with
+ * the Ewald influence function via FastFourierTransform3D.  The cost of the
+ * Fourier-space sum is then O(N + M log M) for M mesh points rather than
+ * O(N K^3) for K wave vectors in each direction.
+ * <p>
+ * The real-space sum (like the intramolecular correction) uses the minimum
+ * image, so the real-space cutoff must not exceed half the box length.  The
+ * real-space sum done by this class loops over all pairs of atoms; for
+ * large systems, call makeP2EwaldReal and add the returned pair potential
+ * to a PotentialMaster (such as PotentialMasterList) for intermolecular
+ * pairs, so that the real-space sum is driven by the neighbor lists.
+ * <p>
+ * The mesh size must be a power of 2 in each direction.  The accuracy is
+ * controlled by alpha, the mesh size and the order of the B-splines (4-8 is
+ * typical; the order must be at least 3).  The box size is taken from the
+ * box each time the energy is computed, so the box may change size.
+ */
+public class EwaldSummationPME implements PotentialSoft {
+
+    protected final Space space;
+    protected final AtomLeafAgentManager<EwaldSummation.MyCharge> atomAgentManager;
+    protected final Box box;
+    protected final IMoleculeList moleculeList;
+    protected double alpha, alpha2, rCutRealES, rCutSquared;
+    protected final double sqrtPI = Math.sqrt(Math.PI);
+    protected final int splineOrder;
+    protected final int[] meshSize;
+    protected final FastFourierTransform3D fft;
+    // the charge mesh, which is transformed in place
+    protected final double[] meshRe, meshIm;
+    // influence function (B(m)C(m)) for each mesh point, and the box size and alpha it was computed for
+    protected final double[] influence;
+    protected final double[] influenceBoxSize;
+    protected double influenceAlpha;
+    protected final double[][] bSplineModuli;
+    protected final double[] boxSize;
+    // spline weights for each atom
+    protected double[] charges, theta, dTheta;
+    protected int[] meshBase;
+    protected final double[] splineW, splineDW;
+    protected Vector[] gradient;
+    protected final Vector rAB, drTmp;
+    protected final Tensor virialTensor;
+    protected boolean doRealSum = true;
+
+    /**
+     * @param box              the box whose charges are summed
+     * @param atomAgentManager holds the charge of each atom
+     * @param space            the space (must be 3D)
+     * @param alpha            Ewald splitting parameter
+     * @param rCutRealES       real-space cutoff
+     * @param meshSize         number of mesh points in each direction (each a power of 2)
+     * @param splineOrder      order of the B-splines used to spread the charges
+     */
+    public EwaldSummationPME(Box box, AtomLeafAgentManager<EwaldSummation.MyCharge> atomAgentManager, Space space,
+                             double alpha, double rCutRealES, int[] meshSize, int splineOrder) {
+        if (space.D() != 3) {
+            throw new IllegalArgumentException("EwaldSummationPME requires a 3D space");
+        }
+        if (splineOrder < 3) {
+            throw new IllegalArgumentException("Spline order must be at least 3");
+        }
+        this.box = box;
+        this.atomAgentManager = atomAgentManager;
+        this.space = space;
+        moleculeList = box.getMoleculeList();
+        setAlpha(alpha);
+        setRCut(rCutRealES);
+        this.meshSize = meshSize.clone();
+        this.splineOrder = splineOrder;
+        fft = new FastFourierTransform3D(meshSize[0], meshSize[1], meshSize[2]);
+        int nMesh = meshSize[0] * meshSize[1] * meshSize[2];
+        meshRe = new double[nMesh];
+        meshIm = new double[nMesh];
+        influence = new double[nMesh];
+        influenceBoxSize = new double[3];
+        boxSize = new double[3];
+        splineW = new double[splineOrder];
+        splineDW = new double[splineOrder];
+        bSplineModuli = new double[3][];
+        for (int d = 0; d < 3; d++) {
+            bSplineModuli[d] = computeBSplineModuli(meshSize[d]);
+        }
+        charges = new double[0];
+        theta = new double[0];
+        dTheta = new double[0];
+        meshBase = new int[0];
+        gradient = new Vector[0];
+        rAB = space.makeVector();
+        drTmp = space.makeVector();
+        virialTensor = space.makeTensor();
+    }
+
+    public void setAlpha(double alpha) {
+        this.alpha = alpha;
+        alpha2 = alpha * alpha;
+    }
+
+    public double getAlpha() {
+        return alpha;
+    }
+
+    /**
+     * Sets the real-space cutoff.
+     */
+    public void setRCut(double newRCutRealES) {
+        rCutRealES = newRCutRealES;
+        rCutSquared = rCutRealES * rCutRealES;
+    }
+
+    /**
+     * Returns real-space cutoff
+     */
+    public double getRCut() {
+        return rCutRealES;
+    }
+
+    public int[] getMeshSize() {
+        return meshSize;
+    }
+
+    public int getSplineOrder() {
+        return splineOrder;
+    }
+
+    /**
+     * Computes the B-spline weights (w) and their derivatives (dw) for a
+     * charge with fractional mesh coordinate f past a mesh point.  Weight j
+     * applies to the mesh point floor(u)-splineOrder+1+j, where u is the
+     * charge's scaled coordinate.
+     */
+    protected void fillSpline(double f, double[] w, double[] dw) {
+        int n = splineOrder;
+        w[n - 1] = 0;
+        w[1] = f;
+        w[0] = 1 - f;
+        for (int k = 3; k < n; k++) {
+            double div = 1.0 / (k - 1);
+            w[k - 1] = div * f * w[k - 2];
+            for (int j = 1; j < k - 1; j++) {
+                w[k - j - 1] = div * ((f + j) * w[k - j - 2] + (k - j - f) * w[k - j - 1]);
+            }
+            w[0] = div * (1 - f) * w[0];
+        }
+        // derivatives from the spline of order n-1
+        dw[0] = -w[0];
+        for (int j = 1; j < n; j++) {
+            dw[j] = w[j - 1] - w[j];
+        }
+        double div = 1.0 / (n - 1);
+        w[n - 1] = div * f * w[n - 2];
+        for (int j = 1; j < n - 1; j++) {
+            w[n - j - 1] = div * ((f + j) * w[n - j - 2] + (n - j - f) * w[n - j - 1]);
+        }
+        w[0] = div * (1 - f) * w[0];
+    }
+
+    /**
+     * Returns |b(m)|^-2 for each m for a mesh of size K.
+     */
+    protected double[] computeBSplineModuli(int K) {
+        double[] w = new double[splineOrder];
+        fillSpline(0, w, new double[splineOrder]);
+        // w[j] = M_n(n-1-j), so M_n(k+1) = w[n-2-k]
+        double[] moduli = new double[K];
+        for (int m = 0; m < K; m++) {
+            double sc = 0, ss = 0;
+            for (int k = 0; k < splineOrder - 1; k++) {
+                double arg = 2 * Math.PI * m * k / K;
+                double mk = w[splineOrder - 2 - k];
+                sc += mk * Math.cos(arg);
+                ss += mk * Math.sin(arg);
+            }
+            moduli[m] = sc * sc + ss * ss;
+        }
+        // for odd orders, the modulus vanishes at m=K/2; interpolate
+        for (int m = 0; m < K; m++) {
+            if (moduli[m] < 1e-7) {
+                moduli[m] = 0.5 * (moduli[(m - 1 + K) % K] + moduli[(m + 1) % K]);
+            }
+        }
+        return moduli;
+    }
+
+    /**
+     * Reads the box size and recomputes the influence function if the box
+     * size or alpha has changed.
+     */
+    protected void updateBox() {
+        Vector size = box.getBoundary().getBoxSize();
+        boolean changed = alpha != influenceAlpha;
+        for (int d = 0; d < 3; d++) {
+            boxSize[d] = size.getX(d);
+            changed = changed || boxSize[d] != influenceBoxSize[d];
+        }
+        if (!changed) return;
+        influenceAlpha = alpha;
+        System.arraycopy(boxSize, 0, influenceBoxSize, 0, 3);
+        double volume = boxSize[0] * boxSize[1] * boxSize[2];
+        double piOverAlpha2 = Math.PI * Math.PI / alpha2;
+        int K0 = meshSize[0], K1 = meshSize[1], K2 = meshSize[2];
+        for (int i = 0; i < K0; i++) {
+            double m0 = (i <= K0 / 2 ? i : i - K0) / boxSize[0];
+            for (int j = 0; j < K1; j++) {
+                double m1 = (j <= K1 / 2 ? j : j - K1) / boxSize[1];
+                for (int k = 0; k < K2; k++) {
+                    double m2 = (k <= K2 / 2 ? k : k - K2) / boxSize[2];
+                    int idx = (i * K1 + j) * K2 + k;
+                    double mSquared = m0 * m0 + m1 * m1 + m2 * m2;
+                    if (mSquared == 0) {
+                        influence[idx] = 0;
+                        continue;
+                    }
+                    double b = 1.0 / (bSplineModuli[0][i] * bSplineModuli[1][j] * bSplineModuli[2][k]);
+                    influence[idx] = b * Math.exp(-piOverAlpha2 * mSquared) / (Math.PI * volume * mSquared);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the spline weights for each atom and spreads the charges onto
+     * the mesh.
+     */
+    protected void spreadCharges() {
+        IAtomList atoms = box.getLeafList();
+        int nAtoms = atoms.getAtomCount();
+        int n = splineOrder;
+        if (charges.length < nAtoms) {
+            charges = new double[nAtoms];
+            meshBase = new int[3 * nAtoms];
+            theta = new double[3 * nAtoms * n];
+            dTheta = new double[3 * nAtoms * n];
+        }
+        Arrays.fill(meshRe, 0);
+        Arrays.fill(meshIm, 0);
+        int K1 = meshSize[1], K2 = meshSize[2];
+        for (int i = 0; i < nAtoms; i++) {
+            IAtom atom = atoms.getAtom(i);
+            double q = atomAgentManager.getAgent(atom).charge;
+            charges[i] = q;
+            if (q == 0) continue;
+            Vector position = atom.getPosition();
+            for (int d = 0; d < 3; d++) {
+                int K = meshSize[d];
+                double u = K * position.getX(d) / boxSize[d];
+                u -= K * Math.floor(u / K);
+                int floor = (int) u;
+                fillSpline(u - floor, splineW, splineDW);
+                int base = floor - n + 1;
+                if (base < 0) base += K;
+                meshBase[3 * i + d] = base;
+                int offset = (3 * i + d) * n;
+                System.arraycopy(splineW, 0, theta, offset, n);
+                System.arraycopy(splineDW, 0, dTheta, offset, n);
+            }
+            int t0 = 3 * i * n, t1 = t0 + n, t2 = t1 + n;
+            for (int a = 0; a < n; a++) {
+                int k0 = (meshBase[3 * i] + a) % meshSize[0];
+                double qa = q * theta[t0 + a];
+                for (int b = 0; b < n; b++) {
+                    int k1 = (meshBase[3 * i + 1] + b) % K1;
+                    double qab = qa * theta[t1 + b];
+                    int row = (k0 * K1 + k1) * K2;
+                    for (int c = 0; c < n; c++) {
+                        int k2 = (meshBase[3 * i + 2] + c) % K2;
+                        meshRe[row + k2] += qab * theta[t2 + c];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the Fourier-space energy.  If virialTensor is not null, the
+     * Fourier-space contribution to the virial (r du/dr) tensor is stored in
+     * it.  If doGradient is true, the mesh is left holding the convolution of
+     * the charges with the influence function.
+     */
+    protected double reciprocal(boolean doGradient, Tensor virialTensor) {
+        updateBox();
+        spreadCharges();
+        fft.transform(meshRe, meshIm);
+        double u = 0;
+        double v00 = 0, v01 = 0, v02 = 0, v11 = 0, v12 = 0, v22 = 0;
+        double piOverAlpha2 = Math.PI * Math.PI / alpha2;
+        int K0 = meshSize[0], K1 = meshSize[1], K2 = meshSize[2];
+        for (int i = 0; i < K0; i++) {
+            double m0 = (i <= K0 / 2 ? i : i - K0) / boxSize[0];
+            for (int j = 0; j < K1; j++) {
+                double m1 = (j <= K1 / 2 ? j : j - K1) / boxSize[1];
+                for (int k = 0; k < K2; k++) {
+                    int idx = (i * K1 + j) * K2 + k;
+                    double e = 0.5 * influence[idx] * (meshRe[idx] * meshRe[idx] + meshIm[idx] * meshIm[idx]);
+                    u += e;
+                    if (virialTensor != null && e != 0) {
+                        double m2 = (k <= K2 / 2 ? k : k - K2) / boxSize[2];
+                        double mSquared = m0 * m0 + m1 * m1 + m2 * m2;
+                        double f = 2 * e * (1 + piOverAlpha2 * mSquared) / mSquared;
+                        v00 += f * m0 * m0 - e;
+                        v11 += f * m1 * m1 - e;
+                        v22 += f * m2 * m2 - e;
+                        v01 += f * m0 * m1;
+                        v02 += f * m0 * m2;
+                        v12 += f * m1 * m2;
+                    }
+                    if (doGradient) {
+                        meshRe[idx] *= influence[idx];
+                        meshIm[idx] *= influence[idx];
+                    }
+                }
+            }
+        }
+        if (virialTensor != null) {
+            virialTensor.setComponent(0, 0, v00);
+            virialTensor.setComponent(1, 1, v11);
+            virialTensor.setComponent(2, 2, v22);
+            virialTensor.setComponent(0, 1, v01);
+            virialTensor.setComponent(1, 0, v01);
+            virialTensor.setComponent(0, 2, v02);
+            virialTensor.setComponent(2, 0, v02);
+            virialTensor.setComponent(1, 2, v12);
+            virialTensor.setComponent(2, 1, v12);
+        }
+        if (doGradient) {
+            fft.invert(meshRe, meshIm);
+        }
+        return u;
+    }
+
+    /**
+     * Adds the gradient of the Fourier-space energy to the gradient of each
+     * atom.  reciprocal must have been called with doGradient=true.
+     */
+    protected void addReciprocalGradient(int nAtoms) {
+        int n = splineOrder;
+        int K0 = meshSize[0], K1 = meshSize[1], K2 = meshSize[2];
+        double s0 = K0 / boxSize[0], s1 = K1 / boxSize[1], s2 = K2 / boxSize[2];
+        for (int i = 0; i < nAtoms; i++) {
+            double q = charges[i];
+            if (q == 0) continue;
+            int t0 = 3 * i * n, t1 = t0 + n, t2 = t1 + n;
+            double g0 = 0, g1 = 0, g2 = 0;
+            for (int a = 0; a < n; a++) {
+                int k0 = (meshBase[3 * i] + a) % K0;
+                for (int b = 0; b < n; b++) {
+                    int k1 = (meshBase[3 * i + 1] + b) % K1;
+                    int row = (k0 * K1 + k1) * K2;
+                    double wab = theta[t0 + a] * theta[t1 + b];
+                    double dwab0 = dTheta[t0 + a] * theta[t1 + b];
+                    double dwab1 = theta[t0 + a] * dTheta[t1 + b];
+                    for (int c = 0; c < n; c++) {
+                        int k2 = (meshBase[3 * i + 2] + c) % K2;
+                        double conv = meshRe[row + k2];
+                        g0 += dwab0 * theta[t2 + c] * conv;
+                        g1 += dwab1 * theta[t2 + c] * conv;
+                        g2 += wab * dTheta[t2 + c] * conv;
+                    }
+                }
+            }
+            Vector gi = gradient[i];
+            gi.setX(0, gi.getX(0) + q * s0 * g0);
+            gi.setX(1, gi.getX(1) + q * s1 * g1);
+            gi.setX(2, gi.getX(2) + q * s2 * g2);
+        }
+    }
+
+    // *********************************************************************************************//
+    // *************************************  Real-space ******************************************//
+    // *********************************************************************************************//
+    public double uReal() {
+        IAtomList atoms = box.getLeafList();
+        int nAtoms = atoms.getAtomCount();
+        double uReal = 0.0;
+        for (int i = 0; i < nAtoms; i++) {
+            IAtom atomA = atoms.getAtom(i);
+            double chargeA = atomAgentManager.getAgent(atomA).charge;
+            if (chargeA == 0) continue;
+            IMolecule moleculeA = atomA.getParentGroup();
+            Vector positionA = atomA.getPosition();
+            for (int j = i + 1; j < nAtoms; j++) {
+                IAtom atomB = atoms.getAtom(j);
+                if (atomB.getParentGroup() == moleculeA) continue;
+                double chargeB = atomAgentManager.getAgent(atomB).charge;
+                if (chargeB == 0) continue;
+                rAB.Ev1Mv2(positionA, atomB.getPosition());
+                box.getBoundary().nearestImage(rAB);
+                double r2 = rAB.squared();
+                if (r2 > rCutSquared) continue;
+                double r = Math.sqrt(r2);
+                uReal += chargeA * chargeB * Erf.erfc(alpha * r) / r;
+            }
+        }
+        return uReal;
+    }
+
+    // *********************************************************************************************//
+    // *************************************  Fourier-space ****************************************//
+    // *********************************************************************************************//
+    public double uFourier() {
+        return reciprocal(false, null);
+    }
+
+    // *********************************************************************************************//
+    // ********************** self-correction Part************************************************* //
+    // *********************************************************************************************//
+    public double uSelf() {
+        double uSelf = 0.0;
+        IAtomList atoms = box.getLeafList();
+        for (int i = 0; i < atoms.getAtomCount(); i++) {
+            double charge = atomAgentManager.getAgent(atoms.getAtom(i)).charge;
+            uSelf += charge * charge;
+        }
+        return -alpha / sqrtPI * uSelf;
+    }
+
+    public double uBondCorr() {
+        double uCorr = 0.0;
+        for (int i = 0; i < moleculeList.getMoleculeCount(); i++) {
+            IAtomList childList = moleculeList.getMolecule(i).getChildList();
+            int numSites = childList.getAtomCount();
+            for (int siteA = 0; siteA < numSites; siteA++) {
+                IAtom atomA = childList.getAtom(siteA);
+                double chargeA = atomAgentManager.getAgent(atomA).charge;
+                if (chargeA == 0) continue;
+                for (int siteB = siteA + 1; siteB < numSites; siteB++) {
+                    IAtom atomB = childList.getAtom(siteB);
+                    double chargeB = atomAgentManager.getAgent(atomB).charge;
+                    if (chargeB == 0) continue;
+                    rAB.Ev1Mv2(atomA.getPosition(), atomB.getPosition());
+                    box.getBoundary().nearestImage(rAB);
+                    double r = Math.sqrt(rAB.squared());
+                    uCorr -= chargeA * chargeB * Erf.erf(alpha * r) / r;
+                }
+            }
+        }
+        return uCorr;
+    }
+
+    public double energy(IAtomList atoms) {
+        double real = doRealSum ? uReal() : 0;
+        return real + uFourier() + uSelf() + uBondCorr();
+    }
+
+    /**
+     * Returns the virial (sum of r du/dr) of the real-space (unless it is
+     * handled by a P2EwaldReal), Fourier-space and intramolecular correction
+     * terms, treating each atom independently.
+     */
+    public double virial(IAtomList atoms) {
+        double virial = 0;
+        reciprocal(false, virialTensor);
+        virial += virialTensor.trace();
+        IAtomList leafList = box.getLeafList();
+        int nAtoms = leafList.getAtomCount();
+        for (int i = 0; i < nAtoms; i++) {
+            IAtom atomA = leafList.getAtom(i);
+            double chargeA = atomAgentManager.getAgent(atomA).charge;
+            if (chargeA == 0) continue;
+            IMolecule moleculeA = atomA.getParentGroup();
+            IAtomList childList = moleculeA.getChildList();
+            for (int j = 0; j < childList.getAtomCount(); j++) {
+                IAtom atomB = childList.getAtom(j);
+                if (atomB.getLeafIndex() <= i) continue;
+                double chargeB = atomAgentManager.getAgent(atomB).charge;
+                if (chargeB == 0) continue;
+                rAB.Ev1Mv2(atomA.getPosition(), atomB.getPosition());
+                box.getBoundary().nearestImage(rAB);
+                double r2 = rAB.squared();
+                double r = Math.sqrt(r2);
+                virial -= chargeA * chargeB * (2 * alpha / sqrtPI * Math.exp(-alpha2 * r2) - Erf.erf(alpha * r) / r);
+            }
+            if (!doRealSum) continue;
+            for (int j = i + 1; j < nAtoms; j++) {
+                IAtom atomB = leafList.getAtom(j);
+                if (atomB.getParentGroup() == moleculeA) continue;
+                double chargeB = atomAgentManager.getAgent(atomB).charge;
+                if (chargeB == 0) continue;
+                rAB.Ev1Mv2(atomA.getPosition(), atomB.getPosition());
+                box.getBoundary().nearestImage(rAB);
+                double r2 = rAB.squared();
+                if (r2 > rCutSquared) continue;
+                double r = Math.sqrt(r2);
+                virial -= chargeA * chargeB * (Erf.erfc(alpha * r) / r + 2 * alpha / sqrtPI * Math.exp(-alpha2 * r2));
+            }
+        }
+        return virial;
+    }
+
+    public Vector[] gradient(IAtomList atoms) {
+        return gradient(atoms, null);
+    }
+
+    public Vector[] gradient(IAtomList atoms, Tensor pressureTensor) {
+        IAtomList leafList = box.getLeafList();
+        int nAtoms = leafList.getAtomCount();
+        if (gradient.length < nAtoms) {
+            gradient = new Vector[nAtoms];
+            for (int i = 0; i < nAtoms; i++) {
+                gradient[i] = space.makeVector();
+            }
+        }
+        else {
+            for (int i = 0; i < nAtoms; i++) {
+                gradient[i].E(0);
+            }
+        }
+
+        reciprocal(true, pressureTensor == null ? null : virialTensor);
+        addReciprocalGradient(nAtoms);
+        if (pressureTensor != null) {
+            pressureTensor.PEa1Tt1(-1, virialTensor);
+        }
+
+        for (int i = 0; i < nAtoms; i++) {
+            IAtom atomA = leafList.getAtom(i);
+            double chargeA = atomAgentManager.getAgent(atomA).charge;
+            if (chargeA == 0) continue;
+            IMolecule moleculeA = atomA.getParentGroup();
+            Vector positionA = atomA.getPosition();
+            // intramolecular correction
+            IAtomList childList = moleculeA.getChildList();
+            for (int j = 0; j < childList.getAtomCount(); j++) {
+                IAtom atomB = childList.getAtom(j);
+                int iB = atomB.getLeafIndex();
+                if (iB <= i) continue;
+                double chargeB = atomAgentManager.getAgent(atomB).charge;
+                if (chargeB == 0) continue;
+                rAB.Ev1Mv2(positionA, atomB.getPosition());
+                box.getBoundary().nearestImage(rAB);
+                double rAB2 = rAB.squared();
+                double rABMagnitude = Math.sqrt(rAB2);
+                double B = 2 * alpha / sqrtPI * Math.exp(-alpha2 * rAB2) - Erf.erf(alpha * rABMagnitude) / rABMagnitude;
+                double coeffAB = -chargeA * chargeB * B / rAB2; // gradU = -F
+                gradient[i].PEa1Tv1(coeffAB, rAB);
+                gradient[iB].PEa1Tv1(-coeffAB, rAB);
+                if (pressureTensor != null) {
+                    drTmp.Ea1Tv1(coeffAB, rAB);
+                    pressureTensor.MEv1v2(drTmp, rAB);
+                }
+            }
+            if (!doRealSum) continue;
+            for (int j = i + 1; j < nAtoms; j++) {
+                IAtom atomB = leafList.getAtom(j);
+                if (atomB.getParentGroup() == moleculeA) continue;
+                double chargeB = atomAgentManager.getAgent(atomB).charge;
+                if (chargeB == 0) continue;
+                rAB.Ev1Mv2(positionA, atomB.getPosition()); //rAB == rA - rB
+                box.getBoundary().nearestImage(rAB);
+                double rAB2 = rAB.squared();
+                if (rAB2 > rCutSquared) continue;
+                double rABMagnitude = Math.sqrt(rAB2);
+                double B = Erf.erfc(alpha * rABMagnitude) + 2.0 * alpha * rABMagnitude / sqrtPI * Math.exp(-alpha2 * rAB2);
+                double realCoeff = -chargeA * chargeB * B / (rABMagnitude * rAB2); // gradU = -F
+                gradient[i].PEa1Tv1(realCoeff, rAB);
+                gradient[j].PEa1Tv1(-realCoeff, rAB);
+                if (pressureTensor != null) {
+                    drTmp.Ea1Tv1(realCoeff, rAB);
+                    pressureTensor.MEv1v2(drTmp, rAB);
+                }
+            }
+        }
+        return gradient;
+    }
+
+    public double getRange() {
+        return Double.POSITIVE_INFINITY;
+    }
+
+    public int nBody() {
+        return 0;
+    }
+
+    public void setBox(Box box) {
+    }
+
+    /**
+     * Returns a pair potential for the real-space sum, which should be added
+     * to a PotentialMaster for all intermolecular pairs of charged atom
+     * types.  The real-space sum is then no longer done by this class.
+     */
+    public P2EwaldReal makeP2EwaldReal() {
+        doRealSum = false;
+        return new P2EwaldReal();
+    }
+
+    /**
+     * Real-space pair potential, q_i q_j erfc(alpha r)/r within the
+     * real-space cutoff.
+     */
+    public class P2EwaldReal implements PotentialSoft {
+
+        protected final Vector[] gradient2;
+        protected final Vector dr;
+
+        public P2EwaldReal() {
+            gradient2 = new Vector[2];
+            gradient2[0] = space.makeVector();
+            gradient2[1] = space.makeVector();
+            dr = space.makeVector();
+        }
+
+        protected double r2(IAtomList atoms) {
+            dr.Ev1Mv2(atoms.getAtom(1).getPosition(), atoms.getAtom(0).getPosition());
+            box.getBoundary().nearestImage(dr);
+            return dr.squared();
+        }
+
+        protected double qq(IAtomList atoms) {
+            return atomAgentManager.getAgent(atoms.getAtom(0)).charge * atomAgentManager.getAgent(atoms.getAtom(1)).charge;
+        }
+
+        public double energy(IAtomList atoms) {
+            double r2 = r2(atoms);
+            if (r2 > rCutSquared) return 0;
+            double r = Math.sqrt(r2);
+            return qq(atoms) * Erf.erfc(alpha * r) / r;
+        }
+
+        /**
+         * Returns r du/dr for the pair.
+         */
+        protected double du(IAtomList atoms, double r2) {
+            if (r2 > rCutSquared) return 0;
+            double r = Math.sqrt(r2);
+            return -qq(atoms) * (Erf.erfc(alpha * r) / r + 2 * alpha / sqrtPI * Math.exp(-alpha2 * r2));
+        }
+
+        public double virial(IAtomList atoms) {
+            return du(atoms, r2(atoms));
+        }
+
+        public Vector[] gradient(IAtomList atoms) {
+            double r2 = r2(atoms);
+            double du = du(atoms, r2);
+            gradient2[1].Ea1Tv1(du / r2, dr);
+            gradient2[0].Ea1Tv1(-1, gradient2[1]);
+            return gradient2;
+        }
+
+        public Vector[] gradient(IAtomList atoms, Tensor pressureTensor) {
+            gradient(atoms);
+            pressureTensor.PEv1v2(gradient2[0], dr);
+            return gradient2;
+        }
+
+        public double getRange() {
+            return rCutRealES;
+        }
+
+        public void setBox(Box box) {
+        }
+
+        public int nBody() {
+            return 2;
+        }
+    }
+}
@@ -28,6 +28,14 @@ public class P2LennardJones extends Potential2SoftSpherical {
         setEpsilon(epsilon);
     }
 
+    /**
+     * Returns true; u and du depend only on the parameters.  Subclasses
+     * are not assumed to be safe.
+     */
+    public boolean isThreadSafeRadial() {
+        return getClass() == P2LennardJones.class;
+    }
+
     /**
      * The energy u.
      */
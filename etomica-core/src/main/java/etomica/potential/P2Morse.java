@@ -37,6 +37,13 @@ public final class P2Morse extends Potential2SoftSpherical {
         setA(a);
     }
 
+    /**
+     * Returns true; u and du depend only on the parameters.
+     */
+    public boolean isThreadSafeRadial() {
+        return true;
+    }
+
     /**
      * The energy u.
      */
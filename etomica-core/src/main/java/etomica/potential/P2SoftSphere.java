@@ -41,6 +41,13 @@ public final class P2SoftSphere extends Potential2SoftSpherical {
         evenN = n%2 == 0;
     }
 
+    /**
+     * Returns true; u and du depend only on the parameters.
+     */
+    public boolean isThreadSafeRadial() {
+        return true;
+    }
+
     /**
      * The energy u.
      */
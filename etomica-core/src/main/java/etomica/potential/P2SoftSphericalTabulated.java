@@ -0,0 +1,189 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.potential;
+
+import etomica.box.Box;
+import etomica.space.Space;
+
+/**
+ * Wraps a soft-spherical potential and replaces its energy and derivatives
+ * between rMin and rMax with cubic Hermite interpolation from a table that is
+ * uniformly spaced in r^2.  The interpolants for u and du use the exact
+ * derivatives of the wrapped potential at the table nodes (so u and its
+ * gradient are continuous); d2u uses finite-difference slopes.  Outside the
+ * tabulated range the wrapped potential is called directly, so the
+ * tabulated potential can be used anywhere the wrapped potential can, and
+ * it behaves identically apart from the interpolation error.
+ * <p>
+ * The wrapped potential is expensive to evaluate for many ab initio pair
+ * potentials (exponentials, damping functions and long series), while a
+ * table lookup costs about as much as Lennard-Jones.  Use getMaxError to
+ * check the interpolation error, or construct the potential with
+ * makeTabulated to choose the table size needed for a given accuracy.
+ * <p>
+ * The table should not span a discontinuity in the wrapped potential; to
+ * truncate, tabulate the untruncated potential and wrap the result in
+ * P2SoftSphericalTruncated.
+ */
+public class P2SoftSphericalTabulated extends Potential2SoftSpherical {
+
+    protected final Potential2SoftSpherical potential;
+    protected final double r2Min, r2Max, delta, invDelta;
+    protected final int nIntervals;
+    // polynomial coefficients (in the fractional position within the interval) for each interval
+    protected final double[] uCoeff, duCoeff, d2uCoeff;
+
+    /**
+     * @param potential the potential to tabulate
+     * @param rMin      the smallest separation in the table
+     * @param rMax      the largest separation in the table
+     * @param nPoints   the number of table nodes (at least 2)
+     */
+    public P2SoftSphericalTabulated(Space space, Potential2SoftSpherical potential, double rMin, double rMax, int nPoints) {
+        super(space);
+        if (rMin <= 0 || rMax <= rMin) {
+            throw new IllegalArgumentException("Table range must satisfy 0 < rMin < rMax");
+        }
+        if (nPoints < 2) {
+            throw new IllegalArgumentException("Table needs at least 2 points");
+        }
+        this.potential = potential;
+        r2Min = rMin * rMin;
+        r2Max = rMax * rMax;
+        nIntervals = nPoints - 1;
+        delta = (r2Max - r2Min) / nIntervals;
+        invDelta = 1 / delta;
+
+        double[] u = new double[nPoints];
+        double[] du = new double[nPoints];
+        double[] d2u = new double[nPoints];
+        double[] uSlope = new double[nPoints];
+        double[] duSlope = new double[nPoints];
+        double[] d2uSlope = new double[nPoints];
+        for (int i = 0; i < nPoints; i++) {
+            double r2 = i == nIntervals ? r2Max : r2Min + i * delta;
+            u[i] = potential.u(r2);
+            du[i] = potential.du(r2);
+            d2u[i] = potential.d2u(r2);
+            if (Double.isInfinite(u[i]) || Double.isNaN(u[i]) || Double.isInfinite(du[i]) || Double.isNaN(du[i])
+                    || Double.isInfinite(d2u[i]) || Double.isNaN(d2u[i])) {
+                throw new IllegalArgumentException("Potential is not finite at r=" + Math.sqrt(r2) + " within the table range");
+            }
+            // du = r du/dr = 2 r^2 du/dr2, d2u = r^2 d2u/dr2
+            uSlope[i] = du[i] / (2 * r2);
+            duSlope[i] = (du[i] + d2u[i]) / (2 * r2);
+        }
+        for (int i = 0; i < nPoints; i++) {
+            int iLo = Math.max(i - 1, 0), iHi = Math.min(i + 1, nIntervals);
+            d2uSlope[i] = (d2u[iHi] - d2u[iLo]) / ((iHi - iLo) * delta);
+        }
+        uCoeff = makeCoefficients(u, uSlope);
+        duCoeff = makeCoefficients(du, duSlope);
+        d2uCoeff = makeCoefficients(d2u, d2uSlope);
+    }
+
+    /**
+     * Returns a tabulated potential whose table is just large enough that the
+     * maximum errors in u and du (as reported by getMaxError) are smaller
+     * than tolerance.
+     */
+    public static P2SoftSphericalTabulated makeTabulated(Space space, Potential2SoftSpherical potential, double rMin, double rMax, double tolerance) {
+        for (int nPoints = 64; nPoints <= (1 << 22); nPoints *= 2) {
+            P2SoftSphericalTabulated p = new P2SoftSphericalTabulated(space, potential, rMin, rMax, nPoints + 1);
+            double[] err = p.getMaxError();
+            if (err[0] < tolerance && err[1] < tolerance) {
+                return p;
+            }
+        }
+        throw new IllegalArgumentException("Unable to reach tolerance " + tolerance + " with a reasonable table size");
+    }
+
+    /**
+     * Returns Hermite polynomial coefficients (c0 + c1 t + c2 t^2 + c3 t^3,
+     * with t the fractional position within the interval) for each interval.
+     */
+    protected double[] makeCoefficients(double[] y, double[] slope) {
+        double[] c = new double[4 * nIntervals];
+        for (int i = 0; i < nIntervals; i++) {
+            double y0 = y[i], y1 = y[i + 1];
+            double m0 = delta * slope[i], m1 = delta * slope[i + 1];
+            c[4 * i] = y0;
+            c[4 * i + 1] = m0;
+            c[4 * i + 2] = 3 * (y1 - y0) - 2 * m0 - m1;
+            c[4 * i + 3] = 2 * (y0 - y1) + m0 + m1;
+        }
+        return c;
+    }
+
+    protected static double interpolate(double[] c, int i, double t) {
+        int j = 4 * i;
+        return c[j] + t * (c[j + 1] + t * (c[j + 2] + t * c[j + 3]));
+    }
+
+    /**
+     * Returns the maximum absolute difference between the tabulated and
+     * exact u, du and d2u (in that order), sampled at the midpoint and
+     * quarter points of each table interval.
+     */
+    public double[] getMaxError() {
+        double[] err = new double[3];
+        for (int i = 0; i < nIntervals; i++) {
+            for (int j = 1; j < 4; j++) {
+                double r2 = r2Min + (i + 0.25 * j) * delta;
+                err[0] = Math.max(err[0], Math.abs(u(r2) - potential.u(r2)));
+                err[1] = Math.max(err[1], Math.abs(du(r2) - potential.du(r2)));
+                err[2] = Math.max(err[2], Math.abs(d2u(r2) - potential.d2u(r2)));
+            }
+        }
+        return err;
+    }
+
+    /**
+     * Returns the wrapped potential.
+     */
+    public Potential2SoftSpherical getWrappedPotential() {
+        return potential;
+    }
+
+    public void setBox(Box box) {
+        potential.setBox(box);
+        super.setBox(box);
+    }
+
+    public double u(double r2) {
+        if (r2 < r2Min || r2 >= r2Max) return potential.u(r2);
+        double x = (r2 - r2Min) * invDelta;
+        int i = Math.min((int) x, nIntervals - 1);
+        return interpolate(uCoeff, i, x - i);
+    }
+
+    public double du(double r2) {
+        if (r2 < r2Min || r2 >= r2Max) return potential.du(r2);
+        double x = (r2 - r2Min) * invDelta;
+        int i = Math.min((int) x, nIntervals - 1);
+        return interpolate(duCoeff, i, x - i);
+    }
+
+    public double d2u(double r2) {
+        if (r2 < r2Min || r2 >= r2Max) return potential.d2u(r2);
+        double x = (r2 - r2Min) * invDelta;
+        int i = Math.min((int) x, nIntervals - 1);
+        return interpolate(d2uCoeff, i, x - i);
+    }
+
+    /**
+     * Returns the value of uInt for the wrapped potential.
+     */
+    public double uInt(double rC) {
+        return potential.uInt(rC);
+    }
+
+    /**
+     * Returns the range of the wrapped potential.
+     */
+    public double getRange() {
+        return potential.getRange();
+    }
+}
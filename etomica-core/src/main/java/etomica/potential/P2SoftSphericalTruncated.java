@@ -46,6 +46,14 @@ public class P2SoftSphericalTruncated extends Potential2SoftSpherical
         super.setBox(box);
     }
 
+    /**
+     * Returns true if the wrapped potential is safe.  Subclasses are not
+     * assumed to be safe.
+     */
+    public boolean isThreadSafeRadial() {
+        return getClass() == P2SoftSphericalTruncated.class && potential.isThreadSafeRadial();
+    }
+
     /**
      * Returns the energy of the wrapped potential if the separation
      * is less than the cutoff value
@@ -31,6 +31,14 @@ public class P2SoftSphericalTruncatedShifted extends P2SoftSphericalTruncated {
         return potential;
     }
 
+    /**
+     * Returns true if the wrapped potential is safe.  Subclasses are not
+     * assumed to be safe.
+     */
+    public boolean isThreadSafeRadial() {
+        return getClass() == P2SoftSphericalTruncatedShifted.class && potential.isThreadSafeRadial();
+    }
+
     /**
      * Returns the energy of the wrapped potential if the separation
      * is less than the cutoff value
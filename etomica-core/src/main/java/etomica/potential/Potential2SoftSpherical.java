@@ -50,6 +50,20 @@ public abstract class Potential2SoftSpherical extends Potential2 implements Pote
      */
     public abstract double uInt(double rC);
     
+    /**
+     * Returns true if the energy and gradient of this potential (for a pair
+     * of atoms) are given entirely by u(r2) and du(r2), as implemented by
+     * this class, and if u and du do not alter the state of the potential,
+     * so that they can be called concurrently.  Calculations that evaluate
+     * the pair interaction themselves (without invoking energy or gradient),
+     * possibly from several threads, can do so only if this method returns
+     * true.  This returns false; subclasses that have been checked to meet
+     * these conditions override it.
+     */
+    public boolean isThreadSafeRadial() {
+        return false;
+    }
+
     /**
      * Energy of the pair as given by the u(double) method
      */
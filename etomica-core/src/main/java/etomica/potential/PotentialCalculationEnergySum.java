@@ -16,7 +16,7 @@ import etomica.molecule.IMoleculeList;
  *
  * @author David Kofke
  */
-public class PotentialCalculationEnergySum implements PotentialCalculation, PotentialCalculationMolecular, java.io.Serializable {
+public class PotentialCalculationEnergySum implements PotentialCalculationRadial, PotentialCalculationMolecular, java.io.Serializable {
 
     public static boolean debug = false;
     
@@ -46,6 +46,15 @@ public class PotentialCalculationEnergySum implements PotentialCalculation, Pote
         }
     }
     
+    public int getRadialFlags() {
+        // subclasses might do something else in doCalculation
+        return getClass() == PotentialCalculationEnergySum.class ? RadialPairKernel.ENERGY : 0;
+    }
+
+    public void addRadialSums(RadialPairKernel kernel) {
+        sum += kernel.getEnergy();
+    }
+
 	/**
 	 * Sets the energy sum to zero, typically to begin a new energy-sum calculation.
 	 */
@@ -61,6 +61,29 @@ public class PotentialCalculationForcePressureSum extends PotentialCalculationFo
 		}
 	}
 
+    public PotentialCalculation makeWorker() {
+        // subclasses might do something else in doCalculation
+        if (getClass() != PotentialCalculationForcePressureSum.class) return null;
+        return new ForceSumWorker(integratorAgentManager.getBox().getSpace(), true);
+    }
+
+    public void reduce(PotentialCalculation worker) {
+        super.reduce(worker);
+        Tensor workerPressureTensor = ((ForceSumWorker) worker).getPressureTensor();
+        pressureTensor.PE(workerPressureTensor);
+        workerPressureTensor.E(0);
+    }
+
+    public int getRadialFlags() {
+        if (getClass() != PotentialCalculationForcePressureSum.class) return 0;
+        return RadialPairKernel.FORCES | RadialPairKernel.PRESSURE_TENSOR;
+    }
+
+    public void addRadialSums(RadialPairKernel kernel) {
+        super.addRadialSums(kernel);
+        kernel.addPressureTensorTo(pressureTensor);
+    }
+
     /**
      * Returns the virial portion of pressure tensor calculated during the last
      * potential calculation.  In order to be valid, reset() must be called
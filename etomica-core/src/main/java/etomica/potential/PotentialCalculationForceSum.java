@@ -5,15 +5,20 @@
 package etomica.potential;
 
 import etomica.atom.AtomLeafAgentManager;
+import etomica.atom.IAtom;
 import etomica.atom.IAtomList;
 import etomica.integrator.IntegratorBox;
+import etomica.space.Space;
+import etomica.space.Tensor;
 import etomica.space.Vector;
 
+import java.util.Arrays;
+
 /**
  * Sums the force on each iterated atom and adds it to the integrator agent
  * associated with the atom.
  */
-public class PotentialCalculationForceSum implements PotentialCalculation {
+public class PotentialCalculationForceSum implements PotentialCalculationParallel, PotentialCalculationRadial {
         
     protected AtomLeafAgentManager<Vector> integratorAgentManager;
 
@@ -62,4 +67,125 @@ public class PotentialCalculationForceSum implements PotentialCalculation {
                 }
 		}
 	}
+
+    public PotentialCalculation makeWorker() {
+        // subclasses might do something else in doCalculation
+        if (getClass() != PotentialCalculationForceSum.class) return null;
+        return new ForceSumWorker(integratorAgentManager.getBox().getSpace(), false);
+    }
+
+    public void reduce(PotentialCalculation worker) {
+        ((ForceSumWorker)worker).addForces(integratorAgentManager);
+    }
+
+    public int getRadialFlags() {
+        // subclasses might do something else in doCalculation
+        return getClass() == PotentialCalculationForceSum.class ? RadialPairKernel.FORCES : 0;
+    }
+
+    public void addRadialSums(RadialPairKernel kernel) {
+        kernel.addForcesTo(integratorAgentManager);
+    }
+
+    /**
+     * Worker used to sum forces on a single thread.  Forces are accumulated in
+     * the worker's own array (indexed by leaf index) and then added to the
+     * integrator agents when the worker is reduced.  Pair interactions from
+     * radial potentials are computed directly from du(r2), without calling
+     * the potential's gradient method (which is not thread-safe).  Other
+     * potentials are invoked while holding the potential's lock.  Potentials
+     * that are not a PotentialSoft (and so have no gradient) are handled as
+     * the serial calculation does: skipped when computing the pressure
+     * tensor (as PotentialCalculationForcePressureSum does) and otherwise
+     * rejected (as PotentialCalculationForceSum does).
+     */
+    public static class ForceSumWorker implements PotentialCalculation {
+        protected final Space space;
+        protected final Tensor pressureTensor;
+        protected final Vector dr, grad;
+        protected Vector[] forces;
+        protected int maxIndex;
+
+        /**
+         * @param space           the space
+         * @param doPressureTensor if true, the worker also accumulates the
+         *                         virial contribution to the pressure tensor
+         */
+        public ForceSumWorker(Space space, boolean doPressureTensor) {
+            this.space = space;
+            pressureTensor = doPressureTensor ? space.makeTensor() : null;
+            dr = space.makeVector();
+            grad = space.makeVector();
+            forces = new Vector[0];
+        }
+
+        protected Vector getForce(IAtom atom) {
+            int idx = atom.getLeafIndex();
+            if (idx >= forces.length) {
+                int oldLength = forces.length;
+                forces = Arrays.copyOf(forces, Math.max(idx + 1, oldLength + oldLength / 2));
+                for (int i = oldLength; i < forces.length; i++) {
+                    forces[i] = space.makeVector();
+                }
+            }
+            if (idx >= maxIndex) {
+                maxIndex = idx + 1;
+            }
+            return forces[idx];
+        }
+
+        public void doCalculation(IAtomList atoms, IPotentialAtomic potential) {
+            if (pressureTensor != null && !(potential instanceof PotentialSoft)) return;
+            if (potential instanceof Potential2SoftSpherical && ((Potential2SoftSpherical) potential).isThreadSafeRadial()) {
+                Potential2SoftSpherical p2 = (Potential2SoftSpherical) potential;
+                IAtom atom0 = atoms.getAtom(0);
+                IAtom atom1 = atoms.getAtom(1);
+                dr.Ev1Mv2(atom1.getPosition(), atom0.getPosition());
+                p2.boundary.nearestImage(dr);
+                double r2 = dr.squared();
+                if (r2 < 1.e-10) return;
+                double duOverR2 = p2.du(r2) / r2;
+                if (duOverR2 == 0) return;
+                getForce(atom0).PEa1Tv1(duOverR2, dr);
+                getForce(atom1).PEa1Tv1(-duOverR2, dr);
+                if (pressureTensor != null) {
+                    grad.Ea1Tv1(-duOverR2, dr);
+                    pressureTensor.PEv1v2(grad, dr);
+                }
+                return;
+            }
+            synchronized (potential) {
+                Vector[] f = pressureTensor == null ? ((PotentialSoft) potential).gradient(atoms)
+                        : ((PotentialSoft) potential).gradient(atoms, pressureTensor);
+                if (f == null) return;
+                for (int i = 0; i < atoms.getAtomCount(); i++) {
+                    getForce(atoms.getAtom(i)).ME(f[i]);
+                }
+            }
+        }
+
+        /**
+         * Adds the forces summed by this worker to the agents held by the
+         * given agent manager and zeros this worker's forces.
+         */
+        public void addForces(AtomLeafAgentManager<Vector> agentManager) {
+            IAtomList leafList = agentManager.getBox().getLeafList();
+            int n = Math.min(maxIndex, leafList.getAtomCount());
+            for (int i = 0; i < n; i++) {
+                agentManager.getAgent(leafList.getAtom(i)).PE(forces[i]);
+            }
+            for (int i = 0; i < maxIndex; i++) {
+                forces[i].E(0);
+            }
+            maxIndex = 0;
+        }
+
+        /**
+         * Returns the virial portion of the pressure tensor accumulated by
+         * this worker, or null if the worker does not compute it.
+         */
+        public Tensor getPressureTensor() {
+            return pressureTensor;
+        }
+    }
 }
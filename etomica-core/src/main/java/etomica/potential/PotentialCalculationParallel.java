@@ -0,0 +1,35 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.potential;
+
+/**
+ * PotentialCalculation that can be split across multiple threads.  Each
+ * thread performs the calculation with its own worker (obtained from
+ * makeWorker), which accumulates results in its own buffers.  When all
+ * threads are finished, the results from each worker are added back into
+ * this calculation via reduce.
+ *
+ * A worker's doCalculation method may be invoked concurrently with the
+ * doCalculation method of other workers (using the same potentials), so
+ * workers must not depend on state within the potential that would be
+ * altered by another thread.
+ */
+public interface PotentialCalculationParallel extends PotentialCalculation {
+
+    /**
+     * Returns a new worker for use by a single thread.  The worker should
+     * start with zeroed results.  Returns null if the calculation cannot be
+     * split, in which case the calculation should be performed on a single
+     * thread.
+     */
+    PotentialCalculation makeWorker();
+
+    /**
+     * Adds the results accumulated by the given worker (which must have been
+     * made by this calculation's makeWorker method) into this calculation and
+     * zeros the worker's results so that it can be used again.
+     */
+    void reduce(PotentialCalculation worker);
+}
@@ -0,0 +1,28 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.potential;
+
+/**
+ * PotentialCalculation whose results for radial pair potentials can be
+ * computed by a {@link RadialPairKernel}.  A PotentialMaster may then skip
+ * calling doCalculation for pairs interacting with a radial potential and
+ * instead run the kernel over those pairs, and hand the kernel's sums to the
+ * calculation via addRadialSums.
+ */
+public interface PotentialCalculationRadial extends PotentialCalculation {
+
+    /**
+     * Returns the quantities (as a combination of RadialPairKernel.ENERGY,
+     * VIRIAL, FORCES and PRESSURE_TENSOR) the kernel should compute for this
+     * calculation, or 0 if the kernel cannot be used (for instance, by a
+     * subclass that does something else in doCalculation).
+     */
+    int getRadialFlags();
+
+    /**
+     * Adds the sums accumulated by the given kernel into this calculation.
+     */
+    void addRadialSums(RadialPairKernel kernel);
+}
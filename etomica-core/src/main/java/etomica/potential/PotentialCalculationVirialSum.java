@@ -11,7 +11,7 @@ import etomica.atom.IAtomList;
  *
  * @author David Kofke
  */
-public class PotentialCalculationVirialSum implements PotentialCalculation {
+public class PotentialCalculationVirialSum implements PotentialCalculationRadial {
 		
     /**
 	 * Adds to the virial sum the energy values obtained from application of the given potential to the
@@ -24,6 +24,14 @@ public class PotentialCalculationVirialSum implements PotentialCalculation {
         sum += ((PotentialSoft)potential).virial(atoms);
 	}
 	
+    public int getRadialFlags() {
+        return getClass() == PotentialCalculationVirialSum.class ? RadialPairKernel.VIRIAL : 0;
+    }
+
+    public void addRadialSums(RadialPairKernel kernel) {
+        sum += kernel.getVirial();
+    }
+
 	/**
 	 * Sets the virial sum to zero, typically to begin a new virial-sum calculation.
 	 * @return this instance, so the method can be called in-line as the instance is
@@ -0,0 +1,332 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.potential;
+
+import etomica.atom.AtomLeafAgentManager;
+import etomica.atom.IAtomList;
+import etomica.box.Box;
+import etomica.box.BoxCoordinateArrays;
+import etomica.space.Boundary;
+import etomica.space.BoundaryRectangularPeriodic;
+import etomica.space.Tensor;
+import etomica.space.Vector;
+
+import java.util.Arrays;
+
+/**
+ * Fused pair loop for radial (spherically symmetric) pair potentials.  Pairs
+ * are given as the leaf index of an atom and an array of leaf indices of its
+ * neighbors, and are evaluated directly from coordinates held in a box's
+ * {@link BoxCoordinateArrays}, without going through a PotentialCalculation
+ * for each pair.  Energy, virial, forces and the pressure tensor are
+ * computed together in a single pass, as requested by the flags.
+ *
+ * Lennard-Jones potentials (P2LennardJones, possibly wrapped by
+ * P2SoftSphericalTruncated) are evaluated inline.  Other potentials are
+ * evaluated via their u and du methods, and so must be radial and safe to
+ * call concurrently (see
+ * {@link Potential2SoftSpherical#isThreadSafeRadial()}).
+ *
+ * Positions must be gathered (via the BoxCoordinateArrays) before pairs are
+ * added.  Each kernel holds its own sums and forces, so multiple kernels can
+ * process different atoms concurrently using the same positions.
+ */
+public class RadialPairKernel {
+
+    public static final int ENERGY = 1, VIRIAL = 2, FORCES = 4, PRESSURE_TENSOR = 8;
+
+    protected final BoxCoordinateArrays coordinates;
+    protected final int D;
+    protected final double[] boxSize, boxSizeInv;
+    protected final Vector dr;
+    protected final double[] pressureTensor;
+    protected int flags;
+    protected boolean rectangular;
+    protected Boundary boundary;
+    protected double energy, virial;
+    protected double[] forces;
+
+    public RadialPairKernel(BoxCoordinateArrays coordinates) {
+        this.coordinates = coordinates;
+        D = coordinates.getD();
+        boxSize = new double[D];
+        boxSizeInv = new double[D];
+        dr = coordinates.getBox().getSpace().makeVector();
+        pressureTensor = new double[D * D];
+        forces = new double[0];
+    }
+
+    /**
+     * Sets which quantities are computed, as a combination of ENERGY, VIRIAL,
+     * FORCES and PRESSURE_TENSOR.
+     */
+    public void setFlags(int newFlags) {
+        flags = newFlags;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public BoxCoordinateArrays getCoordinates() {
+        return coordinates;
+    }
+
+    /**
+     * Returns true if the kernel can evaluate the given potential.
+     */
+    public static boolean canHandle(IPotential potential) {
+        return potential instanceof Potential2SoftSpherical && ((Potential2SoftSpherical) potential).isThreadSafeRadial();
+    }
+
+    /**
+     * Zeros all sums and prepares for pairs to be added.  This should be
+     * called after the positions are gathered and before any pairs are
+     * added.
+     */
+    public void reset() {
+        energy = virial = 0;
+        Arrays.fill(pressureTensor, 0);
+        int n = coordinates.getNumAtoms() * D;
+        if ((flags & FORCES) != 0) {
+            if (forces.length < n) {
+                forces = new double[n];
+            }
+            else {
+                Arrays.fill(forces, 0, n, 0);
+            }
+        }
+        Box box = coordinates.getBox();
+        boundary = box.getBoundary();
+        rectangular = boundary.getClass() == BoundaryRectangularPeriodic.class;
+        if (rectangular) {
+            Vector size = boundary.getBoxSize();
+            for (int k = 0; k < D; k++) {
+                boxSize[k] = size.getX(k);
+                boxSizeInv[k] = 1.0 / boxSize[k];
+            }
+        }
+    }
+
+    /**
+     * Evaluates the interaction of atom i with atoms nbrs[start] through
+     * nbrs[end-1] via the given potential.
+     */
+    public void addPairs(int i, int[] nbrs, int start, int end, Potential2SoftSpherical p2) {
+        if (start == end) return;
+        double sigma2 = 0, epsilon4 = 0, r2Cutoff = Double.POSITIVE_INFINITY;
+        boolean lj = false;
+        if (p2.getClass() == P2SoftSphericalTruncated.class) {
+            Potential2SoftSpherical wrapped = ((P2SoftSphericalTruncated) p2).getWrappedPotential();
+            if (wrapped.getClass() == P2LennardJones.class) {
+                lj = true;
+                double rc = ((P2SoftSphericalTruncated) p2).getTruncationRadius();
+                r2Cutoff = rc * rc;
+                sigma2 = ((P2LennardJones) wrapped).getSigma();
+                epsilon4 = 4 * ((P2LennardJones) wrapped).getEpsilon();
+            }
+        }
+        else if (p2.getClass() == P2LennardJones.class) {
+            lj = true;
+            sigma2 = ((P2LennardJones) p2).getSigma();
+            epsilon4 = 4 * ((P2LennardJones) p2).getEpsilon();
+        }
+        sigma2 *= sigma2;
+        boolean doEnergy = (flags & ENERGY) != 0;
+        boolean doVirial = (flags & VIRIAL) != 0;
+        boolean doForces = (flags & FORCES) != 0;
+        boolean doTensor = (flags & PRESSURE_TENSOR) != 0;
+        boolean needDu = doVirial || doForces || doTensor;
+        if (D == 3 && rectangular) {
+            addPairs3D(i, nbrs, start, end, p2, lj, sigma2, epsilon4, r2Cutoff);
+            return;
+        }
+        double[] r = coordinates.getPositions();
+        double u = 0, vir = 0;
+        int iOffset = i * D;
+        for (int jj = start; jj < end; jj++) {
+            int jOffset = nbrs[jj] * D;
+            for (int k = 0; k < D; k++) {
+                dr.setX(k, r[jOffset + k] - r[iOffset + k]);
+            }
+            if (rectangular) {
+                for (int k = 0; k < D; k++) {
+                    double x = dr.getX(k);
+                    dr.setX(k, x - boxSize[k] * Math.floor(x * boxSizeInv[k] + 0.5));
+                }
+            }
+            else {
+                boundary.nearestImage(dr);
+            }
+            double r2 = dr.squared();
+            double du;
+            if (lj) {
+                if (r2 >= r2Cutoff) continue;
+                double s2 = sigma2 / r2;
+                double s6 = s2 * s2 * s2;
+                if (doEnergy) u += epsilon4 * s6 * (s6 - 1.0);
+                du = -12 * epsilon4 * s6 * (s6 - 0.5);
+            }
+            else {
+                if (doEnergy) u += p2.u(r2);
+                if (!needDu) continue;
+                du = p2.du(r2);
+            }
+            vir += du;
+            if (r2 < 1.e-10 || !(doForces || doTensor)) continue;
+            double duOverR2 = du / r2;
+            if (doForces) {
+                for (int k = 0; k < D; k++) {
+                    double fk = duOverR2 * dr.getX(k);
+                    forces[iOffset + k] += fk;
+                    forces[jOffset + k] -= fk;
+                }
+            }
+            if (doTensor) {
+                for (int k = 0; k < D; k++) {
+                    double gk = -duOverR2 * dr.getX(k);
+                    for (int l = 0; l < D; l++) {
+                        pressureTensor[k * D + l] += gk * dr.getX(l);
+                    }
+                }
+            }
+        }
+        energy += u;
+        virial += vir;
+    }
+
+    /**
+     * Pair loop specialized for 3 dimensions with a rectangular periodic
+     * boundary.
+     */
+    protected void addPairs3D(int i, int[] nbrs, int start, int end, Potential2SoftSpherical p2,
+                              boolean lj, double sigma2, double epsilon4, double r2Cutoff) {
+        boolean doEnergy = (flags & ENERGY) != 0;
+        boolean doForces = (flags & FORCES) != 0;
+        boolean doTensor = (flags & PRESSURE_TENSOR) != 0;
+        boolean needDu = (flags & (VIRIAL | FORCES | PRESSURE_TENSOR)) != 0;
+        final double[] r = coordinates.getPositions();
+        final double[] f = forces;
+        final double lx = boxSize[0], ly = boxSize[1], lz = boxSize[2];
+        final double lxInv = boxSizeInv[0], lyInv = boxSizeInv[1], lzInv = boxSizeInv[2];
+        final int iOffset = i * 3;
+        final double xi = r[iOffset], yi = r[iOffset + 1], zi = r[iOffset + 2];
+        double u = 0, vir = 0;
+        double fxi = 0, fyi = 0, fzi = 0;
+        double pxx = 0, pxy = 0, pxz = 0, pyy = 0, pyz = 0, pzz = 0;
+        for (int jj = start; jj < end; jj++) {
+            int jOffset = nbrs[jj] * 3;
+            double dx = r[jOffset] - xi;
+            double dy = r[jOffset + 1] - yi;
+            double dz = r[jOffset + 2] - zi;
+            dx -= lx * Math.floor(dx * lxInv + 0.5);
+            dy -= ly * Math.floor(dy * lyInv + 0.5);
+            dz -= lz * Math.floor(dz * lzInv + 0.5);
+            double r2 = dx * dx + dy * dy + dz * dz;
+            double du;
+            if (lj) {
+                if (r2 >= r2Cutoff) continue;
+                double s2 = sigma2 / r2;
+                double s6 = s2 * s2 * s2;
+                if (doEnergy) u += epsilon4 * s6 * (s6 - 1.0);
+                du = -12 * epsilon4 * s6 * (s6 - 0.5);
+            }
+            else {
+                if (doEnergy) u += p2.u(r2);
+                if (!needDu) continue;
+                du = p2.du(r2);
+            }
+            vir += du;
+            if (r2 < 1.e-10) continue;
+            double duOverR2 = du / r2;
+            if (doForces) {
+                double fx = duOverR2 * dx, fy = duOverR2 * dy, fz = duOverR2 * dz;
+                fxi += fx;
+                fyi += fy;
+                fzi += fz;
+                f[jOffset] -= fx;
+                f[jOffset + 1] -= fy;
+                f[jOffset + 2] -= fz;
+            }
+            if (doTensor) {
+                pxx -= duOverR2 * dx * dx;
+                pxy -= duOverR2 * dx * dy;
+                pxz -= duOverR2 * dx * dz;
+                pyy -= duOverR2 * dy * dy;
+                pyz -= duOverR2 * dy * dz;
+                pzz -= duOverR2 * dz * dz;
+            }
+        }
+        if (doForces) {
+            f[iOffset] += fxi;
+            f[iOffset + 1] += fyi;
+            f[iOffset + 2] += fzi;
+        }
+        if (doTensor) {
+            double[] p = pressureTensor;
+            p[0] += pxx;
+            p[1] += pxy;
+            p[2] += pxz;
+            p[3] += pxy;
+            p[4] += pyy;
+            p[5] += pyz;
+            p[6] += pxz;
+            p[7] += pyz;
+            p[8] += pzz;
+        }
+        energy += u;
+        virial += vir;
+    }
+
+    /**
+     * Returns the energy summed over all pairs added since the last reset.
+     */
+    public double getEnergy() {
+        return energy;
+    }
+
+    /**
+     * Returns the virial (sum of r du/dr) summed over all pairs added since
+     * the last reset.
+     */
+    public double getVirial() {
+        return virial;
+    }
+
+    /**
+     * Returns the forces, indexed by leaf index (i*D+k for component k of
+     * atom i).
+     */
+    public double[] getForces() {
+        return forces;
+    }
+
+    /**
+     * Adds the forces computed since the last reset to the force agents held
+     * by the given agent manager.
+     */
+    public void addForcesTo(AtomLeafAgentManager<Vector> agentManager) {
+        IAtomList leafList = coordinates.getBox().getLeafList();
+        int n = coordinates.getNumAtoms();
+        for (int i = 0, k = 0; i < n; i++) {
+            Vector f = agentManager.getAgent(leafList.getAtom(i));
+            for (int j = 0; j < D; j++, k++) {
+                f.setX(j, f.getX(j) + forces[k]);
+            }
+        }
+    }
+
+    /**
+     * Adds the virial portion of the pressure tensor computed since the last
+     * reset to the given tensor.
+     */
+    public void addPressureTensorTo(Tensor tensor) {
+        for (int k = 0; k < D; k++) {
+            for (int l = 0; l < D; l++) {
+                tensor.PE(k, l, pressureTensor[k * D + l]);
+            }
+        }
+    }
+}
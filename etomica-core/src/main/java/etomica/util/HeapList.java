@@ -0,0 +1,172 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.util;
+
+import java.util.Arrays;
+
+/**
+ * HeapList is an alternative to TreeList that keeps its linkers in an
+ * indexed binary heap (ordered by sortKey) stored in an array.  The tree
+ * links (previous, nextLeft, nextRight) of its linkers are not used.  Each linker
+ * knows its position in the heap, so linkers can be removed (via the
+ * linker's remove method, as with TreeList) in O(log n) time, and the first
+ * element is found in constant time.  Unlike TreeList, the cost of
+ * operations does not depend on the order in which objects are added.
+ *
+ * Linkers used with a HeapList must be created by its makeLinker method.
+ * As with TreeList, the sortKey of a linker must not be changed while the
+ * linker is in the list, except that the sortKeys of all linkers in the list
+ * may be shifted by the same amount.
+ */
+public class HeapList implements ILinkerList, java.io.Serializable {
+
+    private static final long serialVersionUID = 1L;
+    protected Linker[] heap;
+    protected int size;
+
+    public HeapList() {
+        heap = new Linker[16];
+    }
+
+    /**
+     * Returns a new linker for the given object, for use with this list.
+     */
+    public TreeLinker makeLinker(Object obj) {
+        return new Linker(obj, this);
+    }
+
+    public void add(TreeLinker newNode) {
+        Linker node = (Linker) newNode;
+        if (node.heapList != this) {
+            throw new IllegalArgumentException("linker was not made by this list");
+        }
+        if (node.index > -1) {
+            throw new IllegalStateException("attempting to add a node to the heap which is already part of the heap");
+        }
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        node.index = size;
+        heap[size] = node;
+        size++;
+        siftUp(node.index);
+    }
+
+    /**
+     * Removes the given linker from the heap.  Nothing happens if the linker
+     * is not in the heap.
+     */
+    protected void remove(Linker node) {
+        int i = node.index;
+        if (i < 0) return;
+        node.index = -1;
+        size--;
+        if (i == size) {
+            heap[size] = null;
+            return;
+        }
+        Linker last = heap[size];
+        heap[size] = null;
+        heap[i] = last;
+        last.index = i;
+        if (i > 0 && last.sortKey < heap[(i - 1) >> 1].sortKey) {
+            siftUp(i);
+        }
+        else {
+            siftDown(i);
+        }
+    }
+
+    protected void siftUp(int i) {
+        Linker node = heap[i];
+        double key = node.sortKey;
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            Linker p = heap[parent];
+            if (key >= p.sortKey) break;
+            heap[i] = p;
+            p.index = i;
+            i = parent;
+        }
+        heap[i] = node;
+        node.index = i;
+    }
+
+    protected void siftDown(int i) {
+        Linker node = heap[i];
+        double key = node.sortKey;
+        int half = size >> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            Linker c = heap[child];
+            int right = child + 1;
+            if (right < size && heap[right].sortKey < c.sortKey) {
+                child = right;
+                c = heap[child];
+            }
+            if (key <= c.sortKey) break;
+            heap[i] = c;
+            c.index = i;
+            i = child;
+        }
+        heap[i] = node;
+        node.index = i;
+    }
+
+    public Object firstElement() {
+        return size == 0 ? null : heap[0].obj;
+    }
+
+    /**
+     * Returns the number of linkers in the heap.
+     */
+    public int size() {
+        return size;
+    }
+
+    public void reset() {
+        for (int i = 0; i < size; i++) {
+            heap[i].index = -1;
+            heap[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * checks the heap for consistency of indices and ordering by sortKey.
+     */
+    public void check() {
+        for (int i = 0; i < size; i++) {
+            if (heap[i].index != i) {
+                throw new IllegalStateException("node " + heap[i] + " thinks it is at " + heap[i].index + " but is at " + i);
+            }
+            if (i > 0 && heap[i].sortKey < heap[(i - 1) >> 1].sortKey) {
+                throw new IllegalStateException("node " + heap[i] + " has a lower sortKey than its parent " + heap[(i - 1) >> 1]);
+            }
+        }
+    }
+
+    /**
+     * Linker used by HeapList.  The linker holds its position in the heap
+     * (or -1 if it is not in the heap).
+     */
+    public static class Linker extends TreeLinker {
+        protected final HeapList heapList;
+        protected int index;
+
+        public Linker(Object o, HeapList heapList) {
+            super(o);
+            this.heapList = heapList;
+            index = -1;
+        }
+
+        /**
+         * Removes this linker from the heap.
+         */
+        public void remove() {
+            heapList.remove(this);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.util;
+
+/**
+ * Interface for a collection of TreeLinkers ordered by their sortKey, from
+ * which the object with the lowest sortKey can be retrieved.  Linkers are
+ * removed from the collection via their remove method.
+ */
+public interface ILinkerList {
+
+    /**
+     * Returns a new linker for the given object, for use with this list.
+     */
+    TreeLinker makeLinker(Object obj);
+
+    /**
+     * Adds the given linker, which must have been made by this list and must
+     * not already be in the list.
+     */
+    void add(TreeLinker newNode);
+
+    /**
+     * Returns the object associated with the lowest sortKey, or null if the
+     * list is empty.
+     */
+    Object firstElement();
+
+    /**
+     * Removes all linkers from the list.
+     */
+    void reset();
+
+    /**
+     * Checks the list for consistency, throwing an exception if a problem
+     * is found.
+     */
+    void check();
+}
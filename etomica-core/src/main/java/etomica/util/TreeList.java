@@ -21,7 +21,7 @@ package etomica.util;
  * an object that is not in the tree.  Do not taunt the tree.  Turning
  * on Debug will attempt to catch problems.
  */
-public class TreeList implements java.io.Serializable {
+public class TreeList implements ILinkerList, java.io.Serializable {
 
     private static final long serialVersionUID = 1L;
     private TreeLinker head;
@@ -30,6 +30,13 @@ public class TreeList implements java.io.Serializable {
         head = new TreeLinker(null);
     }
 
+    /**
+     * Returns a new linker for the given object, for use with this list.
+     */
+    public TreeLinker makeLinker(Object obj) {
+        return new TreeLinker(obj);
+    }
+
     public void add(TreeLinker newNode) {
         if (Debug.ON && (newNode.nextLeft != null || newNode.nextRight != null || newNode.nextLeft != null)) {
             throw new RuntimeException("attempting to add a node to the tree which is already part of a tree");
@@ -0,0 +1,74 @@
+package etomica.box;
+
+import etomica.atom.IAtomKinetic;
+import etomica.atom.IAtomList;
+import etomica.simulation.Simulation;
+import etomica.space.Vector;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BoxCoordinateArraysTest {
+
+    private Box box;
+    private SpeciesSpheresMono species;
+
+    @Before
+    public void setUp() {
+        Simulation sim = new Simulation(Space3D.getInstance());
+        species = new SpeciesSpheresMono(sim, sim.getSpace());
+        species.setIsDynamic(true);
+        sim.addSpecies(species);
+        box = new Box(sim.getSpace());
+        sim.addBox(box);
+        box.setNMolecules(species, 5);
+        IAtomList leafList = box.getLeafList();
+        for (int i = 0; i < leafList.getAtomCount(); i++) {
+            leafList.getAtom(i).getPosition().E(new double[]{i, 2 * i, 3 * i});
+            ((IAtomKinetic) leafList.getAtom(i)).getVelocity().E(-i);
+        }
+    }
+
+    @Test
+    public void testGatherScatter() {
+        BoxCoordinateArrays arrays = box.getCoordinateArrays();
+        assertSame(arrays, box.getCoordinateArrays());
+        arrays.gatherPositions();
+        arrays.gatherVelocities();
+        assertEquals(5, arrays.getNumAtoms());
+        double[] r = arrays.getPositions();
+        double[] v = arrays.getVelocities();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, r[3 * i], 0);
+            assertEquals(2 * i, r[3 * i + 1], 0);
+            assertEquals(3 * i, r[3 * i + 2], 0);
+            assertEquals(-i, v[3 * i + 1], 0);
+        }
+
+        for (int k = 0; k < 15; k++) {
+            r[k] += 0.5;
+            v[k] = 1;
+        }
+        arrays.scatterPositions();
+        arrays.scatterVelocities();
+        Vector r4 = box.getLeafList().getAtom(4).getPosition();
+        assertEquals(4.5, r4.getX(0), 0);
+        assertEquals(12.5, r4.getX(2), 0);
+        assertEquals(1, ((IAtomKinetic) box.getLeafList().getAtom(2)).getVelocity().getX(1), 0);
+    }
+
+    @Test
+    public void testResize() {
+        BoxCoordinateArrays arrays = box.getCoordinateArrays();
+        arrays.gatherPositions();
+        box.setNMolecules(species, 10);
+        arrays.gatherPositions();
+        assertEquals(10, arrays.getNumAtoms());
+        assertTrue(arrays.getPositions().length >= 30);
+        arrays.zeroForces();
+        assertTrue(arrays.getForces().length >= 30);
+    }
+}
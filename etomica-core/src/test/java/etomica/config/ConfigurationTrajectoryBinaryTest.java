@@ -0,0 +1,121 @@
+package etomica.config;
+
+import etomica.action.WriteTrajectoryBinary;
+import etomica.atom.IAtomKinetic;
+import etomica.atom.IAtomList;
+import etomica.box.Box;
+import etomica.simulation.Simulation;
+import etomica.space.Vector;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ConfigurationTrajectoryBinaryTest {
+
+    private Simulation sim;
+    private Box box;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        sim = new Simulation(Space3D.getInstance());
+        SpeciesSpheresMono species = new SpeciesSpheresMono(sim, sim.getSpace());
+        species.setIsDynamic(true);
+        sim.addSpecies(species);
+        box = new Box(sim.getSpace());
+        sim.addBox(box);
+        box.setNMolecules(species, 5);
+        box.getBoundary().setBoxSize(Vector.of(new double[]{20, 20, 20}));
+        file = File.createTempFile("traj", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private void setCoordinates(int frame) {
+        IAtomList leafList = box.getLeafList();
+        for (int i = 0; i < leafList.getAtomCount(); i++) {
+            leafList.getAtom(i).getPosition().E(new double[]{i, -i, frame});
+            ((IAtomKinetic) leafList.getAtom(i)).getVelocity().E(0.5 * frame + i);
+        }
+    }
+
+    @Test
+    public void testWriteRead() {
+        WriteTrajectoryBinary writer = new WriteTrajectoryBinary(sim.getSpace());
+        writer.setBox(box);
+        writer.setFileName(file.getPath());
+        writer.setWriteVelocities(true);
+        writer.setWriteEdgeVectors(true);
+        // hold 2 frames in each mapped window
+        writer.setWindowSize(700);
+        for (int frame = 0; frame < 3; frame++) {
+            setCoordinates(frame);
+            writer.actionPerformed();
+        }
+        writer.close();
+        // the unused part of the last window is dropped
+        assertEquals(ConfigurationTrajectoryBinary.HEADER_SIZE + 3 * 312, file.length());
+
+        // append one more frame
+        writer.setAppend(true);
+        setCoordinates(3);
+        writer.actionPerformed();
+        assertEquals(4, writer.getNumFrames());
+
+        ConfigurationTrajectoryBinary config = new ConfigurationTrajectoryBinary(file.getPath());
+        // map 2 frames at a time for reading too
+        config.setWindowSize(700);
+        assertEquals(4, config.getNumFrames());
+        assertEquals(5, config.getNumAtoms());
+        assertTrue(config.hasVelocities());
+
+        // write another frame while the reader is open
+        setCoordinates(4);
+        writer.actionPerformed();
+        writer.close();
+        assertEquals(4, config.getNumFrames());
+        assertEquals(5, config.updateNumFrames());
+        assertEquals(5, config.getNumFrames());
+
+        Vector[] edges = new Vector[]{Vector.d(3), Vector.d(3), Vector.d(3)};
+        config.readEdgeVectors(1, edges);
+        assertEquals(20, edges[2].getX(2), 0);
+        assertEquals(0, edges[2].getX(0), 0);
+
+        setCoordinates(0);
+        MappedByteBuffer lastWindow = null;
+        for (int frame = 4; frame >= 0; frame--) {
+            config.setFrame(frame);
+            config.initializeCoordinates(box);
+            // each window is mapped once, for frames {4}, {2,3} and {0,1}
+            assertEquals(frame / 2 * 2, config.windowStart);
+            if (frame % 2 == 0 && frame < 4) {
+                assertSame(lastWindow, config.window);
+            }
+            else {
+                assertNotSame(lastWindow, config.window);
+            }
+            lastWindow = config.window;
+            IAtomList leafList = box.getLeafList();
+            for (int i = 0; i < 5; i++) {
+                Vector p = leafList.getAtom(i).getPosition();
+                assertEquals(i, p.getX(0), 0);
+                assertEquals(-i, p.getX(1), 0);
+                assertEquals(frame, p.getX(2), 0);
+                assertEquals(0.5 * frame + i, ((IAtomKinetic) leafList.getAtom(i)).getVelocity().getX(1), 0);
+            }
+        }
+        config.close();
+    }
+}
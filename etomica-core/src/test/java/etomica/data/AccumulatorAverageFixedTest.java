@@ -53,4 +53,35 @@ public class AccumulatorAverageFixedTest extends AccumulatorAverageTestBase {
         double error = accData.getValue(accumulator.ERROR.index);
         assertTrue("error "+error, error/1.35e-4 + 1.35e-4/error - 2 < 0.02);
     }
+
+    public void testAddDataFrom() {
+        // data split between two accumulators and then combined should give
+        // the same results as all of the data in one accumulator
+        DataDouble.DataInfoDouble dataInfo = new DataDouble.DataInfoDouble("test", Null.DIMENSION);
+        AccumulatorAverageFixed acc1 = new AccumulatorAverageFixed(10);
+        AccumulatorAverageFixed acc2 = new AccumulatorAverageFixed(10);
+        accumulator.setBlockSize(10);
+        accumulator.putDataInfo(dataInfo);
+        acc1.putDataInfo(dataInfo);
+        acc2.putDataInfo(dataInfo);
+        DataDouble rawData = new DataDouble();
+        RandomMersenneTwister rng = new RandomMersenneTwister(5);
+        for (int i=0; i<1005; i++) {
+            rawData.x = 0.5 + (rawData.x-0.5)*0.9 + (rng.nextDouble() - 0.5)*0.05;
+            accumulator.putData(rawData);
+            (i < 500 ? acc1 : acc2).putData(rawData);
+        }
+        AccumulatorAverageFixed combined = new AccumulatorAverageFixed(10);
+        combined.putDataInfo(dataInfo);
+        combined.addDataFrom(acc1);
+        combined.addDataFrom(acc2);
+        assertEquals(accumulator.getBlockCount(), combined.getBlockCount());
+        assertEquals(accumulator.getSampleCount(), combined.getSampleCount());
+
+        IData accData = accumulator.getData();
+        IData combinedData = combined.getData();
+        for (int i=0; i<accData.getLength(); i++) {
+            assertEquals(accData.getValue(i), combinedData.getValue(i), 1e-10);
+        }
+    }
 }
@@ -0,0 +1,104 @@
+package etomica.integrator;
+
+import etomica.action.BoxInflate;
+import etomica.atom.AtomType;
+import etomica.atom.IAtomKinetic;
+import etomica.atom.IAtomList;
+import etomica.box.Box;
+import etomica.config.ConfigurationLattice;
+import etomica.lattice.LatticeCubicFcc;
+import etomica.nbr.list.PotentialMasterList;
+import etomica.potential.P2HardSphere;
+import etomica.simulation.Simulation;
+import etomica.space.Space;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import etomica.util.HeapList;
+import etomica.util.ILinkerList;
+import etomica.util.TreeList;
+import etomica.util.random.RandomMersenneTwister;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class IntegratorHardTest {
+
+    protected static final int NUM_ATOMS = 256;
+
+    protected List<Double> collisionTimes;
+    protected List<String> colliders;
+    protected double[] trajectory;
+
+    /**
+     * Runs hard sphere MD with the given event list, recording the time
+     * and atoms of each collision and the final positions and velocities.
+     */
+    protected void run(ILinkerList eventList) {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        sim.setRandom(new RandomMersenneTwister(new int[]{1, 2, 3}));
+        PotentialMasterList potentialMaster = new PotentialMasterList(sim, 1.6, space);
+        IntegratorHard integrator = new IntegratorHard(sim, potentialMaster, space);
+        integrator.setIsothermal(false);
+        integrator.setTimeStep(0.01);
+        SpeciesSpheresMono species = new SpeciesSpheresMono(sim, space);
+        species.setIsDynamic(true);
+        sim.addSpecies(species);
+        AtomType leafType = species.getLeafType();
+        potentialMaster.addPotential(new P2HardSphere(space, 1.0, true), new AtomType[]{leafType, leafType});
+        Box box = new Box(space);
+        sim.addBox(box);
+        box.setNMolecules(species, NUM_ATOMS);
+        BoxInflate inflater = new BoxInflate(box, space);
+        inflater.setTargetDensity(0.35 * 6 / Math.PI);
+        inflater.actionPerformed();
+        new ConfigurationLattice(new LatticeCubicFcc(space), space).initializeCoordinates(box);
+        integrator.setBox(box);
+        integrator.getEventManager().addListener(potentialMaster.getNeighborManager(box));
+        integrator.setEventList(eventList);
+        integrator.reset();
+
+        collisionTimes = new ArrayList<>();
+        colliders = new ArrayList<>();
+        int[] step = new int[1];
+        integrator.addCollisionListener(agent -> {
+            collisionTimes.add(step[0] * integrator.getTimeStep() + agent.collisionTime());
+            colliders.add(agent.atom.getLeafIndex() + " " + agent.collisionPartner.getLeafIndex());
+        });
+        for (step[0] = 0; step[0] < 500; step[0]++) {
+            integrator.doStep();
+            eventList.check();
+        }
+
+        IAtomList leafList = box.getLeafList();
+        trajectory = new double[NUM_ATOMS * 6];
+        for (int i = 0; i < NUM_ATOMS; i++) {
+            IAtomKinetic atom = (IAtomKinetic) leafList.getAtom(i);
+            for (int k = 0; k < 3; k++) {
+                trajectory[i * 6 + k] = atom.getPosition().getX(k);
+                trajectory[i * 6 + 3 + k] = atom.getVelocity().getX(k);
+            }
+        }
+    }
+
+    /**
+     * The heap and tree event lists should process the same collisions at
+     * the same times, and so yield identical trajectories.
+     */
+    @Test
+    public void testHeapList() {
+        run(new TreeList());
+        List<Double> treeTimes = collisionTimes;
+        List<String> treeColliders = colliders;
+        double[] treeTrajectory = trajectory;
+        assertTrue(treeTimes.size() > 1000);
+
+        run(new HeapList());
+        assertEquals(treeTimes, collisionTimes);
+        assertEquals(treeColliders, colliders);
+        assertArrayEquals(treeTrajectory, trajectory, 0);
+    }
+}
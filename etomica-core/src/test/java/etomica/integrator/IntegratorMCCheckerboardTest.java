@@ -0,0 +1,196 @@
+package etomica.integrator;
+
+import etomica.action.BoxInflate;
+import etomica.atom.AtomType;
+import etomica.atom.IAtom;
+import etomica.atom.IAtomList;
+import etomica.box.Box;
+import etomica.config.ConfigurationLattice;
+import etomica.data.meter.MeterPotentialEnergy;
+import etomica.integrator.mcmove.MCMoveAtom;
+import etomica.lattice.LatticeCubicFcc;
+import etomica.nbr.cell.NeighborCellManager;
+import etomica.nbr.cell.PotentialMasterCell;
+import etomica.potential.P2LennardJones;
+import etomica.potential.P2SoftSphericalTruncated;
+import etomica.simulation.Simulation;
+import etomica.space.Boundary;
+import etomica.space.BoundaryRectangularSlit;
+import etomica.space.Space;
+import etomica.space.Vector;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import etomica.util.random.RandomMersenneTwister;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class IntegratorMCCheckerboardTest {
+
+    protected static final int NUM_ATOMS = 864;
+    protected static final double TEMPERATURE = 1.5;
+
+    /**
+     * Makes a box of 864 LJ atoms (truncated at 2.5), large enough to have
+     * 4 domains along each dimension.
+     */
+    private static Box makeBox(Simulation sim, PotentialMasterCell potentialMaster, Boundary boundary) {
+        Space space = sim.getSpace();
+        SpeciesSpheresMono species = new SpeciesSpheresMono(sim, space);
+        sim.addSpecies(species);
+        Box box = boundary == null ? new Box(space) : new Box(boundary, space);
+        sim.addBox(box);
+        box.setNMolecules(species, NUM_ATOMS);
+        BoxInflate inflater = new BoxInflate(box, space);
+        inflater.setTargetDensity(0.6);
+        inflater.actionPerformed();
+        potentialMaster.setCellRange(2);
+        P2SoftSphericalTruncated p2 = new P2SoftSphericalTruncated(space, new P2LennardJones(space), 2.5);
+        AtomType leafType = species.getLeafType();
+        potentialMaster.addPotential(p2, new AtomType[]{leafType, leafType});
+        new ConfigurationLattice(new LatticeCubicFcc(space), space).initializeCoordinates(box);
+        return box;
+    }
+
+    private static IntegratorMCCheckerboard makeIntegrator(int numThreads) {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        sim.setRandom(new RandomMersenneTwister(new int[]{1, 2, 3}));
+        PotentialMasterCell potentialMaster = new PotentialMasterCell(sim, 2.5, space);
+        Box box = makeBox(sim, potentialMaster, null);
+        IntegratorMCCheckerboard integrator = new IntegratorMCCheckerboard(potentialMaster, sim.getRandom(), TEMPERATURE);
+        integrator.setBox(box);
+        integrator.setStepSize(0.3);
+        integrator.setNumThreads(numThreads);
+        integrator.reset();
+        return integrator;
+    }
+
+    @Test
+    public void testEnergyAndCells() {
+        IntegratorMCCheckerboard integrator = makeIntegrator(1);
+        for (int i = 0; i < 50; i++) {
+            integrator.doStep();
+        }
+        assertArrayEquals(new int[]{4, 4, 4}, integrator.getNumDomains());
+        double acceptance = integrator.getAcceptanceRatio();
+        assertTrue(acceptance > 0.2 && acceptance < 0.9);
+
+        MeterPotentialEnergy meterPE = new MeterPotentialEnergy(integrator.getPotentialMaster());
+        meterPE.setBox(integrator.getBox());
+        assertEquals(meterPE.getDataAsScalar(), integrator.getPotentialEnergy(), 1e-6);
+
+        // each atom must be in the cell that contains it
+        NeighborCellManager cellManager = ((PotentialMasterCell) integrator.getPotentialMaster()).getNbrCellManager(integrator.getBox());
+        IAtomList leafList = integrator.getBox().getLeafList();
+        for (int i = 0; i < leafList.getAtomCount(); i++) {
+            IAtom atom = leafList.getAtom(i);
+            assertSame(cellManager.getLattice().site(atom.getPosition()), cellManager.getCell(atom));
+        }
+    }
+
+    /**
+     * With several domains of each color, the domains are handled
+     * concurrently, and the trajectory must not depend on the number of
+     * threads.
+     */
+    @Test
+    public void testThreads() {
+        IntegratorMCCheckerboard integrator1 = makeIntegrator(1);
+        IntegratorMCCheckerboard integrator2 = makeIntegrator(4);
+        for (int i = 0; i < 50; i++) {
+            integrator1.doStep();
+            integrator2.doStep();
+            // one domain of each 2x2x2 block is active
+            assertEquals(8, integrator2.activeTasks.size());
+        }
+        integrator2.setNumThreads(1);
+        IAtomList leafList1 = integrator1.getBox().getLeafList();
+        IAtomList leafList2 = integrator2.getBox().getLeafList();
+        for (int i = 0; i < leafList1.getAtomCount(); i++) {
+            Vector p1 = leafList1.getAtom(i).getPosition();
+            Vector p2 = leafList2.getAtom(i).getPosition();
+            assertTrue(p1.equals(p2));
+        }
+        assertEquals(integrator1.getPotentialEnergy(), integrator2.getPotentialEnergy(), 0);
+    }
+
+    /**
+     * The average energy from checkerboard trials (on several threads) must
+     * agree with that from ordinary single-atom MC within the uncertainty.
+     */
+    @Test
+    public void testDistribution() {
+        IntegratorMCCheckerboard checkerboard = makeIntegrator(4);
+        // about one trial per atom for each sample (1/8 of the domains are active)
+        double[] checkerboardAverage = averageEnergy(checkerboard, 8);
+
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        sim.setRandom(new RandomMersenneTwister(new int[]{4, 5, 6}));
+        PotentialMasterCell potentialMaster = new PotentialMasterCell(sim, 2.5, space);
+        Box box = makeBox(sim, potentialMaster, null);
+        IntegratorMC integrator = new IntegratorMC(potentialMaster, sim.getRandom(), TEMPERATURE);
+        integrator.setBox(box);
+        MCMoveAtom moveAtom = new MCMoveAtom(sim.getRandom(), potentialMaster, space);
+        moveAtom.setStepSize(0.3);
+        moveAtom.setStepSizeMax(0.3);
+        integrator.getMoveManager().addMCMove(moveAtom);
+        integrator.getMoveEventManager().addListener(potentialMaster.getNbrCellManager(box).makeMCMoveListener());
+        integrator.reset();
+        double[] average = averageEnergy(integrator, NUM_ATOMS);
+
+        double err = Math.sqrt(checkerboardAverage[1] * checkerboardAverage[1] + average[1] * average[1]);
+        assertEquals(average[0], checkerboardAverage[0], 4 * err);
+    }
+
+    /**
+     * Equilibrates and then returns the average energy per atom and its
+     * uncertainty (from block averages), sampling every stepsPerSample steps.
+     * The energy is computed from scratch for each sample.
+     */
+    private static double[] averageEnergy(IntegratorBox integrator, int stepsPerSample) {
+        MeterPotentialEnergy meterPE = new MeterPotentialEnergy(integrator.getPotentialMaster());
+        meterPE.setBox(integrator.getBox());
+        for (int i = 0; i < 200 * stepsPerSample; i++) {
+            integrator.doStep();
+        }
+        int numBlocks = 20, samplesPerBlock = 50;
+        double sum = 0, sum2 = 0;
+        for (int iBlock = 0; iBlock < numBlocks; iBlock++) {
+            double blockSum = 0;
+            for (int j = 0; j < samplesPerBlock; j++) {
+                for (int i = 0; i < stepsPerSample; i++) {
+                    integrator.doStep();
+                }
+                blockSum += meterPE.getDataAsScalar() / NUM_ATOMS;
+            }
+            double blockAverage = blockSum / samplesPerBlock;
+            sum += blockAverage;
+            sum2 += blockAverage * blockAverage;
+        }
+        double average = sum / numBlocks;
+        return new double[]{average, Math.sqrt((sum2 / numBlocks - average * average) / (numBlocks - 1))};
+    }
+
+    /**
+     * A boundary that is not periodic in every direction must be rejected,
+     * including on the first reset.
+     */
+    @Test
+    public void testNonperiodic() {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        PotentialMasterCell potentialMaster = new PotentialMasterCell(sim, 2.5, space);
+        Box box = makeBox(sim, potentialMaster, new BoundaryRectangularSlit(space));
+        IntegratorMCCheckerboard integrator = new IntegratorMCCheckerboard(potentialMaster, sim.getRandom(), TEMPERATURE);
+        integrator.setBox(box);
+        try {
+            integrator.reset();
+            fail("slit boundary should have been rejected");
+        }
+        catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
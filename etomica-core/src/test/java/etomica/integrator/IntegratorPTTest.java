@@ -0,0 +1,200 @@
+package etomica.integrator;
+
+import etomica.action.BoxInflate;
+import etomica.atom.AtomType;
+import etomica.atom.IAtomList;
+import etomica.box.Box;
+import etomica.config.ConfigurationLattice;
+import etomica.integrator.mcmove.MCMove;
+import etomica.integrator.mcmove.MCMoveAtom;
+import etomica.lattice.LatticeCubicFcc;
+import etomica.potential.P2LennardJones;
+import etomica.potential.P2SoftSphericalTruncated;
+import etomica.potential.PotentialMasterMonatomic;
+import etomica.simulation.Simulation;
+import etomica.space.Space;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import etomica.util.random.RandomMersenneTwister;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class IntegratorPTTest {
+
+    protected static final double[] TEMPERATURES = new double[]{1.2, 1.5, 1.9};
+
+    protected IntegratorPT integratorPT;
+    protected EnergyAverage[] energyAverages;
+
+    /**
+     * Makes a parallel-tempering integrator with a replica (each with its own
+     * box, PotentialMaster and random number generator) for each temperature.
+     */
+    protected void makeIntegrator(int numThreads) {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        SpeciesSpheresMono species = new SpeciesSpheresMono(sim, space);
+        sim.addSpecies(species);
+        AtomType leafType = species.getLeafType();
+        integratorPT = new IntegratorPT(new RandomMersenneTwister(new int[]{1, 2, 3}), space);
+        integratorPT.setGlobalMoveInterval(10);
+        energyAverages = new EnergyAverage[TEMPERATURES.length];
+        for (int i = 0; i < TEMPERATURES.length; i++) {
+            Box box = new Box(space);
+            sim.addBox(box);
+            box.setNMolecules(species, 32);
+            BoxInflate inflater = new BoxInflate(box, space);
+            inflater.setTargetDensity(0.5);
+            inflater.actionPerformed();
+            new ConfigurationLattice(new LatticeCubicFcc(space), space).initializeCoordinates(box);
+            PotentialMasterMonatomic potentialMaster = new PotentialMasterMonatomic(sim);
+            P2SoftSphericalTruncated p2 = new P2SoftSphericalTruncated(space, new P2LennardJones(space), 2.5);
+            potentialMaster.addPotential(p2, new AtomType[]{leafType, leafType});
+            RandomMersenneTwister random = new RandomMersenneTwister(new int[]{4, 5, i});
+            IntegratorMC integrator = new IntegratorMC(potentialMaster, random, TEMPERATURES[i]);
+            integrator.setBox(box);
+            MCMoveAtom moveAtom = new MCMoveAtom(random, potentialMaster, space);
+            moveAtom.setStepSize(0.4);
+            moveAtom.setStepSizeMax(0.4);
+            integrator.getMoveManager().addMCMove(moveAtom);
+            energyAverages[i] = new EnergyAverage(integrator);
+            integrator.getEventManager().addListener(energyAverages[i]);
+            integratorPT.addIntegrator(integrator);
+        }
+        integratorPT.setNumThreads(numThreads);
+        integratorPT.reset();
+    }
+
+    /**
+     * Runs the integrator until each replica has taken about nSteps steps.
+     */
+    protected void run(long nSteps) {
+        long numPTSteps = integratorPT.getNumThreads() == 1 ? nSteps : (long) (nSteps / integratorPT.getGlobalMoveInterval());
+        for (long i = 0; i < numPTSteps; i++) {
+            integratorPT.doStep();
+        }
+    }
+
+    protected double[] getSwapAcceptance() {
+        List<MCMove> moves = integratorPT.getMoveManager().getMCMoves();
+        double[] acceptance = new double[moves.size()];
+        for (int i = 0; i < acceptance.length; i++) {
+            acceptance[i] = moves.get(i).getTracker().acceptanceProbability();
+        }
+        return acceptance;
+    }
+
+    /**
+     * Concurrent runs with the same seeds must produce the same results,
+     * regardless of how the threads are scheduled.
+     */
+    @Test
+    public void testReproducible() {
+        double[][] positions = new double[2][];
+        double[][] acceptance = new double[2][];
+        for (int iRun = 0; iRun < 2; iRun++) {
+            makeIntegrator(3);
+            run(20000);
+            acceptance[iRun] = getSwapAcceptance();
+            Integrator[] integrators = integratorPT.getIntegrators();
+            positions[iRun] = new double[integrators.length * 32 * 3];
+            for (int i = 0; i < integrators.length; i++) {
+                IAtomList leafList = ((IntegratorBox) integrators[i]).getBox().getLeafList();
+                for (int j = 0; j < leafList.getAtomCount(); j++) {
+                    for (int k = 0; k < 3; k++) {
+                        positions[iRun][(i * 32 + j) * 3 + k] = leafList.getAtom(j).getPosition().getX(k);
+                    }
+                }
+            }
+            integratorPT.setNumThreads(1);
+        }
+        assertArrayEquals(positions[0], positions[1], 0);
+        assertArrayEquals(acceptance[0], acceptance[1], 0);
+    }
+
+    /**
+     * Runs with one thread and with 3 threads.  The swap acceptance and
+     * the average energy of each replica should agree within their
+     * uncertainty.
+     */
+    @Test
+    public void testThreads() {
+        double[][] acceptance = new double[2][];
+        double[][] avg = new double[2][TEMPERATURES.length];
+        double[][] err = new double[2][TEMPERATURES.length];
+        int[] numThreads = new int[]{1, 3};
+        for (int iRun = 0; iRun < 2; iRun++) {
+            makeIntegrator(numThreads[iRun]);
+            // equilibrate
+            run(20000);
+            for (EnergyAverage energyAverage : energyAverages) {
+                energyAverage.reset();
+            }
+            for (MCMove move : integratorPT.getMoveManager().getMCMoves()) {
+                move.getTracker().reset();
+            }
+            run(400000);
+            acceptance[iRun] = getSwapAcceptance();
+            for (int i = 0; i < TEMPERATURES.length; i++) {
+                avg[iRun][i] = energyAverages[i].getAverage();
+                err[iRun][i] = energyAverages[i].getError();
+            }
+            integratorPT.setNumThreads(1);
+        }
+        for (int i = 0; i < acceptance[0].length; i++) {
+            assertTrue(acceptance[0][i] > 0.05 && acceptance[0][i] < 0.95);
+            assertEquals(acceptance[0][i], acceptance[1][i], 0.05);
+        }
+        for (int i = 0; i < TEMPERATURES.length; i++) {
+            double combinedErr = Math.sqrt(err[0][i] * err[0][i] + err[1][i] * err[1][i]);
+            assertEquals(avg[0][i], avg[1][i], 4 * combinedErr);
+        }
+    }
+
+    /**
+     * Block-averages the energy of an integrator after each of its steps.
+     */
+    protected static class EnergyAverage implements IntegratorListener {
+        protected static final int BLOCK_SIZE = 1000;
+        protected final IntegratorBox integrator;
+        protected double blockSum, sum, sumSquare;
+        protected int blockCount, numBlocks;
+
+        public EnergyAverage(IntegratorBox integrator) {
+            this.integrator = integrator;
+        }
+
+        public void reset() {
+            blockSum = sum = sumSquare = 0;
+            blockCount = numBlocks = 0;
+        }
+
+        public void integratorInitialized(IntegratorEvent e) {}
+
+        public void integratorStepStarted(IntegratorEvent e) {}
+
+        public void integratorStepFinished(IntegratorEvent e) {
+            blockSum += integrator.getPotentialEnergy();
+            if (++blockCount == BLOCK_SIZE) {
+                double blockAverage = blockSum / BLOCK_SIZE;
+                sum += blockAverage;
+                sumSquare += blockAverage * blockAverage;
+                numBlocks++;
+                blockSum = 0;
+                blockCount = 0;
+            }
+        }
+
+        public double getAverage() {
+            return sum / numBlocks;
+        }
+
+        public double getError() {
+            double average = getAverage();
+            return Math.sqrt((sumSquare / numBlocks - average * average) / (numBlocks - 1));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package etomica.integrator.mcmove;
+
+import etomica.action.BoxInflate;
+import etomica.atom.AtomType;
+import etomica.atom.IAtom;
+import etomica.atom.IAtomList;
+import etomica.box.Box;
+import etomica.config.ConfigurationLattice;
+import etomica.data.meter.MeterPotentialEnergy;
+import etomica.integrator.IntegratorMC;
+import etomica.lattice.LatticeCubicFcc;
+import etomica.nbr.cell.PotentialMasterCell;
+import etomica.potential.P2LennardJones;
+import etomica.potential.P2SoftSphericalTruncated;
+import etomica.simulation.Simulation;
+import etomica.space.Space;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import etomica.util.random.RandomMersenneTwister;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AtomEnergyCacheTest {
+
+    /**
+     * Runs GCMC with the cache used by the displacement move, checking the
+     * cached energy of every atom against MeterPotentialEnergy after each
+     * step.  Insertions and deletions must not invalidate the cache.
+     */
+    @Test
+    public void testGCMC() {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        sim.setRandom(new RandomMersenneTwister(new int[]{1, 2, 3}));
+        SpeciesSpheresMono species = new SpeciesSpheresMono(sim, space);
+        sim.addSpecies(species);
+        Box box = new Box(space);
+        sim.addBox(box);
+        box.setNMolecules(species, 108);
+        BoxInflate inflater = new BoxInflate(box, space);
+        inflater.setTargetDensity(0.5);
+        inflater.actionPerformed();
+        PotentialMasterCell potentialMaster = new PotentialMasterCell(sim, 2.5, space);
+        potentialMaster.setCellRange(2);
+        P2SoftSphericalTruncated p2 = new P2SoftSphericalTruncated(space, new P2LennardJones(space), 2.5);
+        AtomType leafType = species.getLeafType();
+        potentialMaster.addPotential(p2, new AtomType[]{leafType, leafType});
+        new ConfigurationLattice(new LatticeCubicFcc(space), space).initializeCoordinates(box);
+
+        IntegratorMC integrator = new IntegratorMC(potentialMaster, sim.getRandom(), 1.5);
+        integrator.setBox(box);
+        MCMoveAtom moveAtom = new MCMoveAtom(sim.getRandom(), potentialMaster, space);
+        moveAtom.setStepSize(0.3);
+        moveAtom.setStepSizeMax(0.3);
+        integrator.getMoveManager().addMCMove(moveAtom);
+        MCMoveInsertDelete moveInsertDelete = new MCMoveInsertDelete(potentialMaster, sim.getRandom(), space);
+        moveInsertDelete.setSpecies(species);
+        moveInsertDelete.setMu(-3.0);
+        integrator.getMoveManager().addMCMove(moveInsertDelete);
+        integrator.getMoveManager().setFrequency(moveInsertDelete, 0.2);
+        AtomEnergyCache cache = new AtomEnergyCache(integrator);
+        moveAtom.setEnergyCache(cache);
+        integrator.getMoveEventManager().addListener(potentialMaster.getNbrCellManager(box).makeMCMoveListener());
+        potentialMaster.getNbrCellManager(box).assignCellAll();
+        integrator.reset();
+
+        // accepted and rejected displacements, insertions and deletions
+        int[][] counts = new int[3][2];
+        integrator.getMoveEventManager().addListener(event -> {
+            if (!(event instanceof MCMoveTrialCompletedEvent)) return;
+            int type = event.getMCMove() == moveAtom ? 0 : (moveInsertDelete.lastMoveInsert() ? 1 : 2);
+            counts[type][((MCMoveTrialCompletedEvent) event).isAccepted() ? 0 : 1]++;
+        });
+
+        MeterPotentialEnergy meterPE = new MeterPotentialEnergy(potentialMaster);
+        meterPE.setBox(box);
+        meterPE.setIncludeLrc(false);
+        IAtomList leafList = box.getLeafList();
+        for (int step = 0; step < 2000; step++) {
+            integrator.doStep();
+            // the cache was valid before the step, so it should still be valid
+            assertTrue(step == 0 || cache.isValid());
+            for (int i = 0; i < leafList.getAtomCount(); i++) {
+                IAtom atom = leafList.getAtom(i);
+                meterPE.setTarget(atom);
+                assertEquals(meterPE.getDataAsScalar(), cache.getEnergy(atom), 1e-9);
+            }
+        }
+        for (int type = 0; type < 3; type++) {
+            assertTrue(counts[type][0] > 0);
+            assertTrue(counts[type][1] > 0);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.models.co2;
+
+import etomica.action.MoleculeActionTranslateTo;
+import etomica.atom.AtomType;
+import etomica.atom.IAtomList;
+import etomica.box.Box;
+import etomica.chem.elements.Carbon;
+import etomica.chem.elements.IElement;
+import etomica.chem.elements.Oxygen;
+import etomica.models.co2.PNGCPM.GCPMAgent;
+import etomica.models.water.SpeciesWater4PCOM;
+import etomica.molecule.IMolecule;
+import etomica.molecule.IMoleculeList;
+import etomica.molecule.iterator.MoleculeIteratorAll;
+import etomica.potential.IteratorDirective;
+import etomica.potential.PotentialCalculationEnergySum;
+import etomica.potential.PotentialMaster;
+import etomica.simulation.Simulation;
+import etomica.space.Space;
+import etomica.space.Vector;
+import etomica.space3d.Space3D;
+import etomica.space3d.Vector3D;
+import etomica.species.ISpecies;
+import etomica.species.SpeciesSpheresHetero;
+import etomica.units.Electron;
+import etomica.units.Kelvin;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GCPMInducedDipoleSolverTest {
+
+    private static final Space space = Space3D.getInstance();
+
+    private static Map<AtomType, GCPMAgent> makeWaterAgents(SpeciesWater4PCOM species) {
+        Map<AtomType, GCPMAgent> typeManager = new HashMap<>();
+        typeManager.put(species.getHydrogenType(), new GCPMAgent(1.0, 0, 0.455, 12.75, Electron.UNIT.toSim(0.6113), 0, 0, 0));
+        typeManager.put(species.getOxygenType(), new GCPMAgent(3.69, Kelvin.UNIT.toSim(110), 0, 12.75, 0, 0, 0, 0, 0));
+        typeManager.put(species.getMType(), new GCPMAgent(1.0, 0, 0.610, 12.75, Electron.UNIT.toSim(-1.2226), 0, 0, 0));
+        typeManager.put(species.getCOMType(), new GCPMAgent(1.0, 0, 0.610, 12.75, 0, 1.444, 1.444, 0));
+        return typeManager;
+    }
+
+    @Test
+    public void testWater() {
+        SpeciesWater4PCOM species = new SpeciesWater4PCOM(space);
+        compare(species, makeWaterAgents(species), 4);
+    }
+
+    /**
+     * Computes the energy through a PotentialMaster (which sets the box before
+     * every calculation) and checks that the solver starts from the previous
+     * dipoles: with nothing moved, no iterations are needed, and after moving
+     * one molecule, fewer are needed than for the first call.
+     */
+    @Test
+    public void testWarmStart() {
+        SpeciesWater4PCOM species = new SpeciesWater4PCOM(space);
+        Box box = makeBox(species, new Random(5));
+        PNGCPM p = new PNGCPM(space, makeWaterAgents(species), 4);
+        p.setComponent(PNGCPM.Component.INDUCTION);
+        p.setUseCachedDipoleSolver(true);
+        PotentialMaster potentialMaster = new PotentialMaster();
+        // a single iterate with all the molecules, as for a bulk simulation
+        potentialMaster.addPotential(p, new MoleculeIteratorAll(new ISpecies[]{species}, true), new ISpecies[]{species});
+        PotentialCalculationEnergySum energySum = new PotentialCalculationEnergySum();
+
+        energySum.zeroSum();
+        potentialMaster.calculate(box, new IteratorDirective(), energySum);
+        double u = energySum.getSum();
+        int firstIterations = p.dipoleSolver.getNumIterations();
+        assertTrue(firstIterations > 2);
+
+        energySum.zeroSum();
+        potentialMaster.calculate(box, new IteratorDirective(), energySum);
+        assertEquals(u, energySum.getSum(), 1e-10 * Math.abs(u));
+        assertEquals(0, p.dipoleSolver.getNumIterations());
+
+        IAtomList atoms = box.getMoleculeList().getMolecule(13).getChildList();
+        for (int j = 0; j < atoms.getAtomCount(); j++) {
+            atoms.getAtom(j).getPosition().PE(new Vector3D(0.2, -0.1, 0.15));
+        }
+        energySum.zeroSum();
+        potentialMaster.calculate(box, new IteratorDirective(), energySum);
+        assertTrue(p.dipoleSolver.getNumIterations() < firstIterations);
+        PNGCPM pUncached = new PNGCPM(space, makeWaterAgents(species), 4);
+        pUncached.setBox(box);
+        double uMoved = pUncached.getPolarizationEnergy(box.getMoleculeList());
+        assertEquals(uMoved, energySum.getSum(), 1e-10 * Math.abs(uMoved));
+    }
+
+    @Test
+    public void testCO2() {
+        SpeciesSpheresHetero species = new SpeciesSpheresHetero(space, new IElement[]{Carbon.INSTANCE, Oxygen.INSTANCE});
+        species.setChildCount(new int[]{1, 2});
+        species.setConformation(atomList -> {
+            atomList.getAtom(0).getPosition().E(0);
+            atomList.getAtom(1).getPosition().setX(0, 1.161);
+            atomList.getAtom(2).getPosition().setX(0, -1.161);
+        });
+        Map<AtomType, GCPMAgent> typeManager = new HashMap<>();
+        double qC = Electron.UNIT.toSim(0.6642);
+        typeManager.put(species.getAtomType(0), new GCPMAgent(3.193, Kelvin.UNIT.toSim(71.34), 0.61 / 1.0483, 15.5, qC, 4.05, 1.95, 0) {
+            protected final Vector r = space.makeVector();
+
+            public Vector getParallelAxis(IMolecule mol) {
+                IAtomList atoms = mol.getChildList();
+                r.Ev1Mv2(atoms.getAtom(2).getPosition(), atoms.getAtom(1).getPosition());
+                r.normalize();
+                return r;
+            }
+        });
+        typeManager.put(species.getAtomType(1), new GCPMAgent(3.193 * 1.0483, Kelvin.UNIT.toSim(67.72), 0.61, 15.5, -0.5 * qC, 0, 0, 0));
+        compare(species, typeManager, 2);
+    }
+
+    /**
+     * Makes a periodic box of 27 molecules, slightly displaced from a
+     * simple cubic lattice.
+     */
+    private static Box makeBox(ISpecies species, Random random) {
+        Simulation sim = new Simulation(space);
+        sim.addSpecies(species);
+        Box box = new Box(space);
+        sim.addBox(box);
+        box.setNMolecules(species, 27);
+        box.getBoundary().setBoxSize(new Vector3D(12, 12, 12));
+        MoleculeActionTranslateTo translator = new MoleculeActionTranslateTo(space);
+        IMoleculeList molecules = box.getMoleculeList();
+        for (int i = 0; i < 27; i++) {
+            translator.setDestination(new Vector3D(-4 + 4 * (i % 3) + 0.3 * random.nextDouble(),
+                    -4 + 4 * ((i / 3) % 3) + 0.3 * random.nextDouble(), -4 + 4 * (i / 9)));
+            translator.actionPerformed(molecules.getMolecule(i));
+        }
+        return box;
+    }
+
+    /**
+     * Compares the cached solver with the original iteration for a periodic
+     * box of 27 molecules, moving one molecule at a time.
+     */
+    private void compare(ISpecies species, Map<AtomType, GCPMAgent> typeManager, int nAtomTypes) {
+        Random random = new Random(5);
+        Box box = makeBox(species, random);
+        IMoleculeList molecules = box.getMoleculeList();
+        PNGCPM p = new PNGCPM(space, typeManager, nAtomTypes);
+        p.setBox(box);
+        PNGCPM pCached = new PNGCPM(space, typeManager, nAtomTypes);
+        pCached.setBox(box);
+        pCached.setUseCachedDipoleSolver(true);
+        Vector step = new Vector3D(0.2, -0.1, 0.15);
+        for (int i = 0; i < 5; i++) {
+            double u = p.getPolarizationEnergy(molecules);
+            assertEquals(u, pCached.getPolarizationEnergy(molecules), 1e-10 * Math.abs(u));
+            IAtomList atoms = molecules.getMolecule(random.nextInt(27)).getChildList();
+            for (int j = 0; j < atoms.getAtomCount(); j++) {
+                atoms.getAtom(j).getPosition().PE(step);
+            }
+        }
+    }
+}
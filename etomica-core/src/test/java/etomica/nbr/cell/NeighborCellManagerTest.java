@@ -0,0 +1,147 @@
+package etomica.nbr.cell;
+
+import etomica.action.BoxInflate;
+import etomica.atom.AtomArrayList;
+import etomica.atom.AtomType;
+import etomica.atom.IAtom;
+import etomica.atom.IAtomList;
+import etomica.box.Box;
+import etomica.config.ConfigurationLattice;
+import etomica.integrator.IntegratorMC;
+import etomica.integrator.mcmove.MCMoveAtom;
+import etomica.integrator.mcmove.MCMoveInsertDelete;
+import etomica.lattice.LatticeCubicFcc;
+import etomica.potential.P2LennardJones;
+import etomica.potential.P2SoftSphericalTruncated;
+import etomica.simulation.Simulation;
+import etomica.space.Space;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import etomica.util.random.RandomMersenneTwister;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class NeighborCellManagerTest {
+
+    protected Box box;
+    protected SpeciesSpheresMono species;
+    protected NeighborCellManager cellManager;
+    protected IntegratorMC integrator;
+
+    protected void makeSim() {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        sim.setRandom(new RandomMersenneTwister(new int[]{1, 2, 3}));
+        species = new SpeciesSpheresMono(sim, space);
+        sim.addSpecies(species);
+        box = new Box(space);
+        sim.addBox(box);
+        box.setNMolecules(species, 256);
+        BoxInflate inflater = new BoxInflate(box, space);
+        inflater.setTargetDensity(0.5);
+        inflater.actionPerformed();
+        PotentialMasterCell potentialMaster = new PotentialMasterCell(sim, 2.5, space);
+        potentialMaster.setCellRange(2);
+        P2SoftSphericalTruncated p2 = new P2SoftSphericalTruncated(space, new P2LennardJones(space), 2.5);
+        AtomType leafType = species.getLeafType();
+        potentialMaster.addPotential(p2, new AtomType[]{leafType, leafType});
+        new ConfigurationLattice(new LatticeCubicFcc(space), space).initializeCoordinates(box);
+
+        integrator = new IntegratorMC(potentialMaster, sim.getRandom(), 1.5);
+        integrator.setBox(box);
+        MCMoveAtom moveAtom = new MCMoveAtom(sim.getRandom(), potentialMaster, space);
+        moveAtom.setStepSize(0.5);
+        moveAtom.setStepSizeMax(0.5);
+        integrator.getMoveManager().addMCMove(moveAtom);
+        MCMoveInsertDelete moveInsertDelete = new MCMoveInsertDelete(potentialMaster, sim.getRandom(), space);
+        moveInsertDelete.setSpecies(species);
+        moveInsertDelete.setMu(-3.0);
+        integrator.getMoveManager().addMCMove(moveInsertDelete);
+        integrator.getMoveManager().setFrequency(moveInsertDelete, 0.2);
+        cellManager = potentialMaster.getNbrCellManager(box);
+        integrator.getMoveEventManager().addListener(cellManager.makeMCMoveListener());
+        cellManager.assignCellAll();
+        cellManager.setIncrementalAssignment(true);
+        integrator.reset();
+    }
+
+    /**
+     * Runs MC with displacements, insertions and deletions with incremental
+     * assignment and checks that the occupancy of each cell and the cell
+     * index and slot of each atom match those from a full assignCellAll.
+     */
+    @Test
+    public void testIncremental() {
+        makeSim();
+        Object[] cells = cellManager.getLattice().sites();
+        IAtomList leafList = box.getLeafList();
+        for (int iBlock = 0; iBlock < 20; iBlock++) {
+            for (int i = 0; i < 500; i++) {
+                integrator.doStep();
+            }
+            Set<IAtom>[] occupants = getOccupants(cells);
+            int[] cellIndex = Arrays.copyOf(cellManager.cellIndex, leafList.getAtomCount());
+            checkSlots(cells, leafList);
+
+            cellManager.assignCellAll();
+            assertArrayEquals(getOccupants(cells), occupants);
+            assertArrayEquals(Arrays.copyOf(cellManager.cellIndex, leafList.getAtomCount()), cellIndex);
+            checkSlots(cells, leafList);
+        }
+        assertTrue(leafList.getAtomCount() != 256);
+    }
+
+    /**
+     * Once incremental assignment is turned off, the manager should no longer
+     * track changes to leaf indices.
+     */
+    @Test
+    public void testIncrementalOff() {
+        makeSim();
+        cellManager.setIncrementalAssignment(false);
+        int[] cellIndex = cellManager.cellIndex.clone();
+        box.removeMolecule(box.getMoleculeList().getMolecule(0));
+        assertArrayEquals(cellIndex, cellManager.cellIndex);
+        cellManager.assignCellAll();
+        assertEquals(255, getTotalOccupancy(cellManager.getLattice().sites()));
+
+        cellManager.dispose();
+        assertEquals(0, getTotalOccupancy(cellManager.getLattice().sites()));
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static Set<IAtom>[] getOccupants(Object[] cells) {
+        Set<IAtom>[] occupants = new Set[cells.length];
+        for (int i = 0; i < cells.length; i++) {
+            AtomArrayList list = ((Cell) cells[i]).occupants();
+            occupants[i] = new HashSet<>();
+            for (int j = 0; j < list.getAtomCount(); j++) {
+                occupants[i].add(list.getAtom(j));
+            }
+            assertEquals(list.getAtomCount(), occupants[i].size());
+        }
+        return occupants;
+    }
+
+    protected static int getTotalOccupancy(Object[] cells) {
+        int total = 0;
+        for (Object cell : cells) {
+            total += ((Cell) cell).occupants().getAtomCount();
+        }
+        return total;
+    }
+
+    protected void checkSlots(Object[] cells, IAtomList leafList) {
+        for (int i = 0; i < leafList.getAtomCount(); i++) {
+            IAtom atom = leafList.getAtom(i);
+            Cell cell = (Cell) cells[cellManager.cellIndex[i]];
+            assertSame(cell, cellManager.getCell(atom));
+            assertSame(atom, cell.occupants().getAtom(cellManager.cellSlot[i]));
+        }
+    }
+}
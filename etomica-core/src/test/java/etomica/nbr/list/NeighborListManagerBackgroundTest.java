@@ -0,0 +1,114 @@
+package etomica.nbr.list;
+
+import etomica.action.BoxInflate;
+import etomica.atom.AtomType;
+import etomica.atom.IAtomList;
+import etomica.box.Box;
+import etomica.config.ConfigurationLattice;
+import etomica.data.meter.MeterPotentialEnergy;
+import etomica.integrator.IntegratorVelocityVerlet;
+import etomica.lattice.LatticeCubicFcc;
+import etomica.potential.P2LennardJones;
+import etomica.potential.P2SoftSphericalTruncated;
+import etomica.simulation.Simulation;
+import etomica.space.Space;
+import etomica.space.Vector;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import etomica.util.random.RandomMersenneTwister;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class NeighborListManagerBackgroundTest {
+
+    /**
+     * Runs MD with lists rebuilt in the background.  Each time new lists are
+     * swapped in, they must match the lists built synchronously from the
+     * snapshot positions, and the energy must match the energy computed with
+     * lists built synchronously from the current positions.
+     */
+    @Test
+    public void testSwappedLists() {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        sim.setRandom(new RandomMersenneTwister(new int[]{1, 2, 3}));
+        SpeciesSpheresMono species = new SpeciesSpheresMono(sim, space);
+        species.setIsDynamic(true);
+        sim.addSpecies(species);
+        Box box = new Box(space);
+        sim.addBox(box);
+        box.setNMolecules(species, 256);
+        BoxInflate inflater = new BoxInflate(box, space);
+        inflater.setTargetDensity(0.7);
+        inflater.actionPerformed();
+        PotentialMasterList potentialMaster = new PotentialMasterList(sim, 3.0, space);
+        potentialMaster.setCellRange(2);
+        P2SoftSphericalTruncated p2 = new P2SoftSphericalTruncated(space, new P2LennardJones(space), 2.5);
+        AtomType leafType = species.getLeafType();
+        potentialMaster.addPotential(p2, new AtomType[]{leafType, leafType});
+        new ConfigurationLattice(new LatticeCubicFcc(space), space).initializeCoordinates(box);
+        IntegratorVelocityVerlet integrator = new IntegratorVelocityVerlet(potentialMaster, sim.getRandom(), 0.005, 1.5, space);
+        NeighborListManager nbrManager = potentialMaster.getNeighborManager(box);
+        integrator.getEventManager().addListener(nbrManager);
+        integrator.setBox(box);
+        nbrManager.setCompactStorage(true);
+        nbrManager.setBackgroundRebuild(true);
+        integrator.reset();
+
+        MeterPotentialEnergy meterPE = new MeterPotentialEnergy(potentialMaster);
+        meterPE.setBox(box);
+        IAtomList leafList = box.getLeafList();
+        Vector[] positions = space.makeVectorArray(leafList.getAtomCount());
+        int[] numSwaps = new int[1];
+        NeighborListsCompact[] lastLists = new NeighborListsCompact[]{nbrManager.getCompactLists()};
+        nbrManager.getEventManager().addListener(() -> {
+            if (nbrManager.compactLists == lastLists[0]) {
+                // synchronous rebuild
+                return;
+            }
+            numSwaps[0]++;
+            Set<String> backgroundPairs = getPairs(nbrManager.compactLists, leafList);
+            double backgroundEnergy = meterPE.getDataAsScalar();
+
+            IAtomList snapshotAtoms = nbrManager.backgroundBuilder.getSnapshotAtoms();
+            for (int i = 0; i < leafList.getAtomCount(); i++) {
+                positions[i].E(leafList.getAtom(i).getPosition());
+                leafList.getAtom(i).getPosition().E(snapshotAtoms.getAtom(i).getPosition());
+            }
+            nbrManager.neighborSetup();
+            assertEquals(getPairs(nbrManager.compactLists, leafList), backgroundPairs);
+
+            for (int i = 0; i < leafList.getAtomCount(); i++) {
+                leafList.getAtom(i).getPosition().E(positions[i]);
+            }
+            nbrManager.neighborSetup();
+            assertEquals(meterPE.getDataAsScalar(), backgroundEnergy, 1e-9);
+            lastLists[0] = nbrManager.compactLists;
+        });
+
+        for (int i = 0; i < 2000; i++) {
+            integrator.doStep();
+        }
+        nbrManager.setBackgroundRebuild(false);
+        assertTrue(numSwaps[0] > 2);
+    }
+
+    protected static Set<String> getPairs(NeighborListsCompact lists, IAtomList leafList) {
+        // the lists are only ordered by leaf index when built in the background
+        Set<String> pairs = new TreeSet<>();
+        for (int i = 0; i < leafList.getAtomCount(); i++) {
+            IAtomList[] up = lists.getUpList(i);
+            for (int p = 0; p < up.length; p++) {
+                for (int j = 0; j < up[p].getAtomCount(); j++) {
+                    int k = up[p].getAtom(j).getLeafIndex();
+                    pairs.add(Math.min(i, k) + " " + Math.max(i, k) + " " + p);
+                }
+            }
+        }
+        return pairs;
+    }
+}
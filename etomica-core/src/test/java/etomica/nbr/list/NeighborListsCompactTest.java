@@ -0,0 +1,93 @@
+package etomica.nbr.list;
+
+import etomica.atom.Atom;
+import etomica.atom.AtomArrayList;
+import etomica.atom.IAtomList;
+import etomica.space3d.Space3D;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NeighborListsCompactTest {
+
+    private AtomArrayList leafList;
+    private NeighborListsCompact lists;
+
+    @Before
+    public void setUp() {
+        leafList = new AtomArrayList();
+        for (int i = 0; i < 4; i++) {
+            Atom atom = new Atom(Space3D.getInstance());
+            atom.setLeafIndex(i);
+            leafList.add(atom);
+        }
+        lists = new NeighborListsCompact(leafList);
+    }
+
+    @Test
+    public void testPacking() {
+        lists.reset(4, 2);
+        lists.addPair(0, 0, 2, 0);
+        lists.addPair(0, 0, 3, 1);
+        lists.addPair(1, 1, 2, 1);
+        lists.addPair(0, 1, 1, 0);
+        lists.finish();
+
+        assertEquals(4, lists.getNumPairs());
+        int[] upOffsets = lists.getUpOffsets();
+        int[] upNbrs = lists.getUpNbrs();
+        // atom 0, potential 0
+        assertEquals(2, upOffsets[1] - upOffsets[0]);
+        assertEquals(2, upNbrs[upOffsets[0]]);
+        assertEquals(3, upNbrs[upOffsets[0] + 1]);
+        // atom 0, potential 1
+        assertEquals(1, upOffsets[2] - upOffsets[1]);
+        assertEquals(1, upNbrs[upOffsets[1]]);
+        // atom 1, potential 1
+        assertEquals(1, upOffsets[4] - upOffsets[3]);
+        assertEquals(2, upNbrs[upOffsets[3]]);
+
+        int[] downOffsets = lists.getDownOffsets();
+        int[] downNbrs = lists.getDownNbrs();
+        // atom 2, potential 0 and 1
+        assertEquals(1, downOffsets[5] - downOffsets[4]);
+        assertEquals(0, downNbrs[downOffsets[4]]);
+        assertEquals(1, downOffsets[6] - downOffsets[5]);
+        assertEquals(1, downNbrs[downOffsets[5]]);
+        assertEquals(4, downOffsets[8]);
+    }
+
+    @Test
+    public void testViews() {
+        lists.reset(4, 1);
+        lists.addPair(0, 0, 1, 0);
+        lists.addPair(0, 0, 3, 0);
+        lists.finish();
+
+        IAtomList up = lists.getUpList(0)[0];
+        assertEquals(2, up.getAtomCount());
+        assertSame(leafList.getAtom(1), up.getAtom(0));
+        assertSame(leafList.getAtom(3), up.getAtom(1));
+        IAtomList down = lists.getDownList(3)[0];
+        assertEquals(1, down.getAtomCount());
+        assertSame(leafList.getAtom(0), down.getAtom(0));
+        assertEquals(0, lists.getUpList(2)[0].getAtomCount());
+
+        // rebuild in place; views should be reused and reflect the new lists
+        lists.reset(4, 1);
+        lists.addPair(2, 0, 3, 0);
+        lists.finish();
+        assertSame(up, lists.getUpList(0)[0]);
+        assertEquals(0, up.getAtomCount());
+        assertEquals(1, lists.getUpList(2)[0].getAtomCount());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testViewOutOfBounds() {
+        lists.reset(4, 1);
+        lists.addPair(0, 0, 1, 0);
+        lists.finish();
+        lists.getUpList(0)[0].getAtom(1);
+    }
+}
@@ -0,0 +1,188 @@
+package etomica.nbr.list;
+
+import etomica.action.BoxInflate;
+import etomica.atom.AtomLeafAgentManager;
+import etomica.atom.AtomType;
+import etomica.atom.IAtomList;
+import etomica.box.Box;
+import etomica.config.ConfigurationLattice;
+import etomica.lattice.LatticeCubicFcc;
+import etomica.potential.IPotentialAtomic;
+import etomica.potential.IteratorDirective;
+import etomica.potential.P2HardSphere;
+import etomica.potential.P2LennardJones;
+import etomica.potential.P2SoftSphericalTruncated;
+import etomica.potential.PotentialCalculationForcePressureSum;
+import etomica.potential.PotentialCalculationForceSum;
+import etomica.simulation.Simulation;
+import etomica.space.Space;
+import etomica.space.Tensor;
+import etomica.space.Vector;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import etomica.util.random.RandomMersenneTwister;
+import org.junit.Test;
+
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class PotentialMasterListParallelTest {
+
+    protected static final double TOLERANCE = 1e-10;
+
+    protected PotentialMasterList potentialMaster;
+    protected Box box;
+
+    protected void makeBox(Function<Space, IPotentialAtomic> potentialFactory, boolean compact) {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        sim.setRandom(new RandomMersenneTwister(new int[]{1, 2, 3}));
+        SpeciesSpheresMono species = new SpeciesSpheresMono(sim, space);
+        sim.addSpecies(species);
+        box = new Box(space);
+        sim.addBox(box);
+        box.setNMolecules(species, 500);
+        BoxInflate inflater = new BoxInflate(box, space);
+        inflater.setTargetDensity(0.8);
+        inflater.actionPerformed();
+        potentialMaster = new PotentialMasterList(sim, 3.0, space);
+        potentialMaster.setCellRange(2);
+        AtomType leafType = species.getLeafType();
+        potentialMaster.addPotential(potentialFactory.apply(space), new AtomType[]{leafType, leafType});
+        new ConfigurationLattice(new LatticeCubicFcc(space), space).initializeCoordinates(box);
+        // move the atoms off of the lattice so that the forces don't cancel
+        IAtomList leafList = box.getLeafList();
+        Vector dr = space.makeVector();
+        for (int i = 0; i < leafList.getAtomCount(); i++) {
+            dr.setRandomInSphere(sim.getRandom());
+            dr.TE(0.1);
+            leafList.getAtom(i).getPosition().PE(dr);
+        }
+        NeighborListManager nbrManager = potentialMaster.getNeighborManager(box);
+        nbrManager.setCompactStorage(compact);
+        nbrManager.reset();
+    }
+
+    /**
+     * Computes the forces and pressure tensor serially and with 4 threads
+     * and checks that they match, for compact and regular lists.
+     */
+    protected void checkParallel(Function<Space, IPotentialAtomic> potentialFactory) {
+        for (boolean compact : new boolean[]{false, true}) {
+            makeBox(potentialFactory, compact);
+            AtomLeafAgentManager<Vector> serialForces = new AtomLeafAgentManager<>(a -> box.getSpace().makeVector(), box);
+            PotentialCalculationForcePressureSum serial = new PotentialCalculationForcePressureSum(box.getSpace());
+            serial.setAgentManager(serialForces);
+            serial.reset();
+            potentialMaster.calculate(box, new IteratorDirective(), serial);
+
+            potentialMaster.setNumThreads(4);
+            AtomLeafAgentManager<Vector> parallelForces = new AtomLeafAgentManager<>(a -> box.getSpace().makeVector(), box);
+            PotentialCalculationForcePressureSum parallel = new PotentialCalculationForcePressureSum(box.getSpace());
+            parallel.setAgentManager(parallelForces);
+            // do it twice to make sure the workers are zeroed after they're reduced
+            for (int i = 0; i < 2; i++) {
+                parallel.reset();
+                potentialMaster.calculate(box, new IteratorDirective(), parallel);
+                assertSameForces(serialForces, parallelForces);
+                assertSameTensor(serial.getPressureTensor(), parallel.getPressureTensor());
+            }
+
+            // forces without the pressure tensor
+            PotentialCalculationForceSum forceSum = new PotentialCalculationForceSum();
+            forceSum.setAgentManager(parallelForces);
+            forceSum.reset();
+            potentialMaster.calculate(box, new IteratorDirective(), forceSum);
+            assertSameForces(serialForces, parallelForces);
+            potentialMaster.setNumThreads(1);
+        }
+    }
+
+    protected void assertSameForces(AtomLeafAgentManager<Vector> expected, AtomLeafAgentManager<Vector> actual) {
+        IAtomList leafList = box.getLeafList();
+        double fMax = 0;
+        for (int i = 0; i < leafList.getAtomCount(); i++) {
+            Vector f = expected.getAgent(leafList.getAtom(i));
+            fMax = Math.max(fMax, Math.sqrt(f.squared()));
+        }
+        assertTrue(fMax > 0);
+        for (int i = 0; i < leafList.getAtomCount(); i++) {
+            Vector f0 = expected.getAgent(leafList.getAtom(i));
+            Vector f1 = actual.getAgent(leafList.getAtom(i));
+            for (int k = 0; k < f0.getD(); k++) {
+                assertEquals(f0.getX(k), f1.getX(k), TOLERANCE * fMax);
+            }
+        }
+    }
+
+    protected void assertSameTensor(Tensor expected, Tensor actual) {
+        double trace = Math.abs(expected.trace());
+        assertTrue(trace > 0);
+        for (int i = 0; i < expected.D(); i++) {
+            for (int j = 0; j < expected.D(); j++) {
+                assertEquals(expected.component(i, j), actual.component(i, j), TOLERANCE * trace);
+            }
+        }
+    }
+
+    @Test
+    public void testLJ() {
+        checkParallel(space -> new P2LennardJones(space) {
+            public double getRange() {
+                return 2.5;
+            }
+        });
+    }
+
+    @Test
+    public void testTruncated() {
+        checkParallel(space -> new P2SoftSphericalTruncated(space, new P2LennardJones(space), 2.5));
+    }
+
+    @Test
+    public void testNonRadial() {
+        // not radial, so the workers call gradient (one thread at a time)
+        checkParallel(space -> new P2SoftSphericalTruncated(space, new P2LennardJones(space), 2.5) {
+            public Vector[] gradient(IAtomList atoms, Tensor pressureTensor) {
+                return super.gradient(atoms, pressureTensor);
+            }
+        });
+    }
+
+    /**
+     * Potentials without a gradient are handled as in the serial
+     * calculation: skipped by PotentialCalculationForcePressureSum and
+     * rejected by PotentialCalculationForceSum.
+     */
+    @Test
+    public void testNotSoft() {
+        makeBox(space -> new P2HardSphere(space, 1.0, false), true);
+        AtomLeafAgentManager<Vector> forces = new AtomLeafAgentManager<>(a -> box.getSpace().makeVector(), box);
+        PotentialCalculationForcePressureSum forcePressureSum = new PotentialCalculationForcePressureSum(box.getSpace());
+        forcePressureSum.setAgentManager(forces);
+        PotentialCalculationForceSum forceSum = new PotentialCalculationForceSum();
+        forceSum.setAgentManager(forces);
+        for (int numThreads : new int[]{1, 4}) {
+            potentialMaster.setNumThreads(numThreads);
+            forcePressureSum.reset();
+            potentialMaster.calculate(box, new IteratorDirective(), forcePressureSum);
+            IAtomList leafList = box.getLeafList();
+            for (int i = 0; i < leafList.getAtomCount(); i++) {
+                assertEquals(0, forces.getAgent(leafList.getAtom(i)).squared(), 0);
+            }
+            assertEquals(0, forcePressureSum.getPressureTensor().trace(), 0);
+
+            forceSum.reset();
+            try {
+                potentialMaster.calculate(box, new IteratorDirective(), forceSum);
+                fail("hard potential should have been rejected");
+            }
+            catch (RuntimeException e) {
+                Throwable cause = numThreads == 1 ? e : e.getCause();
+                assertTrue(cause instanceof ClassCastException);
+            }
+        }
+        potentialMaster.setNumThreads(1);
+    }
+}
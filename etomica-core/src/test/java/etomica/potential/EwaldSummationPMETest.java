@@ -0,0 +1,99 @@
+package etomica.potential;
+
+import etomica.atom.AtomLeafAgentManager;
+import etomica.atom.IAtomList;
+import etomica.box.Box;
+import etomica.config.ConfigurationResourceFile;
+import etomica.models.water.SpeciesWater3P;
+import etomica.simulation.Simulation;
+import etomica.space.Space;
+import etomica.space.Vector;
+import etomica.space3d.Vector3D;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the SPME sum against EwaldSummation (with enough wave vectors to
+ * converge the Fourier sum) for the SPC/E configuration used by
+ * EwaldSummationTest.
+ */
+public class EwaldSummationPMETest {
+
+    private static final double boxLength = 30;
+
+    EwaldSummationPME pme;
+    EwaldSummation es;
+    Box box;
+
+    @Before
+    public void setup() {
+        Space space = Space.getInstance(3);
+        box = new Box(space);
+        SpeciesWater3P species = new SpeciesWater3P(space, false);
+        AtomLeafAgentManager<EwaldSummation.MyCharge> atomAgentManager = new AtomLeafAgentManager<>(new EwaldSummationTest.ChargeAgentSourceSPCE(species), box);
+        Simulation sim = new Simulation(space);
+        sim.addSpecies(species);
+        sim.addBox(box);
+        box.setNMolecules(species, 750);
+        box.getBoundary().setBoxSize(new Vector3D(boxLength, boxLength, boxLength));
+
+        double alpha = 5.6 / boxLength;
+        pme = new EwaldSummationPME(box, atomAgentManager, space, alpha, 10, new int[]{32, 32, 32}, 6);
+        es = new EwaldSummation(box, atomAgentManager, space, 10 * 2 * Math.PI / boxLength, 10);
+        es.setAlpha(alpha);
+
+        new ConfigurationResourceFile("etomica/potential/spce4.pos", EwaldSummationTest.class).initializeCoordinates(box);
+    }
+
+    @Test
+    public void testEnergy() {
+        double shouldbe = es.uFourier();
+        assertEquals(shouldbe, pme.uFourier(), 1e-5 * shouldbe);
+        assertEquals(es.uReal(), pme.uReal(), 1e-6 * Math.abs(es.uReal()));
+        assertEquals(es.uSelf(), pme.uSelf(), 1e-8 * Math.abs(es.uSelf()));
+        assertEquals(es.uBondCorr(), pme.uBondCorr(), 1e-8 * Math.abs(es.uBondCorr()));
+    }
+
+    @Test
+    public void testGradient() {
+        IAtomList leafList = box.getLeafList();
+        Vector[] gPME = pme.gradient(leafList);
+        Vector[] gES = es.gradient(leafList);
+        double sum2 = 0, diff2 = 0;
+        for (int i = 0; i < leafList.getAtomCount(); i++) {
+            sum2 += gES[i].squared();
+            diff2 += gES[i].Mv1Squared(gPME[i]);
+        }
+        assertEquals(0, Math.sqrt(diff2 / sum2), 1e-3);
+    }
+
+    @Test
+    public void testVirial() {
+        // virial is dU/d(lambda) when all coordinates and the box are scaled by lambda.
+        // the real-space sum is discontinuous at the cutoff, so leave it out
+        pme.makeP2EwaldReal();
+        double virial = pme.virial(box.getLeafList());
+        double h = 1e-5;
+        double[] u = new double[2];
+        for (int s = 0; s < 2; s++) {
+            double lambda = s == 0 ? 1 - h : 1 + h;
+            scale(lambda);
+            u[s] = pme.energy(box.getLeafList());
+            scale(1 / lambda);
+        }
+        double dudl = (u[1] - u[0]) / (2 * h);
+        assertEquals(dudl, virial, 1e-4 * Math.abs(pme.energy(box.getLeafList())));
+    }
+
+    private void scale(double lambda) {
+        IAtomList leafList = box.getLeafList();
+        for (int i = 0; i < leafList.getAtomCount(); i++) {
+            leafList.getAtom(i).getPosition().TE(lambda);
+        }
+        Vector size = box.getBoundary().getBoxSize();
+        size.TE(lambda);
+        box.getBoundary().setBoxSize(size);
+    }
+}
@@ -0,0 +1,46 @@
+package etomica.potential;
+
+import etomica.space.Space;
+import etomica.space3d.Space3D;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class P2SoftSphericalTabulatedTest {
+
+    @Test
+    public void testMorse() {
+        Space space = Space3D.getInstance();
+        P2Morse p2 = new P2Morse(space, 1, 1, 6);
+        double tol = 1e-8;
+        P2SoftSphericalTabulated p2Tab = P2SoftSphericalTabulated.makeTabulated(space, p2, 0.8, 3, tol);
+        double[] err = p2Tab.getMaxError();
+        assertTrue(err[0] < tol && err[1] < tol);
+        // d2u uses finite-difference slopes, so it is less accurate
+        assertTrue(err[2] < 1e-5 * Math.abs(p2.d2u(0.64)));
+
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            double r = 0.8 + 2.2 * random.nextDouble();
+            double r2 = r * r;
+            assertEquals(p2.u(r2), p2Tab.u(r2), tol);
+            assertEquals(p2.du(r2), p2Tab.du(r2), tol);
+        }
+        // outside the table, the wrapped potential is used
+        assertEquals(p2.u(0.5), p2Tab.u(0.5), 0);
+        assertEquals(p2.du(10), p2Tab.du(10), 0);
+    }
+
+    @Test
+    public void testTruncated() {
+        Space space = Space3D.getInstance();
+        P2SoftSphericalTabulated p2Tab = new P2SoftSphericalTabulated(space, new P2LennardJones(space), 0.8, 3, 2001);
+        P2SoftSphericalTruncated p2Truncated = new P2SoftSphericalTruncated(space, p2Tab, 3);
+        assertEquals(3, p2Truncated.getRange(), 0);
+        assertEquals(new P2LennardJones(space).u(2.89), p2Truncated.u(2.89), 1e-8);
+        assertEquals(0, p2Truncated.u(9.01), 0);
+    }
+}
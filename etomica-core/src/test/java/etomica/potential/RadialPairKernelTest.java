@@ -0,0 +1,150 @@
+package etomica.potential;
+
+import etomica.action.BoxInflate;
+import etomica.atom.AtomLeafAgentManager;
+import etomica.atom.AtomType;
+import etomica.atom.IAtomList;
+import etomica.box.Box;
+import etomica.config.ConfigurationLattice;
+import etomica.lattice.LatticeCubicFcc;
+import etomica.lattice.LatticeOrthorhombicHexagonal;
+import etomica.nbr.list.PotentialMasterList;
+import etomica.simulation.Simulation;
+import etomica.space.Space;
+import etomica.space.Tensor;
+import etomica.space.Vector;
+import etomica.space2d.Space2D;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import etomica.util.random.RandomMersenneTwister;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RadialPairKernelTest {
+
+    protected static final double TOLERANCE = 1e-12;
+
+    protected Box box;
+    protected PotentialMasterList potentialMaster;
+
+    /**
+     * Makes a box of LJ atoms (truncated at 2.5) slightly displaced from a
+     * lattice.  With compact storage, pairs are evaluated by the kernel;
+     * otherwise each pair is passed to the PotentialCalculation.
+     */
+    protected void makeBox(Space space, boolean compact) {
+        Simulation sim = new Simulation(space);
+        sim.setRandom(new RandomMersenneTwister(new int[]{1, 2, 3}));
+        SpeciesSpheresMono species = new SpeciesSpheresMono(sim, space);
+        sim.addSpecies(species);
+        box = new Box(space);
+        sim.addBox(box);
+        box.setNMolecules(species, space.D() == 3 ? 256 : 200);
+        BoxInflate inflater = new BoxInflate(box, space);
+        inflater.setTargetDensity(0.7);
+        inflater.actionPerformed();
+        potentialMaster = new PotentialMasterList(sim, 3.0, space);
+        potentialMaster.setCellRange(2);
+        P2SoftSphericalTruncated p2 = new P2SoftSphericalTruncated(space, new P2LennardJones(space), 2.5);
+        assertTrue(RadialPairKernel.canHandle(p2));
+        AtomType leafType = species.getLeafType();
+        potentialMaster.addPotential(p2, new AtomType[]{leafType, leafType});
+        new ConfigurationLattice(space.D() == 3 ? new LatticeCubicFcc(space) : new LatticeOrthorhombicHexagonal(space), space).initializeCoordinates(box);
+        IAtomList leafList = box.getLeafList();
+        Vector dr = space.makeVector();
+        for (int i = 0; i < leafList.getAtomCount(); i++) {
+            dr.setRandomInSphere(sim.getRandom());
+            dr.TE(0.1);
+            leafList.getAtom(i).getPosition().PE(dr);
+        }
+        potentialMaster.getNeighborManager(box).setCompactStorage(compact);
+        potentialMaster.getNeighborManager(box).reset();
+    }
+
+    protected void checkKernel(Space space) {
+        makeBox(space, false);
+        double[] generic = new double[2];
+        Vector[] genericForces = space.makeVectorArray(box.getLeafList().getAtomCount());
+        Tensor genericTensor = space.makeTensor();
+        calculate(generic, genericForces, genericTensor);
+
+        makeBox(space, true);
+        double[] kernel = new double[2];
+        Vector[] kernelForces = space.makeVectorArray(box.getLeafList().getAtomCount());
+        Tensor kernelTensor = space.makeTensor();
+        calculate(kernel, kernelForces, kernelTensor);
+
+        assertEquals(generic[0], kernel[0], TOLERANCE * Math.abs(generic[0]));
+        assertEquals(generic[1], kernel[1], TOLERANCE * Math.abs(generic[1]));
+        double fMax = 0;
+        for (Vector f : genericForces) {
+            fMax = Math.max(fMax, Math.sqrt(f.squared()));
+        }
+        assertTrue(fMax > 0);
+        for (int i = 0; i < genericForces.length; i++) {
+            for (int k = 0; k < space.D(); k++) {
+                assertEquals(genericForces[i].getX(k), kernelForces[i].getX(k), TOLERANCE * fMax);
+            }
+        }
+        double trace = Math.abs(genericTensor.trace());
+        for (int i = 0; i < space.D(); i++) {
+            for (int j = 0; j < space.D(); j++) {
+                assertEquals(genericTensor.component(i, j), kernelTensor.component(i, j), TOLERANCE * trace);
+            }
+        }
+    }
+
+    /**
+     * Computes the energy and virial (in sums), the forces and the pressure
+     * tensor for the current box.
+     */
+    protected void calculate(double[] sums, Vector[] forces, Tensor pressureTensor) {
+        PotentialCalculationEnergySum energySum = new PotentialCalculationEnergySum();
+        energySum.zeroSum();
+        potentialMaster.calculate(box, new IteratorDirective(), energySum);
+        sums[0] = energySum.getSum();
+
+        PotentialCalculationVirialSum virialSum = new PotentialCalculationVirialSum();
+        virialSum.zeroSum();
+        potentialMaster.calculate(box, new IteratorDirective(), virialSum);
+        sums[1] = virialSum.getSum();
+
+        AtomLeafAgentManager<Vector> agentManager = new AtomLeafAgentManager<>(a -> box.getSpace().makeVector(), box);
+        PotentialCalculationForcePressureSum forceSum = new PotentialCalculationForcePressureSum(box.getSpace());
+        forceSum.setAgentManager(agentManager);
+        forceSum.reset();
+        potentialMaster.calculate(box, new IteratorDirective(), forceSum);
+        IAtomList leafList = box.getLeafList();
+        for (int i = 0; i < leafList.getAtomCount(); i++) {
+            forces[i].E(agentManager.getAgent(leafList.getAtom(i)));
+        }
+        pressureTensor.E(forceSum.getPressureTensor());
+    }
+
+    @Test
+    public void test3D() {
+        checkKernel(Space3D.getInstance());
+    }
+
+    @Test
+    public void test2D() {
+        checkKernel(Space2D.getInstance());
+    }
+
+    /**
+     * Only potentials known to be stateless can be evaluated by the kernel.
+     */
+    @Test
+    public void testCanHandle() {
+        Space space = Space3D.getInstance();
+        assertTrue(RadialPairKernel.canHandle(new P2LennardJones(space)));
+        assertTrue(RadialPairKernel.canHandle(new P2SoftSphericalTruncatedShifted(space, new P2LennardJones(space), 2.5)));
+        // these store intermediate values in fields from u and du
+        assertFalse(RadialPairKernel.canHandle(new P2LennardJonesDreiding(space)));
+        assertFalse(RadialPairKernel.canHandle(new P2WCA(space)));
+        assertFalse(RadialPairKernel.canHandle(new P2SoftSphericalTruncated(space, new P2WCA(space), 2.5)));
+        // subclasses might override energy or gradient
+        assertFalse(RadialPairKernel.canHandle(new P2LennardJones(space) {}));
+    }
+}
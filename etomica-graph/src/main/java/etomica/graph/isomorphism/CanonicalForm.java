@@ -0,0 +1,344 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.graph.isomorphism;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import etomica.graph.model.Graph;
+import etomica.graph.model.Metadata;
+import etomica.graph.model.impl.MetadataImpl;
+
+/**
+ * Computes a canonical labeling of a graph, such that two graphs have the same
+ * canonical key if and only if Match.match considers them isomorphic (node
+ * colors, edge colors and, for Wertheim diagrams, edge directions must be
+ * preserved; node types are also preserved if MetadataImpl.rootPointsSpecial).
+ *
+ * The labeling is found with the usual individualization-refinement search:
+ * the nodes are partitioned by color and the partition is refined until it is
+ * equitable (all nodes in a cell have the same number of bonds of each color
+ * to each other cell).  If cells remain with more than one node, each node of
+ * the first such cell is individualized in turn and the search continues
+ * until every cell holds a single node.  Each of these leaves gives a labeling
+ * of the graph and the canonical labeling is the one whose encoding (node
+ * colors followed by the bond colors in label order) is smallest.  Leaves
+ * with equal encodings give automorphisms of the graph, which are used to
+ * skip nodes that would only reproduce leaves that have already been seen.
+ */
+public class CanonicalForm {
+
+  private final int n;
+  private final int[] nodeCode;
+  private final int[][] edgeCode;
+  private final int[] path;
+  private int[] firstPath, firstLab, firstEnc;
+  private int[] bestLab, bestEnc;
+  private final List<int[]> automorphisms = new ArrayList<int[]>();
+  private final boolean typeSpecial;
+  private String key;
+
+  public CanonicalForm(Graph g) {
+
+    n = g.nodeCount();
+    typeSpecial = MetadataImpl.rootPointsSpecial;
+    nodeCode = new int[n];
+    edgeCode = new int[n][n];
+    for (byte i = 0; i < n; i++) {
+      nodeCode[i] = code(g.getNode(i).getMetadata());
+      for (byte j = 0; j < n; j++) {
+        // getEdge(i,j) gives the edge as seen from i, which matters for
+        // directional (Wertheim) bonds
+        if (i != j && g.hasEdge(i, j)) {
+          edgeCode[i][j] = code(g.getEdge(i, j).getMetadata());
+        }
+      }
+    }
+    path = new int[n];
+    int[] lab = new int[n];
+    int[] cell = new int[n];
+    Integer[] sorted = new Integer[n];
+    for (int i = 0; i < n; i++) {
+      sorted[i] = i;
+    }
+    Arrays.sort(sorted, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return Integer.compare(nodeCode[a], nodeCode[b]);
+      }
+    });
+    for (int i = 0; i < n; i++) {
+      lab[i] = sorted[i];
+      cell[lab[i]] = (i > 0 && nodeCode[lab[i]] == nodeCode[lab[i - 1]]) ? cell[lab[i - 1]] : i;
+    }
+    search(lab, cell, 0);
+  }
+
+  /**
+   * Returns the canonical key of the graph.  Graphs have equal keys if and
+   * only if they are isomorphic.
+   */
+  public static String key(Graph g) {
+
+    return new CanonicalForm(g).getKey();
+  }
+
+  /**
+   * Returns the canonical labeling; element i is the node of the graph that
+   * gets label i.
+   */
+  public int[] getLabeling() {
+
+    return bestLab.clone();
+  }
+
+  /**
+   * Returns the canonical key; the encoding of the graph under the canonical
+   * labeling packed into a String.
+   */
+  public String getKey() {
+
+    if (key == null) {
+      StringBuilder sb = new StringBuilder(1 + (typeSpecial ? 2 : 1) * bestEnc.length);
+      sb.append((char) n);
+      for (int c : bestEnc) {
+        if (typeSpecial) {
+          sb.append((char) (c >>> 16));
+        }
+        sb.append((char) c);
+      }
+      key = sb.toString();
+    }
+    return key;
+  }
+
+  /**
+   * Returns the number of automorphisms found while searching for the
+   * canonical labeling (not necessarily a full set of generators).
+   */
+  public int getAutomorphismCount() {
+
+    return automorphisms.size();
+  }
+
+  private int code(Metadata m) {
+
+    // 0 is reserved for "no edge"
+    return typeSpecial ? ((m.getColor() << 16) | m.getType()) : (m.getColor() + 1);
+  }
+
+  /**
+   * Searches the tree below the given partition, whose first level nodes
+   * (path[0..level-1]) have been individualized.  Returns the level the search
+   * should resume from; this is less than level when an automorphism shows the
+   * remainder of the subtree to be equivalent to part of the first path.
+   */
+  private int search(int[] lab, int[] cell, int level) {
+
+    refine(lab, cell);
+    int start = -1, end = -1;
+    for (int i = 0; i < n; i++) {
+      if (i + 1 < n && cell[lab[i + 1]] == i) {
+        start = i;
+        end = i + 1;
+        while (end < n && cell[lab[end]] == i) end++;
+        break;
+      }
+    }
+    if (start == -1) {
+      return leaf(lab, level);
+    }
+    int[] targets = Arrays.copyOfRange(lab, start, end);
+    List<Integer> explored = new ArrayList<Integer>();
+    for (int v : targets) {
+      if (isEquivalent(v, explored, level)) continue;
+      explored.add(v);
+      path[level] = v;
+      int[] newLab = lab.clone();
+      int[] newCell = cell.clone();
+      // move v to the front of its cell and split it off
+      int p = start;
+      newLab[p++] = v;
+      for (int u : targets) {
+        if (u != v) {
+          newLab[p++] = u;
+          newCell[u] = start + 1;
+        }
+      }
+      int resume = search(newLab, newCell, level + 1);
+      if (resume < level) {
+        return resume;
+      }
+    }
+    return level;
+  }
+
+  private int leaf(int[] lab, int level) {
+
+    int[] enc = encode(lab);
+    if (firstEnc == null) {
+      firstPath = Arrays.copyOf(path, level);
+      firstLab = lab;
+      firstEnc = enc;
+      bestLab = lab;
+      bestEnc = enc;
+      return level;
+    }
+    if (Arrays.equals(enc, firstEnc)) {
+      addAutomorphism(firstLab, lab);
+      // the automorphism maps the first path onto this one, so everything
+      // below the point where they diverged has been seen already
+      int d = 0;
+      while (d < level && d < firstPath.length && firstPath[d] == path[d]) d++;
+      return d;
+    }
+    int c = compare(enc, bestEnc);
+    if (c == 0) {
+      addAutomorphism(bestLab, lab);
+    }
+    else if (c < 0) {
+      bestLab = lab;
+      bestEnc = enc;
+    }
+    return level;
+  }
+
+  private void addAutomorphism(int[] lab1, int[] lab2) {
+
+    int[] gamma = new int[n];
+    for (int i = 0; i < n; i++) {
+      gamma[lab1[i]] = lab2[i];
+    }
+    automorphisms.add(gamma);
+  }
+
+  /**
+   * Returns true if v is in the same orbit as one of the explored nodes under
+   * the known automorphisms that fix the current path.
+   */
+  private boolean isEquivalent(int v, List<Integer> explored, int level) {
+
+    if (explored.isEmpty() || automorphisms.isEmpty()) return false;
+    int[] orbit = new int[n];
+    for (int i = 0; i < n; i++) {
+      orbit[i] = i;
+    }
+    for (int[] gamma : automorphisms) {
+      boolean fixes = true;
+      for (int i = 0; i < level && fixes; i++) {
+        fixes = gamma[path[i]] == path[i];
+      }
+      if (!fixes) continue;
+      for (int i = 0; i < n; i++) {
+        int a = find(orbit, i), b = find(orbit, gamma[i]);
+        if (a != b) orbit[Math.max(a, b)] = Math.min(a, b);
+      }
+    }
+    int ov = find(orbit, v);
+    for (int u : explored) {
+      if (find(orbit, u) == ov) return true;
+    }
+    return false;
+  }
+
+  private static int find(int[] orbit, int i) {
+
+    while (orbit[i] != i) {
+      i = orbit[i];
+    }
+    return i;
+  }
+
+  /**
+   * Refines the partition until it is equitable.  Each cell is split
+   * according to the (sorted) cells and bond colors of each node's neighbors,
+   * and the new cells are ordered by that, so the result depends only on the
+   * graph and the incoming partition and not on how the nodes are numbered.
+   */
+  private void refine(int[] lab, int[] cell) {
+
+    boolean changed = true;
+    final long[][] nbrKey = new long[n][];
+    while (changed) {
+      changed = false;
+      for (int v = 0; v < n; v++) {
+        int count = 0;
+        for (int u = 0; u < n; u++) {
+          if (edgeCode[v][u] != 0) count++;
+        }
+        long[] k = new long[count];
+        count = 0;
+        for (int u = 0; u < n; u++) {
+          if (edgeCode[v][u] != 0) {
+            k[count++] = ((long) cell[u] << 32) | (edgeCode[v][u] & 0xffffffffL);
+          }
+        }
+        Arrays.sort(k);
+        nbrKey[v] = k;
+      }
+      Comparator<Integer> byKey = new Comparator<Integer>() {
+        public int compare(Integer a, Integer b) {
+          return compareKeys(nbrKey[a], nbrKey[b]);
+        }
+      };
+      int start = 0;
+      while (start < n) {
+        int end = start + 1;
+        while (end < n && cell[lab[end]] == start) end++;
+        if (end - start > 1) {
+          Integer[] members = new Integer[end - start];
+          for (int i = start; i < end; i++) {
+            members[i - start] = lab[i];
+          }
+          Arrays.sort(members, byKey);
+          for (int i = start; i < end; i++) {
+            lab[i] = members[i - start];
+            if (i > start && compareKeys(nbrKey[lab[i]], nbrKey[lab[i - 1]]) != 0) {
+              changed = true;
+              cell[lab[i]] = i;
+            }
+            else {
+              cell[lab[i]] = i == start ? start : cell[lab[i - 1]];
+            }
+          }
+        }
+        start = end;
+      }
+    }
+  }
+
+  private static int compareKeys(long[] a, long[] b) {
+
+    if (a.length != b.length) return a.length < b.length ? -1 : 1;
+    for (int i = 0; i < a.length; i++) {
+      if (a[i] != b[i]) return a[i] < b[i] ? -1 : 1;
+    }
+    return 0;
+  }
+
+  private int[] encode(int[] lab) {
+
+    int[] enc = new int[n + n * (n - 1) / 2];
+    int k = 0;
+    for (int i = 0; i < n; i++) {
+      enc[k++] = nodeCode[lab[i]];
+    }
+    for (int i = 0; i < n; i++) {
+      for (int j = i + 1; j < n; j++) {
+        enc[k++] = edgeCode[lab[i]][lab[j]];
+      }
+    }
+    return enc;
+  }
+
+  private static int compare(int[] a, int[] b) {
+
+    for (int i = 0; i < a.length; i++) {
+      if (a[i] != b[i]) return a[i] < b[i] ? -1 : 1;
+    }
+    return 0;
+  }
+}
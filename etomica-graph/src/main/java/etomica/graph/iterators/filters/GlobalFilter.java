@@ -33,9 +33,18 @@ public abstract class GlobalFilter implements GraphIterator {
     this.signatureMaker = signatureMaker == null ? new SignatureMaker() : signatureMaker;
   }
 
+  /**
+   * Returns the key of the set that g belongs in.  Graphs that the filter
+   * needs to compare must have the same key.
+   */
+  protected String getBlockingKey(Graph g) {
+
+    return signatureMaker.getSignature(g);
+  }
+
   protected Set<Graph> getBlockingSet(Graph g) {
 
-    String key = signatureMaker.getSignature(g);
+    String key = getBlockingKey(g);
     Set<Graph> set = blockingMap.get(key);
     if (set == null) {
       set = new HashSet<Graph>();
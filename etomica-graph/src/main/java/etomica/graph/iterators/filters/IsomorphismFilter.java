@@ -6,15 +6,28 @@ package etomica.graph.iterators.filters;
 
 import java.util.Set;
 
+import etomica.graph.isomorphism.CanonicalForm;
 import etomica.graph.isomorphism.Match;
 import etomica.graph.model.Graph;
 import etomica.graph.model.GraphIterator;
 
+/**
+ * Filters out isomorphs, keeping the lowest (by graph order) member of each
+ * set of isomorphic graphs, with the coefficients of all members summed.
+ *
+ * By default, the graphs are keyed by their canonical form (as well as their
+ * signature), so that each blocking set holds a single graph and finding an
+ * isomorph is a hash lookup.  If USE_CANONICAL_FORM is false, graphs are
+ * keyed only by their signature and compared to each graph in the set with
+ * Match.
+ */
 public class IsomorphismFilter extends GlobalFilter {
 
   public static boolean DEBUG_MODE = true;
+  public static boolean USE_CANONICAL_FORM = true;
   private static int DEBUG_FREQUENCY = 2500;
 
+  private final boolean useCanonicalForm = USE_CANONICAL_FORM;
   private int countSeen = 0;
   private int countDiscarded = 0;
   private long debugStart = System.nanoTime();
@@ -27,6 +40,17 @@ public class IsomorphismFilter extends GlobalFilter {
     super(iterator, signatureMaker);
   }
 
+  protected String getBlockingKey(Graph g) {
+
+    String signature = super.getBlockingKey(g);
+    if (!useCanonicalForm) {
+      return signature;
+    }
+    // the canonical key has a length determined by its first character, so
+    // the concatenation is unambiguous
+    return CanonicalForm.key(g) + signature;
+  }
+
   protected boolean accept(Graph g1, Set<Graph> set) {
 
     boolean result = true;
@@ -34,7 +58,8 @@ public class IsomorphismFilter extends GlobalFilter {
       for (Graph isoGraph : set) {
         // test for isomorphism and, if they don't match, keep the graph lower in the
         // graph order; update the graph coefficients;
-        if (Match.match(isoGraph, g1, false)) {
+        // with canonical keys, everything in the set is isomorphic to g1
+        if (useCanonicalForm || Match.match(isoGraph, g1, false)) {
           countDiscarded++;
           if (isoGraph.compareTo(g1) >= 0) {
             isoGraph.coefficient().add(g1.coefficient());
@@ -7,6 +7,7 @@ package etomica.graph.model;
 import static etomica.graph.model.Metadata.*;
 
 import etomica.graph.model.impl.CoefficientImpl;
+import etomica.graph.model.impl.CompactGraph;
 import etomica.graph.model.impl.EdgeImpl;
 import etomica.graph.model.impl.GraphImpl;
 import etomica.graph.model.impl.NodeImpl;
@@ -66,4 +67,12 @@ public class GraphFactory {
 
     return new GraphImpl(nodes);
   }
+
+  /**
+   * Returns a compact, immutable copy of the given graph.
+   */
+  public static Graph createCompactGraph(Graph graph) {
+
+    return new CompactGraph(graph);
+  }
 }
\ No newline at end of file
@@ -0,0 +1,754 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.graph.model.impl;
+
+import static etomica.graph.model.Metadata.TYPE_EDGE_ANY;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import etomica.graph.model.Bitmap;
+import etomica.graph.model.BitmapFactory;
+import etomica.graph.model.Coefficient;
+import etomica.graph.model.Edge;
+import etomica.graph.model.EdgeVisitor;
+import etomica.graph.model.Graph;
+import etomica.graph.model.Metadata;
+import etomica.graph.model.Node;
+import etomica.graph.model.NodeVisitor;
+
+/**
+ * Compact, immutable Graph.  Everything about the graph except its
+ * coefficient and factors is packed into a single long[]: a bit for each
+ * edge (indexed by edge id, as in GraphImpl), then one byte for each node and
+ * one byte for each edge that is present.  Each byte is an index into a
+ * (global) palette of the node and edge metadata (type and color) in use.
+ * The coefficient is held as a primitive numerator and denominator.  A
+ * 10-node graph takes about 100 bytes.
+ *
+ * Node and Edge objects returned by the graph are shared, immutable views,
+ * so getNode, getEdge, visitNodes and visitEdges (and so the traversals and
+ * properties, which use those) do not allocate.  nodes() and edges() return a
+ * new List for each call.  getNodeColor, getNodeType, getEdgeColor and
+ * nextEdge give direct access to the packed data.
+ *
+ * Operations that modify the graph (or its coefficient) throw
+ * UnsupportedOperationException and factors() returns a copy; copy() returns
+ * a mutable GraphImpl.
+ */
+public final class CompactGraph implements Graph {
+
+  private static final int[] NO_FACTORS = new int[0];
+  // node and edge ids are bytes
+  private static final int MAX_VIEW_ID = 128;
+
+  // palette of node and edge metadata, shared by all compact graphs.  The
+  // arrays are replaced (never modified) when a new entry is added.
+  private static final ConcurrentHashMap<Metadata, Integer> paletteIndex = new ConcurrentHashMap<Metadata, Integer>();
+  private static volatile Metadata[] palette = new Metadata[0];
+  private static volatile Node[][] nodeViews = new Node[0][];
+  private static volatile Edge[][] edgeViews = new Edge[0][];
+
+  private final byte n;
+  private final int numerator, denominator;
+  private final int[] factors;
+  private final long[] data;
+
+  public CompactGraph(Graph g) {
+
+    Coefficient c = g.coefficient();
+    if (c.hasOverflow()) {
+      throw new IllegalArgumentException("coefficient has overflowed and cannot be stored as a fraction");
+    }
+    numerator = c.getNumerator();
+    denominator = c.getDenominator();
+    factors = g.factors().length == 0 ? NO_FACTORS : g.factors().clone();
+    n = g.nodeCount();
+    int totalEdges = edgeSlots();
+    int edgeCount = 0;
+    for (byte edgeId = 0; edgeId < totalEdges; edgeId++) {
+      if (g.hasEdge(edgeId)) edgeCount++;
+    }
+    data = new long[edgeWords() + (n + 7) / 8 + (edgeCount + 7) / 8];
+    for (byte nodeId = 0; nodeId < n; nodeId++) {
+      putByte(nodeByteOffset() + nodeId, paletteCode(g.getNode(nodeId).getMetadata()));
+    }
+    int iEdge = 0;
+    for (byte edgeId = 0; edgeId < totalEdges; edgeId++) {
+      if (!g.hasEdge(edgeId)) continue;
+      data[edgeId >> 6] |= 1L << edgeId;
+      putByte(edgeByteOffset() + iEdge, paletteCode(g.getEdge(edgeId).getMetadata()));
+      iEdge++;
+    }
+  }
+
+  /**
+   * Returns the index of the given metadata in the palette, adding it if
+   * needed.
+   */
+  private static int paletteCode(Metadata m) {
+
+    Integer code = paletteIndex.get(m);
+    if (code != null) {
+      return code;
+    }
+    synchronized (paletteIndex) {
+      code = paletteIndex.get(m);
+      if (code != null) {
+        return code;
+      }
+      int k = palette.length;
+      if (k == 256) {
+        throw new IllegalStateException("too many node and edge types and colors for CompactGraph");
+      }
+      Node[] nodes = new Node[MAX_VIEW_ID];
+      Edge[] edges = new Edge[MAX_VIEW_ID];
+      for (int id = 0; id < MAX_VIEW_ID; id++) {
+        nodes[id] = new NodeView((byte) id, m);
+        edges[id] = new EdgeView((byte) id, m);
+      }
+      Node[][] newNodeViews = Arrays.copyOf(nodeViews, k + 1);
+      newNodeViews[k] = nodes;
+      Edge[][] newEdgeViews = Arrays.copyOf(edgeViews, k + 1);
+      newEdgeViews[k] = edges;
+      Metadata[] newPalette = Arrays.copyOf(palette, k + 1);
+      newPalette[k] = m;
+      nodeViews = newNodeViews;
+      edgeViews = newEdgeViews;
+      palette = newPalette;
+      paletteIndex.put(m, k);
+      return k;
+    }
+  }
+
+  private int edgeSlots() {
+
+    return n * (n - 1) / 2;
+  }
+
+  private int edgeWords() {
+
+    return (edgeSlots() + 63) / 64;
+  }
+
+  private int nodeByteOffset() {
+
+    return 8 * edgeWords();
+  }
+
+  private int edgeByteOffset() {
+
+    return nodeByteOffset() + 8 * ((n + 7) / 8);
+  }
+
+  private void putByte(int offset, int value) {
+
+    data[offset >> 3] |= ((long) value) << ((offset & 7) << 3);
+  }
+
+  private int getByte(int offset) {
+
+    return (int) (data[offset >> 3] >>> ((offset & 7) << 3)) & 0xff;
+  }
+
+  private int nodeCode(byte nodeId) {
+
+    return getByte(nodeByteOffset() + nodeId);
+  }
+
+  /**
+   * Returns the palette code of the (forward) edge with the given id, which
+   * must be present.
+   */
+  private int edgeCode(int edgeId) {
+
+    int rank = 0;
+    int word = edgeId >> 6;
+    for (int i = 0; i < word; i++) {
+      rank += Long.bitCount(data[i]);
+    }
+    rank += Long.bitCount(data[word] & ((1L << edgeId) - 1));
+    return getByte(edgeByteOffset() + rank);
+  }
+
+  private int forwardEdgeId(byte edgeId) {
+
+    int e = edgeId & 0xff;
+    int slots = edgeSlots();
+    return e >= slots ? e - slots : e;
+  }
+
+  public char getNodeColor(byte nodeId) {
+
+    return palette[nodeCode(nodeId)].getColor();
+  }
+
+  public char getNodeType(byte nodeId) {
+
+    return palette[nodeCode(nodeId)].getType();
+  }
+
+  /**
+   * Returns the color of the edge with the given id, which must be present.
+   * For a reverse edge id (with GraphImpl.useReverseEdges), the reverse color
+   * is returned.
+   */
+  public char getEdgeColor(byte edgeId) {
+
+    return getEdge(edgeId).getColor();
+  }
+
+  /**
+   * Returns the id of the first edge present whose id is at least edgeId, or
+   * -1 if there are none.  Iterate over the edges with
+   * for (int e = g.nextEdge(0); e >= 0; e = g.nextEdge(e + 1))
+   */
+  public int nextEdge(int edgeId) {
+
+    int slots = edgeSlots();
+    if (edgeId >= slots) return -1;
+    int word = edgeId >> 6;
+    long bits = data[word] & (-1L << edgeId);
+    while (true) {
+      if (bits != 0) {
+        int e = (word << 6) + Long.numberOfTrailingZeros(bits);
+        return e < slots ? e : -1;
+      }
+      word++;
+      if (word == edgeWords()) return -1;
+      bits = data[word];
+    }
+  }
+
+  public Coefficient coefficient() {
+
+    return new FixedCoefficient();
+  }
+
+  public int[] factors() {
+
+    return factors.clone();
+  }
+
+  public void addFactors(int[] newFactors) {
+
+    throw new UnsupportedOperationException("CompactGraph is immutable");
+  }
+
+  public void setNumFactors(int numFactors) {
+
+    throw new UnsupportedOperationException("CompactGraph is immutable");
+  }
+
+  /**
+   * Returns a mutable GraphImpl equivalent to this graph.
+   */
+  public Graph copy() {
+
+    Node[] nodes = new Node[n];
+    for (byte nodeId = 0; nodeId < n; nodeId++) {
+      nodes[nodeId] = new NodeImpl(nodeId, getNodeType(nodeId), getNodeColor(nodeId));
+    }
+    Graph g = new GraphImpl(nodes);
+    for (int e = nextEdge(0); e >= 0; e = nextEdge(e + 1)) {
+      g.putEdge((byte) e);
+      g.getEdge((byte) e).setColor(palette[edgeCode(e)].getColor());
+    }
+    g.createReverseEdges();
+    g.coefficient().setNumerator(numerator);
+    g.coefficient().setDenominator(denominator);
+    g.setNumFactors(factors.length);
+    g.addFactors(factors);
+    return g;
+  }
+
+  public void deleteEdge(byte edgeId) {
+
+    throw new UnsupportedOperationException("CompactGraph is immutable");
+  }
+
+  public void deleteEdge(byte fromNode, byte toNode) {
+
+    throw new UnsupportedOperationException("CompactGraph is immutable");
+  }
+
+  public byte edgeCount() {
+
+    int count = 0;
+    for (int i = 0; i < edgeWords(); i++) {
+      count += Long.bitCount(data[i]);
+    }
+    return (byte) count;
+  }
+
+  public List<Edge> edges() {
+
+    List<Edge> edgeList = new ArrayList<Edge>(edgeCount());
+    for (int e = nextEdge(0); e >= 0; e = nextEdge(e + 1)) {
+      edgeList.add(getEdge((byte) e));
+    }
+    return edgeList;
+  }
+
+  public String edgesToString() {
+
+    return copy().edgesToString();
+  }
+
+  public Edge getEdge(byte edgeId) {
+
+    int e = forwardEdgeId(edgeId);
+    if (!hasEdge((byte) e)) {
+      return null;
+    }
+    int code = edgeCode(e);
+    if (e != (edgeId & 0xff)) {
+      // reverse edge (for Wertheim diagrams).  as with GraphImpl, this has
+      // the reverse color but the id of the forward edge
+      char color = palette[code].getColor();
+      char reverseColor = MetadataImpl.getReverseEdgeColor(color);
+      if (reverseColor != color) {
+        code = paletteCode(MetadataImpl.getStockComponent(TYPE_EDGE_ANY, reverseColor));
+      }
+    }
+    return edgeViews[code][e];
+  }
+
+  public Edge getEdge(byte fromNode, byte toNode) {
+
+    return getEdge(getEdgeId(fromNode, toNode));
+  }
+
+  public byte getEdgeId(byte fromNode, byte toNode) {
+
+    return GraphImpl.getEdgeId(n, fromNode, toNode);
+  }
+
+  public byte getFromNode(byte edgeId) {
+
+    return GraphImpl.getFromNode(n, edgeId);
+  }
+
+  public Node getNode(byte node) {
+
+    return nodeViews[nodeCode(node)][node];
+  }
+
+  public byte getOutDegree(byte node) {
+
+    byte result = 0;
+    for (byte i = 0; i < n; i++) {
+      if (i != node && hasEdge(node, i)) {
+        result++;
+      }
+    }
+    return result;
+  }
+
+  public byte getOutNode(byte node, byte index) {
+
+    byte found = 0;
+    for (byte i = 0; i < n; i++) {
+      if (i != node && hasEdge(node, i)) {
+        if (found == index) {
+          return i;
+        }
+        found++;
+      }
+    }
+    return (byte) 0xFF;
+  }
+
+  public String getSignature() {
+
+    return copy().getSignature();
+  }
+
+  /**
+   * Returns a new Bitmap with the edges of this graph.
+   */
+  public Bitmap getStore() {
+
+    Bitmap store = BitmapFactory.createBitmap(n, false);
+    for (int e = nextEdge(0); e >= 0; e = nextEdge(e + 1)) {
+      store.setBit(e);
+    }
+    return store;
+  }
+
+  public byte getToNode(byte edgeId) {
+
+    return GraphImpl.getToNode(n, edgeId);
+  }
+
+  public boolean hasEdge(byte edgeId) {
+
+    int e = forwardEdgeId(edgeId);
+    return (data[e >> 6] & (1L << e)) != 0;
+  }
+
+  public boolean hasEdge(byte fromNode, byte toNode) {
+
+    return hasEdge(getEdgeId(fromNode, toNode));
+  }
+
+  public byte nodeCount() {
+
+    return n;
+  }
+
+  public List<Node> nodes() {
+
+    List<Node> nodeList = new ArrayList<Node>(n);
+    for (byte nodeId = 0; nodeId < n; nodeId++) {
+      nodeList.add(getNode(nodeId));
+    }
+    return nodeList;
+  }
+
+  public String nodesToString() {
+
+    return copy().nodesToString();
+  }
+
+  public void putEdge(byte edgeId) {
+
+    throw new UnsupportedOperationException("CompactGraph is immutable");
+  }
+
+  public void putEdge(byte fromNode, byte toNode) {
+
+    throw new UnsupportedOperationException("CompactGraph is immutable");
+  }
+
+  public String toSVG(int dim) {
+
+    return copy().toSVG(dim);
+  }
+
+  public void visitEdges(EdgeVisitor visitor) {
+
+    for (int e = nextEdge(0); e >= 0; e = nextEdge(e + 1)) {
+      if (!visitor.visit(getEdge((byte) e))) {
+        return;
+      }
+    }
+  }
+
+  public void visitNodes(NodeVisitor visitor) {
+
+    for (byte i = 0; i < n; i++) {
+      if (!visitor.visit(getNode(i))) {
+        return;
+      }
+    }
+  }
+
+  public void createReverseEdges() {
+
+    // reverse edges are computed as needed
+  }
+
+  public int compareTo(Graph other) {
+
+    // same ordering as GraphImpl
+    if (n != other.nodeCount()) {
+      return n < other.nodeCount() ? -1 : 1;
+    }
+    byte edgeCount = edgeCount();
+    if (edgeCount != other.edgeCount()) {
+      return edgeCount < other.edgeCount() ? -1 : 1;
+    }
+    int storeOrder = getStore().compareTo(other.getStore());
+    if (storeOrder != 0) {
+      return storeOrder;
+    }
+    for (byte nodeId = 0; nodeId < n; nodeId++) {
+      int nodeOrder = getNode(nodeId).compareTo(other.getNode(nodeId));
+      if (nodeOrder != 0) {
+        return nodeOrder;
+      }
+    }
+    for (int e = nextEdge(0); e >= 0; e = nextEdge(e + 1)) {
+      int edgeOrder = getEdge((byte) e).compareTo(other.getEdge((byte) e));
+      if (edgeOrder != 0) {
+        return edgeOrder;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * A CompactGraph is only equal to another CompactGraph with the same
+   * nodes, edges, coefficient and factors.  GraphImpl compares coefficients
+   * by identity (and has no hashCode to match a value comparison), so mixing
+   * the two types would make equality asymmetric; GraphImpl.equals likewise
+   * rejects a CompactGraph.  Use compareTo to compare graphs of either type.
+   */
+  @Override
+  public boolean equals(Object obj) {
+
+    if (obj instanceof CompactGraph) {
+      CompactGraph other = (CompactGraph) obj;
+      return n == other.n && numerator == other.numerator && denominator == other.denominator
+          && Arrays.equals(data, other.data) && Arrays.equals(factors, other.factors);
+    }
+    return false;
+  }
+
+  @Override
+  public int hashCode() {
+
+    return (Arrays.hashCode(data) * 31 + numerator) * 31 + Arrays.hashCode(factors);
+  }
+
+  @Override
+  public String toString() {
+
+    return copy().toString();
+  }
+
+  /**
+   * Read-only view of the graph's coefficient.
+   */
+  private class FixedCoefficient implements Coefficient {
+
+    public void add(Coefficient value) {
+
+      throw new UnsupportedOperationException("CompactGraph is immutable");
+    }
+
+    public Coefficient copy() {
+
+      return new CoefficientImpl(numerator, denominator);
+    }
+
+    public int getDenominator() {
+
+      return denominator;
+    }
+
+    public int getNumerator() {
+
+      return numerator;
+    }
+
+    public double getValue() {
+
+      return ((double) numerator) / denominator;
+    }
+
+    public void multiply(Coefficient value) {
+
+      throw new UnsupportedOperationException("CompactGraph is immutable");
+    }
+
+    public void divide(Coefficient value) {
+
+      throw new UnsupportedOperationException("CompactGraph is immutable");
+    }
+
+    public void setDenominator(int value) {
+
+      throw new UnsupportedOperationException("CompactGraph is immutable");
+    }
+
+    public void setNumerator(int value) {
+
+      throw new UnsupportedOperationException("CompactGraph is immutable");
+    }
+
+    public boolean hasOverflow() {
+
+      return false;
+    }
+
+    @Override
+    public String toString() {
+
+      return copy().toString();
+    }
+  }
+
+  private static class NodeView implements Node {
+
+    private final byte id;
+    private final Metadata metadata;
+
+    NodeView(byte id, Metadata metadata) {
+
+      this.id = id;
+      this.metadata = metadata;
+    }
+
+    public Node copy() {
+
+      return new NodeImpl(id, metadata.getType(), metadata.getColor());
+    }
+
+    public char getColor() {
+
+      return metadata.getColor();
+    }
+
+    public byte getId() {
+
+      return id;
+    }
+
+    public Metadata getMetadata() {
+
+      return metadata;
+    }
+
+    public char getType() {
+
+      return metadata.getType();
+    }
+
+    public boolean isCompatible(Node other) {
+
+      return metadata.isCompatible(other.getMetadata());
+    }
+
+    public boolean isSameColor(Node other) {
+
+      return metadata.isSameColor(other.getMetadata());
+    }
+
+    public boolean isSameId(Node other) {
+
+      return id == other.getId();
+    }
+
+    public void setColor(char color) {
+
+      throw new UnsupportedOperationException("CompactGraph is immutable");
+    }
+
+    public void setType(char type) {
+
+      throw new UnsupportedOperationException("CompactGraph is immutable");
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+
+      if (obj instanceof Node) {
+        Node other = (Node) obj;
+        return id == other.getId() && metadata.equals(other.getMetadata());
+      }
+      return false;
+    }
+
+    @Override
+    public String toString() {
+
+      return metadata.toString() + id;
+    }
+
+    public int compareTo(Node other) {
+
+      if (other == null) {
+        return 1;
+      }
+      if (id != other.getId()) {
+        return id > other.getId() ? 1 : -1;
+      }
+      return metadata.compareTo(other.getMetadata());
+    }
+  }
+
+  private static class EdgeView implements Edge {
+
+    private final byte id;
+    private final Metadata metadata;
+
+    EdgeView(byte id, Metadata metadata) {
+
+      this.id = id;
+      this.metadata = metadata;
+    }
+
+    public Edge copy() {
+
+      return new EdgeImpl(id, metadata.getColor());
+    }
+
+    public char getColor() {
+
+      return metadata.getColor();
+    }
+
+    public byte getId() {
+
+      return id;
+    }
+
+    public Metadata getMetadata() {
+
+      return metadata;
+    }
+
+    public char getType() {
+
+      return metadata.getType();
+    }
+
+    public boolean isCompatible(Edge other) {
+
+      return metadata.isCompatible(other.getMetadata());
+    }
+
+    public boolean isSameColor(Edge other) {
+
+      return metadata.isSameColor(other.getMetadata());
+    }
+
+    public boolean isSameId(Edge other) {
+
+      return id == other.getId();
+    }
+
+    public void setColor(char color) {
+
+      throw new UnsupportedOperationException("CompactGraph is immutable");
+    }
+
+    public void setType(char type) {
+
+      throw new UnsupportedOperationException("CompactGraph is immutable");
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+
+      if (obj instanceof Edge) {
+        Edge other = (Edge) obj;
+        return id == other.getId() && metadata.equals(other.getMetadata());
+      }
+      return false;
+    }
+
+    @Override
+    public String toString() {
+
+      return metadata.toString() + id;
+    }
+
+    public int compareTo(Edge other) {
+
+      if (other == null) {
+        return 1;
+      }
+      if (id != other.getId()) {
+        return id > other.getId() ? 1 : -1;
+      }
+      return metadata.compareTo(other.getMetadata());
+    }
+  }
+}
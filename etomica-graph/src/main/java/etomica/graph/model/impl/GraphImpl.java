@@ -276,6 +276,10 @@ public class GraphImpl implements Graph {
   @Override
   public boolean equals(Object obj) {
 
+    if (obj instanceof CompactGraph) {
+      // CompactGraph only equals another CompactGraph
+      return false;
+    }
     if (obj instanceof Graph) {
       Graph other = (Graph) obj;
       // check coefficient
@@ -416,6 +420,15 @@ public class GraphImpl implements Graph {
   // for n odd, k=(n-1)/2
   // for n even, k=(n-2)/2, edge list then also includes (0,n/2),(1,n/2+1),...,(n/2-2,n-2),(n/2-1,n-1)
   public byte getEdgeId(byte fromNode, byte toNode) {
+
+    return getEdgeId(nodes.length, fromNode, toNode);
+  }
+
+  /**
+   * Returns the id of the edge from fromNode to toNode in a graph with
+   * nodeCount nodes.
+   */
+  public static byte getEdgeId(int nodeCount, byte fromNode, byte toNode) {
 	  boolean reverse = false;//for Wertheim multiple association site
 
     assert (fromNode != toNode);
@@ -426,37 +439,43 @@ public class GraphImpl implements Graph {
       toNode = tmpNode;
     }
     byte diff = (byte)(toNode - fromNode);
-    if (diff > nodes.length/2) {
+    if (diff > nodeCount/2) {
       // we're jumping from an node near the start to node near the end
       // consider instead going from the node near the end to the node near the beginning
       // (so that diff is smaller)
-      diff = (byte)(nodes.length - diff);
+      diff = (byte)(nodeCount - diff);
       fromNode = toNode;
     }
 
     // first n edges form the outer ring of edges, etc
-    byte id = (byte) ((diff-1)*nodes.length + fromNode);
+    byte id = (byte) ((diff-1)*nodeCount + fromNode);
     if (reverse){
-    	id += edges.length;
+    	id += nodeCount*(nodeCount-1)/2;
     }
     return id;
   }
 
   public byte getFromNode(byte edgeId) {
-	boolean reverse = edgeId >= edges.length;
+
+    return getFromNode(nodes.length, edgeId);
+  }
+
+  public static byte getFromNode(int nodeCount, byte edgeId) {
+	int edgeCount = nodeCount*(nodeCount-1)/2;
+	boolean reverse = edgeId >= edgeCount;
 	if (reverse){
-		edgeId -= edges.length;
-		return getToNode(edgeId);
+		edgeId -= edgeCount;
+		return getToNode(nodeCount, edgeId);
 	}
-    byte diff = (byte) (edgeId / nodes.length + 1);
-    byte fromNode = (byte) (edgeId - (diff-1)*nodes.length);
+    byte diff = (byte) (edgeId / nodeCount + 1);
+    byte fromNode = (byte) (edgeId - (diff-1)*nodeCount);
     byte toNode = (byte)(fromNode + diff);
-    if (toNode < nodes.length) {
+    if (toNode < nodeCount) {
       return fromNode;
     }
     // we have something like a from=0, to=(n-1) edge.  our above math gives
     // us from=n-1, to=n, so we need to convert back to from=0
-    return (byte)(toNode - nodes.length);
+    return (byte)(toNode - nodeCount);
   }
 
   public Node getNode(byte node) {
@@ -501,15 +520,21 @@ public class GraphImpl implements Graph {
   }
 
   public byte getToNode(byte edgeId) {
-	boolean reverse = edgeId >= edges.length;
+
+    return getToNode(nodes.length, edgeId);
+  }
+
+  public static byte getToNode(int nodeCount, byte edgeId) {
+	int edgeCount = nodeCount*(nodeCount-1)/2;
+	boolean reverse = edgeId >= edgeCount;
 	if (reverse){
-		edgeId -= edges.length;
-		return getFromNode(edgeId);
+		edgeId -= edgeCount;
+		return getFromNode(nodeCount, edgeId);
 	}
-    byte diff = (byte) (edgeId / nodes.length + 1);
-    byte fromNode = (byte) (edgeId - (diff-1)*nodes.length);
+    byte diff = (byte) (edgeId / nodeCount + 1);
+    byte fromNode = (byte) (edgeId - (diff-1)*nodeCount);
     byte toNode = (byte)(fromNode + diff);
-    if (toNode < nodes.length) {
+    if (toNode < nodeCount) {
       return toNode;
     }
     // we have something like a from=0, to=(n-1) edge.  our above math gives
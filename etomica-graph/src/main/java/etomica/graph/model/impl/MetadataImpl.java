@@ -6,15 +6,16 @@ package etomica.graph.model.impl;
 
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import etomica.graph.model.Metadata;
 
 public class MetadataImpl implements Metadata {
 
-  private static final Map<String, Metadata> stock = new HashMap<String, Metadata>();
+  // stock components are compared by identity, so graphs built on different
+  // threads must still get the same instance
+  private static final ConcurrentHashMap<String, Metadata> stock = new ConcurrentHashMap<String, Metadata>();
   public static Comparator<Metadata> metaDataComparator = null;
   private char type;
   private char color;
@@ -37,10 +38,15 @@ public class MetadataImpl implements Metadata {
   public static Metadata getStockComponent(char type, char color) {
 
     String key = "" + type + color;
-    if (!stock.containsKey(key)) {
-      stock.put(key, new MetadataImpl(type, color));
+    Metadata m = stock.get(key);
+    if (m == null) {
+      m = new MetadataImpl(type, color);
+      Metadata old = stock.putIfAbsent(key, m);
+      if (old != null) {
+        m = old;
+      }
     }
-    return stock.get(key);
+    return m;
   }
 
   public char getColor() {
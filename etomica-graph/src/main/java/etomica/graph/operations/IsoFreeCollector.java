@@ -0,0 +1,78 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.graph.operations;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+import etomica.graph.isomorphism.CanonicalForm;
+import etomica.graph.iterators.filters.GlobalFilter.SignatureMaker;
+import etomica.graph.model.Graph;
+
+/**
+ * Thread-safe equivalent of IsoFree that collects graphs as they are added.
+ * Graphs are keyed by their canonical form and signature (as in
+ * IsomorphismFilter); isomorphs are combined by adding their coefficients
+ * and keeping the same representative IsoFree would.  Graphs whose
+ * coefficients cancel are dropped.  Added graphs are copied, so the caller's
+ * graphs are not modified.
+ */
+public class IsoFreeCollector {
+
+  protected final ConcurrentHashMap<String, Graph> graphs = new ConcurrentHashMap<String, Graph>();
+  protected final SignatureMaker signatureMaker;
+
+  public IsoFreeCollector() {
+    this(null);
+  }
+
+  /**
+   * @param signatureMaker used (along with the canonical form) to key the
+   * graphs; it will be called from multiple threads.  If null, the graph
+   * signature is used.
+   */
+  public IsoFreeCollector(SignatureMaker signatureMaker) {
+    this.signatureMaker = signatureMaker == null ? new SignatureMaker() : signatureMaker;
+  }
+
+  public void add(Graph g) {
+    String key = CanonicalForm.key(g) + signatureMaker.getSignature(g);
+    final Graph gCopy = g.copy();
+    graphs.compute(key, new BiFunction<String, Graph, Graph>() {
+      public Graph apply(String k, Graph isoGraph) {
+        if (isoGraph == null) {
+          return gCopy;
+        }
+        // same choice as IsomorphismFilter
+        Graph keep = gCopy, drop = isoGraph;
+        if (isoGraph.compareTo(gCopy) >= 0) {
+          keep = isoGraph;
+          drop = gCopy;
+        }
+        keep.coefficient().add(drop.coefficient());
+        return keep.coefficient().getNumerator() == 0 ? null : keep;
+      }
+    });
+  }
+
+  public void addAll(Set<Graph> set) {
+    for (Graph g : set) {
+      add(g);
+    }
+  }
+
+  public int size() {
+    return graphs.size();
+  }
+
+  /**
+   * Returns the isomorph-free set of graphs collected so far.
+   */
+  public Set<Graph> getResult() {
+    return new HashSet<Graph>(graphs.values());
+  }
+}
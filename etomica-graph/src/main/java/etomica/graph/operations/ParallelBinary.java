@@ -0,0 +1,54 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.graph.operations;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import etomica.graph.model.Graph;
+
+/**
+ * Applies a Binary operation (followed by any added stages) to chunks of the
+ * left argument in parallel, each with the entire right argument, returning
+ * the isomorph-free union of the results.  See ParallelOp.
+ */
+public class ParallelBinary extends ParallelOp implements Binary {
+
+  protected final Binary op;
+  protected Set<Graph> right;
+
+  public ParallelBinary(Binary op) {
+    this(op, null);
+  }
+
+  public ParallelBinary(Binary op, ForkJoinPool pool) {
+    super(pool);
+    this.op = op;
+  }
+
+  public Set<Graph> apply(Set<Graph> left, Set<Graph> right, Parameters params) {
+    return apply(left.iterator(), right, params);
+  }
+
+  /**
+   * Applies the operation to the graphs from the given iterator, which are
+   * read in chunks as they are needed.
+   */
+  public synchronized Set<Graph> apply(Iterator<Graph> left, Set<Graph> right, Parameters params) {
+    prepareShared(right);
+    this.right = right;
+    try {
+      return run(left, params);
+    }
+    finally {
+      this.right = null;
+    }
+  }
+
+  protected Set<Graph> applyChunk(Set<Graph> chunk, Parameters params) {
+    return op.apply(chunk, right, params);
+  }
+}
@@ -0,0 +1,180 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.graph.operations;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import etomica.graph.iterators.filters.GlobalFilter.SignatureMaker;
+import etomica.graph.model.Graph;
+
+/**
+ * Base class for operations that stream their input through a pipeline in
+ * chunks.  Input graphs are pulled (lazily, on the calling thread) in chunks
+ * of chunkSize, and each chunk is passed through the operation and any
+ * additional stages on a ForkJoinPool.  The output of each chunk goes
+ * directly into an IsoFreeCollector, so only the final (isomorph-free) result
+ * and the chunks in flight are held in memory, rather than every
+ * intermediate set.
+ *
+ * This is only valid for operations that act on each graph of their
+ * (left) argument independently and whose result is only needed up to
+ * isomorphism, which includes Mul, MulFlexible, Decorate, Split and IsoFree.
+ * The operations must also be safe to call from multiple threads at once.
+ */
+public abstract class ParallelOp {
+
+  protected final ForkJoinPool pool;
+  protected final List<Unary> stages = new ArrayList<Unary>();
+  protected final List<Parameters> stageParams = new ArrayList<Parameters>();
+  protected int chunkSize = 1000;
+  protected int maxPendingChunks;
+  protected SignatureMaker signatureMaker;
+
+  /**
+   * @param pool the pool the chunks run on.  If null, the common pool is used.
+   */
+  public ParallelOp(ForkJoinPool pool) {
+    this.pool = pool == null ? ForkJoinPool.commonPool() : pool;
+    maxPendingChunks = 2 * this.pool.getParallelism();
+  }
+
+  /**
+   * Adds an operation to be applied (with the given parameters) to the
+   * result of each chunk, after the main operation and any previously added
+   * stages.
+   */
+  public void addStage(Unary op, Parameters params) {
+    stages.add(op);
+    stageParams.add(params);
+  }
+
+  public void setChunkSize(int newChunkSize) {
+    if (newChunkSize < 1) {
+      throw new IllegalArgumentException("chunk size must be positive");
+    }
+    chunkSize = newChunkSize;
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * Sets the number of chunks that may be queued or running at once.  Reading
+   * of the input waits while this many chunks are pending.
+   */
+  public void setMaxPendingChunks(int newMaxPendingChunks) {
+    if (newMaxPendingChunks < 1) {
+      throw new IllegalArgumentException("max pending chunks must be positive");
+    }
+    maxPendingChunks = newMaxPendingChunks;
+  }
+
+  public int getMaxPendingChunks() {
+    return maxPendingChunks;
+  }
+
+  /**
+   * Sets the SignatureMaker (such as IsoFreeParams) used for the final
+   * isomorph-free stage.  It will be called from multiple threads.
+   */
+  public void setSignatureMaker(SignatureMaker newSignatureMaker) {
+    signatureMaker = newSignatureMaker;
+  }
+
+  /**
+   * Applies the operation for this class to a chunk of input graphs.
+   */
+  protected abstract Set<Graph> applyChunk(Set<Graph> chunk, Parameters params);
+
+  protected Set<Graph> applyStages(Set<Graph> set) {
+    for (int i = 0; i < stages.size(); i++) {
+      set = stages.get(i).apply(set, stageParams.get(i));
+    }
+    return set;
+  }
+
+  protected Set<Graph> run(Iterator<Graph> source, final Parameters params) {
+    final IsoFreeCollector collector = new IsoFreeCollector(signatureMaker);
+    Deque<Future<?>> pending = new ArrayDeque<Future<?>>();
+    try {
+      while (source.hasNext()) {
+        final Set<Graph> chunk = new HashSet<Graph>();
+        while (chunk.size() < chunkSize && source.hasNext()) {
+          chunk.add(source.next());
+        }
+        if (pending.size() >= maxPendingChunks) {
+          waitFor(pending.removeFirst());
+        }
+        pending.add(pool.submit(new Runnable() {
+          public void run() {
+            collector.addAll(applyStages(applyChunk(chunk, params)));
+          }
+        }));
+      }
+      while (!pending.isEmpty()) {
+        waitFor(pending.removeFirst());
+      }
+    }
+    finally {
+      for (Future<?> f : pending) {
+        f.cancel(false);
+      }
+    }
+    return collector.getResult();
+  }
+
+  protected static void waitFor(Future<?> future) {
+    try {
+      future.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Makes sure the lazily-built node and edge lists of graphs that will be
+   * read from multiple threads exist before the threads start.
+   */
+  protected static void prepareShared(Set<Graph> set) {
+    for (Graph g : set) {
+      g.nodes();
+      g.edges();
+    }
+  }
+
+  /**
+   * Unary operation that applies a Binary operation with a fixed right
+   * argument, for use as a stage.
+   */
+  public static class BinaryStage implements Unary {
+    protected final Binary op;
+    protected final Set<Graph> right;
+
+    public BinaryStage(Binary op, Set<Graph> right) {
+      this.op = op;
+      this.right = right;
+      prepareShared(right);
+    }
+
+    public Set<Graph> apply(Set<Graph> argument, Parameters params) {
+      return op.apply(argument, right, params);
+    }
+  }
+}
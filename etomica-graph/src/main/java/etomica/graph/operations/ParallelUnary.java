@@ -0,0 +1,46 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.graph.operations;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import etomica.graph.model.Graph;
+
+/**
+ * Applies a Unary operation (followed by any added stages) to chunks of the
+ * argument in parallel, returning the isomorph-free union of the results.
+ * See ParallelOp.
+ */
+public class ParallelUnary extends ParallelOp implements Unary {
+
+  protected final Unary op;
+
+  public ParallelUnary(Unary op) {
+    this(op, null);
+  }
+
+  public ParallelUnary(Unary op, ForkJoinPool pool) {
+    super(pool);
+    this.op = op;
+  }
+
+  public Set<Graph> apply(Set<Graph> argument, Parameters params) {
+    return apply(argument.iterator(), params);
+  }
+
+  /**
+   * Applies the operation to the graphs from the given iterator, which are
+   * read in chunks as they are needed.
+   */
+  public Set<Graph> apply(Iterator<Graph> argument, Parameters params) {
+    return run(argument, params);
+  }
+
+  protected Set<Graph> applyChunk(Set<Graph> chunk, Parameters params) {
+    return op.apply(chunk, params);
+  }
+}
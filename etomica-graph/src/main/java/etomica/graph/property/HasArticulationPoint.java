@@ -25,7 +25,7 @@ public class HasArticulationPoint implements Property {
     }
     Set<Byte> rootNodes = new HashSet<Byte>();
     for (byte nodeID = 0; nodeID < graph.nodeCount(); nodeID++) {
-      if (graph.nodes().get(nodeID).getType() == TYPE_NODE_ROOT) {
+      if (graph.getNode(nodeID).getType() == TYPE_NODE_ROOT) {
         rootNodes.add(nodeID);
       }
     }
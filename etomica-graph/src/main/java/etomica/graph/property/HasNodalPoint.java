@@ -25,7 +25,7 @@ public class HasNodalPoint implements Property {
     }
     Set<Byte> rootNodes = new HashSet<Byte>();
     for (byte nodeID = 0; nodeID < graph.nodeCount(); nodeID++) {
-      if (graph.nodes().get(nodeID).getType() == TYPE_NODE_ROOT) {
+      if (graph.getNode(nodeID).getType() == TYPE_NODE_ROOT) {
         rootNodes.add(nodeID);
       }
     }
@@ -80,7 +80,7 @@ class NPVisitor implements TraversalVisitor {
       if (isArticulation) {
         isArticulation = !isArticulation;
       }
-      else if (graph.nodes().get(nodeID).getType() == TYPE_NODE_ROOT) {
+      else if (graph.getNode(nodeID).getType() == TYPE_NODE_ROOT) {
         rootNodesVisited++;
       }
     }
@@ -22,7 +22,7 @@ public class BiconectedNodalPoint extends Biconnected {
       while (nodeID < graph.nodeCount()) {
         // start the next traversal with the first unseen field node
         while (nodeID < graph.nodeCount()
-            && (((getSeen() & BitmapUtils.bitOnMask(nodeID)) > 0) || (graph.nodes().get(nodeID).getType() == TYPE_NODE_FIELD))) {
+            && (((getSeen() & BitmapUtils.bitOnMask(nodeID)) > 0) || (graph.getNode(nodeID).getType() == TYPE_NODE_FIELD))) {
           nodeID++;
         }
         // make sure the nodeID is valid
@@ -146,7 +146,7 @@ public class Biconnected extends AbstractTraversal {
       }
       status(STATUS_VISITED_ALL);
     }
-    return result == 0 ? (byte) graph.nodes().size() : result;
+    return result == 0 ? graph.nodeCount() : result;
   }
 
   @Override
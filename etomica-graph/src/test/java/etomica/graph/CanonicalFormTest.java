@@ -0,0 +1,111 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.graph;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import etomica.graph.isomorphism.CanonicalForm;
+import etomica.graph.isomorphism.Match;
+import etomica.graph.iterators.DefaultIterator;
+import etomica.graph.model.Graph;
+import etomica.graph.model.GraphFactory;
+import etomica.graph.model.GraphIterator;
+
+public class CanonicalFormTest extends TestCase {
+
+  public void testIsomorphCount() {
+
+    for (byte n = 1; n <= 7; n++) {
+      Set<String> keys = new HashSet<String>();
+      GraphIterator iterator = new DefaultIterator(n);
+      while (iterator.hasNext()) {
+        keys.add(CanonicalForm.key(iterator.next()));
+      }
+      assertEquals(Match.ISMORPHS_COUNT[n - 1], keys.size());
+    }
+  }
+
+  public void testColoredGraphs() {
+
+    Random random = new Random(12345);
+    byte n = 6;
+    List<Graph> graphs = new ArrayList<Graph>();
+    for (int i = 0; i < 100; i++) {
+      Graph g = randomGraph(random, n);
+      graphs.add(g);
+      // permuted copies must have the same key
+      Graph p = permute(g, random);
+      assertTrue(Match.match(g, p, false));
+      assertEquals(CanonicalForm.key(g), CanonicalForm.key(p));
+    }
+    for (int i = 0; i < graphs.size(); i++) {
+      for (int j = i + 1; j < graphs.size(); j++) {
+        Graph g1 = graphs.get(i), g2 = graphs.get(j);
+        assertEquals(Match.match(g1, g2, false), CanonicalForm.key(g1).equals(CanonicalForm.key(g2)));
+      }
+    }
+  }
+
+  public void testCompleteGraph() {
+
+    byte n = 12;
+    Graph g = GraphFactory.createGraph(n);
+    for (byte i = 0; i < n; i++) {
+      for (byte j = (byte) (i + 1); j < n; j++) {
+        g.putEdge(i, j);
+      }
+    }
+    // without pruning by automorphisms, this would visit 12! leaves
+    CanonicalForm cf = new CanonicalForm(g);
+    assertTrue(cf.getAutomorphismCount() < n * n);
+  }
+
+  private Graph randomGraph(Random random, byte n) {
+
+    Graph g = GraphFactory.createGraph(n);
+    for (byte i = 0; i < n; i++) {
+      // few colors, so that many of the graphs are isomorphic
+      g.getNode(i).setColor(random.nextInt(4) == 0 ? 'B' : 'A');
+      for (byte j = (byte) (i + 1); j < n; j++) {
+        if (random.nextInt(3) != 0) {
+          g.putEdge(i, j);
+          g.getEdge(i, j).setColor(random.nextInt(3) == 0 ? 'B' : 'A');
+        }
+      }
+    }
+    return g;
+  }
+
+  private Graph permute(Graph g, Random random) {
+
+    byte n = g.nodeCount();
+    byte[] perm = new byte[n];
+    for (byte i = 0; i < n; i++) {
+      perm[i] = i;
+    }
+    for (int i = n - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      byte t = perm[i];
+      perm[i] = perm[j];
+      perm[j] = t;
+    }
+    Graph p = GraphFactory.createGraph(n);
+    for (byte i = 0; i < n; i++) {
+      p.getNode(perm[i]).setColor(g.getNode(i).getColor());
+      for (byte j = (byte) (i + 1); j < n; j++) {
+        if (g.hasEdge(i, j)) {
+          p.putEdge(perm[i], perm[j]);
+          p.getEdge(perm[i], perm[j]).setColor(g.getEdge(i, j).getColor());
+        }
+      }
+    }
+    return p;
+  }
+}
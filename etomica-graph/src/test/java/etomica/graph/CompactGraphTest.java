@@ -0,0 +1,127 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.graph;
+
+import junit.framework.TestCase;
+import etomica.graph.iterators.DefaultIterator;
+import etomica.graph.model.Graph;
+import etomica.graph.model.GraphFactory;
+import etomica.graph.model.GraphIterator;
+import etomica.graph.model.impl.CompactGraph;
+import etomica.graph.model.impl.CoefficientImpl;
+import etomica.graph.property.HasArticulationPoint;
+import etomica.graph.property.IsBiconnected;
+import etomica.graph.property.IsConnected;
+import etomica.graph.property.Property;
+
+public class CompactGraphTest extends TestCase {
+
+  public void testEquivalence() {
+
+    Property[] properties = new Property[] {new IsBiconnected(), new IsConnected(), new HasArticulationPoint()};
+    GraphIterator iterator = new DefaultIterator((byte) 6, (byte) 2);
+    int count = 0;
+    while (iterator.hasNext()) {
+      Graph g = iterator.next();
+      // vary the colors and coefficient
+      for (byte edgeId = 0; edgeId < 15; edgeId++) {
+        if (g.hasEdge(edgeId) && (count + edgeId) % 3 == 0) {
+          g.getEdge(edgeId).setColor('B');
+        }
+      }
+      g.getNode((byte) (count % 6)).setColor('C');
+      g.coefficient().multiply(new CoefficientImpl(count % 5 - 2, 3));
+      count++;
+
+      Graph cg = GraphFactory.createCompactGraph(g);
+      assertEquals(g.nodeCount(), cg.nodeCount());
+      assertEquals(g.edgeCount(), cg.edgeCount());
+      assertEquals(0, g.compareTo(cg));
+      assertEquals(0, cg.compareTo(g));
+      assertEquals(g.toString(), cg.toString());
+      assertEquals(g.getSignature(), cg.getSignature());
+      Graph copy = cg.copy();
+      assertEquals(0, g.compareTo(copy));
+      assertEquals(g.coefficient().getValue(), copy.coefficient().getValue());
+      assertEquals(g.coefficient().getValue(), cg.coefficient().getValue());
+      assertEquals(g.edges(), cg.edges());
+      assertEquals(g.nodes(), cg.nodes());
+      for (byte i = 0; i < g.nodeCount(); i++) {
+        assertEquals(g.getOutDegree(i), cg.getOutDegree(i));
+        for (byte j = 0; j < g.getOutDegree(i); j++) {
+          assertEquals(g.getOutNode(i, j), cg.getOutNode(i, j));
+        }
+      }
+      for (Property p : properties) {
+        assertEquals(p.check(g), p.check(cg));
+      }
+    }
+  }
+
+  public void testEqualsFactors() {
+
+    Graph g = GraphFactory.createGraph((byte) 4);
+    g.putEdge((byte) 0, (byte) 1);
+    g.setNumFactors(2);
+    g.addFactors(new int[] {1, 0});
+    Graph g2 = g.copy();
+    g2.addFactors(new int[] {0, 1});
+    CompactGraph cg = new CompactGraph(g);
+    CompactGraph cg2 = new CompactGraph(g2);
+    assertFalse(cg.equals(cg2));
+    assertFalse(cg2.equals(cg));
+    assertTrue(cg.hashCode() != cg2.hashCode());
+    CompactGraph cg3 = new CompactGraph(g.copy());
+    assertEquals(cg, cg3);
+    assertEquals(cg.hashCode(), cg3.hashCode());
+  }
+
+  public void testEqualsGraphImpl() {
+
+    Graph g = GraphFactory.createGraph((byte) 4);
+    g.putEdge((byte) 0, (byte) 1);
+    CompactGraph cg = new CompactGraph(g);
+    // the types never mix, in either direction
+    assertFalse(cg.equals(g));
+    assertFalse(g.equals(cg));
+    assertFalse(cg.equals(cg.copy()));
+    assertFalse(cg.copy().equals(cg));
+    assertEquals(0, cg.compareTo(g));
+    assertEquals(0, g.compareTo(cg));
+  }
+
+  public void testImmutable() {
+
+    Graph g = GraphFactory.createGraph((byte) 4);
+    g.putEdge((byte) 0, (byte) 1);
+    Graph cg = new CompactGraph(g);
+    try {
+      cg.putEdge((byte) 1, (byte) 2);
+      fail("should be immutable");
+    }
+    catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      cg.getEdge((byte) 0, (byte) 1).setColor('B');
+      fail("should be immutable");
+    }
+    catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      cg.coefficient().add(g.coefficient());
+      fail("should be immutable");
+    }
+    catch (UnsupportedOperationException e) {
+      // expected
+    }
+    // but the copy can be modified
+    Graph copy = cg.copy();
+    copy.putEdge((byte) 1, (byte) 2);
+    assertEquals(2, copy.edgeCount());
+    assertEquals(1, cg.edgeCount());
+  }
+}
@@ -0,0 +1,162 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.graph;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+import etomica.graph.isomorphism.CanonicalForm;
+import etomica.graph.iterators.DefaultIterator;
+import etomica.graph.iterators.filters.IsomorphismFilter;
+import etomica.graph.model.Graph;
+import etomica.graph.model.GraphFactory;
+import etomica.graph.model.GraphIterator;
+import etomica.graph.model.Metadata;
+import etomica.graph.model.impl.CoefficientImpl;
+import etomica.graph.operations.Decorate;
+import etomica.graph.operations.Decorate.DecorateParameters;
+import etomica.graph.operations.IsoFree;
+import etomica.graph.operations.MulFlexible.MulFlexibleParameters;
+import etomica.graph.operations.ParallelBinary;
+import etomica.graph.operations.ParallelOp;
+import etomica.graph.operations.ParallelUnary;
+import etomica.graph.operations.Split;
+import etomica.graph.operations.SplitParameters;
+
+public class ParallelOpTest extends TestCase {
+
+  public void testIsoFree() {
+
+    IsomorphismFilter.DEBUG_MODE = false;
+    Set<Graph> all = new HashSet<Graph>();
+    GraphIterator iterator = new DefaultIterator((byte) 6);
+    while (iterator.hasNext()) {
+      all.add(iterator.next());
+    }
+    ForkJoinPool pool = new ForkJoinPool(3);
+    try {
+      ParallelUnary parallelIsoFree = new ParallelUnary(new IsoFree(), pool);
+      parallelIsoFree.setChunkSize(50);
+      assertSameDiagrams(new IsoFree().apply(all, null), parallelIsoFree.apply(all, null));
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
+  public void testSplit() {
+
+    IsomorphismFilter.DEBUG_MODE = false;
+    Set<Graph> isoFree = new HashSet<Graph>();
+    GraphIterator iterator = new IsomorphismFilter(new DefaultIterator((byte) 5));
+    while (iterator.hasNext()) {
+      isoFree.add(iterator.next());
+    }
+    SplitParameters params = new SplitParameters(Metadata.COLOR_CODE_0, Metadata.COLOR_CODE_1, Metadata.COLOR_CODE_2);
+    Set<Graph> expected = new IsoFree().apply(new Split().apply(isoFree, params), null);
+    ForkJoinPool pool = new ForkJoinPool(3);
+    try {
+      ParallelUnary parallelSplit = new ParallelUnary(new Split(), pool);
+      parallelSplit.setChunkSize(4);
+      parallelSplit.setMaxPendingChunks(2);
+      // the stage has no effect beyond what the final stage does
+      parallelSplit.addStage(new IsoFree(), null);
+      // lazily read from the iterator
+      Set<Graph> result = parallelSplit.apply(isoFree.iterator(), params);
+      assertSameDiagrams(expected, result);
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Decorates two-color diagrams with zA (by factor 0) and then zB (by factor
+   * 1), as VirialDiagramsMix2 does, serially and with ParallelBinary.
+   */
+  public void testDecorate() {
+
+    IsomorphismFilter.DEBUG_MODE = false;
+    char colorA = Metadata.COLOR_CODE_0;
+    char colorB = Metadata.COLOR_CODE_1;
+    // diagrams with up to 3 nodes of each color combination, with the
+    // number of A and B nodes as factors 0 and 1
+    Set<Graph> lnfXi = new HashSet<Graph>();
+    for (byte n = 1; n < 4; n++) {
+      GraphIterator iterator = new IsomorphismFilter(new DefaultIterator(n));
+      while (iterator.hasNext()) {
+        Graph g = iterator.next();
+        for (int colors = 0; colors < (1 << n); colors++) {
+          Graph gc = g.copy();
+          gc.setNumFactors(4);
+          for (byte i = 0; i < n; i++) {
+            boolean isB = ((colors >> i) & 1) == 1;
+            gc.getNode(i).setColor(isB ? colorB : colorA);
+            gc.factors()[isB ? 1 : 0]++;
+          }
+          lnfXi.add(gc);
+        }
+      }
+    }
+    lnfXi = new IsoFree().apply(lnfXi, null);
+    Set<Graph> zA = new HashSet<Graph>();
+    Graph rhoA = GraphFactory.createGraph((byte) 1);
+    rhoA.getNode((byte) 0).setColor(colorA);
+    rhoA.setNumFactors(4);
+    rhoA.factors()[2] = 1;
+    zA.add(rhoA);
+    Graph rhoA2 = GraphFactory.createGraph((byte) 2);
+    rhoA2.putEdge((byte) 0, (byte) 1);
+    rhoA2.getNode((byte) 0).setColor(colorA);
+    rhoA2.getNode((byte) 1).setColor(colorA);
+    rhoA2.coefficient().multiply(new CoefficientImpl(-1, 2));
+    rhoA2.setNumFactors(4);
+    rhoA2.factors()[2] = 2;
+    zA.add(rhoA2);
+    Set<Graph> zB = new HashSet<Graph>();
+    Graph rhoB = GraphFactory.createGraph((byte) 1);
+    rhoB.getNode((byte) 0).setColor(colorB);
+    rhoB.setNumFactors(4);
+    rhoB.factors()[3] = 1;
+    zB.add(rhoB);
+
+    MulFlexibleParameters mfp = MulFlexibleParameters.makeParameters(new char[] {colorA, colorB}, (byte) 6);
+    Decorate decorate = new Decorate();
+    Set<Graph> expected = decorate.apply(decorate.apply(lnfXi, zA, new DecorateParameters(0, mfp)), zB,
+        new DecorateParameters(1, mfp));
+    assertTrue(expected.size() > lnfXi.size());
+    ForkJoinPool pool = new ForkJoinPool(3);
+    try {
+      ParallelBinary parallelDecorate = new ParallelBinary(decorate, pool);
+      parallelDecorate.setChunkSize(5);
+      parallelDecorate.addStage(new ParallelOp.BinaryStage(decorate, zB), new DecorateParameters(1, mfp));
+      assertSameDiagrams(expected, parallelDecorate.apply(lnfXi, zA, new DecorateParameters(0, mfp)));
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
+  protected void assertSameDiagrams(Set<Graph> expected, Set<Graph> actual) {
+
+    assertEquals(expected.size(), actual.size());
+    Map<String, Graph> expectedMap = new HashMap<String, Graph>();
+    for (Graph g : expected) {
+      expectedMap.put(CanonicalForm.key(g), g);
+    }
+    assertEquals(expected.size(), expectedMap.size());
+    for (Graph g : actual) {
+      Graph e = expectedMap.get(CanonicalForm.key(g));
+      assertNotNull(e);
+      assertEquals(e.coefficient().getValue(), g.coefficient().getValue());
+      assertTrue(Arrays.equals(e.factors(), g.factors()));
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package etomica.server.resources;
+
+import etomica.space.Boundary;
+import etomica.space.Vector;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Encodes the coordinates from SimulationWrapper.getAllCoordinates() as
+ * binary websocket frames.  Coordinates are sent as float32, and after the
+ * first frame only the atoms that moved (by more than the tolerance, in any
+ * direction) since they were last sent are included.  A full frame is sent
+ * instead whenever the number of boxes or atoms changes, or when it would be
+ * smaller than the delta.
+ *
+ * All values are little-endian and 4-byte aligned.  Each frame is
+ * <pre>
+ *   uint8 frame type (FRAME_FULL or FRAME_DELTA)
+ *   uint8 dimension D
+ *   uint16 number of boxes
+ *   uint32 frame number
+ *   for each box:
+ *     float32[D] box size
+ *     uint32 number of atoms n
+ *     full frame:  float32[n*D] coordinates
+ *     delta frame: uint32 number of changed atoms k, then for each changed
+ *                  atom uint32 index and float32[D] coordinates
+ * </pre>
+ * The encoder is not thread-safe, and the returned buffer is reused by the
+ * next call to encode.
+ */
+public class BinaryConfigurationEncoder {
+    public static final byte FRAME_FULL = 0;
+    public static final byte FRAME_DELTA = 1;
+
+    private final double tolerance;
+    private float[][] sent;
+    private int[][] changed;
+    private int[] numChanged;
+    private int sentDim;
+    private int frameNumber;
+    private ByteBuffer buffer;
+
+    /**
+     * @param tolerance displacement (in any direction) below which an atom is
+     *                  not sent again.  With 0, atoms are sent whenever their
+     *                  float32 coordinates change.
+     */
+    public BinaryConfigurationEncoder(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Forces the next frame to be a full frame.  This should be called if a
+     * frame might not have reached the client.
+     */
+    public void reset() {
+        sent = null;
+    }
+
+    public ByteBuffer encode(double[][][] coordinates, Boundary[] boundaries) {
+        int boxCount = coordinates.length;
+        int dim = boxCount == 0 ? 0 : boundaries[0].getBoxSize().getD();
+
+        boolean full = sent == null || sent.length != boxCount || sentDim != dim;
+        for (int i = 0; !full && i < boxCount; i++) {
+            full = sent[i].length != coordinates[i].length * dim;
+        }
+
+        int fullSize = 8, deltaSize = 8;
+        if (full) {
+            sent = new float[boxCount][];
+            changed = new int[boxCount][];
+            numChanged = new int[boxCount];
+            sentDim = dim;
+        }
+        for (int i = 0; i < boxCount; i++) {
+            int atomCount = coordinates[i].length;
+            fullSize += 4 * dim + 4 + 4 * atomCount * dim;
+            if (full) {
+                sent[i] = new float[atomCount * dim];
+                changed[i] = new int[atomCount];
+                continue;
+            }
+            numChanged[i] = findChanged(coordinates[i], sent[i], changed[i], dim);
+            deltaSize += 4 * dim + 8 + numChanged[i] * (4 + 4 * dim);
+        }
+        if (!full && deltaSize >= fullSize) {
+            full = true;
+        }
+
+        int size = full ? fullSize : deltaSize;
+        if (buffer == null || buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate(Math.max(size, buffer == null ? 0 : 2 * buffer.capacity()));
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer.clear();
+        buffer.put(full ? FRAME_FULL : FRAME_DELTA);
+        buffer.put((byte) dim);
+        buffer.putShort((short) boxCount);
+        buffer.putInt(frameNumber++);
+        for (int i = 0; i < boxCount; i++) {
+            Vector boxSize = boundaries[i].getBoxSize();
+            for (int k = 0; k < dim; k++) {
+                buffer.putFloat((float) boxSize.getX(k));
+            }
+            double[][] boxCoordinates = coordinates[i];
+            float[] boxSent = sent[i];
+            buffer.putInt(boxCoordinates.length);
+            if (full) {
+                for (int j = 0; j < boxCoordinates.length; j++) {
+                    putAtom(boxCoordinates[j], boxSent, j, dim);
+                }
+            } else {
+                buffer.putInt(numChanged[i]);
+                for (int c = 0; c < numChanged[i]; c++) {
+                    int j = changed[i][c];
+                    buffer.putInt(j);
+                    putAtom(boxCoordinates[j], boxSent, j, dim);
+                }
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Finds the atoms that moved by more than the tolerance since they were
+     * last sent, storing their indices in changed and returning how many there
+     * are.
+     */
+    private int findChanged(double[][] boxCoordinates, float[] boxSent, int[] changed, int dim) {
+        int n = 0;
+        for (int j = 0; j < boxCoordinates.length; j++) {
+            for (int k = 0; k < dim; k++) {
+                if (Math.abs((float) boxCoordinates[j][k] - boxSent[j * dim + k]) > tolerance) {
+                    changed[n++] = j;
+                    break;
+                }
+            }
+        }
+        return n;
+    }
+
+    private void putAtom(double[] atomCoordinates, float[] boxSent, int j, int dim) {
+        for (int k = 0; k < dim; k++) {
+            float x = (float) atomCoordinates[k];
+            buffer.putFloat(x);
+            boxSent[j * dim + k] = x;
+        }
+    }
+}
@@ -19,15 +19,30 @@ import javax.websocket.server.PathParam;
 import javax.websocket.server.ServerEndpoint;
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.UUID;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static etomica.server.EtomicaServer.objectWriter;
 
+/**
+ * Streams the coordinates of all atoms in a simulation.  By default each
+ * update is sent as JSON (a ConfigurationUpdate).  Clients that connect with
+ * the query parameter format=binary instead get the binary frames described in
+ * BinaryConfigurationEncoder, with an optional tolerance parameter giving the
+ * displacement below which an atom is not sent again.  If the tolerance is
+ * not a non-negative number, the session is closed with CANNOT_ACCEPT.
+ *
+ * Updates are sent at most every 33 ms, but never while the previous update is
+ * still being sent; when the client falls behind, the interval between updates
+ * grows, and it shrinks again as updates go out promptly.
+ */
 @ServerEndpoint(
         value="/simulations/{id}/configuration",
         encoders = {ConfigurationWebsocket.ConfigurationUpdateEncoder.class}
@@ -56,11 +71,30 @@ public class ConfigurationWebsocket {
         Simulation sim = model.getSimulation();
         SimulationWrapper wrapper = (SimulationWrapper) model.getWrapper(sim);
 
+        BinaryConfigurationEncoder binaryEncoder = null;
+        if ("binary".equals(getParameter(session, "format"))) {
+            double tolerance = parseTolerance(getParameter(session, "tolerance"));
+            if (!(tolerance >= 0) || Double.isInfinite(tolerance)) {
+                try {
+                    session.close(new CloseReason(CloseReason.CloseCodes.CANNOT_ACCEPT,
+                            "tolerance must be a non-negative number"));
+                } catch (IOException e) {
+                    log.warn("Unable to close websocket", e);
+                }
+                return;
+            }
+            binaryEncoder = new BinaryConfigurationEncoder(tolerance);
+        }
+        final BinaryConfigurationEncoder encoder = binaryEncoder;
+        final FramePacer pacer = new FramePacer();
+
         Runnable sendConfigurationUpdate = () -> {
             if(sim.getController().isPaused() || !sim.getController().isActive()) {
                 return;
             }
-
+            if(!pacer.isFrameDue()) {
+                return;
+            }
 
             sim.getController().doActionNow(() -> {
                 Boundary[] boundaries = new Boundary[sim.getBoxCount()];
@@ -68,11 +102,16 @@ public class ConfigurationWebsocket {
                     boundaries[i] = sim.getBox(i).getBoundary();
                 }
 
-                ConfigurationUpdate update = new ConfigurationUpdate(
-                        wrapper.getAllCoordinates(),
-                        boundaries
-                );
-                session.getAsyncRemote().sendObject(update);
+                if (encoder != null) {
+                    ByteBuffer frame = encoder.encode(wrapper.getAllCoordinates(), boundaries);
+                    session.getAsyncRemote().sendBinary(frame, pacer.startSend(encoder));
+                } else {
+                    ConfigurationUpdate update = new ConfigurationUpdate(
+                            wrapper.getAllCoordinates(),
+                            boundaries
+                    );
+                    session.getAsyncRemote().sendObject(update, pacer.startSend(null));
+                }
             });
 
         };
@@ -84,15 +123,88 @@ public class ConfigurationWebsocket {
     @OnClose
     public void onClose(Session session) {
         log.warn("Closing websocket");
-        ((ScheduledFuture<?>) session.getUserProperties().get("task")).cancel(false);
+        cancelTask(session);
     }
 
     @OnError
     public void onError(Session session, Throwable reason) {
         log.warn("Error in websocket", reason);
-        ((ScheduledFuture<?>) session.getUserProperties().get("task")).cancel(false);
+        cancelTask(session);
+    }
+
+    /**
+     * Cancels the update task, if onOpen got as far as starting it.
+     */
+    private static void cancelTask(Session session) {
+        ScheduledFuture<?> task = (ScheduledFuture<?>) session.getUserProperties().get("task");
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * Returns the tolerance given by the parameter (0 if there is none), or
+     * NaN if the parameter is not a number.
+     */
+    private static double parseTolerance(String tolerance) {
+        if (tolerance == null) {
+            return 0;
+        }
+        try {
+            return Double.parseDouble(tolerance);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
     }
 
+    private static String getParameter(Session session, String name) {
+        List<String> values = session.getRequestParameterMap().get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * Decides which runs of the update task send a frame.  A frame is sent
+     * every framePeriod runs; if the previous frame is still being sent when
+     * one is due, it is skipped and framePeriod is doubled, while each frame
+     * that is sent decreases framePeriod by one.
+     */
+    private static class FramePacer {
+        private static final int MAX_FRAME_PERIOD = 32;
+
+        private final AtomicBoolean sending = new AtomicBoolean();
+        private int framePeriod = 1;
+        private int runs;
+
+        boolean isFrameDue() {
+            if (++runs < framePeriod) {
+                return false;
+            }
+            runs = 0;
+            if (sending.get()) {
+                framePeriod = Math.min(2 * framePeriod, MAX_FRAME_PERIOD);
+                return false;
+            }
+            if (framePeriod > 1) {
+                framePeriod--;
+            }
+            return true;
+        }
+
+        /**
+         * Returns the handler for a frame that is about to be sent.  If the
+         * send fails, the encoder (if any) is reset so that the next frame
+         * does not depend on the lost one.
+         */
+        SendHandler startSend(BinaryConfigurationEncoder encoder) {
+            sending.set(true);
+            return result -> {
+                if (!result.isOK() && encoder != null) {
+                    encoder.reset();
+                }
+                sending.set(false);
+            };
+        }
+    }
 
     public static class ConfigurationUpdateEncoder implements Encoder.TextStream<ConfigurationUpdate> {
         private static ObjectWriter objectWriter = objectWriter();
@@ -0,0 +1,183 @@
+package etomica.server.resources;
+
+import etomica.space.Boundary;
+import etomica.space.BoundaryRectangularPeriodic;
+import etomica.space3d.Space3D;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class BinaryConfigurationEncoderTest {
+
+    private BinaryConfigurationEncoder encoder;
+    private Boundary[] boundaries;
+    private double[][][] coordinates;
+    // the configuration as the client would rebuild it from the frames
+    private float[][][] decoded;
+    private int frameType, frameNumber;
+    private int[] numSent;
+
+    @Before
+    public void setUp() {
+        encoder = new BinaryConfigurationEncoder(0.01);
+        boundaries = new Boundary[]{new BoundaryRectangularPeriodic(Space3D.getInstance(), new double[]{10, 11, 12})};
+        coordinates = new double[][][]{makeAtoms(20)};
+        frameNumber = -1;
+    }
+
+    private static double[][] makeAtoms(int n) {
+        double[][] atoms = new double[n][3];
+        for (int j = 0; j < n; j++) {
+            atoms[j][0] = j * 0.25;
+            atoms[j][1] = -j * 0.5;
+            atoms[j][2] = 1.0 / (j + 1);
+        }
+        return atoms;
+    }
+
+    /**
+     * Encodes the current coordinates and decodes the frame, checking the
+     * header and box sizes and applying the atoms sent to the decoded
+     * configuration.
+     */
+    private void encodeDecode() {
+        ByteBuffer buffer = encoder.encode(coordinates, boundaries).order(ByteOrder.LITTLE_ENDIAN);
+        frameType = buffer.get();
+        assertEquals(3, buffer.get());
+        int boxCount = buffer.getShort();
+        assertEquals(coordinates.length, boxCount);
+        assertEquals(frameNumber + 1, buffer.getInt());
+        frameNumber++;
+        if (frameType == BinaryConfigurationEncoder.FRAME_FULL) {
+            decoded = new float[boxCount][][];
+        } else {
+            assertEquals(BinaryConfigurationEncoder.FRAME_DELTA, frameType);
+        }
+        numSent = new int[boxCount];
+        for (int i = 0; i < boxCount; i++) {
+            for (int k = 0; k < 3; k++) {
+                assertEquals(boundaries[i].getBoxSize().getX(k), buffer.getFloat(), 0);
+            }
+            int n = buffer.getInt();
+            assertEquals(coordinates[i].length, n);
+            if (frameType == BinaryConfigurationEncoder.FRAME_FULL) {
+                decoded[i] = new float[n][3];
+                for (int j = 0; j < n; j++) {
+                    for (int k = 0; k < 3; k++) {
+                        decoded[i][j][k] = buffer.getFloat();
+                    }
+                }
+                numSent[i] = n;
+            } else {
+                numSent[i] = buffer.getInt();
+                for (int c = 0; c < numSent[i]; c++) {
+                    int j = buffer.getInt();
+                    for (int k = 0; k < 3; k++) {
+                        decoded[i][j][k] = buffer.getFloat();
+                    }
+                }
+            }
+        }
+        assertFalse(buffer.hasRemaining());
+    }
+
+    /**
+     * Checks that each decoded coordinate is within the tolerance (plus
+     * float rounding) of the actual coordinate.
+     */
+    private void checkDecoded(double tolerance) {
+        for (int i = 0; i < coordinates.length; i++) {
+            for (int j = 0; j < coordinates[i].length; j++) {
+                for (int k = 0; k < 3; k++) {
+                    assertEquals(coordinates[i][j][k], decoded[i][j][k], tolerance + 1e-6);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFullFrame() {
+        encodeDecode();
+        assertEquals(BinaryConfigurationEncoder.FRAME_FULL, frameType);
+        checkDecoded(0);
+    }
+
+    @Test
+    public void testDeltaFrame() {
+        encodeDecode();
+        // no atoms moved
+        encodeDecode();
+        assertEquals(BinaryConfigurationEncoder.FRAME_DELTA, frameType);
+        assertEquals(0, numSent[0]);
+
+        // one atom moves by more than the tolerance and one by less
+        coordinates[0][3][1] += 0.5;
+        coordinates[0][7][2] += 0.005;
+        encodeDecode();
+        assertEquals(BinaryConfigurationEncoder.FRAME_DELTA, frameType);
+        assertEquals(1, numSent[0]);
+        assertEquals(coordinates[0][3][1], decoded[0][3][1], 1e-6);
+        checkDecoded(0.01);
+
+        // the small displacements add up until the atom is sent
+        coordinates[0][7][2] += 0.007;
+        encodeDecode();
+        assertEquals(1, numSent[0]);
+        checkDecoded(0);
+    }
+
+    @Test
+    public void testDeltaFallback() {
+        encodeDecode();
+        // with most atoms moved, the delta would be bigger than a full frame
+        for (int j = 0; j < 18; j++) {
+            coordinates[0][j][0] += 1;
+        }
+        encodeDecode();
+        assertEquals(BinaryConfigurationEncoder.FRAME_FULL, frameType);
+        checkDecoded(0);
+        // and the next frame is a delta relative to that one
+        coordinates[0][0][0] += 1;
+        encodeDecode();
+        assertEquals(BinaryConfigurationEncoder.FRAME_DELTA, frameType);
+        assertEquals(1, numSent[0]);
+        checkDecoded(0);
+    }
+
+    @Test
+    public void testAtomCountChange() {
+        encodeDecode();
+        coordinates = new double[][][]{makeAtoms(21)};
+        encodeDecode();
+        assertEquals(BinaryConfigurationEncoder.FRAME_FULL, frameType);
+        checkDecoded(0);
+
+        // a second box
+        boundaries = new Boundary[]{boundaries[0], new BoundaryRectangularPeriodic(Space3D.getInstance(), 5)};
+        coordinates = new double[][][]{coordinates[0], makeAtoms(4)};
+        encodeDecode();
+        assertEquals(BinaryConfigurationEncoder.FRAME_FULL, frameType);
+        checkDecoded(0);
+        coordinates[1][2][0] += 1;
+        encodeDecode();
+        assertEquals(BinaryConfigurationEncoder.FRAME_DELTA, frameType);
+        assertEquals(0, numSent[0]);
+        assertEquals(1, numSent[1]);
+        checkDecoded(0);
+    }
+
+    @Test
+    public void testReset() {
+        encodeDecode();
+        encoder.reset();
+        encodeDecode();
+        assertEquals(BinaryConfigurationEncoder.FRAME_FULL, frameType);
+        checkDecoded(0);
+        encodeDecode();
+        assertEquals(BinaryConfigurationEncoder.FRAME_DELTA, frameType);
+    }
+}